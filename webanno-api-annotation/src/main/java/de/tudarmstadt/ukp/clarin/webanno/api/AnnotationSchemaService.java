@@ -367,10 +367,30 @@ public interface AnnotationSchemaService
     
     TypeSystemDescription getProjectTypes(Project aProject);
     
-    void upgradeCas(CAS aCurCas, AnnotationDocument annotationDocument)
+    /**
+     * Upgrades the CAS to the current type system of the project.
+     * 
+     * @return whether the CAS was changed. If not, the CAS already used the current type system
+     *         and does not need to be saved.
+     */
+    boolean upgradeCas(CAS aCurCas, AnnotationDocument annotationDocument)
             throws UIMAException, IOException;
     
-    void upgradeCas(CAS aCas, SourceDocument aSourceDocument, String aUser)
+    /**
+     * Upgrades the CAS to the current type system of the project.
+     * 
+     * @return whether the CAS was changed. If not, the CAS already used the current type system
+     *         and does not need to be saved.
+     */
+    boolean upgradeCas(CAS aCas, SourceDocument aSourceDocument, String aUser)
+            throws UIMAException, IOException;
+    
+    /**
+     * Checks whether {@link #upgradeCas} would change the CAS without changing it.
+     * 
+     * @return whether the CAS does not use the current type system of the project.
+     */
+    boolean isUpgradeRequired(CAS aCas, Project aProject)
             throws UIMAException, IOException;
 
     TypeAdapter getAdapter(AnnotationLayer aLayer);
@@ -31,7 +31,6 @@ import java.util.List;
 import org.apache.commons.lang3.ObjectUtils;
 import org.apache.uima.cas.CAS;
 import org.apache.uima.cas.Feature;
-import org.apache.uima.cas.FeatureStructure;
 import org.apache.uima.cas.Type;
 import org.apache.uima.cas.text.AnnotationFS;
 import org.apache.uima.fit.util.CasUtil;
@@ -40,6 +39,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.ApplicationEventPublisher;
 
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.RelationCreatedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.RelationDeletedEvent;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.exception.AnnotationException;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.exception.ArcCrossedMultipleSentenceException;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.feature.FeatureSupportRegistry;
@@ -122,6 +123,8 @@ public class ArcAdapter
     /**
      * Update the CAS with new/modification of arc annotations from brat
      *
+     * @param aState
+     *            the annotator state.
      * @param aOriginFs
      *            the origin FS.
      * @param aTargetFs
@@ -136,13 +139,17 @@ public class ArcAdapter
      * @throws AnnotationException
      *             if the annotation could not be created/updated.
      */
-    public AnnotationFS add(AnnotationFS aOriginFs, AnnotationFS aTargetFs, JCas aJCas,
-            int aWindowBegin, int aWindowEnd)
+    public AnnotationFS add(AnnotatorState aState, AnnotationFS aOriginFs, AnnotationFS aTargetFs,
+            JCas aJCas, int aWindowBegin, int aWindowEnd)
         throws AnnotationException
     {
         if (crossMultipleSentence
                 || isSameSentence(aJCas, aOriginFs.getBegin(), aTargetFs.getEnd())) {
-            return interalAddToCas(aJCas, aWindowBegin, aWindowEnd, aOriginFs, aTargetFs);
+            AnnotationFS relation = interalAddToCas(aJCas, aWindowBegin, aWindowEnd, aOriginFs,
+                    aTargetFs);
+            publishEvent(new RelationCreatedEvent(this, aState.getDocument(),
+                    aState.getUser().getUsername(), relation));
+            return relation;
         }
         else {
             throw new ArcCrossedMultipleSentenceException(
@@ -234,8 +241,11 @@ public class ArcAdapter
     @Override
     public void delete(AnnotatorState aState, JCas aJCas, VID aVid)
     {
-        FeatureStructure fs = selectByAddr(aJCas, FeatureStructure.class, aVid.getId());
+        AnnotationFS fs = selectByAddr(aJCas, AnnotationFS.class, aVid.getId());
         aJCas.removeFsFromIndexes(fs);
+        
+        publishEvent(new RelationDeletedEvent(this, aState.getDocument(),
+                aState.getUser().getUsername(), fs));
     }
 
     private boolean isDuplicate(AnnotationFS aAnnotationFSOldOrigin,
@@ -35,6 +35,10 @@ import org.apache.uima.fit.util.CasUtil;
 import org.apache.uima.jcas.JCas;
 import org.springframework.context.ApplicationEventPublisher;
 
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.ChainLinkCreatedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.ChainLinkDeletedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.ChainSpanCreatedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.ChainSpanDeletedEvent;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.exception.MultipleSentenceCoveredException;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.feature.FeatureSupportRegistry;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.AnnotatorState;
@@ -91,7 +95,7 @@ public class ChainAdapter
         linkNextFeatureName = aNextFeatureName;
     }
 
-    public int addSpan(JCas aJCas, int aBegin, int aEnd)
+    public int addSpan(AnnotatorState aState, JCas aJCas, int aBegin, int aEnd)
         throws MultipleSentenceCoveredException
     {
         List<Token> tokens = WebAnnoCasUtil.selectOverlapping(aJCas, Token.class, aBegin, aEnd);
@@ -112,6 +116,9 @@ public class ChainAdapter
         // The added link is a new chain on its own - add the chain head FS
         newChain(aJCas, newLink);
 
+        publishEvent(new ChainSpanCreatedEvent(this, aState.getDocument(),
+                aState.getUser().getUsername(), newLink));
+
         return WebAnnoCasUtil.getAddr(newLink);
     }
 
@@ -133,7 +140,8 @@ public class ChainAdapter
         return null;
     }
     
-    public int addArc(JCas aJCas, AnnotationFS aOriginFs, AnnotationFS aTargetFs)
+    public int addArc(AnnotatorState aState, JCas aJCas, AnnotationFS aOriginFs,
+            AnnotationFS aTargetFs)
     {
         // Determine if the links are adjacent. If so, just update the arc label
         AnnotationFS originNext = getNextLink(aOriginFs);
@@ -226,6 +234,9 @@ public class ChainAdapter
             }
         }
 
+        publishEvent(new ChainLinkCreatedEvent(this, aState.getDocument(),
+                aState.getUser().getUsername(), aOriginFs));
+
         // We do not actually create a new FS for the arc. Features are set on the originFS.
         return WebAnnoCasUtil.getAddr(aOriginFs);
     }
@@ -234,14 +245,14 @@ public class ChainAdapter
     public void delete(AnnotatorState aState, JCas aJCas, VID aVid)
     {
         if (aVid.getSubId() == VID.NONE) {
-            deleteSpan(aJCas, aVid.getId());
+            deleteSpan(aState, aJCas, aVid.getId());
         }
         else {
-            deleteArc(aJCas, aVid.getId());
+            deleteArc(aState, aJCas, aVid.getId());
         }
     }
 
-    private void deleteArc(JCas aJCas, int aAddress)
+    private void deleteArc(AnnotatorState aState, JCas aJCas, int aAddress)
     {
         AnnotationFS linkToDelete = WebAnnoCasUtil.selectByAddr(aJCas, AnnotationFS.class,
                 aAddress);
@@ -252,9 +263,12 @@ public class ChainAdapter
 
         // Disconnect the tail from the head
         setNextLink(linkToDelete, null);
+
+        publishEvent(new ChainLinkDeletedEvent(this, aState.getDocument(),
+                aState.getUser().getUsername(), linkToDelete));
     }
 
-    private void deleteSpan(JCas aJCas, int aAddress)
+    private void deleteSpan(AnnotatorState aState, JCas aJCas, int aAddress)
     {
         Type chainType = getAnnotationType(aJCas.getCas());
 
@@ -328,6 +342,9 @@ public class ChainAdapter
             throw new IllegalStateException(
                     "Unexpected situation while removing link. Please contact developers.");
         }
+
+        publishEvent(new ChainSpanDeletedEvent(this, aState.getDocument(),
+                aState.getUser().getUsername(), linkToDelete));
     }
 
     @Override
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.annotation.event;
+
+import org.apache.uima.cas.text.AnnotationFS;
+import org.springframework.context.ApplicationEvent;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+public class ChainLinkCreatedEvent extends ApplicationEvent
+{
+    private static final long serialVersionUID = -7494999844455396754L;
+    
+    private final SourceDocument document;
+    private final String user;
+    private final AnnotationFS link;
+    
+    public ChainLinkCreatedEvent(Object aSource, SourceDocument aDocument, String aUser,
+            AnnotationFS aLink)
+    {
+        super(aSource);
+        document = aDocument;
+        user = aUser;
+        link = aLink;
+    }
+    
+    public SourceDocument getDocument()
+    {
+        return document;
+    }
+    
+    public String getUser()
+    {
+        return user;
+    }
+    
+    public AnnotationFS getLink()
+    {
+        return link;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder builder = new StringBuilder();
+        builder.append("ChainLinkCreatedEvent [");
+        if (document != null) {
+            builder.append("docID=");
+            builder.append(document.getId());
+            builder.append(", user=");
+            builder.append(user);
+            builder.append(", ");
+        }
+        builder.append("link=[");
+        builder.append(link.getBegin());
+        builder.append("-");
+        builder.append(link.getEnd());
+        builder.append("](");
+        builder.append(link.getCoveredText());
+        builder.append(")]");
+        return builder.toString();
+    }
+}
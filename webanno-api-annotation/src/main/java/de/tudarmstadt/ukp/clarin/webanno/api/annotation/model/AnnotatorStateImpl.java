@@ -19,7 +19,6 @@ package de.tudarmstadt.ukp.clarin.webanno.api.annotation.model;
 
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getAddr;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getLastSentenceInDisplayWindow;
-import static org.apache.uima.fit.util.JCasUtil.select;
 
 import java.io.Serializable;
 import java.util.ArrayList;
@@ -304,7 +303,7 @@ public class AnnotatorStateImpl
         firstVisibleUnitIndex = WebAnnoCasUtil.getSentenceNumber(jcas,
                 aFirstVisibleUnit.getBegin());
         lastVisibleUnitIndex = WebAnnoCasUtil.getSentenceNumber(jcas, lastVisibleUnit.getBegin());
-        unitCount = select(jcas, Sentence.class).size();
+        unitCount = WebAnnoCasUtil.getSentenceCount(jcas);
         
         windowBeginOffset = aFirstVisibleUnit.getBegin();
         windowEndOffset = lastVisibleUnit.getEnd();
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.text.AnnotationFS;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
+
+/**
+ * Resolves CAS addresses to feature structures and remembers the result for the rest of the
+ * rendering. The addresses are kept in an open-addressing hash table of primitive ints, so lookups
+ * do not box the address. An instance must only be used by the thread rendering a layer.
+ */
+public final class AddressResolutionCache
+{
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final CAS cas;
+
+    // Address 0 is the null reference in the CAS, so it marks empty slots
+    private int[] addrs;
+    private FeatureStructure[] fses;
+    private int size;
+
+    public AddressResolutionCache(CAS aCas)
+    {
+        cas = aCas;
+        addrs = new int[INITIAL_CAPACITY];
+        fses = new FeatureStructure[INITIAL_CAPACITY];
+    }
+
+    public FeatureStructure get(int aAddress)
+    {
+        if (aAddress == 0) {
+            return null;
+        }
+
+        int mask = addrs.length - 1;
+        int slot = hash(aAddress) & mask;
+        while (addrs[slot] != 0) {
+            if (addrs[slot] == aAddress) {
+                return fses[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        FeatureStructure fs = WebAnnoCasUtil.selectByAddr(cas, aAddress);
+        addrs[slot] = aAddress;
+        fses[slot] = fs;
+        size++;
+        
+        // Keep the table at most half full
+        if (size * 2 > addrs.length) {
+            grow();
+        }
+
+        return fs;
+    }
+
+    public AnnotationFS getAnnotation(int aAddress)
+    {
+        return (AnnotationFS) get(aAddress);
+    }
+
+    private void grow()
+    {
+        int[] oldAddrs = addrs;
+        FeatureStructure[] oldFses = fses;
+        addrs = new int[oldAddrs.length * 2];
+        fses = new FeatureStructure[oldAddrs.length * 2];
+
+        int mask = addrs.length - 1;
+        for (int i = 0; i < oldAddrs.length; i++) {
+            if (oldAddrs[i] != 0) {
+                int slot = hash(oldAddrs[i]) & mask;
+                while (addrs[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                addrs[slot] = oldAddrs[i];
+                fses[slot] = oldFses[i];
+            }
+        }
+    }
+
+    /**
+     * Addresses of consecutive feature structures are close to each other, so the bits are mixed
+     * to avoid long runs of occupied slots.
+     */
+    private static int hash(int aAddress)
+    {
+        int h = aAddress * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.FeatureStructure;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.ChainLinkCreatedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.ChainLinkDeletedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.ChainSpanCreatedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.ChainSpanDeletedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.FeatureValueUpdatedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.RelationCreatedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.RelationDeletedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.SpanCreatedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.SpanDeletedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VArc;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VComment;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VDocument;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VSpan;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.AfterCasWrittenEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.LayerConfigurationChangedEvent;
+
+/**
+ * Keeps the results of rendering a layer within a window of a CAS such that the
+ * {@link PreRenderer} does not need to query the CAS again as long as the annotations of the layer
+ * did not change, e.g. when the user only selects an annotation or scrolls back and forth.
+ * <p>
+ * The renderings are kept per CAS object and are dropped together with the CAS. A CAS which has
+ * been reset and re-loaded (e.g. from the CAS pool) is recognized by its document text no longer
+ * being the same object. Changes to a CAS are tracked as follows:
+ * <ul>
+ * <li>Creating or deleting a span, relation or chain element or changing a feature value through
+ * the type adapters drops the renderings of the affected layer and of all layers which depend on
+ * other layers (relations, chains, layers with link features and layers to which other span
+ * layers attach).</li>
+ * <li>When a CAS is written and there was no such change since the last write, the CAS may have
+ * been changed directly (e.g. by merging annotations during curation), so all its renderings are
+ * dropped.</li>
+ * <li>The number of annotations of a layer is part of the key, so annotations which are created or
+ * deleted directly in the CAS cause a miss as well. Changes which keep the number (e.g. a relation
+ * deleted and another one created) are only noticed through the events above.</li>
+ * </ul>
+ */
+@Component
+public class PreRenderCache
+{
+    /**
+     * Maximum number of layer renderings kept per CAS.
+     */
+    @Value(value = "${annotation.renderCache.size:64}")
+    private int size;
+
+    private final Map<CAS, CasRenderings> casRenderings = new WeakHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public PreRenderCache()
+    {
+        // Nothing to do
+    }
+
+    PreRenderCache(int aSize)
+    {
+        size = aSize;
+    }
+
+    public boolean isEnabled()
+    {
+        return size > 0;
+    }
+
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    LayerRendering get(CAS aCas, RenderKey aKey)
+    {
+        LayerRendering rendering = null;
+        synchronized (casRenderings) {
+            CasRenderings renderings = casRenderings.get(aCas);
+            if (renderings != null && renderings.text == aCas.getDocumentText()) {
+                rendering = renderings.layers.get(aKey);
+            }
+        }
+
+        if (rendering != null) {
+            hits.incrementAndGet();
+        }
+        else {
+            misses.incrementAndGet();
+        }
+        return rendering;
+    }
+
+    void put(CAS aCas, RenderKey aKey, LayerRendering aRendering)
+    {
+        synchronized (casRenderings) {
+            CasRenderings renderings = casRenderings.get(aCas);
+            if (renderings == null || renderings.text != aCas.getDocumentText()) {
+                renderings = new CasRenderings(aCas.getDocumentText(), size);
+                casRenderings.put(aCas, renderings);
+            }
+            renderings.layers.put(aKey, aRendering);
+        }
+    }
+
+    @EventListener
+    public void onSpanCreated(SpanCreatedEvent aEvent)
+    {
+        annotationsChanged(aEvent.getAnnotation());
+    }
+
+    @EventListener
+    public void onSpanDeleted(SpanDeletedEvent aEvent)
+    {
+        annotationsChanged(aEvent.getAnnotation());
+    }
+
+    @EventListener
+    public void onFeatureValueUpdated(FeatureValueUpdatedEvent aEvent)
+    {
+        annotationsChanged(aEvent.getFS());
+    }
+
+    @EventListener
+    public void onRelationCreated(RelationCreatedEvent aEvent)
+    {
+        annotationsChanged(aEvent.getRelation());
+    }
+
+    @EventListener
+    public void onRelationDeleted(RelationDeletedEvent aEvent)
+    {
+        annotationsChanged(aEvent.getRelation());
+    }
+
+    @EventListener
+    public void onChainSpanCreated(ChainSpanCreatedEvent aEvent)
+    {
+        annotationsChanged(aEvent.getLink());
+    }
+
+    @EventListener
+    public void onChainSpanDeleted(ChainSpanDeletedEvent aEvent)
+    {
+        annotationsChanged(aEvent.getLink());
+    }
+
+    @EventListener
+    public void onChainLinkCreated(ChainLinkCreatedEvent aEvent)
+    {
+        annotationsChanged(aEvent.getLink());
+    }
+
+    @EventListener
+    public void onChainLinkDeleted(ChainLinkDeletedEvent aEvent)
+    {
+        annotationsChanged(aEvent.getLink());
+    }
+
+    @EventListener
+    public void onAfterCasWritten(AfterCasWrittenEvent aEvent)
+    {
+        synchronized (casRenderings) {
+            CasRenderings renderings = casRenderings.get(aEvent.getJCas().getCas());
+            if (renderings == null) {
+                return;
+            }
+
+            if (!renderings.changed) {
+                renderings.layers.clear();
+            }
+            renderings.changed = false;
+        }
+    }
+
+    @EventListener
+    public void onLayerConfigurationChanged(LayerConfigurationChangedEvent aEvent)
+    {
+        synchronized (casRenderings) {
+            casRenderings.clear();
+        }
+    }
+
+    private void annotationsChanged(FeatureStructure aFS)
+    {
+        String typeName = aFS.getType().getName();
+        synchronized (casRenderings) {
+            CasRenderings renderings = casRenderings.get(aFS.getCAS());
+            if (renderings == null) {
+                return;
+            }
+
+            renderings.changed = true;
+            renderings.layers.values().removeIf(r -> r.dependent || r.typeName.equals(typeName));
+        }
+    }
+
+    private static class CasRenderings
+    {
+        /**
+         * The document text of the CAS the renderings were produced from.
+         */
+        private final String text;
+        private final Map<RenderKey, LayerRendering> layers;
+
+        /**
+         * Whether there were changes since the CAS was last written.
+         */
+        private boolean changed;
+
+        public CasRenderings(String aText, int aSize)
+        {
+            text = aText;
+            layers = new LinkedHashMap<RenderKey, LayerRendering>(16, 0.75f, true)
+            {
+                private static final long serialVersionUID = -2540587412377735366L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<RenderKey, LayerRendering> aEldest)
+                {
+                    return size() > aSize;
+                }
+            };
+        }
+    }
+
+    static final class RenderKey
+    {
+        private final long layerId;
+        private final List<Object> configSignature;
+        private final int windowBegin;
+        private final int windowEnd;
+        private final int annotationCount;
+
+        public RenderKey(long aLayerId, List<Object> aConfigSignature, int aWindowBegin,
+                int aWindowEnd, int aAnnotationCount)
+        {
+            layerId = aLayerId;
+            configSignature = aConfigSignature;
+            windowBegin = aWindowBegin;
+            windowEnd = aWindowEnd;
+            annotationCount = aAnnotationCount;
+        }
+
+        @Override
+        public boolean equals(Object aOther)
+        {
+            if (this == aOther) {
+                return true;
+            }
+            if (!(aOther instanceof RenderKey)) {
+                return false;
+            }
+            RenderKey other = (RenderKey) aOther;
+            return layerId == other.layerId && configSignature.equals(other.configSignature)
+                    && windowBegin == other.windowBegin && windowEnd == other.windowEnd
+                    && annotationCount == other.annotationCount;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(layerId, configSignature, windowBegin, windowEnd,
+                    annotationCount);
+        }
+    }
+
+    /**
+     * The objects produced by rendering a single layer. The objects are not changed after
+     * rendering, so they can be shared between several {@link VDocument}s.
+     */
+    static final class LayerRendering
+    {
+        private final String typeName;
+        private final boolean dependent;
+        private final List<VSpan> spans;
+        private final List<VArc> arcs;
+        private final List<VComment> comments;
+        private final List<String> warnings;
+
+        public LayerRendering(String aTypeName, boolean aDependent, VDocument aBuffer)
+        {
+            typeName = aTypeName;
+            dependent = aDependent;
+            spans = new ArrayList<>(aBuffer.spans());
+            arcs = new ArrayList<>(aBuffer.arcs());
+            comments = new ArrayList<>(aBuffer.comments());
+            warnings = new ArrayList<>(aBuffer.getWarnings());
+        }
+
+        public List<String> getWarnings()
+        {
+            return warnings;
+        }
+
+        public void addTo(VDocument aDocument)
+        {
+            spans.forEach(aDocument::add);
+            arcs.forEach(aDocument::add);
+            comments.forEach(aDocument::add);
+            warnings.forEach(aDocument::addWarning);
+        }
+    }
+}
@@ -17,10 +17,38 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering;
 
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.CHAIN_TYPE;
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.SPAN_TYPE;
+import static java.util.Arrays.asList;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Type;
 import org.apache.uima.jcas.JCas;
+import org.apache.wicket.Page;
+import org.apache.wicket.core.request.handler.IPageRequestHandler;
+import org.apache.wicket.request.cycle.PageRequestHandlerTracker;
+import org.apache.wicket.request.cycle.RequestCycle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
@@ -30,25 +58,236 @@ import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.SpanAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.TypeAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.feature.FeatureSupportRegistry;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.AnnotatorState;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.PreRenderCache.LayerRendering;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.PreRenderCache.RenderKey;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VDocument;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.LayerConfigurationChangedEvent;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.clarin.webanno.model.LinkMode;
 
+/**
+ * Renders the annotations of the visible layers into a {@link VDocument}.
+ * <p>
+ * The layers are independent of each other, so each layer is rendered into its own buffer and the
+ * buffers are added to the response in the order of the layers at the end. If more than one layer
+ * needs to be rendered, the layers are rendered concurrently. Renderers only read from the CAS.
+ * The renderers are kept per layer as long as the configuration of the layer does not change.
+ */
 @Component
 public class PreRenderer
+    implements DisposableBean
 {
     private @Autowired FeatureSupportRegistry featureSupportRegistry;
     private @Autowired AnnotationSchemaService annotationService;
+    private @Autowired(required = false) PreRenderCache cache;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    /**
+     * Number of threads used to render layers concurrently. {@code 0} uses one thread per
+     * processor, {@code 1} renders all layers on the calling thread.
+     */
+    @Value(value = "${annotation.render.threads:0}")
+    private int threads;
+
+    private final Map<Long, CachedRenderer> renderers = new ConcurrentHashMap<>();
+
+    private ExecutorService executor;
+
+    public PreRenderer()
+    {
+        // Nothing to do
+    }
+
+    PreRenderer(AnnotationSchemaService aAnnotationService,
+            FeatureSupportRegistry aFeatureSupportRegistry, int aThreads)
+    {
+        annotationService = aAnnotationService;
+        featureSupportRegistry = aFeatureSupportRegistry;
+        threads = aThreads;
+    }
 
     public void render(VDocument aResponse, AnnotatorState aState, JCas aJCas,
             List<AnnotationLayer> aLayers)
     {
-        // Render (custom) layers
+        if (aLayers.isEmpty()) {
+            return;
+        }
+
+        // Load the features of all layers at once instead of querying them per layer
+        Map<Long, List<AnnotationFeature>> featuresByLayer = new LinkedHashMap<>();
+        for (AnnotationFeature feature : annotationService
+                .listAnnotationFeature(aState.getProject())) {
+            featuresByLayer.computeIfAbsent(feature.getLayer().getId(), k -> new ArrayList<>())
+                    .add(feature);
+        }
+
+        // Span layers to which other span layers attach change when the attached layer changes,
+        // e.g. the POS feature of a token is cleared when the POS annotation is deleted
+        Set<String> attachTargets = new HashSet<>();
         for (AnnotationLayer layer : aLayers) {
-            List<AnnotationFeature> features = annotationService.listAnnotationFeature(layer);
-            TypeAdapter adapter = annotationService.getAdapter(layer);
-            Renderer renderer = getRenderer(adapter);
-            renderer.render(aJCas, features, aResponse, aState);
+            if (SPAN_TYPE.equals(layer.getType()) && layer.getAttachType() != null) {
+                attachTargets.add(layer.getAttachType().getName());
+            }
+        }
+        
+        boolean cacheEnabled = cache != null && cache.isEnabled();
+        
+        // Look up the renderings we already have and collect the layers that need rendering
+        LayerRendering[] renderings = new LayerRendering[aLayers.size()];
+        List<RenderTask> tasks = new ArrayList<>();
+        for (int i = 0; i < aLayers.size(); i++) {
+            AnnotationLayer layer = aLayers.get(i);
+            List<AnnotationFeature> features = featuresByLayer.getOrDefault(layer.getId(),
+                    Collections.emptyList());
+            List<Object> signature = getConfigSignature(layer, features);
+            CachedRenderer cachedRenderer = getCachedRenderer(layer, signature);
+            
+            RenderKey key = null;
+            if (cacheEnabled) {
+                key = new RenderKey(layer.getId(), signature, aState.getWindowBeginOffset(),
+                        aState.getWindowEndOffset(), countAnnotations(aJCas.getCas(), layer,
+                                cachedRenderer.adapter));
+                renderings[i] = cache.get(aJCas.getCas(), key);
+                if (renderings[i] != null) {
+                    continue;
+                }
+            }
+            
+            boolean dependent = !SPAN_TYPE.equals(layer.getType())
+                    || attachTargets.contains(layer.getName())
+                    || features.stream().anyMatch(f -> f.getLinkMode() != LinkMode.NONE);
+            tasks.add(new RenderTask(i, key, cachedRenderer, features, dependent));
+        }
+        
+        renderLayers(tasks, aState, aJCas, renderings);
+        
+        for (RenderTask task : tasks) {
+            if (task.key != null) {
+                cache.put(aJCas.getCas(), task.key, renderings[task.index]);
+            }
+        }
+        
+        // Merge the partial renderings in the order of the layers
+        for (LayerRendering rendering : renderings) {
+            rendering.addTo(aResponse);
+            showWarnings(rendering.getWarnings());
+        }
+    }
+
+    /**
+     * Shows the warnings of a rendering to the user. The renderers may run on the threads of the
+     * rendering pool, so they only collect warnings and we show them here on the request thread.
+     */
+    private void showWarnings(List<String> aWarnings)
+    {
+        if (aWarnings.isEmpty()) {
+            return;
+        }
+        
+        Page page = null;
+        RequestCycle requestCycle = RequestCycle.get();
+        if (requestCycle != null) {
+            IPageRequestHandler handler = PageRequestHandlerTracker.getLastHandler(requestCycle);
+            if (handler != null) {
+                page = (Page) handler.getPage();
+            }
+        }
+        
+        for (String warning : aWarnings) {
+            if (page != null) {
+                page.warn(warning);
+            }
+            else {
+                log.warn(warning);
+            }
+        }
+    }
+
+    private void renderLayers(List<RenderTask> aTasks, AnnotatorState aState, JCas aJCas,
+            LayerRendering[] aRenderings)
+    {
+        // The calling thread renders the last layer itself while waiting for the others
+        List<Future<?>> futures = new ArrayList<>();
+        if (aTasks.size() > 1 && getThreadCount() > 1) {
+            ExecutorService exec = getExecutor();
+            for (RenderTask task : aTasks.subList(0, aTasks.size() - 1)) {
+                futures.add(exec.submit(() -> task.run(aState, aJCas, aRenderings)));
+            }
+        }
+        
+        for (int i = futures.size(); i < aTasks.size(); i++) {
+            aTasks.get(i).run(aState, aJCas, aRenderings);
+        }
+        
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                futures.forEach(f -> f.cancel(true));
+                throw new IllegalStateException("Interrupted while rendering layers", e);
+            }
+            catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+    }
+
+    private CachedRenderer getCachedRenderer(AnnotationLayer aLayer, List<Object> aSignature)
+    {
+        CachedRenderer cachedRenderer = aLayer.getId() != null ? renderers.get(aLayer.getId())
+                : null;
+        if (cachedRenderer == null || !cachedRenderer.signature.equals(aSignature)) {
+            TypeAdapter adapter = annotationService.getAdapter(aLayer);
+            cachedRenderer = new CachedRenderer(aSignature, adapter, getRenderer(adapter));
+            if (aLayer.getId() != null) {
+                renderers.put(aLayer.getId(), cachedRenderer);
+            }
+        }
+        return cachedRenderer;
+    }
+
+    @EventListener
+    public void onLayerConfigurationChanged(LayerConfigurationChangedEvent aEvent)
+    {
+        renderers.clear();
+    }
+
+    private int getThreadCount()
+    {
+        return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    private synchronized ExecutorService getExecutor()
+    {
+        if (executor == null) {
+            AtomicInteger count = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(getThreadCount(), r -> {
+                Thread t = new Thread(r, "pre-render-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return executor;
+    }
+
+    @Override
+    public synchronized void destroy()
+        throws Exception
+    {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+            executor = null;
         }
     }
 
@@ -68,4 +307,82 @@ public class PreRenderer
                     "Unknown adapter type [" + aTypeAdapter.getClass().getName() + "]");
         }
     }
+
+    /**
+     * Number of annotations in the layer. Chains are not annotations and are always considered to
+     * have changed when the CAS was changed anyway.
+     */
+    private int countAnnotations(CAS aCas, AnnotationLayer aLayer, TypeAdapter aAdapter)
+    {
+        if (CHAIN_TYPE.equals(aLayer.getType())) {
+            return -1;
+        }
+        
+        Type type = aCas.getTypeSystem().getType(aAdapter.getAnnotationTypeName());
+        return type != null ? aCas.getAnnotationIndex(type).size() : -1;
+    }
+
+    /**
+     * Signature of the layer and feature settings which influence the rendering. The settings
+     * themselves are compared, not a hash of them, so that a change is never missed.
+     */
+    private List<Object> getConfigSignature(AnnotationLayer aLayer,
+            List<AnnotationFeature> aFeatures)
+    {
+        List<Object> signature = new ArrayList<>();
+        signature.addAll(asList(aLayer.getType(), aLayer.getUiName(), aLayer.isShowTextInHover(),
+                aLayer.isLinkedListBehavior()));
+        for (AnnotationFeature feature : aFeatures) {
+            signature.addAll(asList(feature.getId(), feature.getName(), feature.getUiName(),
+                    feature.isEnabled(), feature.isVisible(), feature.isIncludeInHover(),
+                    feature.isRequired(), feature.getMultiValueMode(), feature.getLinkMode(),
+                    feature.getTraits()));
+        }
+        return signature;
+    }
+
+    private static final class CachedRenderer
+    {
+        private final List<Object> signature;
+        private final TypeAdapter adapter;
+        private final Renderer renderer;
+
+        public CachedRenderer(List<Object> aSignature, TypeAdapter aAdapter, Renderer aRenderer)
+        {
+            signature = aSignature;
+            adapter = aAdapter;
+            renderer = aRenderer;
+        }
+    }
+
+    /**
+     * Renders a single layer into a buffer which is only accessed by the rendering thread until
+     * the task is complete.
+     */
+    private static final class RenderTask
+    {
+        private final int index;
+        private final RenderKey key;
+        private final CachedRenderer renderer;
+        private final List<AnnotationFeature> features;
+        private final boolean dependent;
+
+        public RenderTask(int aIndex, RenderKey aKey, CachedRenderer aRenderer,
+                List<AnnotationFeature> aFeatures, boolean aDependent)
+        {
+            index = aIndex;
+            key = aKey;
+            renderer = aRenderer;
+            features = aFeatures;
+            dependent = aDependent;
+        }
+
+        public void run(AnnotatorState aState, JCas aJCas, LayerRendering[] aRenderings)
+        {
+            VDocument buffer = new VDocument();
+            renderer.renderer.render(aJCas, features, buffer, aState);
+            aRenderings[index] = new LayerRendering(renderer.adapter.getAnnotationTypeName(),
+                    dependent, buffer);
+        }
+    }
 }
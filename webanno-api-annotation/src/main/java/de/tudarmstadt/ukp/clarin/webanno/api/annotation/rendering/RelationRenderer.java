@@ -18,12 +18,11 @@
 package de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering;
 
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getAddr;
-import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.selectByAddr;
-import static java.util.Comparator.comparingInt;
 import static org.apache.uima.fit.util.CasUtil.getType;
 import static org.apache.uima.fit.util.CasUtil.selectCovered;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -36,10 +35,6 @@ import org.apache.uima.cas.FeatureStructure;
 import org.apache.uima.cas.Type;
 import org.apache.uima.cas.text.AnnotationFS;
 import org.apache.uima.jcas.JCas;
-import org.apache.wicket.Page;
-import org.apache.wicket.core.request.handler.IPageRequestHandler;
-import org.apache.wicket.request.cycle.PageRequestHandlerTracker;
-import org.apache.wicket.request.cycle.RequestCycle;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -93,6 +88,8 @@ public class RelationRenderer
 
         // if this is a governor for more than one dependent, avoid duplicate yield
         List<Integer> yieldDeps = new ArrayList<>();
+        
+        AddressResolutionCache resolver = new AddressResolutionCache(aJcas.getCas());
 
         for (AnnotationFS fs : selectCovered(aJcas.getCas(), type, windowBegin, windowEnd)) {
             if (typeAdapter.getAttachFeatureName() != null) {
@@ -108,11 +105,6 @@ public class RelationRenderer
             Map<String, String> features = getFeatures(typeAdapter, fs, visibleFeatures);
             
             if (dependentFs == null || governorFs == null) {
-                RequestCycle requestCycle = RequestCycle.get();
-                IPageRequestHandler handler = PageRequestHandlerTracker
-                        .getLastHandler(requestCycle);
-                Page page = (Page) handler.getPage();
-
                 StringBuilder message = new StringBuilder();
                 
                 message.append("Relation [" + typeAdapter.getLayer().getName() + "] with id ["
@@ -124,7 +116,7 @@ public class RelationRenderer
                 message.append("\nDependent: " + dependentFs);
                 message.append("\nGovernor: " + governorFs);
                 
-                page.warn(message.toString());
+                aResponse.addWarning(message.toString());
                 
                 continue;
             }
@@ -135,46 +127,62 @@ public class RelationRenderer
             // Render errors if required features are missing
             renderRequiredFeatureErrors(visibleFeatures, fs, aResponse);
             
-            if (relationLinks.keySet().contains(getAddr(governorFs))
-                    && !yieldDeps.contains(getAddr(governorFs))) {
-                yieldDeps.add(getAddr(governorFs));
+            int governorAddr = getAddr(governorFs);
+            if (relationLinks.containsKey(governorAddr) && !yieldDeps.contains(governorAddr)) {
+                yieldDeps.add(governorAddr);
 
-                // sort the annotations (begin, end)
-                List<Integer> sortedDepFs = new ArrayList<>(relationLinks.get(getAddr(governorFs)));
-                sortedDepFs.sort(comparingInt(arg0 -> selectByAddr(aJcas, arg0).getBegin()));
+                List<AnnotationFS> sortedDepFs = sortByBegin(relationLinks.get(governorAddr),
+                        resolver);
 
-                String cm = getYieldMessage(aJcas, sortedDepFs);
+                String cm = getYieldMessage(sortedDepFs);
                 aResponse.add(new VComment(governorFs, VCommentType.YIELD, cm));
             }
         }
     }
     
+    /**
+     * Sort the annotations by begin offset. The addresses come in ascending order and are kept in
+     * that order for annotations starting at the same offset.
+     */
+    static List<AnnotationFS> sortByBegin(Set<Integer> aAddrs, AddressResolutionCache aResolver)
+    {
+        // Pack begin and address into a single value so the sort works on primitives
+        long[] keys = new long[aAddrs.size()];
+        int i = 0;
+        for (int addr : aAddrs) {
+            keys[i++] = ((long) aResolver.getAnnotation(addr).getBegin() << 32) | addr;
+        }
+        Arrays.sort(keys);
+
+        List<AnnotationFS> sorted = new ArrayList<>(keys.length);
+        for (long key : keys) {
+            sorted.add(aResolver.getAnnotation((int) key));
+        }
+        return sorted;
+    }
+    
     /**
      * The relations yield message
      */
-    private String getYieldMessage(JCas aJCas, List<Integer> sortedDepFs)
+    static String getYieldMessage(List<AnnotationFS> sortedDepFs)
     {
         StringBuilder cm = new StringBuilder();
         int end = -1;
-        for (Integer depFs : sortedDepFs) {
+        for (AnnotationFS depFs : sortedDepFs) {
             if (end == -1) {
-                cm.append(selectByAddr(aJCas, depFs).getCoveredText());
-                end = selectByAddr(aJCas, depFs).getEnd();
+                cm.append(depFs.getCoveredText());
             }
             // if no space between token and punct
-            else if (end == selectByAddr(aJCas, depFs).getBegin()) {
-                cm.append(selectByAddr(aJCas, depFs).getCoveredText());
-                end = selectByAddr(aJCas, depFs).getEnd();
+            else if (end == depFs.getBegin()) {
+                cm.append(depFs.getCoveredText());
             }
-            else if (end + 1 != selectByAddr(aJCas, depFs).getBegin()) {
-                cm.append(" ... ").append(selectByAddr(aJCas, depFs).getCoveredText());
-                end = selectByAddr(aJCas, depFs).getEnd();
+            else if (end + 1 != depFs.getBegin()) {
+                cm.append(" ... ").append(depFs.getCoveredText());
             }
             else {
-                cm.append(" ").append(selectByAddr(aJCas, depFs).getCoveredText());
-                end = selectByAddr(aJCas, depFs).getEnd();
+                cm.append(" ").append(depFs.getCoveredText());
             }
-
+            end = depFs.getEnd();
         }
         return cm.toString();
     }
@@ -17,7 +17,6 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering;
 
-import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.selectByAddr;
 import static org.apache.uima.fit.util.CasUtil.getType;
 import static org.apache.uima.fit.util.CasUtil.selectCovered;
 import static org.apache.uima.fit.util.JCasUtil.selectCovered;
@@ -73,6 +72,8 @@ public class SpanRenderer
         List<Sentence> visibleSentences = selectCovered(aJcas, Sentence.class, windowBegin,
                 windowEnd);
         
+        AddressResolutionCache resolver = new AddressResolutionCache(aJcas.getCas());
+        
         for (AnnotationFS fs : selectCovered(aJcas.getCas(), type, windowBegin, windowEnd)) {
             String bratTypeName = TypeUtil.getUiTypeName(typeAdapter);
             Map<String, String> features = getFeatures(typeAdapter, fs, visibleFeatures);
@@ -158,7 +159,7 @@ public class SpanRenderer
                     List<LinkWithRoleModel> links = typeAdapter.getFeatureValue(feat, fs);
                     for (int li = 0; li < links.size(); li++) {
                         LinkWithRoleModel link = links.get(li);
-                        FeatureStructure targetFS = selectByAddr(fs.getCAS(), link.targetAddr);
+                        FeatureStructure targetFS = resolver.get(link.targetAddr);
                         aResponse.add(new VArc(typeAdapter.getLayer(), new VID(fs, fi, li),
                                 bratTypeName, fs, targetFS, link.role, features));
                     }
@@ -39,6 +39,7 @@ public class VDocument
     private MultiMap<Long, VSpan> spansByLayer = new MultiValueMap<>();
     private Map<Long, AnnotationLayer> annotationLayers = new LinkedHashMap<>();
     private List<VMarker> markers = new ArrayList<>();
+    private List<String> warnings = new ArrayList<>();
 
     public void add(VArc aArc)
     {
@@ -72,6 +73,20 @@ public class VDocument
         markers.add(aMarker);
     }
     
+    /**
+     * Adds a warning to be shown to the user, e.g. because an annotation could not be rendered.
+     * Renderers may run outside the request cycle, so they cannot show warnings themselves.
+     */
+    public void addWarning(String aMessage)
+    {
+        warnings.add(aMessage);
+    }
+    
+    public List<String> getWarnings()
+    {
+        return Collections.unmodifiableList(warnings);
+    }
+    
     public VSpan getSpan(VID aVid) {
         return spans.get(aVid);
     }
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.annotation.util;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.FSIterator;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.jcas.tcas.Annotation;
+
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+
+/**
+ * Position index over the {@link Sentence} annotations of a CAS. The begins, ends and addresses of
+ * the sentences are kept in primitive arrays in the order of the annotation index, so lookups by
+ * offset, ordinal and address run in logarithmic time instead of iterating over all sentences.
+ * <p>
+ * The index is built lazily on first use and kept per CAS until the segmentation of the CAS
+ * changes. A change is detected by comparing the document text, the number of sentences and the
+ * addresses of the first and last sentence with the indexed state. Sentence boundaries are never
+ * changed in place - sentences are only created when a document is imported.
+ */
+public final class SentenceIndex
+{
+    private static final Map<CAS, SentenceIndex> INDEXES = new WeakHashMap<>();
+
+    private final String text;
+    private final int[] begins;
+    private final int[] ends;
+    private final int[] addrs;
+
+    /**
+     * Addresses in ascending order. Each entry holds the address in the upper and the ordinal of
+     * the sentence in the lower 32 bits.
+     */
+    private final long[] addrOrdinals;
+
+    /**
+     * Whether the ends are in ascending order as well, i.e. the sentences do not nest. This is
+     * the normal case. Otherwise, lookups by offset fall back to scanning the arrays.
+     */
+    private final boolean monotonic;
+
+    private SentenceIndex(String aText, int[] aBegins, int[] aEnds, int[] aAddrs)
+    {
+        text = aText;
+        begins = aBegins;
+        ends = aEnds;
+        addrs = aAddrs;
+
+        addrOrdinals = new long[addrs.length];
+        boolean endsSorted = true;
+        for (int i = 0; i < addrs.length; i++) {
+            addrOrdinals[i] = ((long) addrs[i] << 32) | i;
+            if (i > 0 && ends[i] < ends[i - 1]) {
+                endsSorted = false;
+            }
+        }
+        Arrays.sort(addrOrdinals);
+        monotonic = endsSorted;
+    }
+
+    /**
+     * Get the sentence index of the given CAS, building it if necessary.
+     *
+     * @param aJCas
+     *            the JCas.
+     * @return the index.
+     */
+    public static SentenceIndex get(JCas aJCas)
+    {
+        CAS cas = aJCas.getCas();
+        SentenceIndex index;
+        synchronized (INDEXES) {
+            index = INDEXES.get(cas);
+        }
+
+        if (index != null && index.isValid(aJCas)) {
+            return index;
+        }
+
+        index = build(aJCas);
+        synchronized (INDEXES) {
+            INDEXES.put(cas, index);
+        }
+        return index;
+    }
+
+    private static SentenceIndex build(JCas aJCas)
+    {
+        FSIterator<Annotation> i = aJCas.getAnnotationIndex(Sentence.type).iterator();
+        int size = aJCas.getAnnotationIndex(Sentence.type).size();
+        int[] begins = new int[size];
+        int[] ends = new int[size];
+        int[] addrs = new int[size];
+        int n = 0;
+        while (i.hasNext()) {
+            Annotation s = i.next();
+            begins[n] = s.getBegin();
+            ends[n] = s.getEnd();
+            addrs[n] = WebAnnoCasUtil.getAddr(s);
+            n++;
+        }
+
+        return new SentenceIndex(aJCas.getDocumentText(), begins, ends, addrs);
+    }
+
+    private boolean isValid(JCas aJCas)
+    {
+        // The text is compared by identity - a CAS which is reset and filled again gets a new
+        // text instance even if the text itself is the same.
+        if (text != aJCas.getDocumentText()) {
+            return false;
+        }
+
+        if (addrs.length != aJCas.getAnnotationIndex(Sentence.type).size()) {
+            return false;
+        }
+
+        if (addrs.length == 0) {
+            return true;
+        }
+
+        FSIterator<Annotation> i = aJCas.getAnnotationIndex(Sentence.type).iterator();
+        i.moveToFirst();
+        if (WebAnnoCasUtil.getAddr(i.get()) != addrs[0]) {
+            return false;
+        }
+        i.moveToLast();
+        return WebAnnoCasUtil.getAddr(i.get()) == addrs[addrs.length - 1];
+    }
+
+    /**
+     * @return the number of sentences.
+     */
+    public int size()
+    {
+        return addrs.length;
+    }
+
+    public int getBegin(int aOrdinal)
+    {
+        return begins[aOrdinal];
+    }
+
+    public int getEnd(int aOrdinal)
+    {
+        return ends[aOrdinal];
+    }
+
+    public int getAddress(int aOrdinal)
+    {
+        return addrs[aOrdinal];
+    }
+
+    public Sentence getSentence(JCas aJCas, int aOrdinal)
+    {
+        return WebAnnoCasUtil.selectByAddr(aJCas, Sentence.class, addrs[aOrdinal]);
+    }
+
+    /**
+     * Get the (0-based) ordinal of the sentence with the given address.
+     *
+     * @param aAddress
+     *            the address.
+     * @return the ordinal or {@code -1} if there is no sentence with the given address.
+     */
+    public int getOrdinalByAddress(int aAddress)
+    {
+        int lo = 0;
+        int hi = addrOrdinals.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int addr = (int) (addrOrdinals[mid] >> 32);
+            if (addr < aAddress) {
+                lo = mid + 1;
+            }
+            else if (addr > aAddress) {
+                hi = mid - 1;
+            }
+            else {
+                return (int) addrOrdinals[mid];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the (0-based) ordinal of the first sentence containing the given offset.
+     *
+     * @param aOffset
+     *            the offset.
+     * @param aEndInclusive
+     *            whether a sentence ending at the offset contains it.
+     * @return the ordinal or {@code -1} if no sentence contains the offset.
+     */
+    public int getOrdinalByOffset(int aOffset, boolean aEndInclusive)
+    {
+        if (!monotonic) {
+            for (int i = 0; i < begins.length && begins[i] <= aOffset; i++) {
+                if (aEndInclusive ? aOffset <= ends[i] : aOffset < ends[i]) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        // All sentences before the first one ending at/after the offset end before the offset
+        // and all sentences after it begin after its begin, so only this one can contain it.
+        int i = firstIndexAbove(ends, aEndInclusive ? aOffset - 1 : aOffset);
+        if (i < ends.length && begins[i] <= aOffset) {
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Get the (0-based) ordinal of the first sentence beginning at or after the given offset.
+     *
+     * @param aOffset
+     *            the offset.
+     * @return the ordinal or {@link #size()} if there is no such sentence.
+     */
+    public int getOrdinalBeginningAtOrAfter(int aOffset)
+    {
+        return firstIndexAbove(begins, aOffset - 1);
+    }
+
+    /**
+     * @return the index of the first value greater than the given value in the sorted array or the
+     *         length of the array.
+     */
+    private static int firstIndexAbove(int[] aSorted, int aValue)
+    {
+        int lo = 0;
+        int hi = aSorted.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (aSorted[mid] <= aValue) {
+                lo = mid + 1;
+            }
+            else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
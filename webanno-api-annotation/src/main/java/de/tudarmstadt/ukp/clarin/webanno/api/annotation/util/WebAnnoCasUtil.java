@@ -23,9 +23,7 @@ import static org.apache.uima.fit.util.JCasUtil.selectCovered;
 import static org.apache.uima.fit.util.JCasUtil.selectFollowing;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
@@ -107,22 +105,9 @@ public class WebAnnoCasUtil
         int offset1 = Math.min(aReferenceOffset, aCompareOffset);
         int offset2 = Math.max(aReferenceOffset, aCompareOffset);
 
-        // Scanning through sentences
-        Iterator<Sentence> si = JCasUtil.iterator(aJcas, Sentence.class);
-        while (si.hasNext()) {
-            Sentence s = si.next();
-            if (s.getBegin() <= offset1 && offset1 <= s.getEnd()) {
-                return s.getBegin() <= offset2 && offset2 <= s.getEnd();
-            }
-
-            // Sentences are sorted. When we hit the first sentence that is beyond the reference
-            // offset, we will never again find a sentence that contains it.
-            if (offset1 < s.getBegin()) {
-                return false;
-            }
-        }
-
-        return false;
+        SentenceIndex index = SentenceIndex.get(aJcas);
+        int i = index.getOrdinalByOffset(offset1, true);
+        return i != -1 && index.getBegin(i) <= offset2 && offset2 <= index.getEnd(i);
     }
 
     public static int getAddr(FeatureStructure aFS)
@@ -268,13 +253,8 @@ public class WebAnnoCasUtil
      */
     public static int getFirstSentenceAddress(JCas aJcas)
     {
-        int firstSentenceAddress = -1;
-
-        for (Sentence selectedSentence : select(aJcas, Sentence.class)) {
-            firstSentenceAddress = getAddr(selectedSentence);
-            break;
-        }
-        return firstSentenceAddress;
+        SentenceIndex index = SentenceIndex.get(aJcas);
+        return index.size() > 0 ? index.getAddress(0) : -1;
     }
 
     /**
@@ -287,12 +267,8 @@ public class WebAnnoCasUtil
      */
     public static Sentence getFirstSentence(JCas aJcas)
     {
-        Sentence firstSentence = null;
-        for (Sentence s : select(aJcas, Sentence.class)) {
-            firstSentence = s;
-            break;
-        }
-        return firstSentence;
+        SentenceIndex index = SentenceIndex.get(aJcas);
+        return index.size() > 0 ? index.getSentence(aJcas, 0) : null;
     }
 
     /**
@@ -308,15 +284,12 @@ public class WebAnnoCasUtil
      */
     public static Sentence getCurrentSentence(JCas aJCas, int aBegin, int aEnd)
     {
-        Sentence currentSentence = null;
-        for (Sentence sentence : select(aJCas, Sentence.class)) {
-            if (sentence.getBegin() <= aBegin && sentence.getEnd() > aBegin
-                    && sentence.getEnd() <= aEnd) {
-                currentSentence = sentence;
-                break;
-            }
+        SentenceIndex index = SentenceIndex.get(aJCas);
+        int i = index.getOrdinalByOffset(aBegin, false);
+        if (i == -1 || index.getEnd(i) > aEnd) {
+            return null;
         }
-        return currentSentence;
+        return index.getSentence(aJCas, i);
     }
 
     /**
@@ -330,14 +303,9 @@ public class WebAnnoCasUtil
      */
     public static Sentence getSentence(JCas aJCas, int aBegin)
     {
-        Sentence currentSentence = null;
-        for (Sentence sentence : select(aJCas, Sentence.class)) {
-            if (sentence.getBegin() <= aBegin && sentence.getEnd() > aBegin) {
-                currentSentence = sentence;
-                break;
-            }
-        }
-        return currentSentence;
+        SentenceIndex index = SentenceIndex.get(aJCas);
+        int i = index.getOrdinalByOffset(aBegin, false);
+        return i != -1 ? index.getSentence(aJCas, i) : null;
     }
 
     public static Token getNextToken(JCas aJCas, int aBegin, int aEnd)
@@ -371,21 +339,16 @@ public class WebAnnoCasUtil
     public static Sentence getLastSentenceInDisplayWindow(JCas aJcas, int aFirstSentenceAddress,
             int aWindowSize)
     {
-        int count = 0;
-        FSIterator<Sentence> si = seekByAddress(aJcas, Sentence.class, aFirstSentenceAddress);
-        Sentence s = si.get();
-        while (count < aWindowSize - 1) {
-            si.moveToNext();
-            if (si.isValid()) {
-                s = si.get();
-            }
-            else {
-                break;
-            }
-            count++;
+        SentenceIndex index = SentenceIndex.get(aJcas);
+        int first = index.getOrdinalByAddress(aFirstSentenceAddress);
+        if (first == -1) {
+            // Not a sentence address - position on the annotation index as close as possible
+            FSIterator<Sentence> si = seekByAddress(aJcas, Sentence.class, aFirstSentenceAddress);
+            first = index.getOrdinalByAddress(getAddr(si.get()));
         }
 
-        return s;
+        return index.getSentence(aJcas, Math.min(first + Math.max(aWindowSize - 1, 0),
+                index.size() - 1));
     }
 
     /**
@@ -408,25 +371,6 @@ public class WebAnnoCasUtil
         return idx.iterator(selectByAddr(aJcas, aAddr));
     }
 
-    /**
-     * Get an iterator position at the annotation with the specified address.
-     *
-     * @param aJcas
-     *            the CAS object
-     * @param aType
-     *            the expected annotation type
-     * @param aFS
-     *            the annotation to seek for
-     * @return the iterator.
-     */
-    @SuppressWarnings({ "unchecked", "rawtypes" })
-    private static <T extends Annotation> FSIterator<T> seekByFs(JCas aJcas, Class<T> aType,
-            AnnotationFS aFS)
-    {
-        AnnotationIndex<T> idx = aJcas.getAnnotationIndex(JCasUtil
-                .getAnnotationType(aJcas, aType));
-        return idx.iterator(aFS);
-    }
     /**
      * Gets the address of the first sentence visible on screen in such a way that the specified
      * focus offset is centered on screen.
@@ -453,41 +397,34 @@ public class WebAnnoCasUtil
         }
 
         // Seek the sentence that contains the current focus
-        Sentence s = getSentence(aJcas, aFocusOffset);
+        SentenceIndex index = SentenceIndex.get(aJcas);
+        int focus = index.getOrdinalByOffset(aFocusOffset, false);
         
         // If the focus is outside any sentence, then we just return the reference sentence.
         // This should actually never happen, but in case it does, we log a warning and try to
         // behave.
-        if (s == null) {
+        if (focus == -1) {
             LOG.warn("Focus [{}] is outside any unit, using first unit.", aFocusOffset);
             return aSentence;
         }
 
         // Center sentence
-        FSIterator<Sentence> si = seekByFs(aJcas, Sentence.class, s);
-        if (aWindowSize == 2 && s.getBegin() > aSentence.getBegin()) {
-            return s;
-        }
-        int count = 0;
-        while (si.isValid() && count < (aWindowSize / 2)) {
-            si.moveToPrevious();
-            if (si.isValid()) {
-                s = si.get();
-            }
-
-            count++;
+        if (aWindowSize == 2 && index.getBegin(focus) > aSentence.getBegin()) {
+            return index.getSentence(aJcas, focus);
         }
 
-        return s;
+        return index.getSentence(aJcas, Math.max(focus - aWindowSize / 2, 0));
     }
 
     public static int getNextSentenceAddress(JCas aJcas, Sentence aSentence)
     {
-        try {
-            return WebAnnoCasUtil.getAddr(selectFollowing(Sentence.class, aSentence, 1).get(0));
+        SentenceIndex index = SentenceIndex.get(aJcas);
+        int next = index.getOrdinalBeginningAtOrAfter(aSentence.getEnd());
+        if (next < index.size()) {
+            return index.getAddress(next);
         }
-        catch (Exception e) { // end of the document reached
-            return WebAnnoCasUtil.getAddr(aSentence);
+        else { // end of the document reached
+            return getAddr(aSentence);
         }
     }
 
@@ -505,24 +442,24 @@ public class WebAnnoCasUtil
     public static int getNextPageFirstSentenceAddress(JCas aJcas, int aCurrenSentenceBeginAddress,
             int aWindowSize)
     {
-        List<Integer> beginningAddresses = getDisplayWindowBeginningSentenceAddresses(aJcas,
+        int[] beginningAddresses = getDisplayWindowBeginningSentenceAddressArray(aJcas,
                 aWindowSize);
 
         int beginningAddress = aCurrenSentenceBeginAddress;
-        for (int i = 0; i < beginningAddresses.size(); i++) {
-            if (i == beginningAddresses.size() - 1) {
-                beginningAddress = beginningAddresses.get(i);
+        for (int i = 0; i < beginningAddresses.length; i++) {
+            if (i == beginningAddresses.length - 1) {
+                beginningAddress = beginningAddresses[i];
                 break;
             }
 
-            if (beginningAddresses.get(i) == aCurrenSentenceBeginAddress) {
-                beginningAddress = beginningAddresses.get(i + 1);
+            if (beginningAddresses[i] == aCurrenSentenceBeginAddress) {
+                beginningAddress = beginningAddresses[i + 1];
                 break;
             }
 
-            if ((beginningAddresses.get(i) < aCurrenSentenceBeginAddress && beginningAddresses
-                    .get(i + 1) > aCurrenSentenceBeginAddress)) {
-                beginningAddress = beginningAddresses.get(i + 1);
+            if ((beginningAddresses[i] < aCurrenSentenceBeginAddress
+                    && beginningAddresses[i + 1] > aCurrenSentenceBeginAddress)) {
+                beginningAddress = beginningAddresses[i + 1];
                 break;
             }
         }
@@ -545,32 +482,28 @@ public class WebAnnoCasUtil
     public static int getPreviousDisplayWindowSentenceBeginAddress(JCas aJcas,
             int aCurrenSentenceBeginAddress, int aWindowSize)
     {
-        List<Integer> beginningAddresses = getDisplayWindowBeginningSentenceAddresses(aJcas,
+        int[] beginningAddresses = getDisplayWindowBeginningSentenceAddressArray(aJcas,
                 aWindowSize);
 
         int beginningAddress = aCurrenSentenceBeginAddress;
-        for (int i = 0; i < beginningAddresses.size() - 1; i++) {
-            if (i == 0 && aCurrenSentenceBeginAddress >= beginningAddresses.get(i)
-                    && beginningAddresses.get(i + 1) >= aCurrenSentenceBeginAddress) {
-                beginningAddress = beginningAddresses.get(i);
+        for (int i = 0; i < beginningAddresses.length - 1; i++) {
+            if (aCurrenSentenceBeginAddress >= beginningAddresses[i]
+                    && beginningAddresses[i + 1] >= aCurrenSentenceBeginAddress) {
+                beginningAddress = beginningAddresses[i];
                 break;
             }
-            if (aCurrenSentenceBeginAddress >= beginningAddresses.get(i)
-                    && beginningAddresses.get(i + 1) >= aCurrenSentenceBeginAddress) {
-                beginningAddress = beginningAddresses.get(i);
-                break;
-            }
-            beginningAddress = beginningAddresses.get(i);
+            beginningAddress = beginningAddresses[i];
         }
         return beginningAddress;
     }
 
     public static int getLastDisplayWindowFirstSentenceAddress(JCas aJcas, int aWindowSize)
     {
-        List<Integer> displayWindowBeginingSentenceAddresses = 
-                getDisplayWindowBeginningSentenceAddresses(aJcas, aWindowSize);
-        return displayWindowBeginingSentenceAddresses
-                .get(displayWindowBeginingSentenceAddresses.size() - 1);
+        SentenceIndex index = SentenceIndex.get(aJcas);
+        if (index.size() == 0) {
+            throw new IndexOutOfBoundsException("No sentences");
+        }
+        return index.getAddress(((index.size() - 1) / aWindowSize) * aWindowSize);
     }
 
     /**
@@ -582,7 +515,7 @@ public class WebAnnoCasUtil
      */
     public static int getNumberOfPages(JCas aJcas)
     {
-        return select(aJcas, Sentence.class).size();
+        return SentenceIndex.get(aJcas).size();
     }
 
     /**
@@ -598,15 +531,21 @@ public class WebAnnoCasUtil
             int aWindowSize)
     {
         List<Integer> beginningAddresses = new ArrayList<>();
-        int j = 0;
-        for (Sentence sentence : select(aJcas, Sentence.class)) {
-            if (j % aWindowSize == 0) {
-                beginningAddresses.add(getAddr(sentence));
-            }
-            j++;
+        for (int addr : getDisplayWindowBeginningSentenceAddressArray(aJcas, aWindowSize)) {
+            beginningAddresses.add(addr);
         }
         return beginningAddresses;
+    }
 
+    private static int[] getDisplayWindowBeginningSentenceAddressArray(JCas aJcas,
+            int aWindowSize)
+    {
+        SentenceIndex index = SentenceIndex.get(aJcas);
+        int[] beginningAddresses = new int[(index.size() + aWindowSize - 1) / aWindowSize];
+        for (int i = 0; i < beginningAddresses.length; i++) {
+            beginningAddresses[i] = index.getAddress(i * aWindowSize);
+        }
+        return beginningAddresses;
     }
 
     /**
@@ -623,15 +562,9 @@ public class WebAnnoCasUtil
     @Deprecated
     public static int getFirstSentenceNumber(JCas aJcas, int aSentenceAddress)
     {
-        int sentenceNumber = 0;
-        for (Sentence sentence : select(aJcas, Sentence.class)) {
-            if (getAddr(sentence) == aSentenceAddress) {
-                break;
-            }
-            sentenceNumber++;
-        }
-        return sentenceNumber;
-
+        SentenceIndex index = SentenceIndex.get(aJcas);
+        int i = index.getOrdinalByAddress(aSentenceAddress);
+        return i != -1 ? i : index.size();
     }
 
     /**
@@ -645,26 +578,18 @@ public class WebAnnoCasUtil
      */
     public static int getSentenceNumber(JCas aJcas, int aBeginOffset)
     {
-        int sentenceNumber = 0;
-        
-        Collection<Sentence> sentences = select(aJcas, Sentence.class);
-        if (sentences.isEmpty()) {
+        SentenceIndex index = SentenceIndex.get(aJcas);
+        if (index.size() == 0) {
             throw new IndexOutOfBoundsException("No sentences");
         }
         
-        for (Sentence sentence : select(aJcas, Sentence.class)) {
-            if (sentence.getBegin() <= aBeginOffset && aBeginOffset <= sentence.getEnd()) {
-                sentenceNumber++;
-                break;
-            }
-            sentenceNumber++;
-        }
-        return sentenceNumber;
+        int i = index.getOrdinalByOffset(aBeginOffset, true);
+        return i != -1 ? i + 1 : index.size();
     }
 
     public static int getSentenceCount(JCas aJcas)
     {
-        return select(aJcas, Sentence.class).size();
+        return SentenceIndex.get(aJcas).size();
     }
 
     /**
@@ -678,23 +603,19 @@ public class WebAnnoCasUtil
      */
     public static int getSentenceAddress(JCas aJcas, int aSentenceNumber)
     {
-        int i = 1;
-        int address = 0;
         if (aSentenceNumber < 1) {
             return 0;
         }
-        for (Sentence sentence : select(aJcas, Sentence.class)) {
-            if (i == aSentenceNumber) {
-                address = getAddr(sentence);
-                break;
-            }
-            address = getAddr(sentence);
-            i++;
+        
+        SentenceIndex index = SentenceIndex.get(aJcas);
+        if (aSentenceNumber <= index.size()) {
+            return index.getAddress(aSentenceNumber - 1);
         }
-        if (aSentenceNumber > i) {
-            return 0;
+        // One past the last sentence still yields the last sentence
+        if (aSentenceNumber == index.size() + 1 && index.size() > 0) {
+            return index.getAddress(index.size() - 1);
         }
-        return address;
+        return 0;
     }
 
     /**
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.List;
+
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.jcas.tcas.Annotation;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.RelationCreatedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.RelationDeletedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.SpanCreatedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.PreRenderCache.LayerRendering;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.PreRenderCache.RenderKey;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VDocument;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.AfterCasWrittenEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.LayerConfigurationChangedEvent;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+
+public class PreRenderCacheTest
+{
+    private PreRenderCache sut;
+    private JCas jcas;
+    private RenderKey tokenKey;
+    private RenderKey sentenceKey;
+    private LayerRendering tokenRendering;
+    private LayerRendering sentenceRendering;
+
+    @Before
+    public void setup() throws Exception
+    {
+        sut = new PreRenderCache(64);
+        jcas = JCasFactory.createJCas();
+        jcas.setDocumentText("This is a test .");
+
+        tokenKey = new RenderKey(1, config(0), 0, 16, 5);
+        sentenceKey = new RenderKey(2, config(0), 0, 16, 1);
+        tokenRendering = new LayerRendering(Token.class.getName(), false, new VDocument());
+        sentenceRendering = new LayerRendering(Sentence.class.getName(), false, new VDocument());
+
+        sut.put(jcas.getCas(), tokenKey, tokenRendering);
+        sut.put(jcas.getCas(), sentenceKey, sentenceRendering);
+    }
+
+    @Test
+    public void thatRenderKeysWithSameValuesAreEqual()
+    {
+        RenderKey key = new RenderKey(1, config(0), 0, 16, 5);
+
+        assertEquals(tokenKey, key);
+        assertEquals(tokenKey.hashCode(), key.hashCode());
+        assertNotEquals(tokenKey, new RenderKey(2, config(0), 0, 16, 5));
+        assertNotEquals(tokenKey, new RenderKey(1, config(1), 0, 16, 5));
+        assertNotEquals(tokenKey, new RenderKey(1, config(0), 1, 16, 5));
+        assertNotEquals(tokenKey, new RenderKey(1, config(0), 0, 15, 5));
+        assertNotEquals(tokenKey, new RenderKey(1, config(0), 0, 16, 6));
+    }
+
+    @Test
+    public void thatRenderKeysWithDifferentSettingsButSameHashAreNotEqual()
+    {
+        // "Aa" and "BB" have the same hash code
+        RenderKey key1 = new RenderKey(1, asList("span", "Aa"), 0, 16, 5);
+        RenderKey key2 = new RenderKey(1, asList("span", "BB"), 0, 16, 5);
+
+        assertEquals(key1.hashCode(), key2.hashCode());
+        assertNotEquals(key1, key2);
+    }
+
+    @Test
+    public void thatRenderingIsReturnedForSameKey()
+    {
+        assertSame(tokenRendering, sut.get(jcas.getCas(), new RenderKey(1, config(0), 0, 16, 5)));
+        assertEquals(1, sut.getHits());
+    }
+
+    @Test
+    public void thatWindowChangeCausesMiss()
+    {
+        assertNull(sut.get(jcas.getCas(), new RenderKey(1, config(0), 5, 16, 5)));
+        assertEquals(1, sut.getMisses());
+
+        // The rendering of the previous window is still available when scrolling back
+        assertSame(tokenRendering, sut.get(jcas.getCas(), tokenKey));
+    }
+
+    @Test
+    public void thatLayerConfigurationChangeEvictsAllRenderings()
+    {
+        sut.onLayerConfigurationChanged(new LayerConfigurationChangedEvent(this, null));
+
+        assertNull(sut.get(jcas.getCas(), tokenKey));
+        assertNull(sut.get(jcas.getCas(), sentenceKey));
+    }
+
+    @Test
+    public void thatAnnotationChangeEvictsOnlyAffectedLayer()
+    {
+        AnnotationFS token = new Token(jcas, 0, 4);
+        sut.onSpanCreated(new SpanCreatedEvent(this, null, "user", token));
+
+        assertNull(sut.get(jcas.getCas(), tokenKey));
+        assertSame(sentenceRendering, sut.get(jcas.getCas(), sentenceKey));
+    }
+
+    @Test
+    public void thatAnnotationChangeEvictsDependentLayers()
+    {
+        RenderKey relationKey = new RenderKey(3, config(0), 0, 16, 0);
+        sut.put(jcas.getCas(), relationKey,
+                new LayerRendering("webanno.custom.Relation", true, new VDocument()));
+
+        AnnotationFS sentence = new Sentence(jcas, 0, 16);
+        sut.onSpanCreated(new SpanCreatedEvent(this, null, "user", sentence));
+
+        assertNull(sut.get(jcas.getCas(), relationKey));
+        assertSame(tokenRendering, sut.get(jcas.getCas(), tokenKey));
+    }
+
+    @Test
+    public void thatRelationChangeKeepingAnnotationCountEvictsRelationLayer()
+    {
+        // The relation layer has the same number of annotations before and after the change, so
+        // the key alone does not tell the renderings apart
+        RenderKey relationKey = new RenderKey(3, config(0), 0, 16, 1);
+        sut.put(jcas.getCas(), relationKey,
+                new LayerRendering(Annotation.class.getName(), true, new VDocument()));
+
+        Annotation oldRelation = new Annotation(jcas, 0, 4);
+        Annotation newRelation = new Annotation(jcas, 5, 7);
+        sut.onRelationDeleted(new RelationDeletedEvent(this, null, "user", oldRelation));
+        sut.onRelationCreated(new RelationCreatedEvent(this, null, "user", newRelation));
+
+        assertNull(sut.get(jcas.getCas(), relationKey));
+        assertSame(tokenRendering, sut.get(jcas.getCas(), tokenKey));
+    }
+
+    @Test
+    public void thatCasWriteWithoutTrackedChangeEvictsAllRenderings()
+    {
+        sut.onAfterCasWritten(new AfterCasWrittenEvent(this, null, "user", jcas));
+
+        assertNull(sut.get(jcas.getCas(), tokenKey));
+        assertNull(sut.get(jcas.getCas(), sentenceKey));
+    }
+
+    @Test
+    public void thatCasWriteAfterTrackedChangeKeepsUnaffectedRenderings()
+    {
+        AnnotationFS token = new Token(jcas, 0, 4);
+        sut.onSpanCreated(new SpanCreatedEvent(this, null, "user", token));
+        sut.onAfterCasWritten(new AfterCasWrittenEvent(this, null, "user", jcas));
+
+        assertNotNull(sut.get(jcas.getCas(), sentenceKey));
+
+        // The next write without a tracked change may be due to a direct change of the CAS
+        sut.onAfterCasWritten(new AfterCasWrittenEvent(this, null, "user", jcas));
+
+        assertNull(sut.get(jcas.getCas(), sentenceKey));
+    }
+
+    @Test
+    public void thatResetCasCausesMiss() throws Exception
+    {
+        // A CAS loaded again has a different text object even if the text is the same
+        jcas.reset();
+        jcas.setDocumentText(new String("This is a test ."));
+
+        assertNull(sut.get(jcas.getCas(), tokenKey));
+    }
+
+    private static List<Object> config(int aVersion)
+    {
+        return asList("span", "Layer", aVersion);
+    }
+}
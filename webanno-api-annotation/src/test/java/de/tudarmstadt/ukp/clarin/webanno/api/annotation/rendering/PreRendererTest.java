@@ -0,0 +1,138 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.RELATION_TYPE;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Feature;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.fit.factory.TypeSystemDescriptionFactory;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.resource.metadata.TypeDescription;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.ArcAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.AnnotatorState;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.AnnotatorStateImpl;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VDocument;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.clarin.webanno.model.Mode;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+
+public class PreRendererTest
+{
+    private static final String NODE_TYPE = "webanno.custom.Node";
+    private static final String EDGE_TYPE = "webanno.custom.Edge";
+    private static final String OTHER_EDGE_TYPE = "webanno.custom.OtherEdge";
+
+    private JCas jcas;
+    private AnnotatorState state;
+    private List<AnnotationLayer> layers;
+    private PreRenderer sut;
+
+    @Before
+    public void setup() throws Exception
+    {
+        TypeSystemDescription tsd = TypeSystemDescriptionFactory.createTypeSystemDescription();
+        tsd.addType(NODE_TYPE, "", CAS.TYPE_NAME_ANNOTATION);
+        for (String edgeType : asList(EDGE_TYPE, OTHER_EDGE_TYPE)) {
+            TypeDescription edge = tsd.addType(edgeType, "", CAS.TYPE_NAME_ANNOTATION);
+            edge.addFeature("Governor", "", NODE_TYPE);
+            edge.addFeature("Dependent", "", NODE_TYPE);
+        }
+        jcas = JCasFactory.createJCas(tsd);
+        jcas.setDocumentText("Loose end .");
+        new Sentence(jcas, 0, jcas.getDocumentText().length()).addToIndexes();
+
+        // A relation of which the dependent has gone missing
+        Type nodeType = jcas.getTypeSystem().getType(NODE_TYPE);
+        Type edgeType = jcas.getTypeSystem().getType(EDGE_TYPE);
+        Feature governor = edgeType.getFeatureByBaseName("Governor");
+        AnnotationFS node = jcas.getCas().createAnnotation(nodeType, 0, 5);
+        jcas.getCas().addFsToIndexes(node);
+        AnnotationFS rel = jcas.getCas().createAnnotation(edgeType, 0, 5);
+        rel.setFeatureValue(governor, node);
+        jcas.getCas().addFsToIndexes(rel);
+
+        layers = asList(createLayer(1l, EDGE_TYPE), createLayer(2l, OTHER_EDGE_TYPE));
+
+        AnnotationSchemaService annotationService = (AnnotationSchemaService) Proxy
+                .newProxyInstance(getClass().getClassLoader(),
+                        new Class<?>[] { AnnotationSchemaService.class }, (proxy, method, args) -> {
+                            switch (method.getName()) {
+                            case "listAnnotationFeature":
+                                return emptyList();
+                            case "getAdapter":
+                                AnnotationLayer layer = (AnnotationLayer) args[0];
+                                return new ArcAdapter(null, null, layer, layer.getId(),
+                                        layer.getName(), "Dependent", "Governor", null,
+                                        NODE_TYPE, emptyList());
+                            default:
+                                throw new UnsupportedOperationException(method.getName());
+                            }
+                        });
+
+        // The first layer is rendered by the pool while the calling thread renders the second
+        sut = new PreRenderer(annotationService, null, 2);
+
+        state = new AnnotatorStateImpl(Mode.ANNOTATION);
+        state.getPreferences().setWindowSize(1);
+        state.setFirstVisibleUnit(WebAnnoCasUtil.getFirstSentence(jcas));
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        sut.destroy();
+    }
+
+    @Test
+    public void thatLooseEndIsReportedWhenRenderingConcurrently()
+    {
+        VDocument vdoc = new VDocument();
+        sut.render(vdoc, state, jcas, layers);
+
+        assertEquals(0, vdoc.arcs().size());
+        assertEquals(1, vdoc.getWarnings().size());
+        assertTrue(vdoc.getWarnings().get(0).contains("has loose ends"));
+    }
+
+    private AnnotationLayer createLayer(long aId, String aTypeName)
+    {
+        AnnotationLayer layer = new AnnotationLayer();
+        layer.setId(aId);
+        layer.setName(aTypeName);
+        layer.setType(RELATION_TYPE);
+        return layer;
+    }
+}
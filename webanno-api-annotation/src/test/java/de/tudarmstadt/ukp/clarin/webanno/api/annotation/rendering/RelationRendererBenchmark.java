@@ -0,0 +1,239 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.RELATION_TYPE;
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getAddr;
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.selectByAddr;
+import static java.util.Collections.emptyList;
+import static java.util.Comparator.comparingInt;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Feature;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.fit.factory.JCasBuilder;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.fit.factory.TypeSystemDescriptionFactory;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.resource.metadata.TypeDescription;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.ArcAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.AnnotatorState;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.AnnotatorStateImpl;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VDocument;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.clarin.webanno.model.Mode;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+
+/**
+ * Measures the time needed to render a relation layer on a document in which every token is the
+ * dependent of the previous token of its sentence. This produces long relation yields, so the
+ * address resolution and sorting done for the yield comments dominate the rendering.
+ * <p>
+ * The yield comments are also built the way it was done before the address resolution cache,
+ * i.e. resolving each address again on every use, to compare both. This is not part of the
+ * normal test run, use {@code mvn test -Pbenchmark}.
+ */
+public class RelationRendererBenchmark
+{
+    private static final Logger LOG = LoggerFactory.getLogger(RelationRendererBenchmark.class);
+
+    private static final String NODE_TYPE = "webanno.custom.Node";
+    private static final String EDGE_TYPE = "webanno.custom.Edge";
+
+    private static final int SENTENCES = 100;
+    private static final int TOKENS_PER_SENTENCE = 30;
+    private static final int ROUNDS = 20;
+
+    private JCas jcas;
+    private AnnotatorState state;
+    private RelationRenderer sut;
+    private List<Set<Integer>> yields;
+
+    @Before
+    public void setup() throws Exception
+    {
+        TypeSystemDescription tsd = TypeSystemDescriptionFactory.createTypeSystemDescription();
+        tsd.addType(NODE_TYPE, "", CAS.TYPE_NAME_ANNOTATION);
+        TypeDescription edge = tsd.addType(EDGE_TYPE, "", CAS.TYPE_NAME_ANNOTATION);
+        edge.addFeature("Governor", "", NODE_TYPE);
+        edge.addFeature("Dependent", "", NODE_TYPE);
+        jcas = JCasFactory.createJCas(tsd);
+
+        Type nodeType = jcas.getTypeSystem().getType(NODE_TYPE);
+        Type edgeType = jcas.getTypeSystem().getType(EDGE_TYPE);
+        Feature governor = edgeType.getFeatureByBaseName("Governor");
+        Feature dependent = edgeType.getFeatureByBaseName("Dependent");
+
+        // Each node of a sentence yields itself and all following nodes of the sentence
+        yields = new ArrayList<>();
+        JCasBuilder jb = new JCasBuilder(jcas);
+        for (int s = 0; s < SENTENCES; s++) {
+            int sentenceBegin = jb.getPosition();
+            List<Integer> sentenceNodes = new ArrayList<>();
+            AnnotationFS previous = null;
+            for (int t = 0; t < TOKENS_PER_SENTENCE; t++) {
+                int begin = jb.getPosition();
+                jb.add("word" + t);
+                AnnotationFS node = jcas.getCas().createAnnotation(nodeType, begin,
+                        jb.getPosition());
+                jcas.getCas().addFsToIndexes(node);
+                sentenceNodes.add(getAddr(node));
+                if (previous != null) {
+                    AnnotationFS rel = jcas.getCas().createAnnotation(edgeType, node.getBegin(),
+                            node.getEnd());
+                    rel.setFeatureValue(governor, previous);
+                    rel.setFeatureValue(dependent, node);
+                    jcas.getCas().addFsToIndexes(rel);
+                }
+                previous = node;
+                jb.add(" ");
+            }
+            jb.add(sentenceBegin, Sentence.class);
+            for (int t = 0; t < sentenceNodes.size() - 1; t++) {
+                yields.add(new TreeSet<>(sentenceNodes.subList(t, sentenceNodes.size())));
+            }
+        }
+        jb.close();
+
+        AnnotationLayer layer = new AnnotationLayer();
+        layer.setId(1l);
+        layer.setName(EDGE_TYPE);
+        layer.setType(RELATION_TYPE);
+
+        sut = new RelationRenderer(new ArcAdapter(null, null, layer, layer.getId(), EDGE_TYPE,
+                "Dependent", "Governor", null, NODE_TYPE, emptyList()), null);
+
+        state = new AnnotatorStateImpl(Mode.ANNOTATION);
+        state.getPreferences().setWindowSize(SENTENCES);
+        state.setFirstVisibleUnit(WebAnnoCasUtil.getFirstSentence(jcas));
+    }
+
+    @Test
+    public void renderDependencyHeavyDocument()
+    {
+        // Warm up
+        render();
+
+        long start = System.currentTimeMillis();
+        VDocument vdoc = null;
+        for (int i = 0; i < ROUNDS; i++) {
+            vdoc = render();
+        }
+        long duration = System.currentTimeMillis() - start;
+
+        LOG.info(String.format("%d relations, %d rounds: %.1f ms per rendering",
+                vdoc.arcs().size(), ROUNDS, duration / (double) ROUNDS));
+
+        assertEquals(SENTENCES * (TOKENS_PER_SENTENCE - 1), vdoc.arcs().size());
+        assertEquals(SENTENCES * (TOKENS_PER_SENTENCE - 1), vdoc.comments().size());
+    }
+
+    @Test
+    public void buildYieldsWithAndWithoutResolutionCache()
+    {
+        // Warm up
+        List<String> before = buildYieldsBefore();
+        List<String> after = buildYieldsAfter();
+        assertEquals(before, after);
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < ROUNDS; i++) {
+            buildYieldsBefore();
+        }
+        long beforeDuration = System.currentTimeMillis() - start;
+
+        start = System.currentTimeMillis();
+        for (int i = 0; i < ROUNDS; i++) {
+            buildYieldsAfter();
+        }
+        long afterDuration = System.currentTimeMillis() - start;
+
+        LOG.info(String.format("%d yields, %d rounds: %.1f ms before, %.1f ms after (%.1fx)",
+                yields.size(), ROUNDS, beforeDuration / (double) ROUNDS,
+                afterDuration / (double) ROUNDS,
+                beforeDuration / (double) Math.max(1, afterDuration)));
+    }
+
+    /**
+     * Builds the yield comments as the renderer did before, resolving each address on every
+     * comparison and every access.
+     */
+    private List<String> buildYieldsBefore()
+    {
+        List<String> messages = new ArrayList<>();
+        for (Set<Integer> yield : yields) {
+            List<Integer> sorted = new ArrayList<>(yield);
+            sorted.sort(comparingInt(addr -> selectByAddr(jcas, addr).getBegin()));
+
+            StringBuilder cm = new StringBuilder();
+            int end = -1;
+            for (Integer addr : sorted) {
+                if (end == -1) {
+                    cm.append(selectByAddr(jcas, addr).getCoveredText());
+                    end = selectByAddr(jcas, addr).getEnd();
+                }
+                else if (end == selectByAddr(jcas, addr).getBegin()) {
+                    cm.append(selectByAddr(jcas, addr).getCoveredText());
+                    end = selectByAddr(jcas, addr).getEnd();
+                }
+                else if (end + 1 != selectByAddr(jcas, addr).getBegin()) {
+                    cm.append(" ... ").append(selectByAddr(jcas, addr).getCoveredText());
+                    end = selectByAddr(jcas, addr).getEnd();
+                }
+                else {
+                    cm.append(" ").append(selectByAddr(jcas, addr).getCoveredText());
+                    end = selectByAddr(jcas, addr).getEnd();
+                }
+            }
+            messages.add(cm.toString());
+        }
+        return messages;
+    }
+
+    private List<String> buildYieldsAfter()
+    {
+        AddressResolutionCache resolver = new AddressResolutionCache(jcas.getCas());
+        List<String> messages = new ArrayList<>();
+        for (Set<Integer> yield : yields) {
+            messages.add(RelationRenderer
+                    .getYieldMessage(RelationRenderer.sortByBegin(yield, resolver)));
+        }
+        return messages;
+    }
+
+    private VDocument render()
+    {
+        VDocument vdoc = new VDocument();
+        sut.render(jcas, emptyList(), vdoc, state);
+        return vdoc;
+    }
+}
@@ -33,7 +33,10 @@ import java.util.Deque;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
@@ -59,6 +62,7 @@ import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEvent;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.context.event.ContextRefreshedEvent;
@@ -66,6 +70,8 @@ import org.springframework.context.event.EventListener;
 import org.springframework.core.annotation.AnnotationAwareOrderComparator;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
@@ -75,6 +81,7 @@ import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.SpanAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.TypeAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.feature.FeatureSupport;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.feature.FeatureSupportRegistry;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.LayerConfigurationChangedEvent;
 import de.tudarmstadt.ukp.clarin.webanno.api.dao.initializers.ProjectInitializer;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
@@ -103,6 +110,13 @@ public class AnnotationSchemaServiceImpl
     private @Autowired ApplicationEventPublisher applicationEventPublisher;
     private @Lazy @Autowired(required = false) List<ProjectInitializer> initializerProxy;
     private List<ProjectInitializer> initializers;
+    
+    /**
+     * Compiled type systems per project. An entry is only valid as long as the layer
+     * configuration version of the project has not changed since it was compiled.
+     */
+    private final Map<Long, ProjectTypeSystem> projectTypeSystems = new ConcurrentHashMap<>();
+    private final Map<Long, AtomicLong> layerConfigurationVersions = new ConcurrentHashMap<>();
 
     public AnnotationSchemaServiceImpl()
     {
@@ -191,6 +205,8 @@ public class AnnotationSchemaServiceImpl
             entityManager.merge(aLayer);
         }
         
+        layerConfigurationChanged(aLayer.getProject());
+        
         try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
                 String.valueOf(aLayer.getProject().getId()))) {
             Project project = aLayer.getProject();
@@ -209,6 +225,8 @@ public class AnnotationSchemaServiceImpl
         else {
             entityManager.merge(aFeature);
         }
+        
+        layerConfigurationChanged(aFeature.getProject());
     }
 
     @Override
@@ -599,6 +617,7 @@ public class AnnotationSchemaServiceImpl
     public void removeAnnotationFeature(AnnotationFeature aFeature)
     {
         entityManager.remove(aFeature);
+        layerConfigurationChanged(aFeature.getProject());
     }
 
     @Override
@@ -606,6 +625,7 @@ public class AnnotationSchemaServiceImpl
     public void removeAnnotationLayer(AnnotationLayer aLayer)
     {
         entityManager.remove(aLayer);
+        layerConfigurationChanged(aLayer.getProject());
     }
 
     @Override
@@ -667,25 +687,33 @@ public class AnnotationSchemaServiceImpl
     }
 
     @Override
-    public void upgradeCas(CAS aCas, AnnotationDocument aAnnotationDocument)
+    public boolean upgradeCas(CAS aCas, AnnotationDocument aAnnotationDocument)
         throws UIMAException, IOException
     {
-        upgradeCas(aCas, aAnnotationDocument.getDocument(), aAnnotationDocument.getUser());
+        return upgradeCas(aCas, aAnnotationDocument.getDocument(), aAnnotationDocument.getUser());
     }
 
     @Override
-    public void upgradeCas(CAS aCas, SourceDocument aSourceDocument, String aUser)
+    public boolean isUpgradeRequired(CAS aCas, Project aProject)
         throws UIMAException, IOException
     {
-        TypeSystemDescription builtInTypes = TypeSystemDescriptionFactory
-                .createTypeSystemDescription();
-        TypeSystemDescription projectTypes = getProjectTypes(aSourceDocument.getProject());
-        TypeSystemDescription allTypes = CasCreationUtils
-                .mergeTypeSystems(asList(projectTypes, builtInTypes));
+        return !getProjectTypeSystem(aProject).fingerprint.equals(
+                CasPersistenceUtils.getTypeSystemFingerprint(aCas.getTypeSystem()));
+    }
 
-        // Prepare template for new CAS
-        CAS newCas = JCasFactory.createJCas(allTypes).getCas();
-        CASCompleteSerializer serializer = Serialization.serializeCASComplete((CASImpl) newCas);
+    @Override
+    public boolean upgradeCas(CAS aCas, SourceDocument aSourceDocument, String aUser)
+        throws UIMAException, IOException
+    {
+        ProjectTypeSystem projectTypeSystem = getProjectTypeSystem(aSourceDocument.getProject());
+
+        // If the CAS already uses the current type system of the project, there is nothing to do
+        if (projectTypeSystem.fingerprint.equals(
+                CasPersistenceUtils.getTypeSystemFingerprint(aCas.getTypeSystem()))) {
+            log.debug("CAS of user [{}] for document [{}]({}) is up-to-date", aUser,
+                    aSourceDocument.getName(), aSourceDocument.getId());
+            return false;
+        }
 
         // Save old type system
         TypeSystem oldTypeSystem = aCas.getTypeSystem();
@@ -695,7 +723,7 @@ public class AnnotationSchemaServiceImpl
         Serialization.serializeWithCompression(aCas, os2, oldTypeSystem);
 
         // Prepare CAS with new type system
-        Serialization.deserializeCASComplete(serializer, (CASImpl) aCas);
+        Serialization.deserializeCASComplete(projectTypeSystem.template, (CASImpl) aCas);
 
         // Restore CAS data to new type system
         Serialization.deserializeCAS(aCas, new ByteArrayInputStream(os2.toByteArray()),
@@ -714,6 +742,83 @@ public class AnnotationSchemaServiceImpl
                     aUser, aSourceDocument.getName(), aSourceDocument.getId(), project.getName(),
                     project.getId());
         }
+        
+        return true;
+    }
+    
+    /**
+     * Gets the compiled type system of the project, consisting of the built-in types and the
+     * types generated from the layer configuration of the project.
+     */
+    private ProjectTypeSystem getProjectTypeSystem(Project aProject)
+        throws UIMAException, IOException
+    {
+        long version = getLayerConfigurationVersion(aProject);
+        ProjectTypeSystem projectTypeSystem = projectTypeSystems.get(aProject.getId());
+        if (projectTypeSystem != null && projectTypeSystem.version == version) {
+            return projectTypeSystem;
+        }
+        
+        TypeSystemDescription builtInTypes = TypeSystemDescriptionFactory
+                .createTypeSystemDescription();
+        TypeSystemDescription projectTypes = getProjectTypes(aProject);
+        TypeSystemDescription allTypes = CasCreationUtils
+                .mergeTypeSystems(asList(projectTypes, builtInTypes));
+
+        // Prepare template for new CASes
+        CAS newCas = JCasFactory.createJCas(allTypes).getCas();
+        projectTypeSystem = new ProjectTypeSystem(version,
+                CasPersistenceUtils.getTypeSystemFingerprint(newCas.getTypeSystem()),
+                Serialization.serializeCASComplete((CASImpl) newCas));
+        
+        // If the layer configuration has changed in the meantime, the next call will compile the
+        // type system again
+        projectTypeSystems.put(aProject.getId(), projectTypeSystem);
+        
+        log.debug("Compiled type system of project [{}]({}) - layer configuration version {}",
+                aProject.getName(), aProject.getId(), version);
+        
+        return projectTypeSystem;
+    }
+    
+    private long getLayerConfigurationVersion(Project aProject)
+    {
+        return layerConfigurationVersions.computeIfAbsent(aProject.getId(), k -> new AtomicLong())
+                .get();
+    }
+    
+    private void layerConfigurationChanged(Project aProject)
+    {
+        // Later calls within the same transaction must see the change right away
+        invalidateProjectTypeSystem(aProject);
+        
+        // Other transactions may compile the type system from the old layer configuration until
+        // the change is committed and cache it under the new version. So the version is changed
+        // once more when the transaction has completed.
+        if (applicationEventPublisher != null) {
+            applicationEventPublisher
+                    .publishEvent(new ProjectTypeSystemChangedEvent(this, aProject));
+        }
+    }
+    
+    private void invalidateProjectTypeSystem(Project aProject)
+    {
+        layerConfigurationVersions.computeIfAbsent(aProject.getId(), k -> new AtomicLong())
+                .incrementAndGet();
+        projectTypeSystems.remove(aProject.getId());
+    }
+    
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMPLETION,
+            fallbackExecution = true)
+    public void onProjectTypeSystemChanged(ProjectTypeSystemChangedEvent aEvent)
+    {
+        invalidateProjectTypeSystem(aEvent.getProject());
+    }
+    
+    @EventListener
+    public void onLayerConfigurationChanged(LayerConfigurationChangedEvent aEvent)
+    {
+        invalidateProjectTypeSystem(aEvent.getProject());
     }
 
     @Override
@@ -764,4 +869,41 @@ public class AnnotationSchemaServiceImpl
                     "No adapter for type with name [" + aLayer.getName() + "]");
         }
     }
+
+    private static class ProjectTypeSystem
+    {
+        final long version;
+        final String fingerprint;
+        final CASCompleteSerializer template;
+        
+        public ProjectTypeSystem(long aVersion, String aFingerprint,
+                CASCompleteSerializer aTemplate)
+        {
+            version = aVersion;
+            fingerprint = aFingerprint;
+            template = aTemplate;
+        }
+    }
+
+    /**
+     * Published when the layer configuration of a project is changed within a transaction.
+     */
+    public static class ProjectTypeSystemChangedEvent
+        extends ApplicationEvent
+    {
+        private static final long serialVersionUID = -3216398573146502717L;
+        
+        private final Project project;
+
+        public ProjectTypeSystemChangedEvent(Object aSource, Project aProject)
+        {
+            super(aSource);
+            project = aProject;
+        }
+
+        public Project getProject()
+        {
+            return project;
+        }
+    }
 }
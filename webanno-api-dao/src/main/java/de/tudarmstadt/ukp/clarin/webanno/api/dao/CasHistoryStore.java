@@ -0,0 +1,423 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.tudarmstadt.ukp.clarin.webanno.support.concurrent.StripedReadWriteLock;
+
+/**
+ * Stores the history of the annotation documents of a source document.
+ * <p>
+ * Each version is split into content-defined chunks. The chunks are compressed and stored under
+ * their SHA-1 hash, so data which does not change between versions - or which is shared between
+ * the versions of different users - is stored only once. The versions of each user are listed in
+ * an index file, so the history can be inspected without listing or reading the chunk files.
+ * <p>
+ * Adding versions for different users of the same source document can happen concurrently.
+ * Pruning requires exclusive access to the history of the source document because chunks may be
+ * shared between users.
+ * <p>
+ * Index files are always replaced as a whole, so a crash cannot leave a partially written index.
+ * Lines which cannot be parsed - e.g. in indexes appended to by older versions - are skipped.
+ */
+class CasHistoryStore
+{
+    private static final String CHUNK_FOLDER = "chunks";
+    private static final String INDEX_SUFFIX = ".idx";
+
+    /**
+     * Chunk boundaries are placed where the rolling hash has 13 zero bits, giving chunks of 8KB
+     * on average.
+     */
+    private static final int CHUNK_MASK = (1 << 13) - 1;
+    private static final int MIN_CHUNK_SIZE = 2 * 1024;
+    private static final int MAX_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Random values for the rolling hash. The fixed seed makes sure chunk boundaries are the same
+     * across restarts - otherwise, no chunks could be shared with versions stored before.
+     */
+    private static final int[] GEAR = new int[256];
+
+    static {
+        Random rnd = new Random(0x5741534849535452L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = rnd.nextInt();
+        }
+    }
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final StripedReadWriteLock locks = new StripedReadWriteLock(64);
+    
+    /**
+     * Guards the index files of the individual users while versions are added concurrently.
+     */
+    private final StripedReadWriteLock indexLocks = new StripedReadWriteLock(64);
+
+    /**
+     * Gets the versions of the given user, oldest first.
+     *
+     * @param aFolder
+     *            the history folder of the source document.
+     * @param aUser
+     *            the user.
+     * @return the versions.
+     */
+    public List<Version> listVersions(File aFolder, String aUser)
+        throws IOException
+    {
+        Lock lock = locks.get(aFolder).readLock();
+        lock.lock();
+        try {
+            return readIndex(getIndexFile(aFolder, aUser));
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Checks if a new version should be added for the given user.
+     *
+     * @param aFolder
+     *            the history folder of the source document.
+     * @param aUser
+     *            the user.
+     * @param aTimestamp
+     *            the time of the new version.
+     * @param aInterval
+     *            the minimum time (ms) between two versions.
+     * @return whether there is no version yet or the latest version is older than the interval.
+     */
+    public boolean isDue(File aFolder, String aUser, long aTimestamp, long aInterval)
+        throws IOException
+    {
+        List<Version> versions = listVersions(aFolder, aUser);
+        return versions.isEmpty()
+                || versions.get(versions.size() - 1).getTimestamp() + aInterval < aTimestamp;
+    }
+
+    /**
+     * Adds a new version for the given user. Only chunks which are not yet stored are written.
+     * The version is inserted according to its timestamp, so also older versions can be added,
+     * e.g. when importing backups.
+     *
+     * @param aFolder
+     *            the history folder of the source document.
+     * @param aUser
+     *            the user.
+     * @param aData
+     *            the data of the new version.
+     * @param aTimestamp
+     *            the time of the new version.
+     * @return the new version.
+     */
+    public Version addVersion(File aFolder, String aUser, byte[] aData, long aTimestamp)
+        throws IOException
+    {
+        Lock lock = locks.get(aFolder).readLock();
+        lock.lock();
+        try {
+            File chunkFolder = new File(aFolder, CHUNK_FOLDER);
+            FileUtils.forceMkdir(chunkFolder);
+
+            List<String> chunks = new ArrayList<>();
+            int start = 0;
+            int hash = 0;
+            for (int i = 0; i < aData.length; i++) {
+                hash = (hash << 1) + GEAR[aData[i] & 0xff];
+                int size = i - start + 1;
+                if ((size >= MIN_CHUNK_SIZE && (hash & CHUNK_MASK) == 0)
+                        || size >= MAX_CHUNK_SIZE || i == aData.length - 1) {
+                    chunks.add(writeChunk(chunkFolder, aData, start, size));
+                    start = i + 1;
+                    hash = 0;
+                }
+            }
+
+            // The index is only updated after all chunks have been written, so the index never
+            // refers to missing chunks
+            Version version = new Version(aTimestamp, aData.length, chunks);
+            File indexFile = getIndexFile(aFolder, aUser);
+            Lock indexLock = indexLocks.get(indexFile).writeLock();
+            indexLock.lock();
+            try {
+                List<Version> versions = readIndex(indexFile);
+                int i = versions.size();
+                while (i > 0 && versions.get(i - 1).getTimestamp() > aTimestamp) {
+                    i--;
+                }
+                versions.add(i, version);
+                writeIndex(indexFile, versions);
+            }
+            finally {
+                indexLock.unlock();
+            }
+            return version;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads the data of a version.
+     *
+     * @param aFolder
+     *            the history folder of the source document.
+     * @param aVersion
+     *            the version.
+     * @return the data of the version.
+     */
+    public byte[] readVersion(File aFolder, Version aVersion)
+        throws IOException
+    {
+        Lock lock = locks.get(aFolder).readLock();
+        lock.lock();
+        try {
+            File chunkFolder = new File(aFolder, CHUNK_FOLDER);
+            ByteArrayOutputStream bos = new ByteArrayOutputStream((int) aVersion.getSize());
+            for (String chunk : aVersion.getChunks()) {
+                try (InputStream is = new InflaterInputStream(
+                        Files.newInputStream(new File(chunkFolder, chunk).toPath()))) {
+                    IOUtils.copy(is, bos);
+                }
+            }
+            return bos.toByteArray();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes surplus and outdated versions of all users and then removes all chunks which are no
+     * longer used by any version.
+     *
+     * @param aFolder
+     *            the history folder of the source document.
+     * @param aKeepNumber
+     *            the maximum number of versions to keep per user ({@code 0} for unlimited).
+     * @param aKeepTime
+     *            the maximum age (ms) of versions to keep ({@code 0} for unlimited).
+     * @param aNow
+     *            the reference point in time for the maximum age.
+     * @return the number of versions removed.
+     */
+    public int prune(File aFolder, int aKeepNumber, long aKeepTime, long aNow)
+        throws IOException
+    {
+        Lock lock = locks.get(aFolder).writeLock();
+        lock.lock();
+        try {
+            File[] indexFiles = aFolder.listFiles((dir, name) -> name.endsWith(INDEX_SUFFIX));
+            if (indexFiles == null) {
+                return 0;
+            }
+
+            int removed = 0;
+            Set<String> usedChunks = new HashSet<>();
+            for (File indexFile : indexFiles) {
+                List<Version> versions = readIndex(indexFile);
+                List<Version> kept = new ArrayList<>();
+                for (int i = 0; i < versions.size(); i++) {
+                    Version version = versions.get(i);
+                    boolean surplus = aKeepNumber > 0 && versions.size() - i > aKeepNumber;
+                    boolean outdated = aKeepTime > 0 && version.getTimestamp() + aKeepTime < aNow;
+                    if (!surplus && !outdated) {
+                        kept.add(version);
+                        usedChunks.addAll(version.getChunks());
+                    }
+                }
+
+                if (kept.size() != versions.size()) {
+                    writeIndex(indexFile, kept);
+                    removed += versions.size() - kept.size();
+                }
+            }
+
+            if (removed > 0) {
+                File[] chunkFiles = new File(aFolder, CHUNK_FOLDER).listFiles();
+                if (chunkFiles != null) {
+                    for (File chunkFile : chunkFiles) {
+                        if (!usedChunks.contains(chunkFile.getName())) {
+                            FileUtils.forceDelete(chunkFile);
+                        }
+                    }
+                }
+            }
+
+            return removed;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private String writeChunk(File aChunkFolder, byte[] aData, int aOffset, int aLength)
+        throws IOException
+    {
+        String hash = sha1(aData, aOffset, aLength);
+        File chunkFile = new File(aChunkFolder, hash);
+        if (!chunkFile.exists()) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            try (OutputStream os = new DeflaterOutputStream(bos)) {
+                os.write(aData, aOffset, aLength);
+            }
+            CasPersistenceUtils.writeAtomically(chunkFile, bos.toByteArray());
+        }
+        return hash;
+    }
+
+    private static File getIndexFile(File aFolder, String aUser)
+    {
+        return new File(aFolder, aUser + INDEX_SUFFIX);
+    }
+
+    private List<Version> readIndex(File aIndexFile)
+        throws IOException
+    {
+        List<Version> versions = new ArrayList<>();
+        if (aIndexFile.exists()) {
+            for (String line : Files.readAllLines(aIndexFile.toPath(), UTF_8)) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                
+                try {
+                    versions.add(Version.parse(line));
+                }
+                catch (IllegalArgumentException e) {
+                    // The line is dropped when the index is written next
+                    log.warn("Skipping damaged entry [{}] in history index [{}]", line,
+                            aIndexFile);
+                }
+            }
+        }
+        return versions;
+    }
+
+    private static void writeIndex(File aIndexFile, List<Version> aVersions)
+        throws IOException
+    {
+        StringBuilder sb = new StringBuilder();
+        for (Version version : aVersions) {
+            sb.append(version).append('\n');
+        }
+
+        CasPersistenceUtils.writeAtomically(aIndexFile, sb.toString().getBytes(UTF_8));
+    }
+
+    private static String sha1(byte[] aData, int aOffset, int aLength)
+    {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(aData, aOffset, aLength);
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest.digest()) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static class Version
+    {
+        private final long timestamp;
+        private final long size;
+        private final List<String> chunks;
+
+        public Version(long aTimestamp, long aSize, List<String> aChunks)
+        {
+            timestamp = aTimestamp;
+            size = aSize;
+            chunks = aChunks;
+        }
+
+        public long getTimestamp()
+        {
+            return timestamp;
+        }
+
+        public long getSize()
+        {
+            return size;
+        }
+
+        public List<String> getChunks()
+        {
+            return chunks;
+        }
+
+        static Version parse(String aLine)
+        {
+            String[] fields = aLine.split(" ");
+            if (fields.length < 3) {
+                throw new IllegalArgumentException("Incomplete version [" + aLine + "]");
+            }
+            
+            List<String> chunks = new ArrayList<>(Arrays.asList(fields).subList(2, fields.length));
+            for (String chunk : chunks) {
+                if (!chunk.matches("[0-9a-f]{40}")) {
+                    throw new IllegalArgumentException("Invalid chunk [" + chunk + "]");
+                }
+            }
+            
+            return new Version(Long.parseLong(fields[0]), Long.parseLong(fields[1]), chunks);
+        }
+
+        @Override
+        public String toString()
+        {
+            StringBuilder sb = new StringBuilder();
+            sb.append(timestamp).append(' ').append(size);
+            for (String chunk : chunks) {
+                sb.append(' ').append(chunk);
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.uima.cas.CAS;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limits the estimated heap size of all CASes loaded by the CAS storage.
+ * <p>
+ * Before a CAS is loaded, its size is reserved using {@link #acquire}. If the reservation would
+ * exceed the budget, the caller waits until enough memory has been freed. Waiting callers are
+ * served in order of their {@link Priority} and then first come, first served. Once the CAS has
+ * been loaded, the reservation is {@link #track tracked} until the CAS is garbage collected.
+ * <p>
+ * While callers are waiting, the pressure handler is invoked regularly, e.g. to evict CASes from
+ * a cache so that they can be garbage collected. Callers should not hold any locks other callers
+ * may need while waiting.
+ */
+public class CasMemoryGovernor
+{
+    public enum Priority
+    {
+        /**
+         * A user is waiting for the CAS.
+         */
+        INTERACTIVE,
+        
+        /**
+         * The CAS is loaded by a background job, e.g. an export or a remote API call.
+         */
+        BACKGROUND;
+    }
+
+    /**
+     * Interval (ms) in which waiting callers check whether memory has been freed.
+     */
+    private static final long POLL_INTERVAL = 100;
+    
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    
+    private final ReferenceQueue<CAS> leaseQueue = new ReferenceQueue<>();
+    private final Set<Lease> leases = ConcurrentHashMap.newKeySet();
+    private final PriorityQueue<Waiter> waiters = new PriorityQueue<>(
+            Comparator.comparing((Waiter w) -> w.priority).thenComparingLong(w -> w.sequence));
+    private long sequence = 0;
+    
+    private volatile long budget = 0;
+    private volatile Runnable pressureHandler;
+    
+    // All access to these must be synchronized on this
+    private long used = 0;
+    private long peak = 0;
+    private long waits = 0;
+    private long timeouts = 0;
+
+    /**
+     * Reserves memory for a CAS which is about to be loaded. The reservation must be passed on to
+     * {@link #track} once the CAS has been loaded or be {@link #release released} if loading
+     * fails.
+     * 
+     * @param aSize
+     *            the estimated heap size of the CAS in bytes.
+     * @param aPriority
+     *            the priority of the caller.
+     * @param aMaxWait
+     *            the maximum time (ms) to wait for memory to become available.
+     * @throws TimeoutException
+     *             if not enough memory became available in time.
+     * @throws InterruptedException
+     *             if the caller was interrupted while waiting.
+     */
+    public void acquire(long aSize, Priority aPriority, long aMaxWait)
+        throws TimeoutException, InterruptedException
+    {
+        expungeReleased();
+        
+        Waiter waiter;
+        synchronized (this) {
+            if (waiters.isEmpty() && fits(aSize)) {
+                reserve(aSize);
+                return;
+            }
+            
+            waits++;
+            waiter = new Waiter(aPriority, sequence++);
+            waiters.add(waiter);
+            log.debug("Waiting for {} bytes of CAS memory (used: {}, budget: {})", aSize, used,
+                    budget);
+        }
+        
+        long deadline = System.currentTimeMillis() + aMaxWait;
+        try {
+            while (true) {
+                synchronized (this) {
+                    if (waiters.peek() == waiter && fits(aSize)) {
+                        reserve(aSize);
+                        return;
+                    }
+                    
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        timeouts++;
+                        throw new TimeoutException("Unable to reserve " + aSize
+                                + " bytes of CAS memory within " + aMaxWait + "ms (used: " + used
+                                + ", budget: " + budget + ")");
+                    }
+                    
+                    wait(Math.min(remaining, POLL_INTERVAL));
+                }
+                
+                // Not holding the lock here, the handler may take other locks
+                relievePressure();
+            }
+        }
+        finally {
+            synchronized (this) {
+                waiters.remove(waiter);
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Keeps the reservation made for a loaded CAS until the CAS is garbage collected.
+     */
+    public void track(CAS aCas, long aReserved)
+    {
+        leases.add(new Lease(aCas, aReserved, leaseQueue));
+    }
+
+    /**
+     * Changes the size of a reservation without waiting, e.g. because the CAS has changed since
+     * the reservation was made.
+     * 
+     * @return the new size of the reservation.
+     */
+    public synchronized long resize(long aReserved, long aSize)
+    {
+        reserve(aSize - aReserved);
+        notifyAll();
+        return aSize;
+    }
+
+    /**
+     * Releases a reservation for a CAS which has not been loaded.
+     */
+    public synchronized void release(long aReserved)
+    {
+        used -= aReserved;
+        notifyAll();
+    }
+
+    private boolean fits(long aSize)
+    {
+        // A single CAS exceeding the budget must still be loadable
+        return budget <= 0 || used == 0 || used + aSize <= budget;
+    }
+
+    private void reserve(long aSize)
+    {
+        used += aSize;
+        peak = Math.max(peak, used);
+    }
+
+    private void relievePressure()
+    {
+        if (expungeReleased()) {
+            return;
+        }
+        
+        Runnable handler = pressureHandler;
+        if (handler != null) {
+            handler.run();
+        }
+    }
+
+    /**
+     * @return whether any memory was freed.
+     */
+    private boolean expungeReleased()
+    {
+        long freed = 0;
+        Reference<? extends CAS> ref;
+        while ((ref = leaseQueue.poll()) != null) {
+            Lease lease = (Lease) ref;
+            if (leases.remove(lease)) {
+                freed += lease.size;
+            }
+        }
+        
+        if (freed > 0) {
+            synchronized (this) {
+                used -= freed;
+                notifyAll();
+            }
+            return true;
+        }
+        
+        return false;
+    }
+
+    /**
+     * @param aBudget
+     *            the maximum estimated heap size of all loaded CASes in bytes. {@code 0} means no
+     *            limit.
+     */
+    public void setBudget(long aBudget)
+    {
+        budget = aBudget;
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    public long getBudget()
+    {
+        return budget;
+    }
+
+    public void setPressureHandler(Runnable aPressureHandler)
+    {
+        pressureHandler = aPressureHandler;
+    }
+
+    public long getUsed()
+    {
+        expungeReleased();
+        synchronized (this) {
+            return used;
+        }
+    }
+
+    public synchronized long getPeak()
+    {
+        return peak;
+    }
+
+    public synchronized int getWaiting()
+    {
+        return waiters.size();
+    }
+
+    public synchronized long getWaits()
+    {
+        return waits;
+    }
+
+    public synchronized long getTimeouts()
+    {
+        return timeouts;
+    }
+
+    public int getTracked()
+    {
+        return leases.size();
+    }
+
+    private static class Waiter
+    {
+        final Priority priority;
+        final long sequence;
+
+        Waiter(Priority aPriority, long aSequence)
+        {
+            priority = aPriority;
+            sequence = aSequence;
+        }
+    }
+
+    private static class Lease
+        extends WeakReference<CAS>
+    {
+        final long size;
+
+        Lease(CAS aCas, long aSize, ReferenceQueue<CAS> aQueue)
+        {
+            super(aCas, aQueue);
+            size = aSize;
+        }
+    }
+}
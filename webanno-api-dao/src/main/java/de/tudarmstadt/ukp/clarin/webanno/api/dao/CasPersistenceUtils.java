@@ -20,27 +20,183 @@ package de.tudarmstadt.ukp.clarin.webanno.api.dao;
 import static org.apache.uima.cas.impl.Serialization.deserializeCASComplete;
 import static org.apache.uima.cas.impl.Serialization.serializeCASComplete;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.uima.UIMAException;
+import org.apache.uima.UIMAFramework;
 import org.apache.uima.cas.CAS;
-import org.apache.uima.cas.CASException;
+import org.apache.uima.cas.Feature;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.TypeSystem;
+import org.apache.uima.cas.impl.BinaryCasSerDes6;
+import org.apache.uima.cas.impl.BinaryCasSerDes6.CompressLevel;
+import org.apache.uima.cas.impl.BinaryCasSerDes6.CompressStrat;
+import org.apache.uima.cas.impl.BinaryCasSerDes6.ReuseInfo;
 import org.apache.uima.cas.impl.CASCompleteSerializer;
 import org.apache.uima.cas.impl.CASImpl;
+import org.apache.uima.cas.impl.LowLevelTypeSystem;
+import org.apache.uima.cas.impl.MarkerImpl;
+import org.apache.uima.cas.impl.Serialization;
+import org.apache.uima.cas.impl.TypeSystemImpl;
 import org.apache.uima.jcas.JCas;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.util.CasCreationUtils;
+import org.apache.uima.util.TypeSystemUtil;
+import org.apache.uima.util.XMLInputSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+/**
+ * Reads and writes serialized CASes.
+ * <p>
+ * CASes are written in a compact format based on UIMA's binary serialization (form 0), compressed
+ * using deflate. Like the legacy format, it contains the complete heap of the CAS including
+ * feature structures which are no longer reachable. So the addresses of the feature structures,
+ * which are used to identify annotations e.g. in the annotation editor, remain the same when a
+ * CAS is written and read again. The type system is not contained in the CAS file itself. Instead,
+ * it is stored once in a folder chosen by the caller (e.g. once per project) and referenced by its
+ * fingerprint.
+ * <p>
+ * Files in the legacy format (a Java-serialized {@link CASCompleteSerializer}) and in the first
+ * version of the compact format (based on form 6) can still be read. They are migrated to the
+ * current format the next time they are written.
+ */
 public final class CasPersistenceUtils
 {
+    /**
+     * Magic bytes at the start of files in the compact format. Files in the legacy format start
+     * with the Java serialization stream magic {@code 0xACED} instead.
+     */
+    private static final byte[] COMPACT_MAGIC = { 'W', 'A', 'C', 'S' };
+    
+    /**
+     * Version 1 only contains CASes in form 6, which drops unreachable feature structures and
+     * thereby changes the addresses of the remaining ones. Version 2 records the form used.
+     */
+    private static final int COMPACT_VERSION_1 = 1;
+    private static final int COMPACT_VERSION = 2;
+    
+    private static final byte FORM_BINARY = 0;
+    private static final byte FORM_BINARY_DEFLATED = 1;
+    private static final byte FORM_COMPRESSED = 6;
+    
+    /**
+     * Maximum number of compiled type systems kept for reading CASes.
+     */
+    private static final int MAX_TYPE_SYSTEMS = 32;
+
+    private static final String TYPE_SYSTEM_PREFIX = "typesystem-";
+    private static final String TYPE_SYSTEM_SUFFIX = ".xml";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Logger log = LoggerFactory.getLogger(CasPersistenceUtils.class);
+
+    /**
+     * Suffix of the temporary files that files are first written to before they are moved into
+     * place. Left-over temporary files are the result of an interrupted write and can be deleted.
+     */
+    public static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * When to force written data to the storage device.
+     */
+    public enum FsyncPolicy
+    {
+        /**
+         * Leave it to the operating system. A crash of the machine (but not of the application)
+         * may lose recent writes or leave files empty.
+         */
+        NONE,
+
+        /**
+         * Force the file contents before moving the file into place. A crash may lose the move,
+         * but never leaves a file with incomplete contents.
+         */
+        FILE,
+
+        /**
+         * Like {@link #FILE} but also force the directory after moving the file into place, so
+         * that a completed write survives a crash.
+         */
+        FILE_AND_DIRECTORY;
+
+        public static FsyncPolicy parse(String aValue)
+        {
+            return valueOf(aValue.trim().toUpperCase(Locale.US).replace('-', '_'));
+        }
+    }
+
+    private static volatile FsyncPolicy fsyncPolicy = FsyncPolicy.FILE;
+
+    /**
+     * Stored type systems by the type system of the CASes which have been written or read. The
+     * stored type systems do not reference the type system instances, so these can be garbage
+     * collected once they are no longer used.
+     */
+    private static final Map<TypeSystem, StoredTypeSystem> TYPE_SYSTEMS_BY_INSTANCE = Collections
+            .synchronizedMap(new WeakHashMap<>());
+
+    /**
+     * Type systems compiled from their stored description by their fingerprint. The least
+     * recently used ones are dropped - they are compiled again when they are needed. All access
+     * must be synchronized on the map itself.
+     */
+    private static final Map<String, TypeSystem> TYPE_SYSTEMS_BY_FINGERPRINT =
+            new LinkedHashMap<String, TypeSystem>(16, 0.75f, true)
+    {
+        private static final long serialVersionUID = 4826446203416431627L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, TypeSystem> aEldest)
+        {
+            return size() > MAX_TYPE_SYSTEMS;
+        }
+    };
+
+    /**
+     * CASes for reading CAS files in the compact format.
+     */
+    private static final CasPool CAS_POOL = new CasPool();
+
     private CasPersistenceUtils()
     {
         // No instances
     }
-    
+
     public static void writeSerializedCas(JCas aJCas, File aFile) throws IOException
     {
         writeSerializedCas(aJCas.getCas(), aFile);
@@ -48,33 +204,637 @@ public final class CasPersistenceUtils
 
     public static void writeSerializedCas(CAS aCas, File aFile)
         throws IOException
+    {
+        writeAtomically(aFile, serializeCas(aCas, aFile.getParentFile()));
+    }
+
+    /**
+     * Writes data to a file such that the file either retains its previous contents or has the
+     * new contents, even if the application or the machine crashes during the write. The data is
+     * written to a temporary file in the same folder which is then moved into place. Whether the
+     * data is forced to the storage device depends on the {@link #setFsyncPolicy fsync policy}.
+     */
+    public static void writeAtomically(File aFile, byte[] aData)
+        throws IOException
+    {
+        FsyncPolicy policy = fsyncPolicy;
+        File folder = aFile.getParentFile();
+        File tempFile = File.createTempFile(aFile.getName() + ".", TEMP_SUFFIX, folder);
+        try {
+            try (FileChannel channel = FileChannel.open(tempFile.toPath(),
+                    StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(aData);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                if (policy != FsyncPolicy.NONE) {
+                    channel.force(true);
+                }
+            }
+
+            try {
+                Files.move(tempFile.toPath(), aFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile.toPath(), aFile.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            if (policy == FsyncPolicy.FILE_AND_DIRECTORY) {
+                forceDirectory(folder);
+            }
+        }
+        finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+    }
+
+    private static void forceDirectory(File aFolder)
+    {
+        try (FileChannel channel = FileChannel.open(aFolder.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+        catch (IOException e) {
+            // Some platforms (e.g. Windows) do not support opening directories - there is
+            // nothing we can do about it
+        }
+    }
+
+    public static void setFsyncPolicy(FsyncPolicy aPolicy)
+    {
+        fsyncPolicy = aPolicy;
+    }
+
+    public static FsyncPolicy getFsyncPolicy()
+    {
+        return fsyncPolicy;
+    }
+
+    /**
+     * Serializes the CAS in the compact format into a byte array. The type system referenced by
+     * the serialized data is stored in the given folder so that the data can later be written to
+     * a CAS file in that folder as-is.
+     */
+    public static byte[] serializeCas(CAS aCas, File aFolder)
+        throws IOException
+    {
+        return serializeCas(aCas, aFolder, true);
+    }
+
+    /**
+     * Serializes the CAS like {@link #serializeCas(CAS, File)} but without compressing the
+     * data. Small changes to the CAS only cause local changes in the uncompressed data which
+     * makes it suitable for de-duplication against other versions of the CAS.
+     */
+    public static byte[] serializeCasUncompressed(CAS aCas, File aFolder)
+        throws IOException
+    {
+        return serializeCas(aCas, aFolder, false);
+    }
+
+    private static byte[] serializeCas(CAS aCas, File aFolder, boolean aCompress)
+        throws IOException
+    {
+        FileUtils.forceMkdir(aFolder);
+
+        StoredTypeSystem typeSystem = writeTypeSystem(aCas, aFolder);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(BUFFER_SIZE);
+        writeCompactCas(aCas, typeSystem, bos, aCompress);
+        return bos.toByteArray();
+    }
+
+    /**
+     * Reads a CAS from data produced by {@link #serializeCas(CAS, File)} or
+     * {@link #serializeCasUncompressed(CAS, File)}. The type system is looked up in the given
+     * folder.
+     */
+    public static CAS deserializeCas(byte[] aData, File aFolder)
+        throws IOException
+    {
+        try (InputStream is = new ByteArrayInputStream(aData)) {
+            if (!isCompactFormat(is)) {
+                throw new IOException("Data is not a serialized CAS");
+            }
+
+            CAS cas = readCompactCas(aFolder, new DataInputStream(is), false);
+            cas.getJCas();
+            return cas;
+        }
+        catch (IOException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Store the type system once in the given folder which is shared by the CAS files referencing
+     * it.
+     */
+    private static StoredTypeSystem writeTypeSystem(CAS aCas, File aFolder)
+        throws IOException
+    {
+        StoredTypeSystem typeSystem = getStoredTypeSystem(aCas.getTypeSystem());
+
+        File typeSystemFile = getTypeSystemFile(aFolder, typeSystem.fingerprint);
+        if (!typeSystemFile.exists()) {
+            writeAtomically(typeSystemFile, typeSystem.xml);
+        }
+
+        return typeSystem;
+    }
+
+    private static void writeCompactCas(CAS aCas, StoredTypeSystem aTypeSystem,
+            OutputStream aStream, boolean aCompress)
+        throws IOException
+    {
+        DataOutputStream os = new DataOutputStream(aStream);
+        try {
+            os.write(COMPACT_MAGIC);
+            os.writeInt(COMPACT_VERSION);
+            os.writeUTF(aTypeSystem.fingerprint);
+            
+            if (aTypeSystem.sameLayout) {
+                // The heap of the CAS can be written as-is because the type system compiled from
+                // the stored description uses the same type and feature codes
+                if (aCompress) {
+                    os.writeByte(FORM_BINARY_DEFLATED);
+                    Deflater deflater = new Deflater();
+                    try {
+                        DeflaterOutputStream dos = new DeflaterOutputStream(os, deflater,
+                                BUFFER_SIZE);
+                        Serialization.serializeCAS(aCas, dos);
+                        dos.finish();
+                    }
+                    finally {
+                        deflater.end();
+                    }
+                }
+                else {
+                    os.writeByte(FORM_BINARY);
+                    Serialization.serializeCAS(aCas, os);
+                }
+            }
+            else {
+                // Serializing against the stored type system ensures that the type codes used in
+                // the file match those of the type system the CAS is later deserialized into. The
+                // addresses of the feature structures change in this case.
+                os.writeByte(FORM_COMPRESSED);
+                new BinaryCasSerDes6(aCas, (MarkerImpl) null,
+                        (TypeSystemImpl) getTypeSystem(aTypeSystem), (ReuseInfo) null, false,
+                        aCompress ? CompressLevel.Default : CompressLevel.None,
+                        CompressStrat.Default).serialize(os);
+            }
+            os.flush();
+        }
+        catch (IOException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Writes the CAS in the legacy format which contains the full type system. Such files are
+     * self-contained and can also be read by older versions, e.g. when exporting projects.
+     */
+    public static void writeLegacySerializedCas(CAS aCas, File aFile)
+        throws IOException
     {
         FileUtils.forceMkdir(aFile.getParentFile());
 
-        try (ObjectOutputStream os = new ObjectOutputStream(new FileOutputStream(aFile))) {
+        try (ObjectOutputStream os = new ObjectOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(aFile.toPath()), BUFFER_SIZE))) {
             CASCompleteSerializer serializer = serializeCASComplete((CASImpl) aCas);
             os.writeObject(serializer);
         }
     }
 
-    public static void readSerializedCas(JCas aJCas, File aFile)
+    /**
+     * Copies a serialized CAS to the given folder. The copy is always in the self-contained legacy
+     * format.
+     */
+    public static void copySerializedCasToDirectory(File aFile, File aTargetFolder)
         throws IOException
     {
-        readSerializedCas(aJCas.getCas(), aFile);
+        if (isCompactFormat(aFile)) {
+            CAS cas = borrowSerializedCas(aFile);
+            try {
+                writeLegacySerializedCas(cas, new File(aTargetFolder, aFile.getName()));
+            }
+            finally {
+                releaseCas(cas);
+            }
+        }
+        else {
+            FileUtils.copyFileToDirectory(aFile, aTargetFolder);
+        }
     }
-    
-    public static void readSerializedCas(CAS aCas, File aFile)
+
+    /**
+     * Reads a CAS in the compact or legacy format. The returned CAS uses the type system which
+     * was used when the CAS was written.
+     */
+    public static CAS readSerializedCas(File aFile)
+        throws IOException
+    {
+        try (InputStream is = new BufferedInputStream(Files.newInputStream(aFile.toPath()),
+                BUFFER_SIZE)) {
+            return readSerializedCas(is, aFile.getParentFile(), false);
+        }
+    }
+
+    /**
+     * Reads a CAS like {@link #readSerializedCas(File)} for temporary use. The CAS is borrowed
+     * from a pool and must be returned using {@link #releaseCas(CAS)} once it is no longer used.
+     */
+    public static CAS borrowSerializedCas(File aFile)
         throws IOException
     {
-        try (ObjectInputStream is = new ObjectInputStream(new FileInputStream(aFile))) {
-            CASCompleteSerializer serializer = (CASCompleteSerializer) is.readObject();
-            deserializeCASComplete(serializer, (CASImpl) aCas);
+        try (InputStream is = new BufferedInputStream(Files.newInputStream(aFile.toPath()),
+                BUFFER_SIZE)) {
+            return readSerializedCas(is, aFile.getParentFile(), true);
+        }
+    }
+
+    /**
+     * Reads a CAS like {@link #readSerializedCas(byte[], File)} for temporary use. The CAS must be
+     * returned using {@link #releaseCas(CAS)} once it is no longer used.
+     */
+    public static CAS borrowSerializedCas(byte[] aData, File aFolder)
+        throws IOException
+    {
+        try (InputStream is = new ByteArrayInputStream(aData)) {
+            return readSerializedCas(is, aFolder, true);
+        }
+    }
+
+    /**
+     * Returns a CAS obtained from {@link #borrowSerializedCas(File)} to the pool. The CAS must not
+     * be used anymore afterwards.
+     */
+    public static void releaseCas(CAS aCas)
+    {
+        CAS_POOL.release(aCas);
+    }
+
+    public static CasPool getCasPool()
+    {
+        return CAS_POOL;
+    }
+
+    /**
+     * Reads a CAS in the compact or legacy format from the contents of a CAS file in the given
+     * folder.
+     */
+    public static CAS readSerializedCas(byte[] aData, File aFolder)
+        throws IOException
+    {
+        try (InputStream is = new ByteArrayInputStream(aData)) {
+            return readSerializedCas(is, aFolder, false);
+        }
+    }
+
+    private static CAS readSerializedCas(InputStream aStream, File aFolder, boolean aBorrow)
+        throws IOException
+    {
+        try {
+            CAS cas;
+
+            aStream.mark(COMPACT_MAGIC.length);
+            if (isCompactFormat(aStream)) {
+                cas = readCompactCas(aFolder, new DataInputStream(aStream), aBorrow);
+            }
+            else {
+                aStream.reset();
+                cas = readLegacyCas(aStream);
+            }
+
             // Initialize the JCas sub-system which is the most often used API in DKPro Core
             // components
-            aCas.getJCas();
+            cas.getJCas();
+
+            return cas;
+        }
+        catch (IOException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    public static boolean isCompactFormat(File aFile)
+        throws IOException
+    {
+        try (InputStream is = Files.newInputStream(aFile.toPath())) {
+            return isCompactFormat(is);
+        }
+    }
+
+    private static boolean isCompactFormat(InputStream aStream)
+        throws IOException
+    {
+        byte[] magic = new byte[COMPACT_MAGIC.length];
+        int read = IOUtils.read(aStream, magic);
+        return read == magic.length && Arrays.equals(magic, COMPACT_MAGIC);
+    }
+
+    private static CAS readCompactCas(File aFolder, DataInputStream aStream, boolean aBorrow)
+        throws Exception
+    {
+        int version = aStream.readInt();
+        if (version != COMPACT_VERSION && version != COMPACT_VERSION_1) {
+            throw new IOException("Unsupported CAS format version [" + version + "] in ["
+                    + aFolder + "]");
+        }
+
+        String fingerprint = aStream.readUTF();
+        byte form = version == COMPACT_VERSION_1 ? FORM_COMPRESSED : aStream.readByte();
+        TypeSystem typeSystem = getTypeSystem(aFolder, fingerprint);
+
+        CAS cas = aBorrow ? CAS_POOL.borrow(typeSystem) : CAS_POOL.take(typeSystem);
+        try {
+            switch (form) {
+            case FORM_BINARY:
+                Serialization.deserializeCAS(cas, aStream);
+                break;
+            case FORM_BINARY_DEFLATED:
+                Inflater inflater = new Inflater();
+                try {
+                    Serialization.deserializeCAS(cas,
+                            new InflaterInputStream(aStream, inflater, BUFFER_SIZE));
+                }
+                finally {
+                    inflater.end();
+                }
+                break;
+            case FORM_COMPRESSED:
+                Serialization.deserializeCAS(cas, aStream, (TypeSystem) null, (ReuseInfo) null);
+                break;
+            default:
+                throw new IOException("Unsupported CAS form [" + form + "] in [" + aFolder + "]");
+            }
+        }
+        catch (Exception e) {
+            CAS_POOL.release(cas);
+            throw e;
+        }
+        return cas;
+    }
+
+    private static CAS readLegacyCas(InputStream aStream)
+        throws Exception
+    {
+        CAS cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+        ObjectInputStream is = new ObjectInputStream(aStream);
+        CASCompleteSerializer serializer = (CASCompleteSerializer) is.readObject();
+        deserializeCASComplete(serializer, (CASImpl) cas);
+        return cas;
+    }
+
+    /**
+     * Checks whether the type system referenced by the given CAS file is present in the given
+     * folder. CAS files in the legacy format do not reference a stored type system.
+     */
+    public static boolean hasTypeSystem(File aFile, File aFolder)
+        throws IOException
+    {
+        try (DataInputStream is = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(aFile.toPath())))) {
+            if (!isCompactFormat(is)) {
+                return true;
+            }
+            
+            is.readInt();
+            return getTypeSystemFile(aFolder, is.readUTF()).exists();
+        }
+    }
+
+    /**
+     * Moves the type systems stored in the source folder to the target folder, e.g. when the
+     * type systems of several folders are to be stored in a shared folder. Type systems which
+     * already exist in the target folder are not copied again.
+     * 
+     * @return the number of type systems moved.
+     */
+    public static int moveTypeSystems(File aSourceFolder, File aTargetFolder)
+        throws IOException
+    {
+        File[] typeSystemFiles = aSourceFolder.listFiles((folder, name) -> 
+                name.startsWith(TYPE_SYSTEM_PREFIX) && name.endsWith(TYPE_SYSTEM_SUFFIX));
+        if (typeSystemFiles == null || typeSystemFiles.length == 0) {
+            return 0;
+        }
+        
+        FileUtils.forceMkdir(aTargetFolder);
+        for (File typeSystemFile : typeSystemFiles) {
+            File targetFile = new File(aTargetFolder, typeSystemFile.getName());
+            if (!targetFile.exists()) {
+                writeAtomically(targetFile, Files.readAllBytes(typeSystemFile.toPath()));
+            }
+            Files.delete(typeSystemFile.toPath());
+        }
+        return typeSystemFiles.length;
+    }
+
+    private static File getTypeSystemFile(File aFolder, String aFingerprint)
+    {
+        return new File(aFolder, TYPE_SYSTEM_PREFIX + aFingerprint + TYPE_SYSTEM_SUFFIX);
+    }
+
+    /**
+     * Gets a fingerprint of the given type system. Type systems containing the same types and
+     * features have the same fingerprint. Fingerprints are cached per type system instance.
+     */
+    public static String getTypeSystemFingerprint(TypeSystem aTypeSystem)
+        throws IOException
+    {
+        return getStoredTypeSystem(aTypeSystem).fingerprint;
+    }
+
+    /**
+     * Get the stored type system for the type system of a CAS that is about to be written.
+     */
+    private static StoredTypeSystem getStoredTypeSystem(TypeSystem aTypeSystem)
+        throws IOException
+    {
+        StoredTypeSystem typeSystem = TYPE_SYSTEMS_BY_INSTANCE.get(aTypeSystem);
+        if (typeSystem != null) {
+            return typeSystem;
+        }
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try {
+            TypeSystemUtil.typeSystem2TypeSystemDescription(aTypeSystem).toXML(bos);
+        }
+        catch (IOException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new IOException(e);
+        }
+
+        byte[] xml = bos.toByteArray();
+        String fingerprint = fingerprint(xml);
+        
+        // The heap of a CAS can only be stored as-is if the type system compiled from the stored
+        // description assigns the same codes. This is usually the case, but we better check once
+        // per type system.
+        boolean sameLayout = hasSameLayout(aTypeSystem, getTypeSystem(fingerprint, xml));
+        if (!sameLayout) {
+            log.warn("Type system [{}] cannot be restored with the same type codes - addresses of "
+                    + "feature structures may change when CASes are written", fingerprint);
+        }
+        
+        typeSystem = new StoredTypeSystem(fingerprint, xml, sameLayout);
+        TYPE_SYSTEMS_BY_INSTANCE.put(aTypeSystem, typeSystem);
+        return typeSystem;
+    }
+    
+    /**
+     * Get the compiled type system for a CAS that is about to be read.
+     */
+    private static TypeSystem getTypeSystem(File aFolder, String aFingerprint)
+        throws IOException
+    {
+        synchronized (TYPE_SYSTEMS_BY_FINGERPRINT) {
+            TypeSystem typeSystem = TYPE_SYSTEMS_BY_FINGERPRINT.get(aFingerprint);
+            if (typeSystem != null) {
+                return typeSystem;
+            }
+        }
+
+        File typeSystemFile = getTypeSystemFile(aFolder, aFingerprint);
+        if (!typeSystemFile.exists()) {
+            throw new IOException("Type system [" + aFingerprint + "] not found in [" + aFolder
+                    + "]");
+        }
+
+        return getTypeSystem(aFingerprint, Files.readAllBytes(typeSystemFile.toPath()));
+    }
+    
+    private static TypeSystem getTypeSystem(StoredTypeSystem aTypeSystem)
+        throws IOException
+    {
+        return getTypeSystem(aTypeSystem.fingerprint, aTypeSystem.xml);
+    }
+
+    private static TypeSystem getTypeSystem(String aFingerprint, byte[] aXml)
+        throws IOException
+    {
+        synchronized (TYPE_SYSTEMS_BY_FINGERPRINT) {
+            TypeSystem typeSystem = TYPE_SYSTEMS_BY_FINGERPRINT.get(aFingerprint);
+            if (typeSystem != null) {
+                return typeSystem;
+            }
+        }
+        
+        TypeSystem ts;
+        try {
+            TypeSystemDescription tsd = UIMAFramework.getXMLParser().parseTypeSystemDescription(
+                    new XMLInputSource(new ByteArrayInputStream(aXml), null));
+            ts = CasCreationUtils.createCas(tsd, null, null).getTypeSystem();
         }
-        catch (CASException | ClassNotFoundException e) {
+        catch (UIMAException e) {
             throw new IOException(e);
         }
+
+        synchronized (TYPE_SYSTEMS_BY_FINGERPRINT) {
+            TypeSystem existing = TYPE_SYSTEMS_BY_FINGERPRINT.putIfAbsent(aFingerprint, ts);
+            if (existing != null) {
+                return existing;
+            }
+        }
+
+        // CASes read using this type system can be written again without computing the
+        // fingerprint again
+        TYPE_SYSTEMS_BY_INSTANCE.put(ts, new StoredTypeSystem(aFingerprint, aXml, true));
+        return ts;
+    }
+    
+    /**
+     * Checks whether both type systems use the same codes for all types and features, so that
+     * the heap of a CAS using one of them can be read into a CAS using the other one.
+     */
+    private static boolean hasSameLayout(TypeSystem aTypeSystem1, TypeSystem aTypeSystem2)
+    {
+        if (aTypeSystem1 == aTypeSystem2) {
+            return true;
+        }
+        
+        LowLevelTypeSystem ts1 = (LowLevelTypeSystem) aTypeSystem1;
+        LowLevelTypeSystem ts2 = (LowLevelTypeSystem) aTypeSystem2;
+        int types = 0;
+        Iterator<Type> i = aTypeSystem1.getTypeIterator();
+        while (i.hasNext()) {
+            Type type1 = i.next();
+            Type type2 = aTypeSystem2.getType(type1.getName());
+            if (type2 == null || ts1.ll_getCodeForType(type1) != ts2.ll_getCodeForType(type2)) {
+                return false;
+            }
+            
+            List<Feature> features1 = type1.getFeatures();
+            List<Feature> features2 = type2.getFeatures();
+            if (features1.size() != features2.size()) {
+                return false;
+            }
+            for (int f = 0; f < features1.size(); f++) {
+                Feature feature1 = features1.get(f);
+                Feature feature2 = features2.get(f);
+                if (!feature1.getName().equals(feature2.getName())
+                        || ts1.ll_getCodeForFeature(feature1) != ts2
+                                .ll_getCodeForFeature(feature2)) {
+                    return false;
+                }
+            }
+            
+            types++;
+        }
+        
+        Iterator<Type> j = aTypeSystem2.getTypeIterator();
+        while (j.hasNext()) {
+            j.next();
+            types--;
+        }
+        
+        return types == 0;
+    }
+
+    private static String fingerprint(byte[] aData)
+    {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(aData);
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class StoredTypeSystem
+    {
+        final String fingerprint;
+        final byte[] xml;
+        
+        /**
+         * Whether the type system compiled from the stored description uses the same type and
+         * feature codes.
+         */
+        final boolean sameLayout;
+
+        public StoredTypeSystem(String aFingerprint, byte[] aXml, boolean aSameLayout)
+        {
+            fingerprint = aFingerprint;
+            xml = aXml;
+            sameLayout = aSameLayout;
+        }
     }
 }
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.TypeSystem;
+import org.apache.uima.resource.ResourceInitializationException;
+import org.apache.uima.util.CasCreationUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pool of empty CASes per type system.
+ * <p>
+ * CASes can either be taken from the pool for good or be borrowed. Borrowed CASes must be
+ * released when they are no longer used. They are then reset and kept for re-use as long as the
+ * pool limits permit. If a borrowed CAS is garbage collected without having been released, a
+ * leak is reported - if debug logging is enabled for this class, including the location where the
+ * CAS was borrowed.
+ * <p>
+ * Only CASes using a type system for which the pool has created CASes before are kept. CASes with
+ * other type systems are simply discarded when released.
+ * <p>
+ * CASes which are handed out to callers for an unknown time, e.g. those read into the CAS cache,
+ * are taken from the pool. They still benefit from the idle CASes released by short-lived users.
+ */
+public class CasPool
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    /**
+     * Idle CASes per type system. Type systems which are no longer used anywhere and for which no
+     * CASes are idle are dropped. All access must be synchronized on the map itself.
+     */
+    private final Map<TypeSystem, Deque<CAS>> idle = new WeakHashMap<>();
+    private int idleCount = 0;
+
+    private final ReferenceQueue<CAS> leaseQueue = new ReferenceQueue<>();
+    
+    /**
+     * Leases of the borrowed CASes. Leases are compared by the identity of their CAS, so the
+     * lease of a CAS can be found without scanning all leases.
+     */
+    private final Set<Lease> leases = ConcurrentHashMap.newKeySet();
+
+    private volatile int maxIdle = 8;
+    private volatile int maxIdlePerTypeSystem = 2;
+
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+    private final AtomicLong leaked = new AtomicLong();
+
+    /**
+     * Takes a CAS from the pool. The CAS is not expected to be returned to the pool.
+     */
+    public CAS take(TypeSystem aTypeSystem)
+        throws ResourceInitializationException
+    {
+        CAS cas = null;
+        synchronized (idle) {
+            Deque<CAS> casses = idle.get(aTypeSystem);
+            if (casses == null) {
+                // Remember the type system so that CASes using it can be kept when released
+                idle.put(aTypeSystem, new ArrayDeque<>());
+            }
+            else if (!casses.isEmpty()) {
+                cas = casses.pop();
+                idleCount--;
+            }
+        }
+
+        if (cas != null) {
+            reused.incrementAndGet();
+            return cas;
+        }
+
+        created.incrementAndGet();
+        return CasCreationUtils.createCas(Collections.emptyList(), aTypeSystem, (Properties) null);
+    }
+
+    /**
+     * Borrows a CAS from the pool. The CAS must be returned to the pool using
+     * {@link #release(CAS)} when it is no longer used.
+     */
+    public CAS borrow(TypeSystem aTypeSystem)
+        throws ResourceInitializationException
+    {
+        expungeLeaks();
+
+        CAS cas = take(aTypeSystem);
+        leases.add(new Lease(cas, leaseQueue,
+                log.isDebugEnabled() ? new Throwable("CAS borrowed here") : null));
+        return cas;
+    }
+
+    /**
+     * Returns a CAS to the pool. The CAS must not be used anymore by the caller. It is ok to
+     * release CASes which have not been obtained from the pool.
+     */
+    public void release(CAS aCas)
+    {
+        expungeLeaks();
+
+        leases.remove(new Lease(aCas, null, null));
+
+        aCas.reset();
+
+        synchronized (idle) {
+            Deque<CAS> casses = idle.get(aCas.getTypeSystem());
+            if (casses != null && casses.size() < maxIdlePerTypeSystem && idleCount < maxIdle) {
+                casses.push(aCas);
+                idleCount++;
+            }
+        }
+    }
+
+    private void expungeLeaks()
+    {
+        Reference<? extends CAS> ref;
+        while ((ref = leaseQueue.poll()) != null) {
+            Lease lease = (Lease) ref;
+            if (leases.remove(lease)) {
+                leaked.incrementAndGet();
+                if (lease.origin != null) {
+                    log.warn("Borrowed CAS was never returned to the pool", lease.origin);
+                }
+                else {
+                    log.warn("Borrowed CAS was never returned to the pool - enable debug logging "
+                            + "for [{}] to see where it was borrowed", getClass().getName());
+                }
+            }
+        }
+    }
+
+    public void setMaxIdle(int aMaxIdle)
+    {
+        maxIdle = aMaxIdle;
+    }
+
+    public void setMaxIdlePerTypeSystem(int aMaxIdlePerTypeSystem)
+    {
+        maxIdlePerTypeSystem = aMaxIdlePerTypeSystem;
+    }
+
+    public long getCreated()
+    {
+        return created.get();
+    }
+
+    public long getReused()
+    {
+        return reused.get();
+    }
+
+    public long getLeaked()
+    {
+        expungeLeaks();
+        return leaked.get();
+    }
+
+    public int getIdle()
+    {
+        synchronized (idle) {
+            return idleCount;
+        }
+    }
+
+    public int getBorrowed()
+    {
+        return leases.size();
+    }
+
+    private static class Lease
+        extends WeakReference<CAS>
+    {
+        final Throwable origin;
+        final int hash;
+
+        public Lease(CAS aCas, ReferenceQueue<CAS> aQueue, Throwable aOrigin)
+        {
+            super(aCas, aQueue);
+            origin = aOrigin;
+            hash = System.identityHashCode(aCas);
+        }
+
+        @Override
+        public boolean equals(Object aOther)
+        {
+            if (this == aOther) {
+                return true;
+            }
+            if (!(aOther instanceof Lease)) {
+                return false;
+            }
+            // A lease whose CAS has been garbage collected is only equal to itself
+            CAS cas = get();
+            return cas != null && cas == ((Lease) aOther).get();
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+    }
+}
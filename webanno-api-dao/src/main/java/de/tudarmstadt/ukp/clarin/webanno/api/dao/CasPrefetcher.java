@@ -0,0 +1,163 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.uima.jcas.JCas;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.DocumentOpenedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.clarin.webanno.security.UserDao;
+import de.tudarmstadt.ukp.clarin.webanno.security.model.User;
+
+/**
+ * When a user opens a document for annotation, loads the CASes of the previous and the next
+ * document in the list of documents the user can annotate into the CAS cache in the background,
+ * so that switching to these documents does not need to wait for the CASes to be loaded. The
+ * check whether the CASes need to be upgraded to the current type system of the project is also
+ * run in advance.
+ * <p>
+ * Prefetching runs on a single low-priority thread. If users open documents faster than the
+ * prefetches can be performed, the oldest waiting prefetches are discarded.
+ */
+@Component
+public class CasPrefetcher
+    implements DisposableBean
+{
+    private static final int MAX_QUEUED = 16;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    @Value(value = "${casStorage.prefetch.enabled:true}")
+    private boolean enabled;
+
+    private @Autowired DocumentService documentService;
+    private @Autowired CasStorageService casStorageService;
+    private @Autowired AnnotationSchemaService annotationService;
+    private @Autowired UserDao userRepository;
+
+    private ThreadPoolExecutor executor;
+
+    @EventListener
+    public void onDocumentOpened(DocumentOpenedEvent aEvent)
+    {
+        if (!enabled) {
+            return;
+        }
+
+        SourceDocument document = aEvent.getDocument();
+        String username = aEvent.getUser();
+
+        getExecutor().execute(() -> {
+            try {
+                prefetchAdjacentDocuments(document, username);
+            }
+            catch (Exception e) {
+                log.warn("Unable to prefetch documents adjacent to [{}]({}) for user [{}]",
+                        document.getName(), document.getId(), username, e);
+            }
+        });
+    }
+
+    private void prefetchAdjacentDocuments(SourceDocument aDocument, String aUsername)
+        throws Exception
+    {
+        User user = userRepository.get(aUsername);
+        if (user == null) {
+            return;
+        }
+
+        List<SourceDocument> documents = new ArrayList<>(documentService
+                .listAnnotatableDocuments(aDocument.getProject(), user).keySet());
+
+        int index = -1;
+        for (int i = 0; i < documents.size(); i++) {
+            if (Objects.equals(documents.get(i).getId(), aDocument.getId())) {
+                index = i;
+                break;
+            }
+        }
+
+        if (index == -1) {
+            return;
+        }
+
+        // Users more often move forward than backward
+        if (index + 1 < documents.size()) {
+            prefetch(documents.get(index + 1), aUsername);
+        }
+        if (index > 0) {
+            prefetch(documents.get(index - 1), aUsername);
+        }
+    }
+
+    private void prefetch(SourceDocument aDocument, String aUsername)
+        throws Exception
+    {
+        JCas jcas = casStorageService.prefetchCas(aDocument, aUsername);
+        if (jcas == null) {
+            return;
+        }
+
+        // This compiles the current type system of the project if necessary. The upgrade itself
+        // is left to the page opening the document - the cached CAS might be in use already.
+        if (annotationService.isUpgradeRequired(jcas.getCas(), aDocument.getProject())) {
+            log.debug("Prefetched CAS of user [{}] for document [{}]({}) needs to be upgraded",
+                    aUsername, aDocument.getName(), aDocument.getId());
+        }
+    }
+
+    private synchronized ThreadPoolExecutor getExecutor()
+    {
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(MAX_QUEUED), r -> {
+                        Thread t = new Thread(r, "cas-prefetch");
+                        t.setDaemon(true);
+                        t.setPriority(Thread.MIN_PRIORITY);
+                        return t;
+                    }, new ThreadPoolExecutor.DiscardOldestPolicy());
+        }
+        return executor;
+    }
+
+    @Override
+    public synchronized void destroy()
+    {
+        if (executor != null) {
+            // Interrupting a prefetch could close channels of the CAS storage
+            executor.shutdown();
+        }
+    }
+}
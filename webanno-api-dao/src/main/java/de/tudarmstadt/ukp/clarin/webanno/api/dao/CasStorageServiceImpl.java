@@ -21,68 +21,153 @@ import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.ANNOTATION_FO
 import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.DOCUMENT_FOLDER;
 import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.PROJECT_FOLDER;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileFilter;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.Arrays;
-import java.util.HashMap;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.comparator.LastModifiedFileComparator;
+import org.apache.commons.io.IOUtils;
 import org.apache.uima.UIMAException;
 import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.CASException;
 import org.apache.uima.jcas.JCas;
-import org.apache.uima.resource.metadata.TypeSystemDescription;
-import org.apache.uima.util.CasCreationUtils;
 import org.apache.wicket.MetaDataKey;
+import org.apache.wicket.request.IRequestHandler;
 import org.apache.wicket.request.cycle.AbstractRequestCycleListener;
 import org.apache.wicket.request.cycle.RequestCycle;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
 import org.springframework.dao.DataRetrievalFailureException;
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.support.MetricType;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.session.SessionDestroyedEvent;
 import org.springframework.stereotype.Component;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasSummary;
+import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasHistoryStore.Version;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasMemoryGovernor.Priority;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasPersistenceUtils.FsyncPolicy;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageDriver;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.FileSystemCasStorageDriver;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.AfterCasWrittenEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.AnnotationStateChangeEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.BeforeDocumentRemovedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.BeforeProjectRemovedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.DocumentStateChangedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.LayerConfigurationChangedEvent;
 import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctor;
 import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctorException;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState;
 import de.tudarmstadt.ukp.clarin.webanno.security.model.User;
+import de.tudarmstadt.ukp.clarin.webanno.support.concurrent.StripedReadWriteLock;
 import de.tudarmstadt.ukp.clarin.webanno.support.logging.Logging;
 import de.tudarmstadt.ukp.dkpro.core.api.metadata.type.DocumentMetaData;
 
+@ManagedResource
 @Component(CasStorageService.SERVICE_NAME)
 public class CasStorageServiceImpl
-    implements CasStorageService, InitializingBean
+    implements CasStorageService, InitializingBean, DisposableBean
 {
     private final Logger log = LoggerFactory.getLogger(getClass());
 
-    private final Object lock = new Object();
+    /**
+     * Locks guarding the stored CAS data, the pending writes and the cache entries per (document,
+     * user). Readers of the same CAS can proceed concurrently while writers get exclusive access.
+     * CASes of different documents or users usually use different locks and do not block each
+     * other at all.
+     * <p>
+     * The locks do not guard the CAS instances handed out to callers - these are used after the
+     * lock has been released. This is safe because a cached CAS is never handed out to another
+     * user than the one who loaded it (see {@link #cache}).
+     */
+    private final StripedReadWriteLock locks = new StripedReadWriteLock(256);
+    
+    /**
+     * Suffix of the backup files created by older versions while a CAS file was being written.
+     */
+    private static final String OLD_SUFFIX = ".ser.old";
+    
+    
+    /**
+     * The compact serialization is much smaller than the loaded CAS. This factor is used to
+     * estimate the heap size of a CAS from its serialized size, so that the CAS itself does not
+     * need to be inspected.
+     */
+    private static final int MEMORY_EXPANSION_FACTOR = 8;
 
-    public static final MetaDataKey<Map<JCasCacheKey, JCasCacheEntry>> CACHE = 
-            new MetaDataKey<Map<JCasCacheKey, JCasCacheEntry>>()
+    public static final MetaDataKey<Boolean> CACHE_DISABLED = new MetaDataKey<Boolean>()
     {
-        private static final long serialVersionUID = -5690189241875643945L;
+        private static final long serialVersionUID = -624612695417652879L;
     };
 
-    public static final MetaDataKey<Boolean> CACHE_DISABLED = new MetaDataKey<Boolean>()
+    /**
+     * The cached CASes handed out during the current request.
+     */
+    private static final MetaDataKey<Set<ScopedCacheKey>> REQUEST_CASES =
+            new MetaDataKey<Set<ScopedCacheKey>>()
     {
-        private static final long serialVersionUID = -624612695417652879L;
+        private static final long serialVersionUID = 6394380718208442186L;
     };
 
     @Value(value = "${repository.path}")
     private File dir;
     
+    /**
+     * The {@link CasStorageDriver} storing the serialized CASes.
+     */
+    @Value(value = "${casStorage.backend:" + FileSystemCasStorageDriver.ID + "}")
+    private String backend;
+    
     @Value(value = "${backup.keep.time:0}")
     private long backupKeepTime;
 
@@ -92,7 +177,130 @@ public class CasStorageServiceImpl
     @Value(value = "${backup.keep.number:0}")
     private int backupKeepNumber;
     
+    /**
+     * Maximum estimated heap size (in MB) of all CASes held in the application-wide cache. If the
+     * budget is exceeded, the least recently used CASes are evicted. Setting this to {@code 0}
+     * disables the cache.
+     */
+    @Value(value = "${casStorage.cache.maxHeapSize:256}")
+    private long cacheMaxHeapSize;
+    
+    /**
+     * If write-behind is enabled, CASes are not written to disk immediately. Instead, a snapshot
+     * of the CAS is taken and written after a short delay. Further changes to the same CAS within
+     * that delay replace the snapshot so that only the latest version is written. Pending writes
+     * are flushed before the CAS is read from disk, when the document is finished, when the
+     * session of the user ends and when the application shuts down.
+     */
+    @Value(value = "${casStorage.writeBehind.enabled:false}")
+    private boolean writeBehindEnabled;
+
+    /**
+     * Delay (in ms) after which a pending write is flushed to disk.
+     */
+    @Value(value = "${casStorage.writeBehind.delay:5000}")
+    private long writeBehindDelay;
+    
+    /**
+     * Maximum number of idle CASes kept for re-use when reading CASes only temporarily, e.g. for
+     * exporting or for the history.
+     */
+    @Value(value = "${casStorage.pool.maxIdle:8}")
+    private int poolMaxIdle;
+
+    /**
+     * Maximum number of idle CASes kept for re-use per type system.
+     */
+    @Value(value = "${casStorage.pool.maxIdlePerTypeSystem:2}")
+    private int poolMaxIdlePerTypeSystem;
+    
+    /**
+     * When to force CAS files to the storage device: {@code none}, {@code file} or
+     * {@code file_and_directory}.
+     * 
+     * @see CasPersistenceUtils.FsyncPolicy
+     */
+    @Value(value = "${casStorage.fsync:file}")
+    private String fsyncPolicy;
+    
+    /**
+     * Whether to scan the repository for the remains of interrupted writes on startup.
+     */
+    @Value(value = "${casStorage.recovery.enabled:true}")
+    private boolean recoveryEnabled;
+    
+    /**
+     * Maximum estimated heap size (in MB) of all CASes loaded by the storage at the same time,
+     * whether cached or not. Loading a CAS which would exceed the budget waits until enough CASes
+     * have been garbage collected. Setting this to {@code 0} disables the limit.
+     */
+    @Value(value = "${casStorage.memory.budget:0}")
+    private long memoryBudget;
+    
+    /**
+     * Maximum time (in ms) to wait for memory when loading a CAS.
+     */
+    @Value(value = "${casStorage.memory.maxWait:30000}")
+    private long memoryMaxWait;
+    
+    /**
+     * Maximum number of threads reading CASes concurrently for a batch read, e.g. the CASes of all
+     * annotators of a document for curation.
+     */
+    @Value(value = "${casStorage.read.threads:4}")
+    private int readThreads;
+    
     private @Autowired(required = false) CasDoctor casDoctor;
+    private @Autowired(required = false) List<CasStorageDriver> drivers;
+    private @Autowired(required = false) ApplicationEventPublisher applicationEventPublisher;
+    private CasStorageDriver driver;
+    
+    /**
+     * Application-wide CAS cache. CASes are mutable, so a cached CAS is only handed out to the
+     * user who loaded it - other users reading the same CAS get their own copy. Access-ordered so
+     * that iteration starts at the least recently used entry. All access must be synchronized on
+     * the map itself.
+     */
+    private final LinkedHashMap<ScopedCacheKey, JCasCacheEntry> cache = new LinkedHashMap<>(16,
+            0.75f, true);
+    private long cacheHeapSize = 0;
+    
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+    private final AtomicLong cacheEvictions = new AtomicLong();
+    
+    private final CasMemoryGovernor memoryGovernor = new CasMemoryGovernor();
+    
+    private final AtomicLong prefetches = new AtomicLong();
+    private final AtomicLong prefetchHits = new AtomicLong();
+    private final AtomicLong skippedPrefetches = new AtomicLong();
+    private final AtomicLong droppedPrefetches = new AtomicLong();
+    
+    /**
+     * CAS snapshots waiting to be written to disk. Entries are only added or replaced while
+     * holding the write lock of the CAS.
+     */
+    private final Map<JCasCacheKey, PendingWrite> pendingWrites = new ConcurrentHashMap<>();
+    private ScheduledThreadPoolExecutor writeBehindExecutor;
+    
+    private final CasHistoryStore historyStore = new CasHistoryStore();
+    private final Set<File> pendingPrunes = ConcurrentHashMap.newKeySet();
+    private final Set<File> importedLegacyBackups = ConcurrentHashMap.newKeySet();
+    private ExecutorService historyExecutor;
+    
+    private ExecutorService readExecutor;
+    
+    private final AtomicLong coalescedWrites = new AtomicLong();
+    
+    /**
+     * Stamps of the CAS data last verified by the CAS doctor. The stamps are also stored in the
+     * CAS summaries, so they survive a restart. Stamps created before
+     * {@link #verifiedStampsValidSince} do not match.
+     */
+    private final Map<JCasCacheKey, String> verifiedStamps = new ConcurrentHashMap<>();
+    private volatile long verifiedStampsValidSince = 0;
+    
+    private final AtomicLong skippedAnalyses = new AtomicLong();
     
     public CasStorageServiceImpl()
     {
@@ -105,6 +313,188 @@ public class CasStorageServiceImpl
         if (casDoctor == null) {
             log.info("CAS doctor not available - unable to check/repair CASes");
         }
+        
+        driver = getDriver(backend);
+        log.info("Using CAS storage backend [{}]", driver.getId());
+        
+        CasPool pool = CasPersistenceUtils.getCasPool();
+        pool.setMaxIdle(poolMaxIdle);
+        pool.setMaxIdlePerTypeSystem(poolMaxIdlePerTypeSystem);
+        
+        CasPersistenceUtils.setFsyncPolicy(FsyncPolicy.parse(fsyncPolicy));
+        
+        memoryGovernor.setBudget(memoryBudget * 1024 * 1024);
+        memoryGovernor.setPressureHandler(this::evictForMemoryPressure);
+        
+        if (recoveryEnabled) {
+            recover();
+        }
+        
+        if (writeBehindEnabled) {
+            writeBehindExecutor = new ScheduledThreadPoolExecutor(1, r -> {
+                Thread t = new Thread(r, "cas-write-behind");
+                t.setDaemon(true);
+                return t;
+            });
+            log.info("CAS write-behind enabled (delay: {}ms)", writeBehindDelay);
+        }
+        
+        if (backupInterval > 0) {
+            historyExecutor = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "cas-history");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    /**
+     * Gets the driver with the given ID. The file system driver is always available, even if it
+     * is not registered as a bean.
+     */
+    public CasStorageDriver getDriver(String aId)
+    {
+        if (drivers != null) {
+            for (CasStorageDriver d : drivers) {
+                if (d.getId().equals(aId)) {
+                    return d;
+                }
+            }
+        }
+        
+        if (FileSystemCasStorageDriver.ID.equals(aId)) {
+            return new FileSystemCasStorageDriver(dir);
+        }
+        
+        throw new IllegalArgumentException("Unknown CAS storage backend [" + aId + "]");
+    }
+
+    /**
+     * Cleans up after writes which have been interrupted by a crash. The storage folders of all
+     * drivers - not only of the active one, there may be data left from a migration - and the
+     * folders of the automation training documents are scanned in parallel. Left-over temporary
+     * files are deleted. Backup files left by older versions are restored if the CAS file they
+     * belong to is missing or cannot be read.
+     */
+    private void recover()
+        throws InterruptedException, ExecutionException
+    {
+        File[] projectFolders = new File(dir, PROJECT_FOLDER).listFiles(File::isDirectory);
+        if (projectFolders == null) {
+            return;
+        }
+        
+        List<CasStorageDriver> allDrivers = new ArrayList<>();
+        if (drivers != null) {
+            allDrivers.addAll(drivers);
+        }
+        if (allDrivers.stream().noneMatch(d -> FileSystemCasStorageDriver.ID.equals(d.getId()))) {
+            allDrivers.add(new FileSystemCasStorageDriver(dir));
+        }
+        
+        long start = System.currentTimeMillis();
+        AtomicInteger deleted = new AtomicInteger();
+        AtomicInteger restored = new AtomicInteger();
+        
+        ExecutorService executor = Executors
+                .newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+                    Thread t = new Thread(r, "cas-recovery");
+                    t.setDaemon(true);
+                    return t;
+                });
+        try {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (File projectFolder : projectFolders) {
+                Set<File> folders = new LinkedHashSet<>();
+                for (CasStorageDriver d : allDrivers) {
+                    folders.addAll(d.listStorageFolders(projectFolder));
+                }
+                
+                // The automation training documents are stored in their own folders
+                File[] trainingFolders = new File(projectFolder, WebAnnoConst.TRAIN)
+                        .listFiles(File::isDirectory);
+                if (trainingFolders != null) {
+                    for (File trainingFolder : trainingFolders) {
+                        File annotationFolder = new File(trainingFolder, ANNOTATION_FOLDER);
+                        if (annotationFolder.isDirectory()) {
+                            folders.add(annotationFolder);
+                        }
+                    }
+                }
+                
+                File typeSystemFolder = FileSystemCasStorageDriver
+                        .getTypeSystemFolder(projectFolder);
+                for (File folder : folders) {
+                    tasks.add(executor.submit(() -> {
+                        recoverFolder(folder, typeSystemFolder, deleted, restored);
+                        return null;
+                    }));
+                }
+            }
+            
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+            
+            log.info("Scanned {} storage folders for interrupted writes in {}ms - deleted {} "
+                    + "temporary files, restored {} CAS files", tasks.size(),
+                    System.currentTimeMillis() - start, deleted.get(), restored.get());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    private void recoverFolder(File aFolder, File aTypeSystemFolder, AtomicInteger aDeleted,
+            AtomicInteger aRestored)
+        throws IOException
+    {
+        List<File> files;
+        try (Stream<Path> paths = Files.walk(aFolder.toPath())) {
+            files = paths.map(Path::toFile).filter(File::isFile).collect(Collectors.toList());
+        }
+        
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(CasPersistenceUtils.TEMP_SUFFIX)) {
+                log.warn("Deleting temporary file [{}] left by an interrupted write", file);
+                Files.deleteIfExists(file.toPath());
+                aDeleted.incrementAndGet();
+            }
+            else if (name.endsWith(OLD_SUFFIX)) {
+                File casFile = new File(file.getParentFile(),
+                        name.substring(0, name.length() - OLD_SUFFIX.length()) + ".ser");
+                if (!casFile.exists() || !isReadable(casFile, aTypeSystemFolder)) {
+                    log.warn("Restoring [{}] from backup [{}] left by an interrupted write",
+                            casFile, file);
+                    Files.move(file.toPath(), casFile.toPath(),
+                            StandardCopyOption.REPLACE_EXISTING);
+                    aRestored.incrementAndGet();
+                }
+                else {
+                    Files.delete(file.toPath());
+                }
+            }
+        }
+    }
+    
+    private boolean isReadable(File aCasFile, File aTypeSystemFolder)
+    {
+        try {
+            // The type system is usually stored per project, but files which have not been
+            // touched since older versions still have it in the same folder.
+            File typeSystemFolder = aTypeSystemFolder;
+            if (!CasPersistenceUtils.hasTypeSystem(aCasFile, typeSystemFolder)) {
+                typeSystemFolder = aCasFile.getParentFile();
+            }
+            CAS cas = CasPersistenceUtils.borrowSerializedCas(
+                    Files.readAllBytes(aCasFile.toPath()), typeSystemFolder);
+            CasPersistenceUtils.releaseCas(cas);
+            return true;
+        }
+        catch (Exception e) {
+            return false;
+        }
     }
 
     /**
@@ -123,43 +513,53 @@ public class CasStorageServiceImpl
     public void writeCas(SourceDocument aDocument, JCas aJcas, String aUserName)
         throws IOException
     {
-        File annotationFolder = getAnnotationFolder(aDocument);
-        File targetPath = getAnnotationFolder(aDocument);
-        realWriteCas(aDocument.getProject(), aDocument.getName(), aDocument.getId(), aJcas,
-                aUserName, annotationFolder, targetPath);
-
-        // Update the CAS in the cache
-        if (isCacheEnabled()) {
-            JCasCacheKey key = JCasCacheKey.of(aDocument, aUserName);
-            JCasCacheEntry entry = getCache().get(key);
-            if (entry == null) {
-                entry = new JCasCacheEntry();
-                entry.jcas = aJcas;
-            }
-            entry.writes++;
-            getCache().put(key, entry);
-        }
-    }
-    
-    private void realWriteCas(Project aProject, String aDocumentName, long aDocumentId, JCas aJcas,
-            String aUserName, File aAnnotationFolder, File aTargetPath)
-        throws IOException
-    {
+        Project project = aDocument.getProject();
+        String documentName = aDocument.getName();
+        long documentId = aDocument.getId();
+        
         log.debug("Writing annotation document [{}]({}) for user [{}] in project [{}]({})",
-                aDocumentName, aDocumentId, aUserName, aProject.getName(), aProject.getId());
+                documentName, documentId, aUserName, project.getName(), project.getId());
         // DebugUtils.smallStack();
 
+        JCasCacheKey key = JCasCacheKey.of(aDocument, aUserName);
+        String scope = getCacheScope();
+
+        DocumentMetaData md;
         try {
-            if (casDoctor != null) {
-                casDoctor.analyze(aProject, aJcas.getCas());
+            md = DocumentMetaData.get(aJcas);
+        }
+        catch (IllegalArgumentException e) {
+            md = DocumentMetaData.create(aJcas);
+        }
+        md.setDocumentId(aUserName);
+
+        byte[] data = CasPersistenceUtils.serializeCas(aJcas.getCas(),
+                driver.getTypeSystemFolder(aDocument));
+        String dataStamp = getDataStamp(data);
+        CasSummary summary = CasSummary.of(aJcas.getCas(), dataStamp, System.currentTimeMillis());
+
+        // If exactly this data has been verified before, there is no need to analyze it again
+        String stamp = getVerificationStamp(dataStamp);
+        boolean verified = false;
+        try {
+            if (isVerified(key, aDocument, aUserName, stamp)) {
+                skippedAnalyses.incrementAndGet();
+                log.debug("CAS {} unchanged since last verification - skipping analysis", key);
+                verified = true;
+            }
+            else if (casDoctor != null) {
+                verified = casDoctor.analyze(project, aJcas.getCas());
+                if (verified) {
+                    verifiedStamps.put(key, stamp);
+                }
             }
         }
         catch (CasDoctorException e) {
             StringBuilder detailMsg = new StringBuilder();
             detailMsg.append("CAS Doctor found problems for user [").append(aUserName)
-                    .append("] in source document [").append(aDocumentName).append("] (")
-                    .append(aDocumentId).append(") in project[").append(aProject.getName())
-                    .append("] (").append(aProject.getId()).append(")\n");
+                    .append("] in source document [").append(documentName).append("] (")
+                    .append(documentId).append(") in project[").append(project.getName())
+                    .append("] (").append(project.getId()).append(")\n");
             e.getDetails().forEach(m ->
                     detailMsg.append(String.format("- [%s] %s%n", m.level, m.message)));
 
@@ -167,260 +567,1204 @@ public class CasStorageServiceImpl
         }
         catch (Exception e) {
             throw new DataRetrievalFailureException("Error analyzing CAS of user [" + aUserName
-                    + "] in source document [" + aDocumentName + "] (" + aDocumentId
-                    + ") in project [" + aProject.getName() + "] (" + aProject.getId() + ")", e);
+                    + "] in source document [" + documentName + "] (" + documentId
+                    + ") in project [" + project.getName() + "] (" + project.getId() + ")", e);
+        }
+        if (verified) {
+            summary = summary.withVerificationStamp(stamp);
         }
 
-        synchronized (lock) {
-            // File annotationFolder = getAnnotationFolder(aDocument);
-            FileUtils.forceMkdir(aAnnotationFolder);
-
-            final String username = aUserName;
-
-            File currentVersion = new File(aAnnotationFolder, username + ".ser");
-            File oldVersion = new File(aAnnotationFolder, username + ".ser.old");
-
-            // Save current version
-            try {
-                // Make a backup of the current version of the file before overwriting
-                if (currentVersion.exists()) {
-                    renameFile(currentVersion, oldVersion);
-                }
-
-                // Now write the new version to "<username>.ser" or CURATION_USER.ser
-                DocumentMetaData md;
-                try {
-                    md = DocumentMetaData.get(aJcas);
-                }
-                catch (IllegalArgumentException e) {
-                    md = DocumentMetaData.create(aJcas);
-                }
-                md.setDocumentId(aUserName);
-
-                // File targetPath = getAnnotationFolder(aDocument);
-                CasPersistenceUtils.writeSerializedCas(aJcas,
-                        new File(aTargetPath, aUserName + ".ser"));
-
-                try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
-                        String.valueOf(aProject.getId()))) {
-                    log.info(
-                            "Updated annotations for user [{}] on document [{}]({}) in project [{}]({})",
-                            aUserName, aDocumentName, aDocumentId, aProject.getName(),
-                            aProject.getId());
+        Lock writeLock = locks.get(key).writeLock();
+        writeLock.lock();
+        try {
+            // The first version of a CAS is always written immediately such that other code
+            // checking for the existence of the CAS sees it.
+            if (writeBehindEnabled && driver.exists(aDocument, aUserName)) {
+                // The serialized data is a snapshot of the CAS - the CAS itself may be changed
+                // further by the caller before the snapshot is written.
+                PendingWrite write = new PendingWrite(aDocument, aUserName, data, summary);
+                if (pendingWrites.put(key, write) == null) {
+                    scheduleFlush(key);
                 }
-
-                // If the saving was successful, we delete the old version
-                if (oldVersion.exists()) {
-                    FileUtils.forceDelete(oldVersion);
+                else {
+                    coalescedWrites.incrementAndGet();
                 }
             }
-            catch (IOException e) {
-                // If we could not save the new version, restore the old one.
-                FileUtils.forceDelete(currentVersion);
-                // If this is the first version, there is no old version, so do not restore anything
-                if (oldVersion.exists()) {
-                    renameFile(oldVersion, currentVersion);
-                }
-                // Now abort anyway
-                throw e;
+            else {
+                // A synchronous write supersedes any pending write of an older version
+                pendingWrites.remove(key);
+                persistCas(aDocument, aUserName, data, summary);
             }
 
-            // Manage history
-            if (backupInterval > 0) {
-                // Determine the reference point in time based on the current version
-                long now = currentVersion.lastModified();
-
-                // Get all history files for the current user
-                File[] history = aAnnotationFolder.listFiles(new FileFilter()
-                {
-                    private final Matcher matcher = Pattern
-                            .compile(Pattern.quote(username) + "\\.ser\\.[0-9]+\\.bak").matcher("");
-
-                    @Override
-                    public boolean accept(File aFile)
-                    {
-                        // Check if the filename matches the pattern given above.
-                        return matcher.reset(aFile.getName()).matches();
-                    }
-                });
-
-                // Sort the files (oldest one first)
-                Arrays.sort(history, LastModifiedFileComparator.LASTMODIFIED_COMPARATOR);
+            // Copies of the previous version cached for other users are stale now. The copy of
+            // the writing user is replaced by the CAS just written. If the cache is disabled for
+            // the current request, we at least need to make sure that no stale version of the CAS
+            // remains in the cache.
+            cacheRemove(key, scope);
+            if (scope != null) {
+                cachePut(new ScopedCacheKey(scope, key), aJcas, estimateHeapSize(data.length),
+                        true);
+                trackRequestCas(scope, key);
+            }
+        }
+        finally {
+            writeLock.unlock();
+        }
+        
+        if (applicationEventPublisher != null) {
+            applicationEventPublisher.publishEvent(
+                    new AfterCasWrittenEvent(this, aDocument, aUserName, aJcas));
+        }
+    }
 
-                // Check if we need to make a new history file
-                boolean historyFileCreated = false;
-                File historyFile = new File(aAnnotationFolder, username + ".ser." + now + ".bak");
-                if (history.length == 0) {
-                    // If there is no history yet but we should keep history, then we create a
-                    // history file in any case.
-                    FileUtils.copyFile(currentVersion, historyFile);
-                    historyFileCreated = true;
-                }
-                else {
-                    // Check if the newest history file is significantly older than the current one
-                    File latestHistory = history[history.length - 1];
-                    if (latestHistory.lastModified() + backupInterval < now) {
-                        FileUtils.copyFile(currentVersion, historyFile);
-                        historyFileCreated = true;
-                    }
-                }
+    /**
+     * Writes a CAS through the driver, replacing the previous version only once the new version
+     * has been written completely, and manages the summary and history files. The caller must
+     * hold the write lock of the CAS.
+     * 
+     * @param aSummary
+     *            the summary of the CAS which also records whether the CAS has been verified.
+     */
+    private void persistCas(SourceDocument aDocument, String aUserName, byte[] aData,
+            CasSummary aSummary)
+        throws IOException
+    {
+        Project project = aDocument.getProject();
+        
+        // If we crash before the new summary has been written, the summary is re-created from
+        // the CAS when it is needed next
+        deleteSummary(aDocument, aUserName);
+        
+        // If this fails, the previous version remains untouched
+        driver.write(aDocument, aUserName, aData);
+        
+        writeSummary(aDocument, aUserName, aSummary);
 
-                // Prune history based on number of backup
-                if (historyFileCreated) {
-                    // The new version is not in the history, so we keep that in any case. That
-                    // means we need to keep one less.
-                    int toKeep = Math.max(backupKeepNumber - 1, 0);
-                    if ((backupKeepNumber > 0) && (toKeep < history.length)) {
-                        // Copy the oldest files to a new array
-                        File[] toRemove = new File[history.length - toKeep];
-                        System.arraycopy(history, 0, toRemove, 0, toRemove.length);
-
-                        // Restrict the history to what is left
-                        File[] newHistory = new File[toKeep];
-                        if (toKeep > 0) {
-                            System.arraycopy(history, toRemove.length, newHistory, 0,
-                                    newHistory.length);
-                        }
-                        history = newHistory;
-
-                        // Remove these old files
-                        for (File file : toRemove) {
-                            FileUtils.forceDelete(file);
-
-                            try (MDC.MDCCloseable closable = MDC.putCloseable(
-                                    Logging.KEY_PROJECT_ID, String.valueOf(aProject.getId()))) {
-                                log.info(
-                                        "Removed surplus history file [{}] of user [{}] for "
-                                                + "document [{}]({}) in project [{}]({})",
-                                        file.getName(), aUserName, aDocumentName, aDocumentId,
-                                        aProject.getName(), aProject.getId());
-                            }
-                        }
-                    }
+        try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
+                String.valueOf(project.getId()))) {
+            log.info("Updated annotations for user [{}] on document [{}]({}) in project [{}]({})",
+                    aUserName, aDocument.getName(), aDocument.getId(), project.getName(),
+                    project.getId());
+        }
 
-                    // Prune history based on time
-                    if (backupKeepTime > 0) {
-                        for (File file : history) {
-                            if ((file.lastModified() + backupKeepTime) < now) {
-                                FileUtils.forceDelete(file);
-
-                                try (MDC.MDCCloseable closable = MDC.putCloseable(
-                                        Logging.KEY_PROJECT_ID, String.valueOf(aProject.getId()))) {
-                                    log.info(
-                                            "Removed outdated history file [{}] of user [{}] for "
-                                                    + "document [{}]({}) in project [{}]({})",
-                                            file.getName(), aUserName, aDocumentName, aDocumentId,
-                                            aProject.getName(), aProject.getId());
-                                }
-                            }
-                        }
-                    }
+        // Manage history - the CAS has been saved at this point, so problems with the history
+        // must not let the save appear to have failed
+        if (backupInterval > 0) {
+            try {
+                addHistoryVersion(aDocument, aUserName, aData);
+            }
+            catch (Exception e) {
+                try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
+                        String.valueOf(project.getId()))) {
+                    log.error("Unable to add history version of user [{}] for document [{}]({}) "
+                            + "in project [{}]({})", aUserName, aDocument.getName(),
+                            aDocument.getId(), project.getName(), project.getId(), e);
                 }
             }
         }
     }
+    
+    private void addHistoryVersion(SourceDocument aDocument, String aUserName, byte[] aData)
+        throws IOException
+    {
+        Project project = aDocument.getProject();
+        File historyFolder = getHistoryFolder(aDocument);
+        
+        importLegacyBackups(aDocument, aUserName, historyFolder);
+        
+        long now = System.currentTimeMillis();
+        if (!historyStore.isDue(historyFolder, aUserName, now, backupInterval * 1000)) {
+            return;
+        }
+        
+        // The history is stored uncompressed so that unchanged parts can be shared with other
+        // versions
+        byte[] data;
+        File typeSystemFolder = driver.getTypeSystemFolder(aDocument);
+        CAS cas = CasPersistenceUtils.borrowSerializedCas(aData, typeSystemFolder);
+        try {
+            data = CasPersistenceUtils.serializeCasUncompressed(cas, typeSystemFolder);
+        }
+        finally {
+            CasPersistenceUtils.releaseCas(cas);
+        }
+        historyStore.addVersion(historyFolder, aUserName, data, now);
 
+        try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
+                String.valueOf(project.getId()))) {
+            log.info("Added history version of user [{}] for document [{}]({}) in project "
+                    + "[{}]({})", aUserName, aDocument.getName(), aDocument.getId(),
+                    project.getName(), project.getId());
+        }
+
+        if (backupKeepNumber > 0 || backupKeepTime > 0) {
+            schedulePrune(project, historyFolder);
+        }
+    }
+    
     /**
-     * For a given {@link SourceDocument}, return the {@link AnnotationDocument} for the user or for
-     * the CURATION_USER
-     *
-     * @param aDocument
-     *            the {@link SourceDocument}
-     * @param aUsername
-     *            the {@link User} who annotates the {@link SourceDocument} or the CURATION_USER
+     * Older versions kept the history as full copies of the CAS files named
+     * {@code <user>.ser.<timestamp>.bak} in the annotation folder. These are added to the history
+     * store once and then removed.
      */
+    private void importLegacyBackups(SourceDocument aDocument, String aUserName,
+            File aHistoryFolder)
+        throws IOException
+    {
+        File annotationFolder = getAnnotationFolder(aDocument);
+        if (!importedLegacyBackups.add(new File(annotationFolder, aUserName))) {
+            return;
+        }
+        
+        Pattern pattern = Pattern.compile(Pattern.quote(aUserName) + "\\.ser\\.([0-9]+)\\.bak");
+        File[] backups = annotationFolder
+                .listFiles((folder, name) -> pattern.matcher(name).matches());
+        if (backups == null || backups.length == 0) {
+            return;
+        }
+        
+        File typeSystemFolder = driver.getTypeSystemFolder(aDocument);
+        for (File backup : backups) {
+            Matcher matcher = pattern.matcher(backup.getName());
+            matcher.matches();
+            long timestamp = Long.parseLong(matcher.group(1));
+            
+            CAS cas;
+            try {
+                cas = CasPersistenceUtils.borrowSerializedCas(backup);
+            }
+            catch (IOException e) {
+                log.warn("Unable to read backup [{}] - leaving it in place", backup, e);
+                continue;
+            }
+            
+            try {
+                historyStore.addVersion(aHistoryFolder, aUserName,
+                        CasPersistenceUtils.serializeCasUncompressed(cas, typeSystemFolder),
+                        timestamp);
+            }
+            finally {
+                CasPersistenceUtils.releaseCas(cas);
+            }
+            Files.delete(backup.toPath());
+        }
+        
+        log.info("Moved {} backups of user [{}] for document [{}]({}) to the history",
+                backups.length, aUserName, aDocument.getName(), aDocument.getId());
+        
+        if (backupKeepNumber > 0 || backupKeepTime > 0) {
+            schedulePrune(aDocument.getProject(), aHistoryFolder);
+        }
+    }
+    
+    private File getHistoryFolder(SourceDocument aDocument)
+    {
+        return driver.getHistoryFolder(aDocument);
+    }
+    
     @Override
-    public JCas readCas(SourceDocument aDocument, String aUsername)
+    public List<Long> listCasVersions(SourceDocument aDocument, String aUsername)
         throws IOException
     {
-        return readCas(aDocument, aUsername, true);
+        File historyFolder = getHistoryFolder(aDocument);
+        importLegacyBackups(aDocument, aUsername, historyFolder);
+        
+        List<Long> timestamps = new ArrayList<>();
+        for (Version version : historyStore.listVersions(historyFolder, aUsername)) {
+            timestamps.add(version.getTimestamp());
+        }
+        return timestamps;
     }
     
     @Override
-    public JCas readCas(SourceDocument aDocument, String aUsername, boolean aAnalyzeAndRepair)
+    public JCas readCasVersion(SourceDocument aDocument, String aUsername, long aTimestamp)
+        throws IOException
+    {
+        File historyFolder = getHistoryFolder(aDocument);
+        importLegacyBackups(aDocument, aUsername, historyFolder);
+        
+        for (Version version : historyStore.listVersions(historyFolder, aUsername)) {
+            if (version.getTimestamp() == aTimestamp) {
+                byte[] data = historyStore.readVersion(historyFolder, version);
+                try {
+                    return CasPersistenceUtils
+                            .readSerializedCas(data, driver.getTypeSystemFolder(aDocument))
+                            .getJCas();
+                }
+                catch (CASException e) {
+                    throw new IOException(e);
+                }
+            }
+        }
+        
+        throw new FileNotFoundException("No history version [" + aTimestamp + "] of user ["
+                + aUsername + "] for document [" + aDocument.getName() + "]("
+                + aDocument.getId() + ")");
+    }
+    
+    @Override
+    public void restoreCas(SourceDocument aDocument, String aUsername, long aTimestamp)
+        throws IOException
+    {
+        JCas jcas = readCasVersion(aDocument, aUsername, aTimestamp);
+        
+        // Restoring is a regular change of the CAS, so the current version also ends up in the
+        // history and the restore can be undone
+        writeCas(aDocument, jcas, aUsername);
+        
+        log.info("Restored history version [{}] of user [{}] for document [{}]({})", aTimestamp,
+                aUsername, aDocument.getName(), aDocument.getId());
+    }
+
+    private void schedulePrune(Project aProject, File aHistoryFolder)
+    {
+        // If a prune of this folder is already waiting, it also covers the new version
+        if (!pendingPrunes.add(aHistoryFolder)) {
+            return;
+        }
+
+        historyExecutor.execute(() -> {
+            pendingPrunes.remove(aHistoryFolder);
+            try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
+                    String.valueOf(aProject.getId()))) {
+                int removed = historyStore.prune(aHistoryFolder, backupKeepNumber,
+                        backupKeepTime * 1000, System.currentTimeMillis());
+                if (removed > 0) {
+                    log.info("Removed [{}] surplus or outdated history versions from [{}]",
+                            removed, aHistoryFolder);
+                }
+            }
+            catch (IOException e) {
+                log.error("Unable to prune history in [{}]", aHistoryFolder, e);
+            }
+        });
+    }
+
+    private void scheduleFlush(JCasCacheKey aKey)
+    {
+        writeBehindExecutor.schedule(() -> {
+            try {
+                flushPendingWrite(aKey);
+            }
+            catch (IOException e) {
+                log.error("Unable to write CAS {} - retrying", aKey, e);
+            }
+        }, writeBehindDelay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes the pending version of the given CAS to disk, if there is one.
+     */
+    private void flushPendingWrite(JCasCacheKey aKey)
+        throws IOException
+    {
+        if (!pendingWrites.containsKey(aKey)) {
+            return;
+        }
+
+        Lock writeLock = locks.get(aKey).writeLock();
+        writeLock.lock();
+        try {
+            PendingWrite write = pendingWrites.remove(aKey);
+            if (write == null) {
+                return;
+            }
+
+            try {
+                persistCas(write.document, write.userName, write.data, write.summary);
+            }
+            catch (IOException e) {
+                // Keep the write pending unless it has been superseded in the meantime and try
+                // again later
+                if (pendingWrites.putIfAbsent(aKey, write) == null
+                        && !writeBehindExecutor.isShutdown()) {
+                    scheduleFlush(aKey);
+                }
+                throw e;
+            }
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void flushCas(SourceDocument aDocument, String aUsername)
+        throws IOException
+    {
+        flushPendingWrite(JCasCacheKey.of(aDocument, aUsername));
+    }
+
+    @Override
+    public void flushAll()
+        throws IOException
+    {
+        IOException failure = null;
+        for (JCasCacheKey key : new ArrayList<>(pendingWrites.keySet())) {
+            try {
+                flushPendingWrite(key);
+            }
+            catch (IOException e) {
+                log.error("Unable to write CAS {}", key, e);
+                failure = e;
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Make sure that the annotations are on disk once the user has marked the document as
+     * finished.
+     */
+    @EventListener
+    public void onAnnotationStateChange(AnnotationStateChangeEvent aEvent)
+        throws IOException
+    {
+        if (AnnotationDocumentState.FINISHED.equals(aEvent.getNewState())) {
+            flushCas(aEvent.getDocument(), aEvent.getAnnotationDocument().getUser());
+        }
+    }
+
+    @EventListener
+    public void onDocumentStateChanged(DocumentStateChangedEvent aEvent)
+        throws IOException
+    {
+        if (SourceDocumentState.CURATION_FINISHED.equals(aEvent.getNewState())) {
+            flushCas(aEvent.getDocument(), WebAnnoConst.CURATION_USER);
+        }
+    }
+
+    /**
+     * Make sure that the annotations of a user are on disk once the user's session ends.
+     */
+    @EventListener
+    public void onSessionDestroyed(SessionDestroyedEvent aEvent)
+    {
+        Set<String> users = new HashSet<>();
+        for (SecurityContext context : aEvent.getSecurityContexts()) {
+            if (context.getAuthentication() != null) {
+                users.add(context.getAuthentication().getName());
+            }
+        }
+        
+        if (users.isEmpty()) {
+            return;
+        }
+        
+        // The copies of the CASes cached for these users are not needed anymore
+        synchronized (cache) {
+            Iterator<Entry<ScopedCacheKey, JCasCacheEntry>> i = cache.entrySet().iterator();
+            while (i.hasNext()) {
+                Entry<ScopedCacheKey, JCasCacheEntry> e = i.next();
+                if (users.contains(e.getKey().scope)) {
+                    cacheHeapSize -= e.getValue().heapSize;
+                    i.remove();
+                }
+            }
+        }
+        
+        // The curation CAS is shared by all curators, so we cannot tell whose changes are still
+        // pending and flush it as well
+        users.add(WebAnnoConst.CURATION_USER);
+
+        for (JCasCacheKey key : new ArrayList<>(pendingWrites.keySet())) {
+            if (users.contains(key.userId)) {
+                try {
+                    flushPendingWrite(key);
+                }
+                catch (IOException e) {
+                    log.error("Unable to write CAS {}", key, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drop the CASes of a document that is being removed. Otherwise, a pending write would
+     * re-create the annotation folder of the removed document once it is flushed.
+     */
+    @EventListener
+    public void onBeforeDocumentRemoved(BeforeDocumentRemovedEvent aEvent)
+    {
+        long documentId = aEvent.getDocument().getId();
+        forgetCases(key -> key.sourceDocumentId == documentId);
+    }
+
+    @EventListener
+    public void onBeforeProjectRemoved(BeforeProjectRemovedEvent aEvent)
+    {
+        Long projectId = aEvent.getProject().getId();
+        forgetCases(key -> projectId.equals(key.projectId));
+    }
+
+    /**
+     * Removes the matching CASes from the cache and discards their pending writes without
+     * writing them.
+     */
+    private void forgetCases(Predicate<JCasCacheKey> aCondition)
+    {
+        Set<JCasCacheKey> keys = new HashSet<>();
+        pendingWrites.keySet().stream().filter(aCondition).forEach(keys::add);
+        verifiedStamps.keySet().stream().filter(aCondition).forEach(keys::add);
+        synchronized (cache) {
+            cache.keySet().stream().map(key -> key.cas).filter(aCondition).forEach(keys::add);
+        }
+
+        for (JCasCacheKey key : keys) {
+            Lock writeLock = locks.get(key).writeLock();
+            writeLock.lock();
+            try {
+                cacheRemove(key);
+                if (pendingWrites.remove(key) != null) {
+                    log.debug("Discarded pending write of CAS {}", key);
+                }
+                verifiedStamps.remove(key);
+            }
+            finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public void destroy()
+        throws Exception
+    {
+        if (writeBehindExecutor != null) {
+            // Do not wait for the scheduled flushes - we flush everything right away
+            writeBehindExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+            writeBehindExecutor.shutdown();
+            writeBehindExecutor.awaitTermination(30, TimeUnit.SECONDS);
+            flushAll();
+        }
+        
+        if (historyExecutor != null) {
+            historyExecutor.shutdown();
+            historyExecutor.awaitTermination(30, TimeUnit.SECONDS);
+        }
+        
+        synchronized (this) {
+            if (readExecutor != null) {
+                readExecutor.shutdown();
+            }
+        }
+    }
+
+    /**
+     * For a given {@link SourceDocument}, return the {@link AnnotationDocument} for the user or for
+     * the CURATION_USER
+     *
+     * @param aDocument
+     *            the {@link SourceDocument}
+     * @param aUsername
+     *            the {@link User} who annotates the {@link SourceDocument} or the CURATION_USER
+     */
+    @Override
+    public JCas readCas(SourceDocument aDocument, String aUsername)
+        throws IOException
+    {
+        return readCas(aDocument, aUsername, true);
+    }
+    
+    @Override
+    public JCas readCas(SourceDocument aDocument, String aUsername, boolean aAnalyzeAndRepair)
+        throws IOException
+    {
+        String scope = getCacheScope();
+        JCas jcas = readCas(aDocument, aUsername, aAnalyzeAndRepair, scope, getPriority());
+        trackRequestCas(scope, JCasCacheKey.of(aDocument, aUsername));
+        return jcas;
+    }
+    
+    @Override
+    public List<JCas> readCases(List<AnnotationDocument> aAnnotationDocuments)
+        throws IOException
+    {
+        // The cache scope and the priority for memory depend on the request cycle and on the
+        // security context, which are not available on the threads of the pool
+        String scope = getCacheScope();
+        List<JCas> cases = readCases(aAnnotationDocuments, scope, getPriority());
+        for (AnnotationDocument annDoc : aAnnotationDocuments) {
+            trackRequestCas(scope, JCasCacheKey.of(annDoc.getDocument(), annDoc.getUser()));
+        }
+        return cases;
+    }
+    
+    /**
+     * Reads the CASes for the given annotation documents in the given cache scope and with the
+     * given priority, concurrently if there is more than one. If a read fails, the reads which
+     * have not started yet are cancelled and the exception is passed on.
+     */
+    List<JCas> readCases(List<AnnotationDocument> aAnnotationDocuments, String aScope,
+            Priority aPriority)
+        throws IOException
+    {
+        List<JCas> cases = new ArrayList<>(aAnnotationDocuments.size());
+        if (aAnnotationDocuments.size() < 2 || readThreads <= 1) {
+            for (AnnotationDocument annDoc : aAnnotationDocuments) {
+                cases.add(readCas(annDoc.getDocument(), annDoc.getUser(), true, aScope,
+                        aPriority));
+            }
+            return cases;
+        }
+        
+        // The number of CASes loaded at the same time is bounded by the pool and each read
+        // reserves its memory from the memory budget as usual
+        ExecutorService executor = getReadExecutor();
+        List<Future<JCas>> tasks = new ArrayList<>(aAnnotationDocuments.size());
+        for (AnnotationDocument annDoc : aAnnotationDocuments) {
+            tasks.add(executor.submit(() -> readCas(annDoc.getDocument(), annDoc.getUser(), true,
+                    aScope, aPriority)));
+        }
+        
+        try {
+            for (Future<JCas> task : tasks) {
+                cases.add(task.get());
+            }
+            return cases;
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading annotations");
+        }
+        finally {
+            // Do not waste time on CASes nobody is waiting for anymore if a read failed
+            for (Future<JCas> task : tasks) {
+                task.cancel(false);
+            }
+        }
+    }
+    
+    private synchronized ExecutorService getReadExecutor()
+    {
+        if (readExecutor == null) {
+            AtomicInteger threadCount = new AtomicInteger();
+            readExecutor = Executors.newFixedThreadPool(readThreads, r -> {
+                Thread t = new Thread(r, "cas-reader-" + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return readExecutor;
+    }
+    
+    JCas readCas(SourceDocument aDocument, String aUsername, boolean aAnalyzeAndRepair,
+            String aScope, Priority aPriority)
+        throws IOException
+    {
+        JCasCacheKey key = JCasCacheKey.of(aDocument, aUsername);
+        
+        // Without the cache, concurrent reads of the same CAS do not interfere with each other
+        if (aScope == null) {
+            // Make sure we read the latest version from disk. This must happen before acquiring
+            // the read lock because flushing needs the write lock.
+            flushPendingWrite(key);
+            
+            // Wait for memory before locking the CAS, so others can still use it meanwhile
+            long reserved = reserveMemory(aDocument, aUsername, aPriority);
+            Lock readLock = locks.get(key).readLock();
+            readLock.lock();
+            try {
+                return realReadCas(aDocument, aUsername, aAnalyzeAndRepair, null, reserved);
+            }
+            finally {
+                readLock.unlock();
+            }
+        }
+        
+        // Check if we have the CAS in the cache
+        ScopedCacheKey cacheKey = new ScopedCacheKey(aScope, key);
+        Lock readLock = locks.get(key).readLock();
+        readLock.lock();
+        try {
+            JCas jcas = cacheGet(cacheKey);
+            if (jcas != null) {
+                log.debug("Fetched CAS [{},{}] from cache", aDocument.getId(), aUsername);
+                return jcas;
+            }
+        }
+        finally {
+            readLock.unlock();
+        }
+        
+        // If the CAS is not in the cache, load it from disk. We take the write lock here to avoid
+        // that multiple concurrent readers all load the same CAS. Once we got the lock, we need
+        // to check again because another reader may have loaded the CAS in the meantime. Waiting
+        // for memory happens before that, so others can still use the CAS meanwhile.
+        long reserved = reserveMemory(aDocument, aUsername, aPriority);
+        Lock writeLock = locks.get(key).writeLock();
+        writeLock.lock();
+        try {
+            JCas jcas;
+            try {
+                jcas = cacheGet(cacheKey);
+                if (jcas == null) {
+                    flushPendingWrite(key);
+                }
+            }
+            catch (IOException | RuntimeException e) {
+                memoryGovernor.release(reserved);
+                throw e;
+            }
+            
+            if (jcas != null) {
+                memoryGovernor.release(reserved);
+                log.debug("Fetched CAS [{},{}] from cache", aDocument.getId(), aUsername);
+                return jcas;
+            }
+            
+            return realReadCas(aDocument, aUsername, aAnalyzeAndRepair, aScope, reserved);
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+    
+    /**
+     * Loads a CAS from disk and caches it in the given scope. If the scope is {@code null}, the
+     * CAS is not cached. The memory reserved for the CAS using {@link #reserveMemory} is taken
+     * over, even if loading fails.
+     */
+    private JCas realReadCas(SourceDocument aDocument, String aUsername, boolean aAnalyzeAndRepair,
+            String aScope, long aReserved)
+        throws IOException
+    {
+        log.debug("Reading annotation document [{}] ({}) for user [{}] in project [{}] ({})",
+                aDocument.getName(), aDocument.getId(), aUsername, aDocument.getProject().getName(),
+                aDocument.getProject().getId());
+        
+        JCas jcas;
+        long heapSize;
+        try {
+            long reserved = aReserved;
+            byte[] data;
+            CAS cas;
+            try {
+                data = readCasData(aDocument, aUsername);
+                reserved = memoryGovernor.resize(reserved, estimateHeapSize(data.length));
+                cas = CasPersistenceUtils.readSerializedCas(data,
+                        driver.getTypeSystemFolder(aDocument));
+            }
+            catch (IOException | RuntimeException e) {
+                memoryGovernor.release(reserved);
+                throw e;
+            }
+            heapSize = reserved;
+            memoryGovernor.track(cas, reserved);
+
+            if (aAnalyzeAndRepair) {
+                // If the data has been verified before, there is no need to analyze it again
+                JCasCacheKey key = JCasCacheKey.of(aDocument, aUsername);
+                String dataStamp = getDataStamp(data);
+                String stamp = getVerificationStamp(dataStamp);
+                if (isVerified(key, aDocument, aUsername, stamp)) {
+                    skippedAnalyses.incrementAndGet();
+                    log.debug("CAS {} unchanged since last verification - skipping analysis",
+                            key);
+                }
+                else {
+                    boolean verified = analyzeAndRepair(aDocument.getProject(),
+                            aDocument.getName(), aDocument.getId(), aUsername, cas);
+                    // If repairs are active, they may have changed the CAS, so the CAS no longer
+                    // corresponds to the data and we cannot mark the data as verified
+                    if (verified && !casDoctor.isRepairsActive()) {
+                        verifiedStamps.put(key, stamp);
+                        
+                        // Remember that the data has been verified, so it does not need to be
+                        // verified again after a restart
+                        CasSummary summary = readSummary(aDocument, aUsername);
+                        if (summary != null && dataStamp.equals(summary.getStamp())) {
+                            writeSummary(aDocument, aUsername,
+                                    summary.withVerificationStamp(stamp));
+                        }
+                    }
+                }
+            }
+
+            jcas = cas.getJCas();
+        }
+        catch (UIMAException e) {
+            throw new DataRetrievalFailureException("Unable to parse annotation", e);
+        }
+        
+        // Update the cache
+        if (aScope != null) {
+            cachePut(new ScopedCacheKey(aScope, JCasCacheKey.of(aDocument, aUsername)), jcas,
+                    heapSize, false);
+            log.debug("Loaded CAS [{},{}] from disk and stored in cache", aDocument.getId(),
+                    aUsername);
+        }
+        else {
+            log.debug("Loaded CAS [{},{}] from disk", aDocument.getId(), aUsername);
+        }
+        
+        return jcas;
+    }
+    
+    @Override
+    public boolean deleteCas(SourceDocument aDocument, String aUsername) throws IOException
+    {
+        JCasCacheKey key = JCasCacheKey.of(aDocument, aUsername);
+        Lock writeLock = locks.get(key).writeLock();
+        writeLock.lock();
+        try {
+            cacheRemove(key);
+            pendingWrites.remove(key);
+            verifiedStamps.remove(key);
+            
+            deleteSummary(aDocument, aUsername);
+            return driver.delete(aDocument, aUsername);
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+    
+    @Override
+    public boolean existsCas(SourceDocument aDocument, String aUsername)
+        throws IOException
+    {
+        JCasCacheKey key = JCasCacheKey.of(aDocument, aUsername);
+        return pendingWrites.containsKey(key) || driver.exists(aDocument, aUsername);
+    }
+    
+    @Override
+    public JCas readCasUncached(SourceDocument aDocument, String aUsername)
+        throws IOException
+    {
+        JCasCacheKey key = JCasCacheKey.of(aDocument, aUsername);
+        flushPendingWrite(key);
+        
+        long reserved = reserveMemory(aDocument, aUsername, getPriority());
+        Lock readLock = locks.get(key).readLock();
+        readLock.lock();
+        try {
+            CAS cas;
+            try {
+                byte[] data = readCasData(aDocument, aUsername);
+                reserved = memoryGovernor.resize(reserved, estimateHeapSize(data.length));
+                cas = CasPersistenceUtils.readSerializedCas(data,
+                        driver.getTypeSystemFolder(aDocument));
+            }
+            catch (IOException | RuntimeException e) {
+                memoryGovernor.release(reserved);
+                throw e;
+            }
+            memoryGovernor.track(cas, reserved);
+            return cas.getJCas();
+        }
+        catch (UIMAException e) {
+            throw new DataRetrievalFailureException("Unable to parse annotation", e);
+        }
+        finally {
+            readLock.unlock();
+        }
+    }
+    
+    @Override
+    public void writeCasUncached(SourceDocument aDocument, JCas aJcas, String aUsername)
+        throws IOException
+    {
+        JCasCacheKey key = JCasCacheKey.of(aDocument, aUsername);
+        Lock writeLock = locks.get(key).writeLock();
+        writeLock.lock();
+        try {
+            cacheRemove(key);
+            pendingWrites.remove(key);
+            verifiedStamps.remove(key);
+            
+            byte[] data = CasPersistenceUtils.serializeCas(aJcas.getCas(),
+                    driver.getTypeSystemFolder(aDocument));
+            deleteSummary(aDocument, aUsername);
+            driver.write(aDocument, aUsername, data);
+            writeSummary(aDocument, aUsername, CasSummary.of(aJcas.getCas(), getDataStamp(data),
+                    System.currentTimeMillis()));
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+    
+    @Override
+    public void exportCas(SourceDocument aDocument, String aUsername, File aTargetFolder)
+        throws IOException
+    {
+        JCasCacheKey key = JCasCacheKey.of(aDocument, aUsername);
+        flushPendingWrite(key);
+        
+        Lock readLock = locks.get(key).readLock();
+        readLock.lock();
+        try {
+            byte[] data = readCasData(aDocument, aUsername);
+            CAS cas = CasPersistenceUtils.borrowSerializedCas(data,
+                    driver.getTypeSystemFolder(aDocument));
+            try {
+                CasPersistenceUtils.writeLegacySerializedCas(cas,
+                        new File(aTargetFolder, aUsername + ".ser"));
+            }
+            finally {
+                CasPersistenceUtils.releaseCas(cas);
+            }
+        }
+        finally {
+            readLock.unlock();
+        }
+    }
+    
+    @Override
+    public void importCas(SourceDocument aDocument, String aUsername, InputStream aData)
+        throws IOException
+    {
+        JCasCacheKey key = JCasCacheKey.of(aDocument, aUsername);
+        Lock writeLock = locks.get(key).writeLock();
+        writeLock.lock();
+        try {
+            cacheRemove(key);
+            pendingWrites.remove(key);
+            verifiedStamps.remove(key);
+            
+            // The summary is re-created from the CAS when it is needed next
+            deleteSummary(aDocument, aUsername);
+            driver.write(aDocument, aUsername, IOUtils.toByteArray(aData));
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+    
+    @Override
+    public CasSummary readCasSummary(SourceDocument aDocument, String aUsername)
+        throws IOException
+    {
+        JCasCacheKey key = JCasCacheKey.of(aDocument, aUsername);
+        
+        // A pending write carries the summary of the latest version
+        PendingWrite pending = pendingWrites.get(key);
+        if (pending != null) {
+            return pending.summary;
+        }
+        
+        Lock readLock = locks.get(key).readLock();
+        readLock.lock();
+        try {
+            CasSummary summary = readSummary(aDocument, aUsername);
+            if (summary != null) {
+                return summary;
+            }
+        }
+        finally {
+            readLock.unlock();
+        }
+        
+        // The summary is missing, e.g. because the CAS was written by an older version or was
+        // imported - create it from the CAS
+        flushPendingWrite(key);
+        Lock writeLock = locks.get(key).writeLock();
+        writeLock.lock();
+        try {
+            CasSummary summary = readSummary(aDocument, aUsername);
+            if (summary != null) {
+                return summary;
+            }
+            
+            byte[] data = driver.read(aDocument, aUsername);
+            if (data == null) {
+                return null;
+            }
+            
+            CAS cas = CasPersistenceUtils.borrowSerializedCas(data,
+                    driver.getTypeSystemFolder(aDocument));
+            try {
+                summary = CasSummary.of(cas, getDataStamp(data), System.currentTimeMillis());
+            }
+            finally {
+                CasPersistenceUtils.releaseCas(cas);
+            }
+            writeSummary(aDocument, aUsername, summary);
+            return summary;
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+    
+    private CasSummary readSummary(SourceDocument aDocument, String aUsername)
+    {
+        try {
+            byte[] data = driver.readSummary(aDocument, aUsername);
+            if (data == null) {
+                return null;
+            }
+            return CasSummary.read(new ByteArrayInputStream(data));
+        }
+        catch (IOException e) {
+            log.warn("Unable to read CAS summary of user [{}] on document [{}]({}) - re-creating "
+                    + "it", aUsername, aDocument.getName(), aDocument.getId(), e);
+            return null;
+        }
+    }
+    
+    private void writeSummary(SourceDocument aDocument, String aUsername, CasSummary aSummary)
+        throws IOException
+    {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        aSummary.write(bos);
+        driver.writeSummary(aDocument, aUsername, bos.toByteArray());
+    }
+    
+    private void deleteSummary(SourceDocument aDocument, String aUsername)
+        throws IOException
+    {
+        driver.deleteSummary(aDocument, aUsername);
+    }
+    
+    /**
+     * Gets a stamp identifying the given serialized CAS data. The stamp is a cryptographic digest,
+     * so different data can practically never have the same stamp - a collision would cause a
+     * changed CAS to be considered verified.
+     */
+    private static String getDataStamp(byte[] aData)
+    {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest.digest(aData)) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.append(':').append(aData.length).toString();
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    /**
+     * Reserves memory for loading the given CAS, waiting if necessary. Requests made within a
+     * request cycle are served before those of background jobs. This must be called before
+     * locking the CAS. Once the CAS is locked, the reservation is {@link CasMemoryGovernor#resize
+     * resized} to the data actually read, because the CAS may have changed in the meantime.
+     * 
+     * @return the amount of memory reserved.
+     */
+    private long reserveMemory(SourceDocument aDocument, String aUsername, Priority aPriority)
+        throws IOException
+    {
+        PendingWrite pending = pendingWrites.get(JCasCacheKey.of(aDocument, aUsername));
+        long size = pending != null ? pending.data.length : driver.getSize(aDocument, aUsername);
+        if (size < 0) {
+            // There is no CAS - reading it is going to fail anyway
+            return 0;
+        }
+        
+        long reserved = estimateHeapSize(size);
+        try {
+            memoryGovernor.acquire(reserved, aPriority, memoryMaxWait);
+            return reserved;
+        }
+        catch (TimeoutException e) {
+            throw new DataRetrievalFailureException("Not enough memory to load annotations of "
+                    + "user [" + aUsername + "] for source document [" + aDocument.getName()
+                    + "] (" + aDocument.getId() + ") - please try again later", e);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for memory to load "
+                    + "annotations of user [" + aUsername + "] for source document ["
+                    + aDocument.getName() + "] (" + aDocument.getId() + ")");
+        }
+    }
+    
+    /**
+     * @return the estimated heap size in bytes of the CAS loaded from serialized data of the given
+     *         size.
+     */
+    private static long estimateHeapSize(long aDataSize)
+    {
+        return aDataSize * MEMORY_EXPANSION_FACTOR;
+    }
+    
+    /**
+     * @return the priority for memory of the current thread - reads within a request cycle are
+     *         served first.
+     */
+    private static Priority getPriority()
+    {
+        return RequestCycle.get() != null ? Priority.INTERACTIVE : Priority.BACKGROUND;
+    }
+    
+    /**
+     * Evicts the least recently used CAS from the cache, so it can be garbage collected if it is
+     * not used elsewhere. Called while callers are waiting for memory.
+     */
+    private void evictForMemoryPressure()
+    {
+        synchronized (cache) {
+            // Prefetched CASes which have not been used yet go first, then the least recently
+            // used ones
+            ScopedCacheKey victim = null;
+            for (Entry<ScopedCacheKey, JCasCacheEntry> e : cache.entrySet()) {
+                if (victim == null || e.getValue().prefetched) {
+                    victim = e.getKey();
+                }
+                if (e.getValue().prefetched) {
+                    break;
+                }
+            }
+            
+            if (victim != null) {
+                JCasCacheEntry entry = cache.remove(victim);
+                cacheHeapSize -= entry.heapSize;
+                cacheEvictions.incrementAndGet();
+                if (entry.prefetched) {
+                    droppedPrefetches.incrementAndGet();
+                }
+                log.debug("Evicted CAS {} from cache due to memory pressure", victim);
+            }
+        }
+    }
+    
+    private boolean isUnderMemoryPressure()
+    {
+        long budget = memoryGovernor.getBudget();
+        return memoryGovernor.getWaiting() > 0
+                || (budget > 0 && memoryGovernor.getUsed() > budget / 4 * 3);
+    }
+    
+    @Override
+    public JCas prefetchCas(SourceDocument aDocument, String aUsername)
         throws IOException
     {
-        synchronized (lock) {
-            JCas jcas = null;
-            
-            // Check if we have the CAS in the cache
-            if (isCacheEnabled()) {
-                JCasCacheEntry entry = getCache().get(JCasCacheKey.of(aDocument, aUsername));
-                if (entry != null) {
-                    log.debug("Fetched CAS [{},{}] from cache", aDocument.getId(), aUsername);
-                    entry.reads++;
-                    jcas = entry.jcas;
+        if (cacheMaxHeapSize <= 0 || isUnderMemoryPressure()) {
+            skippedPrefetches.incrementAndGet();
+            return null;
+        }
+        
+        // The CAS is cached for the user who is going to open it
+        JCasCacheKey key = JCasCacheKey.of(aDocument, aUsername);
+        ScopedCacheKey cacheKey = new ScopedCacheKey(aUsername, key);
+        long reserved = reserveMemory(aDocument, aUsername, getPriority());
+        Lock writeLock = locks.get(key).writeLock();
+        writeLock.lock();
+        try {
+            try {
+                // Do not count the lookup as a cache hit or miss - nobody asked for the CAS yet
+                synchronized (cache) {
+                    JCasCacheEntry entry = cache.get(cacheKey);
+                    if (entry != null) {
+                        memoryGovernor.release(reserved);
+                        return entry.jcas;
+                    }
+                }
+                
+                if (!existsCas(aDocument, aUsername)) {
+                    memoryGovernor.release(reserved);
+                    return null;
                 }
+                
+                flushPendingWrite(key);
             }
-            
-            // If the CAS is not in the cache, load it from disk
-            if (jcas == null) {
-                jcas = realReadCas(aDocument, aUsername, aAnalyzeAndRepair);
+            catch (IOException | RuntimeException e) {
+                memoryGovernor.release(reserved);
+                throw e;
             }
             
+            JCas jcas = realReadCas(aDocument, aUsername, true, aUsername, reserved);
+            synchronized (cache) {
+                JCasCacheEntry entry = cache.get(cacheKey);
+                if (entry != null) {
+                    entry.prefetched = true;
+                }
+            }
+            prefetches.incrementAndGet();
+            log.debug("Prefetched CAS {}", key);
             return jcas;
         }
+        finally {
+            writeLock.unlock();
+        }
     }
     
-    private JCas realReadCas(SourceDocument aDocument, String aUsername, boolean aAnalyzeAndRepair)
+    /**
+     * Reads the serialized CAS through the driver. The caller must hold a lock on the CAS.
+     */
+    private byte[] readCasData(SourceDocument aDocument, String aUsername)
         throws IOException
     {
-        log.debug("Reading annotation document [{}] ({}) for user [{}] in project [{}] ({})",
-                aDocument.getName(), aDocument.getId(), aUsername, aDocument.getProject().getName(),
-                aDocument.getProject().getId());
-        
-        File annotationFolder = getAnnotationFolder(aDocument);
-        
-        String file = aUsername + ".ser";
-
-        JCas jcas;
-        try {
-            CAS cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
-            File serializedCasFile = new File(annotationFolder, file);
-            if (!serializedCasFile.exists()) {
-                throw new FileNotFoundException("Annotation document of user [" + aUsername
-                        + "] for source document [" + aDocument.getName() + "] ("
-                        + aDocument.getId() + ") not found in project["
-                        + aDocument.getProject().getName() + "] ("
-                        + aDocument.getProject().getId() + ")");
-            }
-            
-            CasPersistenceUtils.readSerializedCas(cas, serializedCasFile);
-
-            if (aAnalyzeAndRepair) {
-                analyzeAndRepair(aDocument, aUsername, cas);
-            }
-
-            jcas = cas.getJCas();
+        byte[] data = driver.read(aDocument, aUsername);
+        if (data == null) {
+            throw new FileNotFoundException("Annotation document of user [" + aUsername
+                    + "] for source document [" + aDocument.getName() + "] ("
+                    + aDocument.getId() + ") not found in project["
+                    + aDocument.getProject().getName() + "] ("
+                    + aDocument.getProject().getId() + ")");
         }
-        catch (UIMAException e) {
-            throw new DataRetrievalFailureException("Unable to parse annotation", e);
+        return data;
+    }
+    
+    /**
+     * Gets a stamp identifying the serialized CAS data with the given data stamp, the current CAS
+     * doctor configuration and the time since which stamps are valid.
+     */
+    private String getVerificationStamp(String aDataStamp)
+    {
+        if (casDoctor == null) {
+            return null;
         }
         
-        // Update the cache
-        if (isCacheEnabled()) {
-            JCasCacheEntry entry = new JCasCacheEntry();
-            entry.jcas = jcas;
-            entry.reads++;
-            getCache().put(JCasCacheKey.of(aDocument, aUsername), entry);
-            log.debug("Loaded CAS [{},{}] from disk and stored in cache", aDocument.getId(),
-                    aUsername);
+        return aDataStamp + ":"
+                + Integer.toHexString(casDoctor.getConfigurationSignature().hashCode()) + ":"
+                + Long.toHexString(verifiedStampsValidSince);
+    }
+    
+    /**
+     * Checks if CAS data with the given stamp has already been verified by the CAS doctor.
+     */
+    private boolean isVerified(JCasCacheKey aKey, SourceDocument aDocument, String aUsername,
+            String aStamp)
+        throws IOException
+    {
+        if (aStamp == null) {
+            return false;
         }
-        else {
-            log.debug("Loaded CAS [{},{}] from disk", aDocument.getId(), aUsername);
+        
+        if (aStamp.equals(verifiedStamps.get(aKey))) {
+            return true;
         }
         
-        return jcas;
+        CasSummary summary = readSummary(aDocument, aUsername);
+        if (summary != null && aStamp.equals(summary.getVerificationStamp())) {
+            verifiedStamps.put(aKey, aStamp);
+            return true;
+        }
+        
+        return false;
     }
     
-    @Override
-    public boolean deleteCas(SourceDocument aDocument, String aUsername) throws IOException
+    /**
+     * Some checks depend on the layer configuration, so CASes need to be verified again after
+     * it has changed.
+     */
+    @EventListener
+    public void onLayerConfigurationChanged(LayerConfigurationChangedEvent aEvent)
     {
-        if (isCacheEnabled()) {
-            getCache().remove(JCasCacheKey.of(aDocument, aUsername));
-        }
-        
-        return new File(getAnnotationFolder(aDocument), aUsername + ".ser").delete();
+        verifiedStampsValidSince = System.currentTimeMillis();
+        verifiedStamps.clear();
     }
     
     @Override
@@ -430,7 +1774,10 @@ public class CasStorageServiceImpl
                 aCas);
     }
 
-    private void analyzeAndRepair(Project aProject, String aDocumentName, long aDocumentId,
+    /**
+     * @return whether the CAS doctor found the CAS to be consistent.
+     */
+    private boolean analyzeAndRepair(Project aProject, String aDocumentName, long aDocumentId,
             String aUsername, CAS aCas)
     {
         if (casDoctor != null) {
@@ -439,6 +1786,7 @@ public class CasStorageServiceImpl
             if (casDoctor.isRepairsActive()) {
                 try {
                     casDoctor.repair(aProject, aCas);
+                    return true;
                 }
                 catch (Exception e) {
                     throw new DataRetrievalFailureException("Error repairing CAS of user ["
@@ -451,7 +1799,7 @@ public class CasStorageServiceImpl
             // If the repairs are not active, then we run the analysis explicitly
             else {
                 try {
-                    casDoctor.analyze(aProject, aCas);
+                    return casDoctor.analyze(aProject, aCas);
                 }
                 catch (CasDoctorException e) {
                     StringBuilder detailMsg = new StringBuilder();
@@ -475,53 +1823,37 @@ public class CasStorageServiceImpl
                 }
             }
         }
+        
+        return false;
     }
+    
     /**
-     * Get the folder where the annotations are stored. Creates the folder if necessary.
-     *
-     * @throws IOException
-     *             if the folder cannot be created.
+     * Get the folder where the annotations are stored. The folder is not created - it only exists
+     * once something has been stored in it.
      */
     @Override
     public File getAnnotationFolder(SourceDocument aDocument)
-        throws IOException
-    {
-        File annotationFolder = new File(dir, "/" + PROJECT_FOLDER + "/" + aDocument.getProject().getId() + "/" + DOCUMENT_FOLDER + "/"
-                + aDocument.getId() + "/" + ANNOTATION_FOLDER);
-        FileUtils.forceMkdir(annotationFolder);
-        return annotationFolder;
-    }
-    
-    /**
-     * Renames a file.
-     *
-     * @throws IOException
-     *             if the file cannot be renamed.
-     * @return the target file.
-     */
-    private static File renameFile(File aFrom, File aTo)
-        throws IOException
     {
-        if (!aFrom.renameTo(aTo)) {
-            throw new IOException("Cannot renamed file [" + aFrom + "] to [" + aTo + "]");
-        }
-
-        // We are not sure if File is mutable. This makes sure we get a new file
-        // in any case.
-        return new File(aTo.getPath());
+        return new File(dir, PROJECT_FOLDER + "/" + aDocument.getProject().getId() + "/"
+                + DOCUMENT_FOLDER + "/" + aDocument.getId() + "/" + ANNOTATION_FOLDER);
     }
     
     @Override
     public boolean isCacheEnabled()
     {
+        if (cacheMaxHeapSize <= 0) {
+            return false;
+        }
+        
         RequestCycle requestCycle = RequestCycle.get();
         if (requestCycle != null) {
             Boolean cacheDisabled = requestCycle.getMetaData(CACHE_DISABLED);
             return cacheDisabled == null || cacheDisabled == false;
         }
         else {
-            // No caching if we are not in a request cycle
-            return false;
+            // Outside a request cycle (e.g. remote API, background tasks), the cache cannot be
+            // disabled
+            return true;
         }
     }
     
@@ -542,36 +1874,376 @@ public class CasStorageServiceImpl
             requestCycle.setMetaData(CACHE_DISABLED, true);
         }
     }
+    
+    /**
+     * @return the scope in which CASes read or written by the current thread are cached or
+     *         {@code null} if they are not to be cached. Cached CASes are shared between the
+     *         requests of the same user, but never between different users. Threads which do not
+     *         act on behalf of a user do not use the cache.
+     */
+    private String getCacheScope()
+    {
+        if (!isCacheEnabled()) {
+            return null;
+        }
+        
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        return authentication != null ? authentication.getName() : null;
+    }
      
-    private Map<JCasCacheKey, JCasCacheEntry> getCache()
+    /**
+     * Remembers that the cached copy of the given CAS has been handed out during the current
+     * request. The cached copy is the very CAS instance used by the request, so if the request
+     * fails half-way through an action, the copy may contain partial changes. In that case, it
+     * is removed from the cache such that the next request reads the CAS again from storage.
+     */
+    private void trackRequestCas(String aScope, JCasCacheKey aKey)
     {
         RequestCycle requestCycle = RequestCycle.get();
-        Map<JCasCacheKey, JCasCacheEntry> cache = requestCycle.getMetaData(CACHE);
-        if (cache == null) {
-            cache = new HashMap<>();
-            requestCycle.setMetaData(CACHE, cache);
-            requestCycle.getListeners().add(new AbstractRequestCycleListener() {
+        if (aScope == null || requestCycle == null) {
+            return;
+        }
+        
+        Set<ScopedCacheKey> keys = requestCycle.getMetaData(REQUEST_CASES);
+        if (keys == null) {
+            Set<ScopedCacheKey> requestKeys = new HashSet<>();
+            requestCycle.setMetaData(REQUEST_CASES, requestKeys);
+            requestCycle.getListeners().add(new AbstractRequestCycleListener()
+            {
                 @Override
-                public void onEndRequest(RequestCycle aCycle)
+                public IRequestHandler onException(RequestCycle aCycle, Exception aException)
                 {
-                    Map<JCasCacheKey, JCasCacheEntry> _cache = aCycle.getMetaData(CACHE);
-                    if (_cache != null) {
-                        for (Entry<JCasCacheKey, JCasCacheEntry> entry : _cache.entrySet()) {
-                            log.debug("{} - reads: {}  writes: {}", entry.getKey(),
-                                    entry.getValue().reads, entry.getValue().writes);
-                        }
-                    }
+                    cacheRemoveAll(requestKeys);
+                    return null;
                 }
             });
+            keys = requestKeys;
+        }
+        keys.add(new ScopedCacheKey(aScope, aKey));
+    }
+    
+    private void cacheRemoveAll(Set<ScopedCacheKey> aKeys)
+    {
+        for (ScopedCacheKey key : aKeys) {
+            Lock writeLock = locks.get(key.cas).writeLock();
+            writeLock.lock();
+            try {
+                synchronized (cache) {
+                    JCasCacheEntry entry = cache.remove(key);
+                    if (entry != null) {
+                        cacheHeapSize -= entry.heapSize;
+                        log.debug("Evicted CAS {} from cache after failed request", key);
+                    }
+                }
+            }
+            finally {
+                writeLock.unlock();
+            }
+        }
+    }
+    
+    private JCas cacheGet(ScopedCacheKey aKey)
+    {
+        synchronized (cache) {
+            JCasCacheEntry entry = cache.get(aKey);
+            if (entry != null) {
+                entry.reads++;
+                cacheHits.incrementAndGet();
+                if (entry.prefetched) {
+                    entry.prefetched = false;
+                    prefetchHits.incrementAndGet();
+                }
+                return entry.jcas;
+            }
+            else {
+                cacheMisses.incrementAndGet();
+                return null;
+            }
+        }
+    }
+    
+    private void cachePut(ScopedCacheKey aKey, JCas aJCas, long aHeapSize, boolean aWrite)
+    {
+        synchronized (cache) {
+            JCasCacheEntry entry = cache.get(aKey);
+            if (entry == null) {
+                entry = new JCasCacheEntry();
+                cache.put(aKey, entry);
+            }
+            else {
+                cacheHeapSize -= entry.heapSize;
+            }
+            
+            entry.jcas = aJCas;
+            entry.heapSize = aHeapSize;
+            entry.prefetched = false;
+            if (aWrite) {
+                entry.writes++;
+            }
+            else {
+                entry.reads++;
+            }
+            cacheHeapSize += aHeapSize;
+            
+            // Evict least recently used entries until we are within budget again. The entry
+            // which was just added is the most recently used one and it is never evicted
+            // itself, even if it alone exceeds the budget.
+            long budget = cacheMaxHeapSize * 1024 * 1024;
+            Iterator<Entry<ScopedCacheKey, JCasCacheEntry>> i = cache.entrySet().iterator();
+            while (cacheHeapSize > budget && cache.size() > 1) {
+                Entry<ScopedCacheKey, JCasCacheEntry> eldest = i.next();
+                cacheHeapSize -= eldest.getValue().heapSize;
+                i.remove();
+                cacheEvictions.incrementAndGet();
+                log.debug("Evicted CAS {} from cache - reads: {}  writes: {}", eldest.getKey(),
+                        eldest.getValue().reads, eldest.getValue().writes);
+            }
+        }
+    }
+    
+    private void cacheRemove(JCasCacheKey aKey)
+    {
+        cacheRemove(aKey, null);
+    }
+    
+    /**
+     * Removes the copies of the given CAS cached for all users, except for the copy in the given
+     * scope.
+     */
+    private void cacheRemove(JCasCacheKey aKey, String aKeepScope)
+    {
+        synchronized (cache) {
+            Iterator<Entry<ScopedCacheKey, JCasCacheEntry>> i = cache.entrySet().iterator();
+            while (i.hasNext()) {
+                Entry<ScopedCacheKey, JCasCacheEntry> e = i.next();
+                if (e.getKey().cas.equals(aKey) && !e.getKey().scope.equals(aKeepScope)) {
+                    cacheHeapSize -= e.getValue().heapSize;
+                    i.remove();
+                }
+            }
+        }
+    }
+    
+    @ManagedMetric(metricType = MetricType.COUNTER)
+    public long getCacheHits()
+    {
+        return cacheHits.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER)
+    public long getCacheMisses()
+    {
+        return cacheMisses.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER)
+    public long getCacheEvictions()
+    {
+        return cacheEvictions.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE)
+    public long getCacheSize()
+    {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, unit = "bytes")
+    public long getCacheHeapSize()
+    {
+        synchronized (cache) {
+            return cacheHeapSize;
+        }
+    }
+    
+    @ManagedMetric(metricType = MetricType.COUNTER)
+    public long getCoalescedWrites()
+    {
+        return coalescedWrites.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER)
+    public long getSkippedAnalyses()
+    {
+        return skippedAnalyses.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE)
+    public long getPendingWrites()
+    {
+        return pendingWrites.size();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER)
+    public long getPoolCreated()
+    {
+        return CasPersistenceUtils.getCasPool().getCreated();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER)
+    public long getPoolReused()
+    {
+        return CasPersistenceUtils.getCasPool().getReused();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER)
+    public long getPoolLeaked()
+    {
+        return CasPersistenceUtils.getCasPool().getLeaked();
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE)
+    public long getPoolIdle()
+    {
+        return CasPersistenceUtils.getCasPool().getIdle();
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE)
+    public long getPoolBorrowed()
+    {
+        return CasPersistenceUtils.getCasPool().getBorrowed();
+    }
+    
+    @ManagedMetric(metricType = MetricType.GAUGE)
+    public long getMemoryBudget()
+    {
+        return memoryGovernor.getBudget();
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE)
+    public long getMemoryUsed()
+    {
+        return memoryGovernor.getUsed();
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE)
+    public long getMemoryPeak()
+    {
+        return memoryGovernor.getPeak();
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE)
+    public long getMemoryTrackedCases()
+    {
+        return memoryGovernor.getTracked();
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE)
+    public long getMemoryWaiting()
+    {
+        return memoryGovernor.getWaiting();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER)
+    public long getMemoryWaits()
+    {
+        return memoryGovernor.getWaits();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER)
+    public long getMemoryTimeouts()
+    {
+        return memoryGovernor.getTimeouts();
+    }
+    
+    @ManagedMetric(metricType = MetricType.COUNTER)
+    public long getPrefetches()
+    {
+        return prefetches.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER)
+    public long getPrefetchHits()
+    {
+        return prefetchHits.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER)
+    public long getSkippedPrefetches()
+    {
+        return skippedPrefetches.get();
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER)
+    public long getDroppedPrefetches()
+    {
+        return droppedPrefetches.get();
+    }
+    
+    private static class PendingWrite
+    {
+        final SourceDocument document;
+        final String userName;
+        final byte[] data;
+        final CasSummary summary;
+        
+        public PendingWrite(SourceDocument aDocument, String aUserName, byte[] aData,
+                CasSummary aSummary)
+        {
+            document = aDocument;
+            userName = aUserName;
+            data = aData;
+            summary = aSummary;
         }
-        return cache;
     }
     
     private static class JCasCacheEntry
     {
         int reads;
         int writes;
+        long heapSize;
         JCas jcas;
+        
+        /**
+         * Whether the CAS was loaded by a prefetch and has not been used since.
+         */
+        boolean prefetched;
+    }
+    
+    private static class ScopedCacheKey
+    {
+        final String scope;
+        final JCasCacheKey cas;
+        
+        public ScopedCacheKey(String aScope, JCasCacheKey aCas)
+        {
+            scope = aScope;
+            cas = aCas;
+        }
+        
+        @Override
+        public String toString()
+        {
+            return cas + "@" + scope;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + scope.hashCode();
+            result = prime * result + cas.hashCode();
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null) {
+                return false;
+            }
+            if (getClass() != obj.getClass()) {
+                return false;
+            }
+            ScopedCacheKey other = (ScopedCacheKey) obj;
+            return scope.equals(other.scope) && cas.equals(other.cas);
+        }
     }
     
     private static class JCasCacheKey
@@ -579,6 +2251,11 @@ public class CasStorageServiceImpl
         long sourceDocumentId;
         String userId;
         
+        /**
+         * Only used to find the CASes of a project - not part of the identity of the key.
+         */
+        Long projectId;
+        
         public JCasCacheKey(long aSourceDocumentId, String aUserId)
         {
             super();
@@ -588,7 +2265,11 @@ public class CasStorageServiceImpl
         
         public static JCasCacheKey of(SourceDocument aSourceDocument, String aUserId)
         {
-            return new JCasCacheKey(aSourceDocument.getId(), aUserId);
+            JCasCacheKey key = new JCasCacheKey(aSourceDocument.getId(), aUserId);
+            if (aSourceDocument.getProject() != null) {
+                key.projectId = aSourceDocument.getProject().getId();
+            }
+            return key;
         }
 
         @Override
@@ -81,9 +81,9 @@ public class CorrectionDocumentServiceImpl
     }
 
     @Override
-    public void upgradeCorrectionCas(CAS aCas, SourceDocument aDocument)
+    public boolean upgradeCorrectionCas(CAS aCas, SourceDocument aDocument)
         throws UIMAException, IOException
     {
-        annotationService.upgradeCas(aCas, aDocument, CORRECTION_USER);
+        return annotationService.upgradeCas(aCas, aDocument, CORRECTION_USER);
     }
 }
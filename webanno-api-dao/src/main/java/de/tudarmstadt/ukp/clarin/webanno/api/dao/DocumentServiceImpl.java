@@ -34,6 +34,7 @@ import java.io.OutputStream;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -49,8 +50,6 @@ import org.apache.uima.cas.CAS;
 import org.apache.uima.cas.CASException;
 import org.apache.uima.jcas.JCas;
 import org.apache.uima.resource.ResourceInitializationException;
-import org.apache.uima.resource.metadata.TypeSystemDescription;
-import org.apache.uima.util.CasCreationUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
@@ -64,6 +63,7 @@ import org.springframework.transaction.event.TransactionPhase;
 import org.springframework.transaction.event.TransactionalEventListener;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasSummary;
 import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.api.ImportExportService;
 import de.tudarmstadt.ukp.clarin.webanno.api.ProjectService;
@@ -189,7 +189,14 @@ public class DocumentServiceImpl
     public boolean existsCas(SourceDocument aSourceDocument, String aUsername)
         throws IOException
     {
-        return getCasFile(aSourceDocument, aUsername).exists();
+        return casStorageService.existsCas(aSourceDocument, aUsername);
+    }
+
+    @Override
+    public CasSummary readCasSummary(SourceDocument aSourceDocument, String aUsername)
+        throws IOException
+    {
+        return casStorageService.readCasSummary(aSourceDocument, aUsername);
     }
 
     @Override
@@ -227,9 +234,17 @@ public class DocumentServiceImpl
     }
 
     @Override
-    public File getCasFile(SourceDocument aDocument, String aUser) throws IOException
+    public void exportCas(SourceDocument aDocument, String aUser, File aTargetFolder)
+        throws IOException
+    {
+        casStorageService.exportCas(aDocument, aUser, aTargetFolder);
+    }
+    
+    @Override
+    public void importCas(SourceDocument aDocument, String aUser, InputStream aData)
+        throws IOException
     {
-        return new File(casStorageService.getAnnotationFolder(aDocument), aUser + ".ser");
+        casStorageService.importCas(aDocument, aUser, aData);
     }
     
     @Override
@@ -518,8 +533,7 @@ public class DocumentServiceImpl
         if (aAnalyzeRepairAndSave) {
             casStorageService.analyzeAndRepair(aDocument, INITIAL_CAS_PSEUDO_USER, jcas.getCas());
             
-            CasPersistenceUtils.writeSerializedCas(jcas,
-                    getCasFile(aDocument, INITIAL_CAS_PSEUDO_USER));
+            casStorageService.writeCasUncached(aDocument, jcas, INITIAL_CAS_PSEUDO_USER);
         }
         
         return jcas;
@@ -536,9 +550,7 @@ public class DocumentServiceImpl
     public JCas readInitialCas(SourceDocument aDocument, boolean aAnalyzeAndRepair)
         throws CASException, ResourceInitializationException, IOException
     {
-        CAS cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
-        
-        CasPersistenceUtils.readSerializedCas(cas, getCasFile(aDocument, INITIAL_CAS_PSEUDO_USER));
+        CAS cas = casStorageService.readCasUncached(aDocument, INITIAL_CAS_PSEUDO_USER).getCas();
         
         if (aAnalyzeAndRepair) {
             casStorageService.analyzeAndRepair(aDocument, INITIAL_CAS_PSEUDO_USER, cas);
@@ -624,6 +636,31 @@ public class DocumentServiceImpl
         return jcas;
     }
 
+    @Override
+    @Transactional
+    public List<JCas> readAnnotationCases(List<AnnotationDocument> aAnnotationDocuments)
+        throws IOException
+    {
+        // CASes which need to be converted from the source document first are read one by one,
+        // all others are loaded together
+        boolean[] exists = new boolean[aAnnotationDocuments.size()];
+        List<AnnotationDocument> existing = new ArrayList<>();
+        for (int i = 0; i < aAnnotationDocuments.size(); i++) {
+            AnnotationDocument annDoc = aAnnotationDocuments.get(i);
+            exists[i] = existsCas(annDoc.getDocument(), annDoc.getUser());
+            if (exists[i]) {
+                existing.add(annDoc);
+            }
+        }
+        
+        Iterator<JCas> loaded = casStorageService.readCases(existing).iterator();
+        List<JCas> cases = new ArrayList<>(aAnnotationDocuments.size());
+        for (int i = 0; i < aAnnotationDocuments.size(); i++) {
+            cases.add(exists[i] ? loaded.next() : readAnnotationCas(aAnnotationDocuments.get(i)));
+        }
+        return cases;
+    }
+
     @Override
     @Transactional
     public void writeAnnotationCas(JCas aJCas, AnnotationDocument aAnnotationDocument,
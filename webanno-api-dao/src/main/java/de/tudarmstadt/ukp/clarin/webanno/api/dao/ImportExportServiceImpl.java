@@ -127,30 +127,22 @@ public class ImportExportServiceImpl
             String aFileName, Mode aMode, boolean aStripExtension)
         throws UIMAException, IOException, ClassNotFoundException
     {
-        File annotationFolder = casStorageService.getAnnotationFolder(aDocument);
-        String serializedCasFileName;
+        String username;
         // for Correction, it will export the corrected document (of the logged in user)
         // (CORRECTION_USER.ser is the automated result displayed for the user to correct it, not
         // the final result) for automation, it will export either the corrected document
         // (Annotated) or the automated document
         if (aMode.equals(Mode.ANNOTATION) || aMode.equals(Mode.AUTOMATION)
                 || aMode.equals(Mode.CORRECTION)) {
-            serializedCasFileName = aUser + ".ser";
+            username = aUser;
         }
         // The merge result will be exported
         else {
-            serializedCasFileName = WebAnnoConst.CURATION_USER + ".ser";
+            username = WebAnnoConst.CURATION_USER;
         }
 
-        // Read file
-        File serializedCasFile = new File(annotationFolder, serializedCasFileName);
-        if (!serializedCasFile.exists()) {
-            throw new FileNotFoundException("CAS file [" + serializedCasFileName
-                    + "] not found in [" + annotationFolder + "]");
-        }
-
-        CAS cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
-        CasPersistenceUtils.readSerializedCas(cas, serializedCasFile);
+        // Read the latest version of the CAS - the upgrade below must not affect the cached CAS
+        CAS cas = casStorageService.readCasUncached(aDocument, username).getCas();
 
         // Update type system the CAS
         annotationService.upgradeCas(cas, aDocument, aUser);
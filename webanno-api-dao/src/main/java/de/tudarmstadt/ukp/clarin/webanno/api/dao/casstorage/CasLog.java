@@ -0,0 +1,702 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasPersistenceUtils;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasPersistenceUtils.FsyncPolicy;
+
+/**
+ * Append-only log holding the serialized CASes of all documents of a project in a single file.
+ * <p>
+ * Every change is appended as a record. Next to the serialized CAS, the summary of the CAS is
+ * stored for each document and user. A summary record without payload removes the summary. The offsets of the current records are kept in an
+ * in-memory index which is rebuilt from the record headers when the log is opened. Records which
+ * are superseded by later records are garbage until the log is {@link #compact() compacted}.
+ * <p>
+ * Record layout: magic (int), type (byte), document ID (long), user (UTF-8, length as short),
+ * payload length (int), payload, CRC32 of the payload (int).
+ * <p>
+ * A write interrupted by a crash can only leave an incomplete record at the end of the log. Such a
+ * record is cut off when the log is opened. If a damaged record is followed by valid records, the
+ * log has been damaged in some other way. Opening the log then fails rather than dropping the
+ * valid records.
+ */
+class CasLog
+    implements Closeable
+{
+    public static final String LOG_FILE = "cas.log";
+
+    private static final int RECORD_MAGIC = 0x5741434c; // WACL
+    private static final byte TYPE_DATA = 1;
+    /**
+     * Verification stamps were stored in the log by older versions. Such records are ignored and
+     * dropped when the log is compacted.
+     */
+    private static final byte TYPE_LEGACY_STAMP = 2;
+    private static final byte TYPE_DELETE = 3;
+    private static final byte TYPE_SUMMARY = 4;
+
+    private static final int MAX_HEADER_SIZE = 4 + 1 + 8 + 2 + Short.MAX_VALUE + 4;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final File file;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Object compactionLock = new Object();
+    private final Map<Key, Entry> index = new HashMap<>();
+    private FileChannel channel;
+    private long size;
+    private long liveSize;
+
+    public CasLog(File aFile)
+        throws IOException
+    {
+        file = aFile;
+        open();
+    }
+
+    private void open()
+        throws IOException
+    {
+        Files.createDirectories(file.getParentFile().toPath());
+
+        // Remove the remains of an interrupted compaction
+        File[] tempFiles = file.getParentFile().listFiles((dir, name) ->
+                name.startsWith(file.getName() + ".")
+                        && name.endsWith(CasPersistenceUtils.TEMP_SUFFIX));
+        if (tempFiles != null) {
+            for (File tempFile : tempFiles) {
+                Files.deleteIfExists(tempFile.toPath());
+            }
+        }
+
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        index.clear();
+        size = 0;
+        liveSize = 0;
+
+        long fileSize = channel.size();
+        Record last = null;
+        while (size < fileSize) {
+            Record record = readHeader(size, fileSize);
+            if (record == null) {
+                break;
+            }
+            apply(record);
+            size = record.end();
+            last = record;
+        }
+
+        if (size < fileSize) {
+            // The remaining data is not a complete record. This is expected if a write has been
+            // interrupted, but then there cannot be any valid record after it.
+            if (findRecord(size + 1, fileSize) >= 0) {
+                channel.close();
+                throw new IOException("Damaged record at offset [" + size + "] in [" + file
+                        + "] is followed by valid records - refusing to open the log");
+            }
+            
+            log.warn("Removing incomplete record at offset [{}] at the end of [{}]", size, file);
+            channel.truncate(size);
+        }
+        // Only the last record can have been damaged by an interrupted write
+        else if (last != null && !checksumMatches(last)) {
+            log.warn("Removing damaged record at offset [{}] at the end of [{}]", last.offset,
+                    file);
+            size = last.offset;
+            channel.truncate(size);
+            index.clear();
+            liveSize = 0;
+            long offset = 0;
+            while (offset < size) {
+                Record record = readHeader(offset, size);
+                apply(record);
+                offset = record.end();
+            }
+        }
+    }
+    
+    /**
+     * Searches for the next complete record with a matching checksum.
+     * 
+     * @return the offset of the record or {@code -1} if there is none.
+     */
+    private long findRecord(long aOffset, long aLimit)
+        throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        long position = aOffset;
+        while (position + 4 <= aLimit) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), aLimit - position));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    break;
+                }
+            }
+            buffer.flip();
+            
+            for (int i = 0; i + 4 <= buffer.limit(); i++) {
+                if (buffer.getInt(i) == RECORD_MAGIC) {
+                    Record record = readHeader(position + i, aLimit);
+                    if (record != null && checksumMatches(record)) {
+                        return record.offset;
+                    }
+                }
+            }
+            
+            // The magic may span the boundary to the next block
+            position += Math.max(1, buffer.limit() - 3);
+        }
+        return -1;
+    }
+
+    public boolean exists(long aDocumentId, String aUser)
+    {
+        Lock readLock = lock.readLock();
+        readLock.lock();
+        try {
+            Entry entry = index.get(new Key(aDocumentId, aUser));
+            return entry != null && entry.data != null;
+        }
+        finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * @return the size of the current data or {@code -1} if there is none.
+     */
+    public long getDataSize(long aDocumentId, String aUser)
+    {
+        Lock readLock = lock.readLock();
+        readLock.lock();
+        try {
+            Entry entry = index.get(new Key(aDocumentId, aUser));
+            return entry != null && entry.data != null ? entry.data.payloadLength : -1;
+        }
+        finally {
+            readLock.unlock();
+        }
+    }
+
+    public byte[] read(long aDocumentId, String aUser)
+        throws IOException
+    {
+        Lock readLock = lock.readLock();
+        readLock.lock();
+        try {
+            Entry entry = index.get(new Key(aDocumentId, aUser));
+            if (entry == null || entry.data == null) {
+                return null;
+            }
+            return readPayload(entry.data);
+        }
+        finally {
+            readLock.unlock();
+        }
+    }
+
+    public byte[] readSummary(long aDocumentId, String aUser)
+        throws IOException
+    {
+        Lock readLock = lock.readLock();
+        readLock.lock();
+        try {
+            Entry entry = index.get(new Key(aDocumentId, aUser));
+            if (entry == null || entry.summary == null) {
+                return null;
+            }
+            return readPayload(entry.summary);
+        }
+        finally {
+            readLock.unlock();
+        }
+    }
+
+    public List<String> listUsers(long aDocumentId)
+    {
+        Lock readLock = lock.readLock();
+        readLock.lock();
+        try {
+            List<String> users = new ArrayList<>();
+            for (Map.Entry<Key, Entry> e : index.entrySet()) {
+                if (e.getKey().documentId == aDocumentId && e.getValue().data != null) {
+                    users.add(e.getKey().user);
+                }
+            }
+            return users;
+        }
+        finally {
+            readLock.unlock();
+        }
+    }
+
+    public void write(long aDocumentId, String aUser, byte[] aData)
+        throws IOException
+    {
+        append(TYPE_DATA, aDocumentId, aUser, aData);
+    }
+
+    public void writeSummary(long aDocumentId, String aUser, byte[] aData)
+        throws IOException
+    {
+        if (aData.length == 0) {
+            throw new IllegalArgumentException("Summary must not be empty");
+        }
+        
+        append(TYPE_SUMMARY, aDocumentId, aUser, aData);
+    }
+
+    public void deleteSummary(long aDocumentId, String aUser)
+        throws IOException
+    {
+        if (!hasSummary(aDocumentId, aUser)) {
+            return;
+        }
+        
+        append(TYPE_SUMMARY, aDocumentId, aUser, null);
+    }
+
+    /**
+     * Removes the CAS and its summary.
+     * 
+     * @return whether there was a CAS to remove.
+     */
+    public boolean delete(long aDocumentId, String aUser)
+        throws IOException
+    {
+        boolean exists = exists(aDocumentId, aUser);
+        if (!exists && !hasSummary(aDocumentId, aUser)) {
+            return false;
+        }
+
+        append(TYPE_DELETE, aDocumentId, aUser, null);
+        return exists;
+    }
+
+    private boolean hasSummary(long aDocumentId, String aUser)
+    {
+        Lock readLock = lock.readLock();
+        readLock.lock();
+        try {
+            Entry entry = index.get(new Key(aDocumentId, aUser));
+            return entry != null && entry.summary != null;
+        }
+        finally {
+            readLock.unlock();
+        }
+    }
+
+    public void deleteDocument(long aDocumentId)
+        throws IOException
+    {
+        List<String> users = new ArrayList<>();
+        Lock readLock = lock.readLock();
+        readLock.lock();
+        try {
+            for (Key key : index.keySet()) {
+                if (key.documentId == aDocumentId) {
+                    users.add(key.user);
+                }
+            }
+        }
+        finally {
+            readLock.unlock();
+        }
+        
+        for (String user : users) {
+            delete(aDocumentId, user);
+        }
+    }
+
+    /**
+     * @return the fraction of the log occupied by records which are no longer current.
+     */
+    public double getGarbageRatio()
+    {
+        Lock readLock = lock.readLock();
+        readLock.lock();
+        try {
+            return size == 0 ? 0.0 : (double) (size - liveSize) / size;
+        }
+        finally {
+            readLock.unlock();
+        }
+    }
+
+    public long getSize()
+    {
+        Lock readLock = lock.readLock();
+        readLock.lock();
+        try {
+            return size;
+        }
+        finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Rewrites the log keeping only the current records. The current records are copied while
+     * reads and writes continue. Only the records appended in the meantime are copied while reads
+     * and writes are blocked, followed by replacing the log. Since the records are replayed in
+     * order when the log is re-opened, records which have been superseded during the copy are
+     * superseded in the new log as well.
+     */
+    public void compact()
+        throws IOException
+    {
+        synchronized (compactionLock) {
+            doCompact();
+        }
+    }
+    
+    private void doCompact()
+        throws IOException
+    {
+        List<Record> records = new ArrayList<>();
+        long copiedUntil;
+        Lock readLock = lock.readLock();
+        readLock.lock();
+        try {
+            for (Entry entry : index.values()) {
+                if (entry.data != null) {
+                    records.add(entry.data);
+                }
+                if (entry.summary != null) {
+                    records.add(entry.summary);
+                }
+            }
+            copiedUntil = size;
+        }
+        finally {
+            readLock.unlock();
+        }
+        
+        // Keep the order of the records, so the order of the data in the file is stable
+        records.sort((a, b) -> Long.compare(a.offset, b.offset));
+        
+        File tempFile = File.createTempFile(file.getName() + ".", CasPersistenceUtils.TEMP_SUFFIX,
+                file.getParentFile());
+        try (FileChannel target = FileChannel.open(tempFile.toPath(),
+                StandardOpenOption.WRITE)) {
+            for (Record record : records) {
+                copy(record.offset, record.end(), target);
+            }
+            
+            Lock writeLock = lock.writeLock();
+            writeLock.lock();
+            try {
+                long before = size;
+                copy(copiedUntil, size, target);
+                target.force(true);
+                target.close();
+                
+                try {
+                    channel.close();
+                    try {
+                        Files.move(tempFile.toPath(), file.toPath(),
+                                StandardCopyOption.ATOMIC_MOVE);
+                    }
+                    catch (AtomicMoveNotSupportedException e) {
+                        Files.move(tempFile.toPath(), file.toPath(),
+                                StandardCopyOption.REPLACE_EXISTING);
+                    }
+                }
+                finally {
+                    // Re-open the log in any case - if the compacted log could not be moved
+                    // into place, the original log is still there
+                    channel.close();
+                    open();
+                }
+                
+                log.info("Compacted [{}] from {} to {} bytes", file, before, size);
+            }
+            finally {
+                writeLock.unlock();
+            }
+        }
+        finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+    }
+    
+    private void copy(long aFrom, long aTo, FileChannel aTarget)
+        throws IOException
+    {
+        long copied = 0;
+        while (aFrom + copied < aTo) {
+            copied += channel.transferTo(aFrom + copied, aTo - aFrom - copied, aTarget);
+        }
+    }
+
+    @Override
+    public void close()
+        throws IOException
+    {
+        Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        try {
+            channel.close();
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void append(byte aType, long aDocumentId, String aUser, byte[] aPayload)
+        throws IOException
+    {
+        byte[] user = aUser.getBytes(UTF_8);
+        byte[] payload = aPayload != null ? aPayload : new byte[0];
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        ByteBuffer buffer = ByteBuffer.allocate(
+                4 + 1 + 8 + 2 + user.length + 4 + payload.length + 4);
+        buffer.putInt(RECORD_MAGIC);
+        buffer.put(aType);
+        buffer.putLong(aDocumentId);
+        buffer.putShort((short) user.length);
+        buffer.put(user);
+        buffer.putInt(payload.length);
+        buffer.put(payload);
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+
+        Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        try {
+            long offset = size;
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, offset + buffer.position());
+            }
+            if (CasPersistenceUtils.getFsyncPolicy() != FsyncPolicy.NONE) {
+                channel.force(false);
+            }
+
+            size = offset + buffer.limit();
+            apply(new Record(aType, aDocumentId, aUser, offset,
+                    offset + 4 + 1 + 8 + 2 + user.length + 4, payload.length));
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Updates the index with the given record.
+     */
+    private void apply(Record aRecord)
+    {
+        Key key = new Key(aRecord.documentId, aRecord.user);
+
+        switch (aRecord.type) {
+        case TYPE_DATA: {
+            Entry entry = index.computeIfAbsent(key, k -> new Entry());
+            liveSize -= length(entry.data);
+            entry.data = aRecord;
+            liveSize += length(entry.data);
+            break;
+        }
+        case TYPE_SUMMARY: {
+            Entry entry = index.computeIfAbsent(key, k -> new Entry());
+            liveSize -= length(entry.summary);
+            entry.summary = aRecord.payloadLength > 0 ? aRecord : null;
+            liveSize += length(entry.summary);
+            if (entry.data == null && entry.summary == null) {
+                index.remove(key);
+            }
+            break;
+        }
+        case TYPE_LEGACY_STAMP:
+            break;
+        case TYPE_DELETE: {
+            Entry entry = index.remove(key);
+            if (entry != null) {
+                liveSize -= length(entry.data);
+                liveSize -= length(entry.summary);
+            }
+            break;
+        }
+        default:
+            throw new IllegalStateException("Unknown record type [" + aRecord.type + "]");
+        }
+    }
+
+    private static long length(Record aRecord)
+    {
+        return aRecord != null ? aRecord.end() - aRecord.offset : 0;
+    }
+
+    /**
+     * @return the record starting at the given offset or {@code null} if there is no complete
+     *         record.
+     */
+    private Record readHeader(long aOffset, long aLimit)
+        throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(MAX_HEADER_SIZE, aLimit - aOffset));
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, aOffset + buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+
+        if (buffer.remaining() < 4 + 1 + 8 + 2 || buffer.getInt() != RECORD_MAGIC) {
+            return null;
+        }
+        byte type = buffer.get();
+        long documentId = buffer.getLong();
+        int userLength = buffer.getShort();
+        if (userLength < 0 || buffer.remaining() < userLength + 4) {
+            return null;
+        }
+        byte[] user = new byte[userLength];
+        buffer.get(user);
+        int payloadLength = buffer.getInt();
+        long payloadOffset = aOffset + buffer.position();
+        if (payloadLength < 0 || payloadOffset + payloadLength + 4 > aLimit) {
+            return null;
+        }
+
+        return new Record(type, documentId, new String(user, UTF_8), aOffset, payloadOffset,
+                payloadLength);
+    }
+
+    private byte[] readPayload(Record aRecord)
+        throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(aRecord.payloadLength + 4);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, aRecord.payloadOffset + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of [" + file + "]");
+            }
+        }
+        buffer.flip();
+
+        byte[] payload = new byte[aRecord.payloadLength];
+        buffer.get(payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        if (buffer.getInt() != (int) crc.getValue()) {
+            throw new IOException("Damaged record at offset [" + aRecord.offset + "] in ["
+                    + file + "]");
+        }
+        return payload;
+    }
+
+    private boolean checksumMatches(Record aRecord)
+    {
+        try {
+            readPayload(aRecord);
+            return true;
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static class Key
+    {
+        final long documentId;
+        final String user;
+
+        Key(long aDocumentId, String aUser)
+        {
+            documentId = aDocumentId;
+            user = aUser;
+        }
+
+        @Override
+        public boolean equals(Object aOther)
+        {
+            if (!(aOther instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) aOther;
+            return documentId == other.documentId && user.equals(other.user);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(documentId, user);
+        }
+    }
+
+    private static class Entry
+    {
+        Record data;
+        Record summary;
+    }
+
+    private static class Record
+    {
+        final byte type;
+        final long documentId;
+        final String user;
+        final long offset;
+        final long payloadOffset;
+        final int payloadLength;
+
+        Record(byte aType, long aDocumentId, String aUser, long aOffset, long aPayloadOffset,
+                int aPayloadLength)
+        {
+            type = aType;
+            documentId = aDocumentId;
+            user = aUser;
+            offset = aOffset;
+            payloadOffset = aPayloadOffset;
+            payloadLength = aPayloadLength;
+        }
+
+        long end()
+        {
+            return payloadOffset + payloadLength + 4;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasPersistenceUtils;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Stores the serialized CASes of the annotation documents.
+ * <p>
+ * A driver only stores the serialized data as produced by {@link CasPersistenceUtils}. Caching,
+ * locking, verification and the history are handled by the CAS storage service on top of it. The
+ * service guarantees that there are no concurrent calls for the same document and user, except for
+ * concurrent reads.
+ * <p>
+ * The driver used by an installation is selected using the {@code casStorage.backend} setting.
+ */
+public interface CasStorageDriver
+{
+    /**
+     * @return the identifier used to select this driver in the settings.
+     */
+    String getId();
+
+    boolean exists(SourceDocument aDocument, String aUser)
+        throws IOException;
+
+    /**
+     * @return the size of the serialized CAS in bytes or {@code -1} if there is none.
+     */
+    long getSize(SourceDocument aDocument, String aUser)
+        throws IOException;
+
+    /**
+     * @return the serialized CAS or {@code null} if there is none.
+     */
+    byte[] read(SourceDocument aDocument, String aUser)
+        throws IOException;
+
+    /**
+     * Replaces the serialized CAS. If the write fails, the previous version must remain
+     * available.
+     */
+    void write(SourceDocument aDocument, String aUser, byte[] aData)
+        throws IOException;
+
+    /**
+     * Removes the serialized CAS.
+     *
+     * @return whether there was a CAS to remove.
+     */
+    boolean delete(SourceDocument aDocument, String aUser)
+        throws IOException;
+
+    /**
+     * @return the serialized summary of the CAS or {@code null} if there is none.
+     */
+    byte[] readSummary(SourceDocument aDocument, String aUser)
+        throws IOException;
+
+    /**
+     * Replaces the serialized summary of the CAS. The summary is written after the CAS and it is
+     * removed before the CAS is replaced, so a summary never describes an older version of the CAS.
+     */
+    void writeSummary(SourceDocument aDocument, String aUser, byte[] aData)
+        throws IOException;
+
+    void deleteSummary(SourceDocument aDocument, String aUser)
+        throws IOException;
+
+    /**
+     * @return the users for which a CAS is stored for the given document.
+     */
+    List<String> listUsers(SourceDocument aDocument)
+        throws IOException;
+
+    /**
+     * Lists the folders in which the driver stores data of the project in the given folder. After
+     * a crash, the CAS storage service scans these folders for the remains of interrupted writes.
+     * 
+     * @return the existing folders.
+     */
+    List<File> listStorageFolders(File aProjectFolder);
+
+    /**
+     * @return the folder in which the CAS storage service keeps the history of the CASes of the
+     *         given document. The folder is not necessarily created yet.
+     */
+    File getHistoryFolder(SourceDocument aDocument);
+
+    /**
+     * @return the folder in which the type systems referenced by the serialized CASes of the given
+     *         document are stored. The folder is not necessarily created yet.
+     */
+    File getTypeSystemFolder(SourceDocument aDocument);
+}
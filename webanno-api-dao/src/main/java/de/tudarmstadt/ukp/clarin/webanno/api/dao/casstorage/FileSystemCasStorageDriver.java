@@ -0,0 +1,261 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.ANNOTATION_FOLDER;
+import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.DOCUMENT_FOLDER;
+import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.PROJECT_FOLDER;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasPersistenceUtils;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Stores each CAS in a file {@code project/<id>/document/<id>/annotation/<user>.ser} within the
+ * repository. The summaries of the CASes are stored next to them, the history in the
+ * {@code history} folder. The type systems are stored once per project in {@code project/<id>/typesystem}.
+ */
+@Component
+public class FileSystemCasStorageDriver
+    implements CasStorageDriver
+{
+    public static final String ID = "filesystem";
+
+    private static final String SER_SUFFIX = ".ser";
+    private static final String SUMMARY_SUFFIX = ".summary";
+    private static final String VERIFIED_SUFFIX = ".ser.verified";
+    private static final String TYPE_SYSTEM_FOLDER = "typesystem";
+    private static final String HISTORY_FOLDER = "history";
+    
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    
+    /**
+     * Documents of which the type systems have been moved from the annotation folder to the
+     * project type system folder. Older versions stored the type systems per document.
+     */
+    private final Set<Long> migratedDocuments = ConcurrentHashMap.newKeySet();
+
+    @Value(value = "${repository.path}")
+    private File dir;
+
+    public FileSystemCasStorageDriver()
+    {
+        // Nothing to do
+    }
+
+    public FileSystemCasStorageDriver(File aRepositoryFolder)
+    {
+        dir = aRepositoryFolder;
+    }
+
+    @Override
+    public String getId()
+    {
+        return ID;
+    }
+
+    @Override
+    public boolean exists(SourceDocument aDocument, String aUser)
+    {
+        return getCasFile(aDocument, aUser).exists();
+    }
+
+    @Override
+    public long getSize(SourceDocument aDocument, String aUser)
+    {
+        File casFile = getCasFile(aDocument, aUser);
+        return casFile.exists() ? casFile.length() : -1;
+    }
+
+    @Override
+    public byte[] read(SourceDocument aDocument, String aUser)
+        throws IOException
+    {
+        File casFile = getCasFile(aDocument, aUser);
+        if (!casFile.exists()) {
+            return null;
+        }
+
+        byte[] data = Files.readAllBytes(casFile.toPath());
+        migrateTypeSystems(aDocument);
+        return data;
+    }
+
+    @Override
+    public void write(SourceDocument aDocument, String aUser, byte[] aData)
+        throws IOException
+    {
+        File casFile = getCasFile(aDocument, aUser);
+        FileUtils.forceMkdir(casFile.getParentFile());
+        CasPersistenceUtils.writeAtomically(casFile, aData);
+        Files.deleteIfExists(getLegacyStampFile(aDocument, aUser).toPath());
+    }
+
+    @Override
+    public boolean delete(SourceDocument aDocument, String aUser)
+        throws IOException
+    {
+        Files.deleteIfExists(getLegacyStampFile(aDocument, aUser).toPath());
+        return Files.deleteIfExists(getCasFile(aDocument, aUser).toPath());
+    }
+
+    @Override
+    public byte[] readSummary(SourceDocument aDocument, String aUser)
+        throws IOException
+    {
+        File summaryFile = getSummaryFile(aDocument, aUser);
+        return summaryFile.exists() ? Files.readAllBytes(summaryFile.toPath()) : null;
+    }
+
+    @Override
+    public void writeSummary(SourceDocument aDocument, String aUser, byte[] aData)
+        throws IOException
+    {
+        File summaryFile = getSummaryFile(aDocument, aUser);
+        FileUtils.forceMkdir(summaryFile.getParentFile());
+        CasPersistenceUtils.writeAtomically(summaryFile, aData);
+    }
+
+    @Override
+    public void deleteSummary(SourceDocument aDocument, String aUser)
+        throws IOException
+    {
+        Files.deleteIfExists(getSummaryFile(aDocument, aUser).toPath());
+    }
+
+    @Override
+    public List<String> listUsers(SourceDocument aDocument)
+    {
+        List<String> users = new ArrayList<>();
+        File[] casFiles = getAnnotationFolder(aDocument)
+                .listFiles((folder, name) -> name.endsWith(SER_SUFFIX));
+        if (casFiles != null) {
+            for (File casFile : casFiles) {
+                String name = casFile.getName();
+                users.add(name.substring(0, name.length() - SER_SUFFIX.length()));
+            }
+        }
+        return users;
+    }
+
+    @Override
+    public List<File> listStorageFolders(File aProjectFolder)
+    {
+        List<File> folders = new ArrayList<>();
+        
+        File typeSystemFolder = getTypeSystemFolder(aProjectFolder);
+        if (typeSystemFolder.isDirectory()) {
+            folders.add(typeSystemFolder);
+        }
+        
+        File[] documentFolders = new File(aProjectFolder, DOCUMENT_FOLDER)
+                .listFiles(File::isDirectory);
+        if (documentFolders != null) {
+            for (File documentFolder : documentFolders) {
+                File annotationFolder = new File(documentFolder, ANNOTATION_FOLDER);
+                if (annotationFolder.isDirectory()) {
+                    folders.add(annotationFolder);
+                }
+            }
+        }
+        
+        return folders;
+    }
+
+    @Override
+    public File getHistoryFolder(SourceDocument aDocument)
+    {
+        return new File(getAnnotationFolder(aDocument), HISTORY_FOLDER);
+    }
+
+    @Override
+    public File getTypeSystemFolder(SourceDocument aDocument)
+    {
+        return getTypeSystemFolder(
+                new File(dir, PROJECT_FOLDER + "/" + aDocument.getProject().getId()));
+    }
+    
+    /**
+     * @return the folder in which the type systems of the CASes of the project stored in the
+     *         given folder are stored.
+     */
+    public static File getTypeSystemFolder(File aProjectFolder)
+    {
+        return new File(aProjectFolder, TYPE_SYSTEM_FOLDER);
+    }
+    
+    private void migrateTypeSystems(SourceDocument aDocument)
+        throws IOException
+    {
+        if (migratedDocuments.contains(aDocument.getId())) {
+            return;
+        }
+        
+        synchronized (migratedDocuments) {
+            if (migratedDocuments.contains(aDocument.getId())) {
+                return;
+            }
+            
+            int moved = CasPersistenceUtils.moveTypeSystems(getAnnotationFolder(aDocument),
+                    getTypeSystemFolder(aDocument));
+            if (moved > 0) {
+                log.info("Moved {} type systems of document [{}]({}) to the project type system "
+                        + "folder", moved, aDocument.getName(), aDocument.getId());
+            }
+            migratedDocuments.add(aDocument.getId());
+        }
+    }
+
+    private File getAnnotationFolder(SourceDocument aDocument)
+    {
+        return new File(dir, PROJECT_FOLDER + "/" + aDocument.getProject().getId() + "/"
+                + DOCUMENT_FOLDER + "/" + aDocument.getId() + "/" + ANNOTATION_FOLDER);
+    }
+
+    private File getCasFile(SourceDocument aDocument, String aUser)
+    {
+        return new File(getAnnotationFolder(aDocument), aUser + SER_SUFFIX);
+    }
+
+    private File getSummaryFile(SourceDocument aDocument, String aUser)
+    {
+        return new File(getAnnotationFolder(aDocument), aUser + SUMMARY_SUFFIX);
+    }
+
+    /**
+     * Older versions stored the verification stamp in a separate file. The stamp is now part of
+     * the CAS summary.
+     */
+    private File getLegacyStampFile(SourceDocument aDocument, String aUser)
+    {
+        return new File(getAnnotationFolder(aDocument), aUser + VERIFIED_SUFFIX);
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.PROJECT_FOLDER;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.event.BeforeDocumentRemovedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.BeforeProjectRemovedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Stores the CASes of all documents of a project and their summaries in a single
+ * {@link CasLog append-only log} in {@code project/<id>/cas-log} within the repository. The type
+ * systems are stored in the same folder, the history in its {@code history} sub-folder. So the data
+ * of a project does not end up spread over the document folders. Logs are compacted in the
+ * background once a sufficient part of them is garbage.
+ */
+@Component
+public class LogCasStorageDriver
+    implements CasStorageDriver, DisposableBean
+{
+    public static final String ID = "log";
+
+    private static final String LOG_FOLDER = "cas-log";
+    private static final String HISTORY_FOLDER = "history";
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    @Value(value = "${repository.path}")
+    private File dir;
+
+    /**
+     * Fraction of a log that must be garbage before the log is compacted.
+     */
+    @Value(value = "${casStorage.log.compactionThreshold:0.5}")
+    private double compactionThreshold;
+
+    /**
+     * Minimum size (in MB) of a log before it is compacted.
+     */
+    @Value(value = "${casStorage.log.compactionMinSize:16}")
+    private long compactionMinSize;
+
+    private final Map<Long, CasLog> logs = new ConcurrentHashMap<>();
+    private final Set<Long> pendingCompactions = ConcurrentHashMap.newKeySet();
+    private ExecutorService compactionExecutor;
+
+    @Override
+    public String getId()
+    {
+        return ID;
+    }
+
+    @Override
+    public boolean exists(SourceDocument aDocument, String aUser)
+        throws IOException
+    {
+        return getLog(aDocument.getProject()).exists(aDocument.getId(), aUser);
+    }
+
+    @Override
+    public long getSize(SourceDocument aDocument, String aUser)
+        throws IOException
+    {
+        return getLog(aDocument.getProject()).getDataSize(aDocument.getId(), aUser);
+    }
+
+    @Override
+    public byte[] read(SourceDocument aDocument, String aUser)
+        throws IOException
+    {
+        return getLog(aDocument.getProject()).read(aDocument.getId(), aUser);
+    }
+
+    @Override
+    public void write(SourceDocument aDocument, String aUser, byte[] aData)
+        throws IOException
+    {
+        CasLog casLog = getLog(aDocument.getProject());
+        casLog.write(aDocument.getId(), aUser, aData);
+        scheduleCompactionIfNecessary(aDocument.getProject().getId(), casLog);
+    }
+
+    @Override
+    public boolean delete(SourceDocument aDocument, String aUser)
+        throws IOException
+    {
+        CasLog casLog = getLog(aDocument.getProject());
+        boolean deleted = casLog.delete(aDocument.getId(), aUser);
+        scheduleCompactionIfNecessary(aDocument.getProject().getId(), casLog);
+        return deleted;
+    }
+
+    @Override
+    public byte[] readSummary(SourceDocument aDocument, String aUser)
+        throws IOException
+    {
+        return getLog(aDocument.getProject()).readSummary(aDocument.getId(), aUser);
+    }
+
+    @Override
+    public void writeSummary(SourceDocument aDocument, String aUser, byte[] aData)
+        throws IOException
+    {
+        getLog(aDocument.getProject()).writeSummary(aDocument.getId(), aUser, aData);
+    }
+
+    @Override
+    public void deleteSummary(SourceDocument aDocument, String aUser)
+        throws IOException
+    {
+        getLog(aDocument.getProject()).deleteSummary(aDocument.getId(), aUser);
+    }
+
+    @Override
+    public List<String> listUsers(SourceDocument aDocument)
+        throws IOException
+    {
+        return getLog(aDocument.getProject()).listUsers(aDocument.getId());
+    }
+
+    @Override
+    public List<File> listStorageFolders(File aProjectFolder)
+    {
+        File logFolder = new File(aProjectFolder, LOG_FOLDER);
+        return logFolder.isDirectory() ? asList(logFolder) : emptyList();
+    }
+
+    @Override
+    public File getHistoryFolder(SourceDocument aDocument)
+    {
+        return new File(getLogFolder(aDocument.getProject().getId()),
+                HISTORY_FOLDER + "/" + aDocument.getId());
+    }
+
+    @Override
+    public File getTypeSystemFolder(SourceDocument aDocument)
+    {
+        return getLogFolder(aDocument.getProject().getId());
+    }
+
+    /**
+     * The document folder is removed by the document service, but the CASes and the history of
+     * the document are in the project log folder, so we need to remove them there.
+     */
+    @EventListener
+    public void onBeforeDocumentRemoved(BeforeDocumentRemovedEvent aEvent)
+        throws IOException
+    {
+        SourceDocument document = aEvent.getDocument();
+        FileUtils.deleteQuietly(getHistoryFolder(document));
+        if (isLogPresent(document.getProject().getId())) {
+            CasLog casLog = getLog(document.getProject());
+            casLog.deleteDocument(document.getId());
+            scheduleCompactionIfNecessary(document.getProject().getId(), casLog);
+        }
+    }
+
+    /**
+     * The project folder including the log is removed by the project service, we only need to
+     * close the log.
+     */
+    @EventListener
+    public void onBeforeProjectRemoved(BeforeProjectRemovedEvent aEvent)
+        throws IOException
+    {
+        CasLog casLog = logs.remove(aEvent.getProject().getId());
+        if (casLog != null) {
+            casLog.close();
+        }
+    }
+
+    @Override
+    public void destroy()
+        throws Exception
+    {
+        if (compactionExecutor != null) {
+            compactionExecutor.shutdown();
+            compactionExecutor.awaitTermination(30, TimeUnit.SECONDS);
+        }
+
+        for (CasLog casLog : logs.values()) {
+            casLog.close();
+        }
+        logs.clear();
+    }
+
+    private CasLog getLog(Project aProject)
+        throws IOException
+    {
+        try {
+            return logs.computeIfAbsent(aProject.getId(), id -> {
+                try {
+                    return new CasLog(new File(getLogFolder(id), CasLog.LOG_FILE));
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private boolean isLogPresent(long aProjectId)
+    {
+        return logs.containsKey(aProjectId)
+                || new File(getLogFolder(aProjectId), CasLog.LOG_FILE).exists();
+    }
+
+    private File getLogFolder(long aProjectId)
+    {
+        return new File(dir, PROJECT_FOLDER + "/" + aProjectId + "/" + LOG_FOLDER);
+    }
+
+    private void scheduleCompactionIfNecessary(long aProjectId, CasLog aLog)
+    {
+        if (aLog.getSize() < compactionMinSize * 1024 * 1024
+                || aLog.getGarbageRatio() < compactionThreshold) {
+            return;
+        }
+
+        // If a compaction of this log is already waiting, we do not need another one
+        if (!pendingCompactions.add(aProjectId)) {
+            return;
+        }
+
+        synchronized (this) {
+            if (compactionExecutor == null) {
+                compactionExecutor = Executors.newSingleThreadExecutor(r -> {
+                    Thread t = new Thread(r, "cas-log-compaction");
+                    t.setDaemon(true);
+                    return t;
+                });
+            }
+        }
+
+        compactionExecutor.execute(() -> {
+            pendingCompactions.remove(aProjectId);
+            // The log may have been closed in the meantime because the project was removed
+            if (logs.get(aProjectId) != aLog) {
+                return;
+            }
+            try {
+                aLog.compact();
+            }
+            catch (IOException e) {
+                log.error("Unable to compact CAS log of project [{}]", aProjectId, e);
+            }
+        });
+    }
+}
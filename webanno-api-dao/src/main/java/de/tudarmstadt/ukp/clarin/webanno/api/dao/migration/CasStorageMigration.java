@@ -0,0 +1,289 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao.migration;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.PROJECT_FOLDER;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.uima.cas.CAS;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.api.ProjectService;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasPersistenceUtils;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasStorageServiceImpl;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageDriver;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Copies all CASes from the storage backend configured in {@code casStorage.migrateFrom} to the
+ * backend configured in {@code casStorage.backend}. The CASes are re-serialized such that they
+ * reference the type systems of the target backend. The history of each document is copied along
+ * with its CASes. The summaries in the target backend are removed, they are created again from
+ * the migrated CASes when needed. The source data is left untouched, so the setting should be
+ * removed once the migration has been performed.
+ * <p>
+ * The migrated CASes are recorded in a file in the project folder. If the migration runs again,
+ * e.g. because the setting has not been removed, recorded CASes are skipped - they may have been
+ * changed in the target backend since. CASes which could not be migrated are tried again, unless
+ * they have been created in the target backend in the meantime.
+ */
+public class CasStorageMigration
+    implements SmartLifecycle
+{
+    private static final String MIGRATED_FILE_PREFIX = "cas-storage-migrated-";
+    private static final String HISTORY_KEY = "history";
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private boolean running = false;
+
+    @Value(value = "${casStorage.migrateFrom:}")
+    private String migrateFrom;
+
+    @Value(value = "${casStorage.backend:filesystem}")
+    private String backend;
+
+    @Value(value = "${repository.path}")
+    private File dir;
+
+    private @Autowired PlatformTransactionManager txManager;
+    private @Autowired ProjectService projectService;
+    private @Autowired DocumentService documentService;
+    private @Autowired CasStorageServiceImpl casStorageService;
+
+    @Override
+    public boolean isRunning()
+    {
+        return running;
+    }
+
+    @Override
+    public void start()
+    {
+        running = true;
+        if (StringUtils.isNotBlank(migrateFrom) && !migrateFrom.equals(backend)) {
+            doMigration();
+        }
+    }
+
+    @Override
+    public void stop()
+    {
+        running = false;
+    }
+
+    @Override
+    public int getPhase()
+    {
+        return Integer.MIN_VALUE;
+    }
+
+    @Override
+    public boolean isAutoStartup()
+    {
+        return true;
+    }
+
+    @Override
+    public void stop(Runnable aCallback)
+    {
+        stop();
+        aCallback.run();
+    }
+
+    private void doMigration()
+    {
+        CasStorageDriver source = casStorageService.getDriver(migrateFrom);
+        CasStorageDriver target = casStorageService.getDriver(backend);
+        
+        log.info("Migrating CASes from storage backend [{}] to [{}]", source.getId(),
+                target.getId());
+        
+        DefaultTransactionDefinition def = new DefaultTransactionDefinition();
+        def.setName("migrationRoot");
+        def.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRED);
+        
+        int migrated = 0;
+        int skipped = 0;
+        int failed = 0;
+        TransactionStatus status = null;
+        try {
+            status = txManager.getTransaction(def);
+
+            for (Project project : projectService.listProjects()) {
+                File migratedFile = getMigratedFile(project, source, target);
+                boolean previousRun = migratedFile.exists();
+                Set<String> done = previousRun
+                        ? new HashSet<>(Files.readAllLines(migratedFile.toPath(), UTF_8))
+                        : new HashSet<>();
+                
+                for (SourceDocument document : documentService.listSourceDocuments(project)) {
+                    for (String user : source.listUsers(document)) {
+                        String key = document.getId() + "/" + user;
+                        if (done.contains(key)) {
+                            skipped++;
+                            continue;
+                        }
+                        
+                        // A CAS which failed before but exists in the target now has been
+                        // created using the target backend - it must not be overwritten
+                        if (previousRun && target.exists(document, user)) {
+                            log.warn("Not migrating CAS of user [{}] for document [{}]({}) in "
+                                    + "project [{}]({}) - it was created in [{}] in the meantime",
+                                    user, document.getName(), document.getId(),
+                                    project.getName(), project.getId(), target.getId());
+                            record(migratedFile, done, key);
+                            skipped++;
+                            continue;
+                        }
+                        
+                        try {
+                            migrate(source, target, document, user);
+                            record(migratedFile, done, key);
+                            migrated++;
+                        }
+                        catch (IOException e) {
+                            log.error("Unable to migrate CAS of user [{}] for document [{}]({}) "
+                                    + "in project [{}]({})", user, document.getName(),
+                                    document.getId(), project.getName(), project.getId(), e);
+                            failed++;
+                        }
+                    }
+                    
+                    // The history is shared by all users of the document, so it is copied only
+                    // once - later versions may have been added to it in the target since
+                    String historyKey = document.getId() + "/" + HISTORY_KEY;
+                    if (!done.contains(historyKey)) {
+                        try {
+                            migrateHistory(source, target, document);
+                            record(migratedFile, done, historyKey);
+                        }
+                        catch (IOException e) {
+                            log.error("Unable to migrate history of document [{}]({}) in "
+                                    + "project [{}]({})", document.getName(), document.getId(),
+                                    project.getName(), project.getId(), e);
+                        }
+                    }
+                }
+            }
+            
+            txManager.commit(status);
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("Unable to migrate CASes", e);
+        }
+        finally {
+            if (status != null && !status.isCompleted()) {
+                txManager.rollback(status);
+            }
+        }
+        
+        log.info("CAS STORAGE MIGRATION PERFORMED: migrated {} CASes from [{}] to [{}], {} "
+                + "skipped, {} failed", migrated, source.getId(), target.getId(), skipped, failed);
+    }
+    
+    private void migrate(CasStorageDriver aSource, CasStorageDriver aTarget,
+            SourceDocument aDocument, String aUser)
+        throws IOException
+    {
+        byte[] data = aSource.read(aDocument, aUser);
+        if (data == null) {
+            return;
+        }
+        
+        CAS cas = CasPersistenceUtils.borrowSerializedCas(data,
+                aSource.getTypeSystemFolder(aDocument));
+        try {
+            aTarget.write(aDocument, aUser, CasPersistenceUtils.serializeCas(cas,
+                    aTarget.getTypeSystemFolder(aDocument)));
+        }
+        finally {
+            CasPersistenceUtils.releaseCas(cas);
+        }
+        
+        // A summary left in the target refers to other data
+        aTarget.deleteSummary(aDocument, aUser);
+    }
+    
+    /**
+     * Copies the history of the document. The versions in the history reference the type systems
+     * of the source backend, so these are copied as well.
+     */
+    private void migrateHistory(CasStorageDriver aSource, CasStorageDriver aTarget,
+            SourceDocument aDocument)
+        throws IOException
+    {
+        File sourceHistory = aSource.getHistoryFolder(aDocument);
+        File targetHistory = aTarget.getHistoryFolder(aDocument);
+        if (!sourceHistory.isDirectory() || sourceHistory.equals(targetHistory)) {
+            return;
+        }
+        
+        FileUtils.copyDirectory(sourceHistory, targetHistory);
+        
+        File sourceTypeSystems = aSource.getTypeSystemFolder(aDocument);
+        File targetTypeSystems = aTarget.getTypeSystemFolder(aDocument);
+        File[] typeSystemFiles = sourceTypeSystems.listFiles(File::isFile);
+        if (typeSystemFiles != null && !sourceTypeSystems.equals(targetTypeSystems)) {
+            FileUtils.forceMkdir(targetTypeSystems);
+            for (File typeSystemFile : typeSystemFiles) {
+                // Type systems are stored under their fingerprint, so an existing file is the same
+                File targetFile = new File(targetTypeSystems, typeSystemFile.getName());
+                if (!targetFile.exists()) {
+                    CasPersistenceUtils.writeAtomically(targetFile,
+                            Files.readAllBytes(typeSystemFile.toPath()));
+                }
+            }
+        }
+    }
+    
+    private File getMigratedFile(Project aProject, CasStorageDriver aSource,
+            CasStorageDriver aTarget)
+    {
+        return new File(dir, PROJECT_FOLDER + "/" + aProject.getId() + "/" + MIGRATED_FILE_PREFIX
+                + aSource.getId() + "-" + aTarget.getId());
+    }
+    
+    private void record(File aMigratedFile, Set<String> aDone, String aKey)
+        throws IOException
+    {
+        FileUtils.forceMkdir(aMigratedFile.getParentFile());
+        Files.write(aMigratedFile.toPath(), (aKey + "\n").getBytes(UTF_8),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        aDone.add(aKey);
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasHistoryStore.Version;
+
+public class CasHistoryStoreTest
+{
+    public @Rule TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private CasHistoryStore sut;
+    private File folder;
+    private byte[] data;
+
+    @Before
+    public void setup() throws Exception
+    {
+        sut = new CasHistoryStore();
+        folder = tempFolder.newFolder();
+        data = new byte[256 * 1024];
+        new Random(1).nextBytes(data);
+    }
+
+    @Test
+    public void thatVersionCanBeRead() throws Exception
+    {
+        Version version = sut.addVersion(folder, "user", data, 1000);
+
+        assertArrayEquals(data, sut.readVersion(folder, version));
+        assertEquals(1, sut.listVersions(folder, "user").size());
+    }
+
+    @Test
+    public void thatUnchangedChunksAreShared() throws Exception
+    {
+        byte[] changed = Arrays.copyOf(data, data.length);
+        changed[data.length / 2]++;
+
+        Version v1 = sut.addVersion(folder, "user", data, 1000);
+        Version v2 = sut.addVersion(folder, "user", changed, 2000);
+
+        long shared = v2.getChunks().stream().filter(v1.getChunks()::contains).count();
+        assertEquals(v2.getChunks().size() - 1, shared);
+        assertArrayEquals(changed, sut.readVersion(folder, v2));
+    }
+
+    @Test
+    public void thatIntervalIsRespected() throws Exception
+    {
+        assertTrue(sut.isDue(folder, "user", 1000, 500));
+
+        sut.addVersion(folder, "user", data, 1000);
+
+        assertFalse(sut.isDue(folder, "user", 1200, 500));
+        assertTrue(sut.isDue(folder, "user", 1600, 500));
+    }
+
+    @Test
+    public void thatPruningKeepsNewestVersionsAndSharedChunks() throws Exception
+    {
+        byte[] changed = Arrays.copyOf(data, data.length);
+        changed[0]++;
+
+        sut.addVersion(folder, "user", changed, 1000);
+        sut.addVersion(folder, "user", data, 2000);
+        Version other = sut.addVersion(folder, "other", changed, 3000);
+
+        assertEquals(1, sut.prune(folder, 1, 0, 4000));
+
+        List<Version> versions = sut.listVersions(folder, "user");
+        assertEquals(1, versions.size());
+        assertEquals(2000, versions.get(0).getTimestamp());
+        assertArrayEquals(data, sut.readVersion(folder, versions.get(0)));
+        assertArrayEquals(changed, sut.readVersion(folder, other));
+    }
+
+    @Test
+    public void thatPruningRemovesOutdatedVersions() throws Exception
+    {
+        sut.addVersion(folder, "user", data, 1000);
+        sut.addVersion(folder, "user", data, 5000);
+
+        assertEquals(1, sut.prune(folder, 0, 2000, 6000));
+        assertEquals(5000, sut.listVersions(folder, "user").get(0).getTimestamp());
+    }
+
+    @Test
+    public void thatDamagedIndexEntryIsSkipped() throws Exception
+    {
+        sut.addVersion(folder, "user", data, 1000);
+        
+        // Simulate an append interrupted by a crash
+        Files.write(new File(folder, "user.idx").toPath(), "2000 26".getBytes(UTF_8),
+                StandardOpenOption.APPEND);
+        
+        assertEquals(1, sut.listVersions(folder, "user").size());
+        assertTrue(sut.isDue(folder, "user", 1600, 500));
+        
+        sut.addVersion(folder, "user", data, 3000);
+        
+        List<Version> versions = sut.listVersions(folder, "user");
+        assertEquals(2, versions.size());
+        assertEquals(3000, versions.get(1).getTimestamp());
+    }
+
+    @Test
+    public void thatOlderVersionIsInsertedInOrder() throws Exception
+    {
+        sut.addVersion(folder, "user", data, 3000);
+        sut.addVersion(folder, "user", data, 1000);
+        
+        List<Version> versions = sut.listVersions(folder, "user");
+        assertEquals(1000, versions.get(0).getTimestamp());
+        assertEquals(3000, versions.get(1).getTimestamp());
+    }
+}
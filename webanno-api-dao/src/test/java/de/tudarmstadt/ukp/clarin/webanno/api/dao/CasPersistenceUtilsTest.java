@@ -0,0 +1,105 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static org.apache.uima.fit.util.JCasUtil.select;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.jcas.tcas.Annotation;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CasPersistenceUtilsTest
+{
+    public @Rule TemporaryFolder testFolder = new TemporaryFolder();
+
+    @Test
+    public void thatAddressesSurviveDeletedAnnotations() throws Exception
+    {
+        JCas jcas = JCasFactory.createText("This is a test.");
+        new Annotation(jcas, 0, 4).addToIndexes();
+        Annotation deleted = new Annotation(jcas, 5, 7);
+        deleted.addToIndexes();
+        new Annotation(jcas, 10, 14).addToIndexes();
+        deleted.removeFromIndexes();
+        
+        List<Integer> addresses = getAddresses(jcas);
+        
+        File folder = testFolder.newFolder();
+        byte[] data = CasPersistenceUtils.serializeCas(jcas.getCas(), folder);
+        CAS cas = CasPersistenceUtils.readSerializedCas(data, folder);
+        
+        assertEquals(addresses, getAddresses(cas.getJCas()));
+        
+        // Also the uncompressed variant used for the history must keep the addresses
+        data = CasPersistenceUtils.serializeCasUncompressed(cas, folder);
+        cas = CasPersistenceUtils.readSerializedCas(data, folder);
+        
+        assertEquals(addresses, getAddresses(cas.getJCas()));
+    }
+    
+    @Test
+    public void thatTypeSystemIsStoredOncePerFolder() throws Exception
+    {
+        File folder = testFolder.newFolder();
+        CasPersistenceUtils.serializeCas(JCasFactory.createText("first").getCas(), folder);
+        CasPersistenceUtils.serializeCas(JCasFactory.createText("second").getCas(), folder);
+        
+        assertEquals(1, folder.listFiles().length);
+    }
+    
+    @Test
+    public void thatTypeSystemsCanBeMovedToSharedFolder() throws Exception
+    {
+        File documentFolder = testFolder.newFolder();
+        File sharedFolder = new File(testFolder.getRoot(), "shared");
+        File casFile = new File(documentFolder, "user.ser");
+        CasPersistenceUtils.writeSerializedCas(JCasFactory.createText("text").getCas(), casFile);
+        
+        assertTrue(CasPersistenceUtils.hasTypeSystem(casFile, documentFolder));
+        assertFalse(CasPersistenceUtils.hasTypeSystem(casFile, sharedFolder));
+        
+        assertEquals(1, CasPersistenceUtils.moveTypeSystems(documentFolder, sharedFolder));
+        
+        assertFalse(CasPersistenceUtils.hasTypeSystem(casFile, documentFolder));
+        assertTrue(CasPersistenceUtils.hasTypeSystem(casFile, sharedFolder));
+        assertEquals("text", CasPersistenceUtils.readSerializedCas(
+                Files.readAllBytes(casFile.toPath()), sharedFolder)
+                .getDocumentText());
+    }
+    
+    private static List<Integer> getAddresses(JCas aJCas)
+    {
+        List<Integer> addresses = new ArrayList<>();
+        for (Annotation annotation : select(aJCas, Annotation.class)) {
+            addresses.add(annotation.getAddress());
+        }
+        return addresses;
+    }
+}
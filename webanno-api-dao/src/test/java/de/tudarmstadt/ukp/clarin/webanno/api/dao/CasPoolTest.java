@@ -0,0 +1,73 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.TypeSystem;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CasPoolTest
+{
+    private CasPool sut;
+    private TypeSystem typeSystem;
+
+    @Before
+    public void setup() throws Exception
+    {
+        sut = new CasPool();
+        typeSystem = JCasFactory.createJCas().getTypeSystem();
+    }
+
+    @Test
+    public void thatReleasedCasIsReused() throws Exception
+    {
+        CAS first = sut.borrow(typeSystem);
+        CAS second = sut.borrow(typeSystem);
+        assertEquals(2, sut.getBorrowed());
+
+        sut.release(first);
+        assertEquals(1, sut.getBorrowed());
+        assertEquals(1, sut.getIdle());
+
+        assertSame(first, sut.borrow(typeSystem));
+        assertEquals(1, sut.getReused());
+
+        sut.release(second);
+        sut.release(first);
+        assertEquals(0, sut.getBorrowed());
+        assertEquals(0, sut.getLeaked());
+    }
+
+    @Test
+    public void thatCasNotBorrowedCanBeReleased() throws Exception
+    {
+        CAS borrowed = sut.borrow(typeSystem);
+        
+        sut.release(sut.take(typeSystem));
+
+        assertEquals(1, sut.getBorrowed());
+        assertEquals(1, sut.getIdle());
+        
+        sut.release(borrowed);
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasMemoryGovernor.Priority;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.FileSystemCasStorageDriver;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Measures the throughput of the CAS storage with several annotators working concurrently on
+ * their own documents. Each annotator repeatedly reads and writes its CAS, as happens on every
+ * annotation action. Also compares reading the CASes one after another to reading them in a
+ * batch, as done for curation and the agreement.
+ * <p>
+ * Benchmarks are not part of the regular build. Run them using the {@code benchmark} profile.
+ */
+public class CasStorageServiceImplBenchmark
+{
+    private static final Logger LOG = LoggerFactory.getLogger(CasStorageServiceImplBenchmark.class);
+
+    private static final int ANNOTATORS = 8;
+    private static final int ROUNDS = 25;
+    
+    public @Rule TemporaryFolder testFolder = new TemporaryFolder();
+    
+    private CasStorageServiceImpl sut;
+    private List<SourceDocument> documents;
+    
+    @Before
+    public void setup() throws Exception
+    {
+        sut = new CasStorageServiceImpl();
+        ReflectionTestUtils.setField(sut, "dir", testFolder.getRoot());
+        ReflectionTestUtils.setField(sut, "driver",
+                new FileSystemCasStorageDriver(testFolder.getRoot()));
+        
+        Project project = new Project();
+        project.setId(1l);
+        project.setName("benchmark");
+
+        documents = new ArrayList<>();
+        for (int i = 0; i < ANNOTATORS; i++) {
+            SourceDocument doc = new SourceDocument();
+            doc.setId((long) i);
+            doc.setName("doc" + i);
+            doc.setProject(project);
+            documents.add(doc);
+            
+            JCas jcas = JCasFactory.createText(StringUtils.repeat("This is a test. ", 10000));
+            sut.writeCas(doc, jcas, "user");
+        }
+    }
+    
+    @Test
+    public void thatConcurrentAnnotatorsWithoutCacheDoNotBlockEachOther() throws Exception
+    {
+        ReflectionTestUtils.setField(sut, "cacheMaxHeapSize", 0l);
+        
+        run("no cache");
+    }
+
+    @Test
+    public void thatConcurrentAnnotatorsWithCacheDoNotBlockEachOther() throws Exception
+    {
+        ReflectionTestUtils.setField(sut, "cacheMaxHeapSize", 256l);
+        
+        run("cache");
+    }
+    
+    @Test
+    public void thatBatchReadIsFasterThanSequentialRead() throws Exception
+    {
+        int threads = Math.min(4, Runtime.getRuntime().availableProcessors());
+        assumeTrue("Batch reads cannot be faster on a single processor", threads > 1);
+        
+        // Count the reads running at the same time to see that the batch really is concurrent
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        sut = new CasStorageServiceImpl()
+        {
+            @Override
+            JCas readCas(SourceDocument aDocument, String aUsername, boolean aAnalyzeAndRepair,
+                    String aScope, Priority aPriority)
+                throws IOException
+            {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    return super.readCas(aDocument, aUsername, aAnalyzeAndRepair, aScope,
+                            aPriority);
+                }
+                finally {
+                    running.decrementAndGet();
+                }
+            }
+        };
+        ReflectionTestUtils.setField(sut, "dir", testFolder.getRoot());
+        ReflectionTestUtils.setField(sut, "driver",
+                new FileSystemCasStorageDriver(testFolder.getRoot()));
+        // Without the cache, every read loads the CAS from disk
+        ReflectionTestUtils.setField(sut, "cacheMaxHeapSize", 0l);
+        ReflectionTestUtils.setField(sut, "readThreads", threads);
+        
+        List<AnnotationDocument> annDocs = new ArrayList<>();
+        for (SourceDocument doc : documents) {
+            AnnotationDocument annDoc = new AnnotationDocument();
+            annDoc.setDocument(doc);
+            annDoc.setProject(doc.getProject());
+            annDoc.setName(doc.getName());
+            annDoc.setUser("user");
+            annDocs.add(annDoc);
+        }
+        
+        try {
+            // Warm up the JIT and the file system cache - not measured
+            for (int r = 0; r < 3; r++) {
+                readSequentially(annDocs);
+                sut.readCases(annDocs);
+            }
+            
+            // Alternate between both variants, so that neither benefits from running later
+            List<Long> sequentialDurations = new ArrayList<>();
+            List<Long> batchDurations = new ArrayList<>();
+            for (int r = 0; r < 10; r++) {
+                long start = System.nanoTime();
+                List<JCas> sequential = readSequentially(annDocs);
+                sequentialDurations.add(System.nanoTime() - start);
+                
+                maxRunning.set(0);
+                start = System.nanoTime();
+                List<JCas> batch = sut.readCases(annDocs);
+                batchDurations.add(System.nanoTime() - start);
+                
+                assertTrue("Batch reads did not run concurrently", maxRunning.get() > 1);
+                assertEquals(sequential.size(), batch.size());
+                for (int i = 0; i < batch.size(); i++) {
+                    assertEquals(sequential.get(i).getDocumentText(),
+                            batch.get(i).getDocumentText());
+                }
+            }
+            
+            long sequentialMedian = median(sequentialDurations);
+            long batchMedian = median(batchDurations);
+            LOG.info(String.format("%d CASes, %d threads: sequential %d ms, batch %d ms (%.1fx)",
+                    annDocs.size(), threads, sequentialMedian / 1_000_000,
+                    batchMedian / 1_000_000, (double) sequentialMedian / batchMedian));
+            
+            assertTrue("Batch read (" + batchMedian / 1_000_000
+                    + " ms) is not faster than sequential read (" + sequentialMedian / 1_000_000
+                    + " ms)", batchMedian < sequentialMedian);
+        }
+        finally {
+            sut.destroy();
+        }
+    }
+    
+    private List<JCas> readSequentially(List<AnnotationDocument> aAnnotationDocuments)
+        throws IOException
+    {
+        List<JCas> cases = new ArrayList<>();
+        for (AnnotationDocument annDoc : aAnnotationDocuments) {
+            cases.add(sut.readCas(annDoc.getDocument(), annDoc.getUser()));
+        }
+        return cases;
+    }
+    
+    private static long median(List<Long> aValues)
+    {
+        List<Long> sorted = new ArrayList<>(aValues);
+        Collections.sort(sorted);
+        return sorted.get(sorted.size() / 2);
+    }
+    
+    private void run(String aLabel) throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(ANNOTATORS);
+        try {
+            long start = System.currentTimeMillis();
+            
+            List<Future<Integer>> results = new ArrayList<>();
+            for (SourceDocument doc : documents) {
+                results.add(executor.submit(() -> {
+                    // The cache is only used on behalf of a user
+                    SecurityContextHolder.getContext().setAuthentication(
+                            new UsernamePasswordAuthenticationToken("user", "password"));
+                    try {
+                        int ops = 0;
+                        for (int r = 0; r < ROUNDS; r++) {
+                            JCas jcas = sut.readCas(doc, "user", false);
+                            sut.writeCas(doc, jcas, "user");
+                            ops += 2;
+                        }
+                        return ops;
+                    }
+                    finally {
+                        SecurityContextHolder.clearContext();
+                    }
+                }));
+            }
+            
+            int ops = 0;
+            for (Future<Integer> result : results) {
+                ops += result.get();
+            }
+            
+            long duration = System.currentTimeMillis() - start;
+            
+            LOG.info(String.format("%s - %d annotators: %d operations in %d ms (%.1f ops/s)",
+                    aLabel, ANNOTATORS, ops, duration, ops * 1000.0 / Math.max(duration, 1)));
+            
+            assertEquals(ANNOTATORS * ROUNDS * 2, ops);
+        }
+        finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+}
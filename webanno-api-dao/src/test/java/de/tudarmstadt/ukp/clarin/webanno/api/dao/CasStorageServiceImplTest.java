@@ -0,0 +1,536 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static org.apache.uima.fit.util.JCasUtil.select;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.jcas.tcas.Annotation;
+import org.apache.wicket.ThreadContext;
+import org.apache.wicket.request.IExceptionMapper;
+import org.apache.wicket.request.IRequestMapper;
+import org.apache.wicket.request.Request;
+import org.apache.wicket.request.Response;
+import org.apache.wicket.request.Url;
+import org.apache.wicket.request.cycle.RequestCycle;
+import org.apache.wicket.request.cycle.RequestCycleContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasMemoryGovernor.Priority;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.FileSystemCasStorageDriver;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.BeforeDocumentRemovedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.BeforeProjectRemovedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+public class CasStorageServiceImplTest
+{
+    public @Rule TemporaryFolder testFolder = new TemporaryFolder();
+
+    private HookedCasStorageService sut;
+    private Project project;
+    private SourceDocument document;
+
+    @Before
+    public void setup() throws Exception
+    {
+        sut = new HookedCasStorageService();
+        ReflectionTestUtils.setField(sut, "dir", testFolder.getRoot());
+        ReflectionTestUtils.setField(sut, "driver",
+                new FileSystemCasStorageDriver(testFolder.getRoot()));
+        ReflectionTestUtils.setField(sut, "cacheMaxHeapSize", 256l);
+
+        project = new Project();
+        project.setId(1l);
+        project.setName("test");
+
+        document = createDocument(1l, "This is a test.");
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        SecurityContextHolder.clearContext();
+        ThreadContext.detach();
+        sut.destroy();
+    }
+
+    @Test
+    public void thatCachedCasIsReusedForSameUser() throws Exception
+    {
+        loginAs("curator");
+
+        JCas first = sut.readCas(document, "annotator");
+        JCas second = sut.readCas(document, "annotator");
+
+        assertSame(first, second);
+    }
+
+    @Test
+    public void thatCachedCasIsNotSharedBetweenUsers() throws Exception
+    {
+        loginAs("annotator");
+        JCas annotatorCas = sut.readCas(document, "annotator");
+
+        loginAs("curator");
+        JCas curatorCas = sut.readCas(document, "annotator");
+
+        assertNotSame(annotatorCas, curatorCas);
+    }
+
+    @Test
+    public void thatWriteInvalidatesCopiesOfOtherUsers() throws Exception
+    {
+        loginAs("curator");
+        JCas curatorCas = sut.readCas(document, "annotator");
+
+        loginAs("annotator");
+        JCas annotatorCas = sut.readCas(document, "annotator");
+        annotatorCas.reset();
+        annotatorCas.setDocumentText("This is a changed test.");
+        sut.writeCas(document, annotatorCas, "annotator");
+        assertSame(annotatorCas, sut.readCas(document, "annotator"));
+
+        loginAs("curator");
+        JCas reloadedCas = sut.readCas(document, "annotator");
+
+        assertNotSame(curatorCas, reloadedCas);
+        assertEquals("This is a changed test.", reloadedCas.getDocumentText());
+    }
+
+    @Test
+    public void thatCasChangedByFailedRequestIsReadAgain() throws Exception
+    {
+        loginAs("annotator");
+
+        RequestCycle failedRequest = startRequest();
+        JCas jcas = sut.readCas(document, "annotator");
+        // The action changes the CAS and fails before the CAS is written
+        new Annotation(jcas, 0, 4).addToIndexes();
+        failedRequest.getListeners().onException(failedRequest, new IllegalStateException());
+        ThreadContext.detach();
+
+        startRequest();
+        JCas reloaded = sut.readCas(document, "annotator");
+
+        assertNotSame(jcas, reloaded);
+        assertEquals(1, select(reloaded, Annotation.class).size());
+        assertSame(reloaded, sut.readCas(document, "annotator"));
+    }
+
+    @Test
+    public void thatCasIsNotCachedWithoutUser() throws Exception
+    {
+        JCas first = sut.readCas(document, "annotator");
+        JCas second = sut.readCas(document, "annotator");
+
+        assertNotSame(first, second);
+    }
+
+    @Test
+    public void thatHistoryVersionCanBeRestored() throws Exception
+    {
+        ReflectionTestUtils.setField(sut, "backupInterval", 1l);
+        
+        JCas original = sut.readCasUncached(document, "annotator");
+        sut.writeCas(document, original, "annotator");
+        long timestamp = sut.listCasVersions(document, "annotator").get(0);
+        
+        JCas changed = sut.readCasUncached(document, "annotator");
+        changed.reset();
+        changed.setDocumentText("This is a changed test.");
+        sut.writeCasUncached(document, changed, "annotator");
+        
+        sut.restoreCas(document, "annotator", timestamp);
+        
+        assertEquals("This is a test.",
+                sut.readCasUncached(document, "annotator").getDocumentText());
+    }
+    
+    @Test
+    public void thatLegacyBackupsAreMovedToHistory() throws Exception
+    {
+        ReflectionTestUtils.setField(sut, "backupInterval", 1l);
+        
+        File backup = new File(sut.getAnnotationFolder(document), "annotator.ser.500.bak");
+        CasPersistenceUtils.writeLegacySerializedCas(
+                JCasFactory.createText("This is an old test.").getCas(), backup);
+        
+        assertEquals(asList(500l), sut.listCasVersions(document, "annotator"));
+        assertFalse(backup.exists());
+        assertEquals("This is an old test.",
+                sut.readCasVersion(document, "annotator", 500).getDocumentText());
+    }
+    
+    @Test
+    public void thatBatchReadKeepsOrderOfDocuments() throws Exception
+    {
+        ReflectionTestUtils.setField(sut, "readThreads", 2);
+        List<AnnotationDocument> annDocs = createAnnotationDocuments(3);
+
+        // The first CAS is only read once the second one has been read, so the reads complete
+        // in a different order than requested
+        CountDownLatch lastStarted = new CountDownLatch(1);
+        sut.hook = (doc, scope, priority) -> {
+            if (doc.getId() == 1l) {
+                lastStarted.await(10, TimeUnit.SECONDS);
+            }
+            else if (doc.getId() == 3l) {
+                lastStarted.countDown();
+            }
+        };
+
+        List<JCas> cases = sut.readCases(annDocs);
+
+        assertEquals(3, cases.size());
+        for (int i = 0; i < cases.size(); i++) {
+            assertEquals("Text " + (i + 1), cases.get(i).getDocumentText());
+        }
+    }
+
+    @Test
+    public void thatBatchReadPassesOnExceptionOfFailedRead() throws Exception
+    {
+        ReflectionTestUtils.setField(sut, "readThreads", 2);
+        List<AnnotationDocument> annDocs = createAnnotationDocuments(3);
+
+        IOException failure = new IOException("Broken CAS");
+        sut.hook = (doc, scope, priority) -> {
+            if (doc.getId() == 2l) {
+                throw failure;
+            }
+        };
+
+        try {
+            sut.readCases(annDocs);
+            fail("Expected the exception of the failed read");
+        }
+        catch (IOException e) {
+            assertSame(failure, e);
+        }
+    }
+
+    @Test
+    public void thatBatchReadCancelsPendingReadsWhenInterrupted() throws Exception
+    {
+        ReflectionTestUtils.setField(sut, "readThreads", 2);
+        List<AnnotationDocument> annDocs = createAnnotationDocuments(4);
+
+        // The first two reads block both threads of the pool, so the others are still pending
+        // when the caller is interrupted
+        Set<Long> read = ConcurrentHashMap.newKeySet();
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+        sut.hook = (doc, scope, priority) -> {
+            read.add(doc.getId());
+            if (doc.getId() <= 2l) {
+                started.countDown();
+                release.await(10, TimeUnit.SECONDS);
+            }
+        };
+
+        AtomicReference<Throwable> exception = new AtomicReference<>();
+        Thread caller = new Thread(() -> {
+            try {
+                sut.readCases(annDocs);
+            }
+            catch (Throwable e) {
+                exception.set(e);
+            }
+        });
+        caller.start();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        caller.interrupt();
+        caller.join(10000);
+        release.countDown();
+
+        assertTrue(exception.get() instanceof InterruptedIOException);
+
+        // Once the pool has moved past the cancelled reads, they must not have been started
+        sut.readCases(annDocs.subList(0, 2));
+        assertFalse(read.contains(3l));
+        assertFalse(read.contains(4l));
+    }
+
+    @Test
+    public void thatBatchReadUsesCacheScopeOfCaller() throws Exception
+    {
+        ReflectionTestUtils.setField(sut, "readThreads", 2);
+        List<AnnotationDocument> annDocs = createAnnotationDocuments(2);
+
+        Set<String> scopes = ConcurrentHashMap.newKeySet();
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        sut.hook = (doc, scope, priority) -> {
+            scopes.add(String.valueOf(scope));
+            threads.add(Thread.currentThread().getName());
+        };
+
+        loginAs("curator");
+        List<JCas> cases = sut.readCases(annDocs);
+
+        assertEquals(1, scopes.size());
+        assertTrue(scopes.contains("curator"));
+        assertFalse(threads.contains(Thread.currentThread().getName()));
+        // The CASes read by the pool are cached for the caller
+        assertSame(cases.get(0), sut.readCas(annDocs.get(0).getDocument(), "annotator"));
+        assertSame(cases.get(1), sut.readCas(annDocs.get(1).getDocument(), "annotator"));
+    }
+
+    @Test
+    public void thatBatchReadUsesPriorityOfCaller() throws Exception
+    {
+        ReflectionTestUtils.setField(sut, "readThreads", 2);
+        List<AnnotationDocument> annDocs = createAnnotationDocuments(2);
+
+        Set<Priority> priorities = ConcurrentHashMap.newKeySet();
+        sut.hook = (doc, scope, priority) -> priorities.add(priority);
+
+        // Outside a request cycle, the caller reads in the background
+        sut.readCases(annDocs);
+        assertEquals(1, priorities.size());
+        assertTrue(priorities.contains(Priority.BACKGROUND));
+
+        // The priority of an interactive caller is not available on the threads of the pool
+        priorities.clear();
+        sut.readCases(annDocs, null, Priority.INTERACTIVE);
+        assertEquals(1, priorities.size());
+        assertTrue(priorities.contains(Priority.INTERACTIVE));
+    }
+
+    @Test
+    public void thatPendingWriteOfRemovedDocumentIsDiscarded() throws Exception
+    {
+        enableWriteBehind();
+        sut.writeCas(document, JCasFactory.createText("This is a change."), "annotator");
+
+        sut.onBeforeDocumentRemoved(new BeforeDocumentRemovedEvent(this, document));
+        File documentFolder = new File(testFolder.getRoot(), "project/1/document/1");
+        FileUtils.deleteDirectory(documentFolder);
+        sut.flushAll();
+
+        assertFalse(documentFolder.exists());
+        assertFalse(sut.existsCas(document, "annotator"));
+    }
+
+    @Test
+    public void thatPendingWriteOfRemovedProjectIsDiscarded() throws Exception
+    {
+        enableWriteBehind();
+        sut.writeCas(document, JCasFactory.createText("This is a change."), "annotator");
+
+        sut.onBeforeProjectRemoved(new BeforeProjectRemovedEvent(this, project));
+        File projectFolder = new File(testFolder.getRoot(), "project/1");
+        FileUtils.deleteDirectory(projectFolder);
+        sut.flushAll();
+
+        assertFalse(projectFolder.exists());
+    }
+
+    private void enableWriteBehind()
+    {
+        // Pending writes are only flushed explicitly during the test
+        ReflectionTestUtils.setField(sut, "writeBehindEnabled", true);
+        ReflectionTestUtils.setField(sut, "writeBehindDelay", TimeUnit.HOURS.toMillis(1));
+        ReflectionTestUtils.setField(sut, "writeBehindExecutor",
+                new ScheduledThreadPoolExecutor(1));
+    }
+
+    private SourceDocument createDocument(long aId, String aText) throws Exception
+    {
+        SourceDocument doc = new SourceDocument();
+        doc.setId(aId);
+        doc.setName("doc" + aId);
+        doc.setProject(project);
+
+        sut.writeCas(doc, JCasFactory.createText(aText), "annotator");
+
+        return doc;
+    }
+
+    private List<AnnotationDocument> createAnnotationDocuments(int aCount) throws Exception
+    {
+        List<AnnotationDocument> annDocs = new ArrayList<>();
+        for (long id = 1; id <= aCount; id++) {
+            AnnotationDocument annDoc = new AnnotationDocument();
+            annDoc.setDocument(createDocument(id, "Text " + id));
+            annDoc.setProject(project);
+            annDoc.setName("doc" + id);
+            annDoc.setUser("annotator");
+            annDocs.add(annDoc);
+        }
+        return annDocs;
+    }
+
+    /**
+     * Binds a request cycle to the current thread. It is detached again in {@link #tearDown()}.
+     */
+    private RequestCycle startRequest()
+    {
+        Request request = new Request()
+        {
+            @Override
+            public Url getUrl()
+            {
+                return Url.parse("annotation");
+            }
+
+            @Override
+            public Url getClientUrl()
+            {
+                return getUrl();
+            }
+
+            @Override
+            public Locale getLocale()
+            {
+                return Locale.ENGLISH;
+            }
+
+            @Override
+            public Charset getCharset()
+            {
+                return UTF_8;
+            }
+
+            @Override
+            public Object getContainerRequest()
+            {
+                return null;
+            }
+        };
+
+        Response response = new Response()
+        {
+            @Override
+            public void write(CharSequence aSequence)
+            {
+                // Nothing is rendered during the test
+            }
+
+            @Override
+            public void write(byte[] aArray)
+            {
+                // Nothing is rendered during the test
+            }
+
+            @Override
+            public void write(byte[] aArray, int aOffset, int aLength)
+            {
+                // Nothing is rendered during the test
+            }
+
+            @Override
+            public String encodeURL(CharSequence aUrl)
+            {
+                return aUrl.toString();
+            }
+
+            @Override
+            public Object getContainerResponse()
+            {
+                return null;
+            }
+        };
+
+        RequestCycle requestCycle = new RequestCycle(new RequestCycleContext(request, response,
+                unsupported(IRequestMapper.class), unsupported(IExceptionMapper.class)));
+        ThreadContext.setRequestCycle(requestCycle);
+        return requestCycle;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T unsupported(Class<T> aInterface)
+    {
+        return (T) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { aInterface }, (proxy, method, args) -> {
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    private void loginAs(String aUsername)
+    {
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(aUsername, "password"));
+    }
+
+    private interface ReadHook
+    {
+        void beforeRead(SourceDocument aDocument, String aScope, Priority aPriority)
+            throws IOException, InterruptedException;
+    }
+
+    /**
+     * Calls the hook before each read, e.g. to see on which thread and with which settings a CAS
+     * is read or to control the order in which concurrent reads complete.
+     */
+    private static class HookedCasStorageService
+        extends CasStorageServiceImpl
+    {
+        private volatile ReadHook hook;
+
+        @Override
+        JCas readCas(SourceDocument aDocument, String aUsername, boolean aAnalyzeAndRepair,
+                String aScope, Priority aPriority)
+            throws IOException
+        {
+            if (hook != null) {
+                try {
+                    hook.beforeRead(aDocument, aScope, aPriority);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+            return super.readCas(aDocument, aUsername, aAnalyzeAndRepair, aScope, aPriority);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CasLogTest
+{
+    public @Rule TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private File file;
+    private byte[] data;
+
+    @Before
+    public void setup() throws Exception
+    {
+        file = new File(tempFolder.newFolder(), CasLog.LOG_FILE);
+        data = new byte[64 * 1024];
+        new Random(1).nextBytes(data);
+    }
+
+    @Test
+    public void thatDataSurvivesReopening() throws Exception
+    {
+        try (CasLog sut = new CasLog(file)) {
+            sut.write(1, "user", new byte[] { 1 });
+            sut.write(1, "user", data);
+            sut.write(2, "other", data);
+            sut.delete(2, "other");
+        }
+
+        try (CasLog sut = new CasLog(file)) {
+            assertArrayEquals(data, sut.read(1, "user"));
+            assertEquals(asList("user"), sut.listUsers(1));
+            assertFalse(sut.exists(2, "other"));
+        }
+    }
+
+    @Test
+    public void thatCompactionKeepsLiveData() throws Exception
+    {
+        try (CasLog sut = new CasLog(file)) {
+            for (int i = 0; i < 10; i++) {
+                sut.write(1, "user", data);
+            }
+            assertTrue(sut.getGarbageRatio() > 0.8);
+
+            long before = sut.getSize();
+            sut.compact();
+
+            assertTrue(sut.getSize() < before);
+            assertEquals(0.0, sut.getGarbageRatio(), 0.0);
+            assertArrayEquals(data, sut.read(1, "user"));
+        }
+    }
+
+    @Test
+    public void thatSummariesAreKeptWithTheData() throws Exception
+    {
+        try (CasLog sut = new CasLog(file)) {
+            sut.write(1, "user", data);
+            sut.writeSummary(1, "user", new byte[] { 1 });
+            sut.writeSummary(1, "user", new byte[] { 2 });
+            sut.write(2, "other", data);
+            sut.writeSummary(2, "other", new byte[] { 3 });
+            sut.deleteSummary(2, "other");
+            sut.compact();
+        }
+
+        try (CasLog sut = new CasLog(file)) {
+            assertArrayEquals(new byte[] { 2 }, sut.readSummary(1, "user"));
+            assertNull(sut.readSummary(2, "other"));
+            assertTrue(sut.exists(2, "other"));
+
+            sut.delete(1, "user");
+            assertNull(sut.readSummary(1, "user"));
+        }
+    }
+
+    @Test
+    public void thatTornWriteIsDiscarded() throws Exception
+    {
+        long size;
+        try (CasLog sut = new CasLog(file)) {
+            sut.write(1, "user", new byte[] { 1 });
+            size = sut.getSize();
+            sut.write(1, "user", data);
+        }
+
+        // Simulate a crash in the middle of the second write
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(size + data.length / 2);
+        }
+
+        try (CasLog sut = new CasLog(file)) {
+            assertArrayEquals(new byte[] { 1 }, sut.read(1, "user"));
+            assertEquals(size, sut.getSize());
+        }
+    }
+
+    @Test
+    public void thatDamageInTheMiddleIsNotTruncated() throws Exception
+    {
+        long offset;
+        try (CasLog sut = new CasLog(file)) {
+            sut.write(1, "user", data);
+            offset = sut.getSize();
+            sut.write(2, "user", data);
+            sut.write(3, "user", data);
+        }
+        long size = file.length();
+
+        // Damage the header of the second record
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(offset);
+            raf.writeInt(0);
+        }
+
+        try {
+            new CasLog(file).close();
+            fail("Damaged log should not be opened");
+        }
+        catch (IOException e) {
+            // Expected
+        }
+        assertEquals(size, file.length());
+    }
+
+    @Test
+    public void thatWritesDuringCompactionAreKept() throws Exception
+    {
+        try (CasLog sut = new CasLog(file)) {
+            for (int i = 0; i < 100; i++) {
+                sut.write(i % 10, "user", data);
+            }
+
+            byte[] changed = data.clone();
+            changed[0]++;
+            Thread writer = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 10; i++) {
+                        sut.write(i, "user", changed);
+                    }
+                    sut.delete(9, "user");
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            writer.start();
+            sut.compact();
+            writer.join();
+            
+            for (int i = 0; i < 9; i++) {
+                assertArrayEquals(changed, sut.read(i, "user"));
+            }
+            assertFalse(sut.exists(9, "user"));
+        }
+        
+        try (CasLog sut = new CasLog(file)) {
+            assertEquals(data.length, sut.read(0, "user").length);
+            assertFalse(sut.exists(9, "user"));
+        }
+    }
+}
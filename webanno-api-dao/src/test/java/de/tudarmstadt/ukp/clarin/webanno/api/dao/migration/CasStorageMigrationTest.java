@@ -0,0 +1,146 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao.migration;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.lang.reflect.Proxy;
+
+import org.apache.uima.fit.factory.JCasFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.api.ProjectService;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasStorageServiceImpl;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.FileSystemCasStorageDriver;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.LogCasStorageDriver;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+public class CasStorageMigrationTest
+{
+    public @Rule TemporaryFolder testFolder = new TemporaryFolder();
+
+    private FileSystemCasStorageDriver fsDriver;
+    private LogCasStorageDriver logDriver;
+    private CasStorageServiceImpl storage;
+    private SourceDocument document;
+    private CasStorageMigration sut;
+
+    @Before
+    public void setup() throws Exception
+    {
+        fsDriver = new FileSystemCasStorageDriver(testFolder.getRoot());
+        logDriver = new LogCasStorageDriver();
+        ReflectionTestUtils.setField(logDriver, "dir", testFolder.getRoot());
+        ReflectionTestUtils.setField(logDriver, "compactionThreshold", 0.5);
+        ReflectionTestUtils.setField(logDriver, "compactionMinSize", 16l);
+
+        storage = new CasStorageServiceImpl();
+        ReflectionTestUtils.setField(storage, "dir", testFolder.getRoot());
+        ReflectionTestUtils.setField(storage, "drivers", asList(fsDriver, logDriver));
+        ReflectionTestUtils.setField(storage, "driver", fsDriver);
+        ReflectionTestUtils.setField(storage, "backupInterval", 1l);
+
+        Project project = new Project();
+        project.setId(1l);
+        project.setName("test");
+
+        document = new SourceDocument();
+        document.setId(1l);
+        document.setName("doc");
+        document.setProject(project);
+
+        ProjectService projectService = (ProjectService) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[] { ProjectService.class },
+                (proxy, method, args) -> {
+                    if ("listProjects".equals(method.getName())) {
+                        return singletonList(project);
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+        DocumentService documentService = (DocumentService) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[] { DocumentService.class },
+                (proxy, method, args) -> {
+                    if ("listSourceDocuments".equals(method.getName())) {
+                        return singletonList(document);
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+        PlatformTransactionManager txManager = (PlatformTransactionManager) Proxy
+                .newProxyInstance(getClass().getClassLoader(),
+                        new Class<?>[] { PlatformTransactionManager.class },
+                        (proxy, method, args) -> "getTransaction".equals(method.getName())
+                                ? new SimpleTransactionStatus() : null);
+
+        sut = new CasStorageMigration();
+        ReflectionTestUtils.setField(sut, "migrateFrom", FileSystemCasStorageDriver.ID);
+        ReflectionTestUtils.setField(sut, "backend", LogCasStorageDriver.ID);
+        ReflectionTestUtils.setField(sut, "dir", testFolder.getRoot());
+        ReflectionTestUtils.setField(sut, "txManager", txManager);
+        ReflectionTestUtils.setField(sut, "projectService", projectService);
+        ReflectionTestUtils.setField(sut, "documentService", documentService);
+        ReflectionTestUtils.setField(sut, "casStorageService", storage);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        storage.destroy();
+        logDriver.destroy();
+    }
+
+    @Test
+    public void thatRepeatedMigrationDoesNotRollBackChanges() throws Exception
+    {
+        storage.writeCas(document, JCasFactory.createText("This is the original."), "annotator");
+        logDriver.writeSummary(document, "annotator", "stale".getBytes(UTF_8));
+
+        sut.start();
+
+        // From now on, the application works on the target backend
+        ReflectionTestUtils.setField(storage, "driver", logDriver);
+        assertNull(logDriver.readSummary(document, "annotator"));
+        assertFalse(storage.listCasVersions(document, "annotator").isEmpty());
+        long originalVersion = storage.listCasVersions(document, "annotator").get(0);
+        assertEquals("This is the original.", storage
+                .readCasVersion(document, "annotator", originalVersion).getDocumentText());
+        assertEquals("This is the original.",
+                storage.readCas(document, "annotator").getDocumentText());
+
+        storage.writeCas(document, JCasFactory.createText("This is a change."), "annotator");
+
+        // The setting has not been removed, so the migration runs again on the next start
+        sut.start();
+
+        assertEquals("This is a change.",
+                storage.readCas(document, "annotator").getDocumentText());
+    }
+}
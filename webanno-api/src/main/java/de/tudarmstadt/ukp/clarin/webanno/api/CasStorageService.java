@@ -19,6 +19,8 @@ package de.tudarmstadt.ukp.clarin.webanno.api;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
 
 import org.apache.uima.cas.CAS;
 import org.apache.uima.jcas.JCas;
@@ -62,9 +64,115 @@ public interface CasStorageService
     JCas readCas(SourceDocument aDocument, String aUsername, boolean aAnalyzeAndRepair)
         throws IOException;
     
+    /**
+     * Reads the CASes of the given annotation documents like {@link #readCas}, loading several of
+     * them concurrently on a bounded pool, e.g. the CASes of all annotators of a document. The
+     * reads wait for memory like any other read.
+     * 
+     * @return the CASes in the order of the given annotation documents.
+     * @throws IOException
+     *             if any of the CASes cannot be read.
+     */
+    List<JCas> readCases(List<AnnotationDocument> aAnnotationDocuments)
+        throws IOException;
+    
     boolean deleteCas(SourceDocument aDocument, String aUsername)
         throws IOException;
     
+    /**
+     * @return whether a CAS is stored for the given document and user.
+     */
+    boolean existsCas(SourceDocument aDocument, String aUsername)
+        throws IOException;
+    
+    /**
+     * Reads the latest version of the CAS without using or updating the cache and without
+     * analyzing it. The returned CAS belongs to the caller.
+     */
+    JCas readCasUncached(SourceDocument aDocument, String aUsername)
+        throws IOException;
+    
+    /**
+     * Writes the CAS immediately without analyzing it and without creating a history version. A
+     * cached or pending version of the CAS is discarded.
+     */
+    void writeCasUncached(SourceDocument aDocument, JCas aJcas, String aUsername)
+        throws IOException;
+    
+    /**
+     * Writes the CAS to {@code <username>.ser} in the given folder in a format which does not
+     * depend on type systems stored elsewhere, e.g. for a project export.
+     */
+    void exportCas(SourceDocument aDocument, String aUsername, File aTargetFolder)
+        throws IOException;
+    
+    /**
+     * Stores serialized CAS data in any format readable by the storage, e.g. from a project
+     * import. A cached or pending version of the CAS is discarded.
+     */
+    void importCas(SourceDocument aDocument, String aUsername, InputStream aData)
+        throws IOException;
+    
+    /**
+     * Lists the versions of the CAS kept in the history, oldest first. The history is only kept if
+     * {@code backup.interval} is set.
+     * 
+     * @return the timestamps of the versions.
+     */
+    List<Long> listCasVersions(SourceDocument aDocument, String aUsername)
+        throws IOException;
+    
+    /**
+     * Reads a version of the CAS from the history. The returned CAS belongs to the caller.
+     * 
+     * @param aTimestamp
+     *            the timestamp of the version as returned by {@link #listCasVersions}.
+     */
+    JCas readCasVersion(SourceDocument aDocument, String aUsername, long aTimestamp)
+        throws IOException;
+    
+    /**
+     * Replaces the CAS with a version from the history. The replaced version is added to the
+     * history like for any other change.
+     * 
+     * @param aTimestamp
+     *            the timestamp of the version as returned by {@link #listCasVersions}.
+     */
+    void restoreCas(SourceDocument aDocument, String aUsername, long aTimestamp)
+        throws IOException;
+    
+    /**
+     * Loads the CAS into the cache in expectation that it will be needed soon by the user owning
+     * it. Nothing is loaded if the cache is disabled or memory is getting scarce. Prefetched CASes
+     * which have not been used yet are the first to be dropped when memory is needed.
+     * 
+     * @return the cached CAS or {@code null} if the CAS does not exist or was not loaded.
+     */
+    JCas prefetchCas(SourceDocument aDocument, String aUsername)
+        throws IOException;
+    
+    /**
+     * Reads the summary of the latest version of the CAS without loading the CAS. If the summary
+     * has not been stored yet, it is created from the CAS once.
+     * 
+     * @return the summary or {@code null} if there is no CAS.
+     */
+    CasSummary readCasSummary(SourceDocument aDocument, String aUsername)
+        throws IOException;
+    
+    /**
+     * Makes sure that any changes to the given CAS which have not been written to disk yet are
+     * written. This must be called before accessing the CAS file directly.
+     */
+    void flushCas(SourceDocument aDocument, String aUsername)
+        throws IOException;
+    
+    /**
+     * Writes all changes to CASes which have not been written to disk yet.
+     */
+    void flushAll()
+        throws IOException;
+    
     File getAnnotationFolder(SourceDocument aDocument)
             throws IOException;
     
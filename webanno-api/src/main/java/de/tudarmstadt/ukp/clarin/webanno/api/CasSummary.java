@@ -0,0 +1,327 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.TypeSystem;
+import org.apache.uima.cas.text.AnnotationFS;
+
+/**
+ * A small summary of an annotation CAS which is stored next to the CAS, so that views which only
+ * need the sentence boundaries, token counts or annotation counts of a document do not need to
+ * load the full CAS.
+ */
+public class CasSummary
+    implements Serializable
+{
+    private static final long serialVersionUID = 3498117324620424917L;
+
+    public static final String SENTENCE_TYPE = 
+            "de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence";
+    public static final String TOKEN_TYPE = 
+            "de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token";
+
+    /**
+     * Version 1 did not contain the verification stamp.
+     */
+    private static final int FORMAT_VERSION_1 = 1;
+    private static final int FORMAT_VERSION = 2;
+
+    private final String stamp;
+    private final String verificationStamp;
+    private final long timestamp;
+    private final int documentLength;
+    private final int[] sentenceBegins;
+    private final int[] sentenceEnds;
+    private final int[] tokenBegins;
+    private final int[] tokenEnds;
+    private final Map<String, Integer> annotationCounts;
+
+    public CasSummary(String aStamp, long aTimestamp, int aDocumentLength,
+            int[] aSentenceBegins, int[] aSentenceEnds, int[] aTokenBegins, int[] aTokenEnds,
+            Map<String, Integer> aAnnotationCounts)
+    {
+        this(aStamp, null, aTimestamp, aDocumentLength, aSentenceBegins, aSentenceEnds,
+                aTokenBegins, aTokenEnds, aAnnotationCounts);
+    }
+
+    private CasSummary(String aStamp, String aVerificationStamp, long aTimestamp,
+            int aDocumentLength, int[] aSentenceBegins, int[] aSentenceEnds, int[] aTokenBegins,
+            int[] aTokenEnds, Map<String, Integer> aAnnotationCounts)
+    {
+        stamp = aStamp;
+        verificationStamp = aVerificationStamp;
+        timestamp = aTimestamp;
+        documentLength = aDocumentLength;
+        sentenceBegins = aSentenceBegins;
+        sentenceEnds = aSentenceEnds;
+        tokenBegins = aTokenBegins;
+        tokenEnds = aTokenEnds;
+        annotationCounts = Collections.unmodifiableMap(new TreeMap<>(aAnnotationCounts));
+    }
+
+    /**
+     * Summarizes the given CAS in a single pass over its annotation index.
+     *
+     * @param aCas
+     *            the CAS.
+     * @param aStamp
+     *            a stamp identifying the serialized version of the CAS.
+     * @param aTimestamp
+     *            the time when the CAS was written.
+     * @return the summary.
+     */
+    public static CasSummary of(CAS aCas, String aStamp, long aTimestamp)
+    {
+        TypeSystem ts = aCas.getTypeSystem();
+        Type sentenceType = ts.getType(SENTENCE_TYPE);
+        Type tokenType = ts.getType(TOKEN_TYPE);
+
+        int sentenceCount = sentenceType != null ? aCas.getAnnotationIndex(sentenceType).size()
+                : 0;
+        int tokenCount = tokenType != null ? aCas.getAnnotationIndex(tokenType).size() : 0;
+        int[] sentenceBegins = new int[sentenceCount];
+        int[] sentenceEnds = new int[sentenceCount];
+        int[] tokenBegins = new int[tokenCount];
+        int[] tokenEnds = new int[tokenCount];
+        int s = 0;
+        int t = 0;
+
+        Map<Type, int[]> counts = new LinkedHashMap<>();
+        for (AnnotationFS fs : aCas.getAnnotationIndex()) {
+            Type type = fs.getType();
+            counts.computeIfAbsent(type, k -> new int[1])[0]++;
+
+            // The annotation index is sorted by offsets, so the arrays come out sorted as well
+            if (sentenceType != null && ts.subsumes(sentenceType, type)) {
+                sentenceBegins[s] = fs.getBegin();
+                sentenceEnds[s] = fs.getEnd();
+                s++;
+            }
+            else if (tokenType != null && ts.subsumes(tokenType, type)) {
+                tokenBegins[t] = fs.getBegin();
+                tokenEnds[t] = fs.getEnd();
+                t++;
+            }
+        }
+
+        Map<String, Integer> annotationCounts = new LinkedHashMap<>();
+        counts.forEach((type, count) -> annotationCounts.put(type.getName(), count[0]));
+
+        String text = aCas.getDocumentText();
+        return new CasSummary(aStamp, aTimestamp, text != null ? text.length() : 0,
+                sentenceBegins, sentenceEnds, tokenBegins, tokenEnds, annotationCounts);
+    }
+
+    /**
+     * @return a stamp identifying the serialized version of the CAS this summary was created
+     *         from. The stamp changes whenever the CAS changes.
+     */
+    public String getStamp()
+    {
+        return stamp;
+    }
+
+    /**
+     * @return a stamp recording that the CAS was found to be valid, e.g. by the CAS doctor, or
+     *         {@code null} if the CAS has not been verified.
+     */
+    public String getVerificationStamp()
+    {
+        return verificationStamp;
+    }
+
+    /**
+     * @return a copy of this summary with the given verification stamp.
+     */
+    public CasSummary withVerificationStamp(String aVerificationStamp)
+    {
+        return new CasSummary(stamp, aVerificationStamp, timestamp, documentLength,
+                sentenceBegins, sentenceEnds, tokenBegins, tokenEnds, annotationCounts);
+    }
+
+    /**
+     * @return the time when the CAS was written.
+     */
+    public long getTimestamp()
+    {
+        return timestamp;
+    }
+
+    public int getDocumentLength()
+    {
+        return documentLength;
+    }
+
+    public int getSentenceCount()
+    {
+        return sentenceBegins.length;
+    }
+
+    public int[] getSentenceBegins()
+    {
+        return sentenceBegins.clone();
+    }
+
+    public int[] getSentenceEnds()
+    {
+        return sentenceEnds.clone();
+    }
+
+    public int getTokenCount()
+    {
+        return tokenBegins.length;
+    }
+
+    public int[] getTokenBegins()
+    {
+        return tokenBegins.clone();
+    }
+
+    public int[] getTokenEnds()
+    {
+        return tokenEnds.clone();
+    }
+
+    /**
+     * @return the number of annotations per type name.
+     */
+    public Map<String, Integer> getAnnotationCounts()
+    {
+        return annotationCounts;
+    }
+
+    /**
+     * @return the number of annotations of the given type, not including sub-types.
+     */
+    public int getAnnotationCount(String aTypeName)
+    {
+        return annotationCounts.getOrDefault(aTypeName, 0);
+    }
+
+    /**
+     * @return the index of the sentence containing the given offset or of the last sentence
+     *         before the offset if there is no such sentence. If there is no sentence before the
+     *         offset, {@code -1} is returned.
+     */
+    public int getSentenceIndex(int aOffset)
+    {
+        int low = 0;
+        int high = sentenceBegins.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (sentenceBegins[mid] <= aOffset) {
+                low = mid + 1;
+            }
+            else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+
+    public void write(OutputStream aStream)
+        throws IOException
+    {
+        DeflaterOutputStream deflater = new DeflaterOutputStream(aStream);
+        DataOutputStream os = new DataOutputStream(deflater);
+        os.writeInt(FORMAT_VERSION);
+        os.writeUTF(stamp != null ? stamp : "");
+        os.writeUTF(verificationStamp != null ? verificationStamp : "");
+        os.writeLong(timestamp);
+        os.writeInt(documentLength);
+        writeOffsets(os, sentenceBegins, sentenceEnds);
+        writeOffsets(os, tokenBegins, tokenEnds);
+        os.writeInt(annotationCounts.size());
+        for (Map.Entry<String, Integer> e : annotationCounts.entrySet()) {
+            os.writeUTF(e.getKey());
+            os.writeInt(e.getValue());
+        }
+        os.flush();
+        deflater.finish();
+    }
+
+    public static CasSummary read(InputStream aStream)
+        throws IOException
+    {
+        DataInputStream is = new DataInputStream(new InflaterInputStream(aStream));
+        int version = is.readInt();
+        if (version != FORMAT_VERSION && version != FORMAT_VERSION_1) {
+            throw new IOException("Unsupported CAS summary format version [" + version + "]");
+        }
+        String stamp = is.readUTF();
+        String verificationStamp = version != FORMAT_VERSION_1 ? is.readUTF() : "";
+        long timestamp = is.readLong();
+        int documentLength = is.readInt();
+        int[][] sentences = readOffsets(is);
+        int[][] tokens = readOffsets(is);
+        int typeCount = is.readInt();
+        Map<String, Integer> annotationCounts = new LinkedHashMap<>();
+        for (int i = 0; i < typeCount; i++) {
+            annotationCounts.put(is.readUTF(), is.readInt());
+        }
+        return new CasSummary(stamp.isEmpty() ? null : stamp,
+                verificationStamp.isEmpty() ? null : verificationStamp, timestamp,
+                documentLength, sentences[0], sentences[1], tokens[0], tokens[1],
+                annotationCounts);
+    }
+
+    /**
+     * Offsets are stored as deltas, which keeps the compressed summary small.
+     */
+    private static void writeOffsets(DataOutputStream aOs, int[] aBegins, int[] aEnds)
+        throws IOException
+    {
+        aOs.writeInt(aBegins.length);
+        int prev = 0;
+        for (int i = 0; i < aBegins.length; i++) {
+            aOs.writeInt(aBegins[i] - prev);
+            aOs.writeInt(aEnds[i] - aBegins[i]);
+            prev = aBegins[i];
+        }
+    }
+
+    private static int[][] readOffsets(DataInputStream aIs)
+        throws IOException
+    {
+        int count = aIs.readInt();
+        int[] begins = new int[count];
+        int[] ends = new int[count];
+        int prev = 0;
+        for (int i = 0; i < count; i++) {
+            begins[i] = prev + aIs.readInt();
+            ends[i] = begins[i] + aIs.readInt();
+            prev = begins[i];
+        }
+        return new int[][] { begins, ends };
+    }
+}
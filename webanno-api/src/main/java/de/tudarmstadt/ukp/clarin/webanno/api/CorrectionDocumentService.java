@@ -47,7 +47,10 @@ public interface CorrectionDocumentService
     JCas readCorrectionCas(SourceDocument document)
         throws IOException;
 
-    void upgradeCorrectionCas(CAS aCurCas, SourceDocument document)
+    /**
+     * @return whether the CAS was changed by the upgrade.
+     */
+    boolean upgradeCorrectionCas(CAS aCurCas, SourceDocument document)
             throws UIMAException, IOException;
 
     /**
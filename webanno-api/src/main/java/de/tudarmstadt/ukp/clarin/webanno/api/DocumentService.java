@@ -276,15 +276,44 @@ public interface DocumentService
             throws IOException;
 
     /**
-     * Export a Serialized CAS annotation document from the file system
+     * Get the summary of an annotation document without loading the CAS, e.g. to show sentence
+     * or token counts.
+     *
+     * @param sourceDocument
+     *            the source document.
+     * @param username
+     *            the username.
+     * @return the summary or {@code null} if the annotation document file does not exist.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    CasSummary readCasSummary(SourceDocument sourceDocument, String username)
+        throws IOException;
+
+    /**
+     * Export a serialized CAS annotation document to {@code <user>.ser} in the given folder.
+     *
+     * @param document
+     *            the source document.
+     * @param user
+     *            the username.
+     * @param targetFolder
+     *            the folder to write the serialized CAS to.
+     */
+    void exportCas(SourceDocument document, String user, File targetFolder) throws IOException;
+
+    /**
+     * Import a serialized CAS annotation document, e.g. as exported by
+     * {@link #exportCas(SourceDocument, String, File)}.
      *
      * @param document
      *            the source document.
      * @param user
      *            the username.
-     * @return the serialized CAS file.
+     * @param data
+     *            the serialized CAS.
      */
-    File getCasFile(SourceDocument document, String user) throws IOException;
+    void importCas(SourceDocument document, String user, InputStream data) throws IOException;
 
     /**
      * Get the annotation document.
@@ -314,6 +343,20 @@ public interface DocumentService
 
     JCas readAnnotationCas(AnnotationDocument aAnnotationDocument, boolean aAnalyzeAndRepair)
         throws IOException;
+
+    /**
+     * Gets the CASes for the given annotation documents, e.g. the CASes of all annotators of a
+     * document. Existing CASes are loaded concurrently, missing ones are converted from the source
+     * document as by {@link #readAnnotationCas(AnnotationDocument)}.
+     *
+     * @param annotationDocuments
+     *            the annotation documents.
+     * @return the JCases in the order of the given annotation documents.
+     * @throws IOException
+     *             if there was an I/O error.
+     */
+    List<JCas> readAnnotationCases(List<AnnotationDocument> annotationDocuments)
+        throws IOException;
     
     void deleteAnnotationCas(AnnotationDocument annotationDocument)
         throws IOException;
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.event;
+
+import org.apache.uima.jcas.JCas;
+import org.springframework.context.ApplicationEvent;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Published after a CAS has been written through the CAS storage, regardless of whether it is an
+ * annotation, correction or curation CAS.
+ */
+public class AfterCasWrittenEvent
+    extends ApplicationEvent
+{
+    private static final long serialVersionUID = -3585422197640863574L;
+    
+    private final SourceDocument document;
+    private final String user;
+    private final JCas jcas;
+
+    public AfterCasWrittenEvent(Object aSource, SourceDocument aDocument, String aUser,
+            JCas aJCas)
+    {
+        super(aSource);
+        document = aDocument;
+        user = aUser;
+        jcas = aJCas;
+    }
+
+    public SourceDocument getDocument()
+    {
+        return document;
+    }
+
+    public String getUser()
+    {
+        return user;
+    }
+
+    public JCas getJCas()
+    {
+        return jcas;
+    }
+}
@@ -24,13 +24,12 @@ import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.TRAIN;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.concurrent.locks.Lock;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.uima.UIMAException;
 import org.apache.uima.cas.CAS;
 import org.apache.uima.jcas.JCas;
-import org.apache.uima.resource.metadata.TypeSystemDescription;
-import org.apache.uima.util.CasCreationUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
@@ -39,10 +38,12 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DataRetrievalFailureException;
 import org.springframework.stereotype.Component;
 
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasPersistenceUtils;
 import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctor;
 import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctorException;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 import de.tudarmstadt.ukp.clarin.webanno.model.TrainingDocument;
+import de.tudarmstadt.ukp.clarin.webanno.support.concurrent.StripedReadWriteLock;
 import de.tudarmstadt.ukp.clarin.webanno.support.logging.Logging;
 import de.tudarmstadt.ukp.dkpro.core.api.metadata.type.DocumentMetaData;
 
@@ -52,7 +53,11 @@ public class AutomationCasStorageServiceImpl
 {
     private final Logger log = LoggerFactory.getLogger(getClass());
 
-    private final Object lock = new Object();
+    /**
+     * Locks guarding the CAS files per training document. Different training documents usually
+     * use different locks and can be read and written concurrently.
+     */
+    private final StripedReadWriteLock locks = new StripedReadWriteLock(64);
 
     @Value(value = "${repository.path}")
     private File dir;
@@ -64,6 +69,12 @@ public class AutomationCasStorageServiceImpl
         // Nothing to do
     }
 
+    AutomationCasStorageServiceImpl(File aDir, CasDoctor aCasDoctor)
+    {
+        dir = aDir;
+        casDoctor = aCasDoctor;
+    }
+
     /**
      * Creates a CAS for the Automation documents
      *
@@ -108,7 +119,9 @@ public class AutomationCasStorageServiceImpl
                     + aDocumentName + "] (" + aDocumentId + ") in project [" + aProject.getName()
                     + "] (" + aProject.getId() + ")", e);
         }
-        synchronized (lock) {
+        Lock writeLock = locks.get(aDocumentId).writeLock();
+        writeLock.lock();
+        try {
             FileUtils.forceMkdir(aAnnotationFolder);
             // Save CAS of the training document
             {
@@ -130,6 +143,9 @@ public class AutomationCasStorageServiceImpl
                 }
             }
         }
+        finally {
+            writeLock.unlock();
+        }
     }
     
     @Override
@@ -142,7 +158,9 @@ public class AutomationCasStorageServiceImpl
 
         // DebugUtils.smallStack();
 
-        synchronized (lock) {
+        Lock readLock = locks.get(aDocument.getId()).readLock();
+        readLock.lock();
+        try {
             File annotationFolder = getAutomationFolder(aDocument);
 
             String file = aDocument.getName() + ".ser";
@@ -156,8 +174,7 @@ public class AutomationCasStorageServiceImpl
                             + aDocument.getProject().getId() + ")");
                 }
 
-                CAS cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
-                CasPersistenceUtils.readSerializedCas(cas.getJCas(), serializedCasFile);
+                CAS cas = CasPersistenceUtils.readSerializedCas(serializedCasFile);
 
                 analyzeAndRepair(aDocument, cas);
 
@@ -167,6 +184,9 @@ public class AutomationCasStorageServiceImpl
                 throw new DataRetrievalFailureException("Unable to parse annotation", e);
             }
         }
+        finally {
+            readLock.unlock();
+        }
     }
     
     @Override
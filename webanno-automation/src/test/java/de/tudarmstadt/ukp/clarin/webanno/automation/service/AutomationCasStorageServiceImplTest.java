@@ -0,0 +1,98 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.automation.service;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.fit.util.CasUtil;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.jcas.tcas.Annotation;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctor;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.TrainingDocument;
+import de.tudarmstadt.ukp.dkpro.core.api.metadata.type.DocumentMetaData;
+
+public class AutomationCasStorageServiceImplTest
+{
+    public @Rule TemporaryFolder testFolder = new TemporaryFolder();
+
+    private AutomationCasStorageServiceImpl sut;
+    private TrainingDocument document;
+
+    @Before
+    public void setup()
+    {
+        sut = new AutomationCasStorageServiceImpl(testFolder.getRoot(), new CasDoctor());
+
+        Project project = new Project();
+        project.setId(1l);
+        project.setName("test");
+
+        document = new TrainingDocument();
+        document.setId(1l);
+        document.setName("train.txt");
+        document.setProject(project);
+    }
+
+    @Test
+    public void thatAddressesArePreservedWhenWritingAndReading() throws Exception
+    {
+        JCas jcas = JCasFactory.createJCas();
+        jcas.setDocumentText("This is a test.");
+        DocumentMetaData.create(jcas);
+        List<Annotation> annotations = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Annotation annotation = new Annotation(jcas, i * 5, i * 5 + 4);
+            annotation.addToIndexes();
+            annotations.add(annotation);
+        }
+
+        // A deleted annotation remains in the heap - unless it is kept, the addresses of all
+        // annotations created after it would change
+        annotations.get(0).removeFromIndexes();
+
+        List<Integer> addresses = getAddresses(jcas);
+
+        sut.writeCas(document, jcas);
+        JCas reloaded = sut.readCas(document);
+
+        assertEquals(jcas.getDocumentText(), reloaded.getDocumentText());
+        assertEquals(addresses, getAddresses(reloaded));
+    }
+
+    private List<Integer> getAddresses(JCas aJCas)
+    {
+        List<Integer> addresses = new ArrayList<>();
+        Type type = aJCas.getCasType(Annotation.type);
+        for (AnnotationFS fs : CasUtil.select(aJCas.getCas(), type)) {
+            addresses.add(aJCas.getLowLevelCas().ll_getFSRef(fs));
+        }
+        return addresses;
+    }
+}
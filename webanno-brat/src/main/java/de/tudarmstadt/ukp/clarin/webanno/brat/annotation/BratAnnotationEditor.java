@@ -51,9 +51,6 @@ import org.apache.wicket.util.string.StringValue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.flipkart.zjsonpatch.JsonDiff;
 import com.googlecode.wicket.jquery.ui.settings.JQueryUILibrarySettings;
 
 import de.agilecoders.wicket.webjars.request.resource.WebjarsCssResourceReference;
@@ -81,6 +78,8 @@ import de.tudarmstadt.ukp.clarin.webanno.brat.message.LoadConfResponse;
 import de.tudarmstadt.ukp.clarin.webanno.brat.message.SpanAnnotationResponse;
 import de.tudarmstadt.ukp.clarin.webanno.brat.metrics.BratMetrics;
 import de.tudarmstadt.ukp.clarin.webanno.brat.metrics.BratMetrics.RenderType;
+import de.tudarmstadt.ukp.clarin.webanno.brat.render.BratCollectionInformationCache;
+import de.tudarmstadt.ukp.clarin.webanno.brat.render.BratDocumentPatch;
 import de.tudarmstadt.ukp.clarin.webanno.brat.render.BratRenderer;
 import de.tudarmstadt.ukp.clarin.webanno.brat.render.model.Offsets;
 import de.tudarmstadt.ukp.clarin.webanno.brat.render.model.OffsetsList;
@@ -127,11 +126,16 @@ public class BratAnnotationEditor
     private @SpringBean AnnotationEditorExtensionRegistry extensionRegistry;
     private @SpringBean BratMetrics metrics;
     private @SpringBean BratProperties bratProperties;
+    private @SpringBean BratCollectionInformationCache collectionInformationCache;
     
     private WebMarkupContainer vis;
     private AbstractAjaxBehavior requestHandler;
     
-    private String lastRenderedJson;
+    /**
+     * The response models are not serializable. If the last rendered response is lost because the
+     * page was serialized, the next rendering is simply a full rendering.
+     */
+    private transient GetDocumentResponse lastRenderedResponse;
 
     public BratAnnotationEditor(String id, IModel<AnnotatorState> aModel,
             final AnnotationActionHandler aActionHandler, final JCasProvider aJCasProvider)
@@ -196,6 +200,13 @@ public class BratAnnotationEditor
                     }
                 }
                 
+                // Since we cannot pass the JSON directly to Brat, we attach it to the HTML
+                // element into which BRAT renders the SVG. In our modified ajax.js, we pick it
+                // up from there and then pass it on to BRAT to do the rendering. The JSON is
+                // written directly into the script.
+                StringBuilder script = new StringBuilder();
+                script.append("Wicket.$('").append(vis.getMarkupId()).append("').temp = ");
+                
                 Object result = null;
                 try {
                     // Whenever an action should be performed, do ONLY perform this action and
@@ -246,7 +257,8 @@ public class BratAnnotationEditor
                                 result = actionGetCollectionInformation();
                             }
                             else if (GetDocumentResponse.is(action)) {
-                                result = actionGetDocument(jCas);
+                                actionGetDocument(script, jCas);
+                                result = script;
                             }
                         }
                     }
@@ -261,19 +273,15 @@ public class BratAnnotationEditor
                     LOG.warn("AJAX-RPC: Action [{}] produced no result!", action);
                 }
                 else {
-                    String json;
                     if (result instanceof String) {
-                        json = (String) result;
+                        script.append((String) result);
                     }
-                    else {
-                        json = toJson(result);
+                    else if (result != script) {
+                        appendJson(script, result);
                     }
+                    script.append(";");
                     
-                    // Since we cannot pass the JSON directly to Brat, we attach it to the HTML
-                    // element into which BRAT renders the SVG. In our modified ajax.js, we pick it
-                    // up from there and then pass it on to BRAT to do the rendering.
-                    aTarget.prependJavaScript("Wicket.$('" + vis.getMarkupId() + "').temp = "
-                            + json + ";");
+                    aTarget.prependJavaScript(script);
                 }
                 
                 LOG.debug("AJAX-RPC DONE: [{}] completed in {}ms", action,
@@ -367,34 +375,29 @@ public class BratAnnotationEditor
     
     private GetCollectionInformationResponse actionGetCollectionInformation()
     {
-        GetCollectionInformationResponse info = new GetCollectionInformationResponse();
         if (getModelObject().getProject() != null) {
-            info.setEntityTypes(BratRenderer
-                    .buildEntityTypes(getModelObject().getAnnotationLayers(), annotationService));
+            return collectionInformationCache
+                    .getCollectionInformation(getModelObject().getAnnotationLayers());
         }
-        return info;
+        return new GetCollectionInformationResponse();
     }
     
-    private String actionGetDocument(JCas jCas)
+    private void actionGetDocument(StringBuilder aOut, JCas jCas)
     {
         StopWatch timer = new StopWatch();
         timer.start();
         
         GetDocumentResponse response = new GetDocumentResponse();
-        String json;
         if (getModelObject().getProject() != null) {
             render(response, jCas);
-            json = toJson(response);
-            lastRenderedJson = json;
-        }
-        else {
-            json = toJson(response);
+            lastRenderedResponse = response;
         }
         
-        timer.stop();
-        metrics.renderComplete(RenderType.FULL, timer.getTime(), json, null);
+        int begin = aOut.length();
+        appendJson(aOut, response);
         
-        return json;
+        timer.stop();
+        metrics.renderComplete(RenderType.FULL, timer.getTime(), aOut.length() - begin);
     }
     
     /**
@@ -495,9 +498,11 @@ public class BratAnnotationEditor
         AjaxRequestTarget target = RequestCycle.get().find(AjaxRequestTarget.class);
         if (target != null) {
             try {
-                String script = "setTimeout(function() { " +
-                        bratInitCommand() +
-                        bratLoadCollectionCommand() +
+                StringBuilder script = new StringBuilder();
+                script.append("setTimeout(function() { ");
+                script.append(bratInitCommand());
+                bratLoadCollectionCommand(script);
+                script.append(
                         // Even with a timeout, brat will try to grab too much space if the view
                         // contains a *very* long annotation which explodes the view (cf. 
                         // https://github.com/webanno/webanno/issues/500) - so as a last resort,
@@ -506,8 +511,8 @@ public class BratAnnotationEditor
                         // acceptable, although actually a faster document switch would be
                         // desirable.
                         // bratRenderCommand(getJCasProvider().get()) +
-                        bratRenderLaterCommand() +
-                        "}, 0);";
+                        bratRenderLaterCommand());
+                script.append("}, 0);");
                 target.appendJavaScript(script);
                 LOG.debug("Delayed rendering in partial page update...");
             }
@@ -519,58 +524,42 @@ public class BratAnnotationEditor
         }
     }
 
-    private String bratRenderCommand(JCas aJCas)
+    private void bratRenderCommand(StringBuilder aOut, JCas aJCas)
     {
         StopWatch timer = new StopWatch();
         timer.start();
         
         GetDocumentResponse response = new GetDocumentResponse();
         render(response, aJCas);
-        String json = toJson(response);
         
         // By default, we do a full rendering...
         RenderType renderType = RenderType.FULL;
         String cmd = "renderData";
-        String data = json;
-
-        // ... try to render diff
-        String diff = null;
-        JsonNode current = null;
-        JsonNode previous = null;
-        try {
-            ObjectMapper mapper = JSONUtil.getJsonConverter().getObjectMapper();
-            current = mapper.readTree(json);
-            previous = lastRenderedJson != null ? mapper.readTree(lastRenderedJson) : null;
-        }
-        catch (IOException e) {
-            LOG.error("Unable to generate diff, falling back to full render.", e);
-            // Fall-through
+        Object data = response;
+
+        // ... try to render diff. The patch is computed from the response models, so unchanged
+        // parts of the document do not need to be converted to JSON at all. If another part of
+        // the document is shown, the patch would be larger than the full data, so in this case
+        // we do not even try.
+        BratDocumentPatch patch = BratDocumentPatch.create(lastRenderedResponse, response);
+        if (patch != null) {
+            data = patch;
+            cmd = "renderDataPatch";
+            renderType = RenderType.DIFFERENTIAL;
         }
         
-        if (previous != null && current != null) {
-            diff = JsonDiff.asJson(previous, current).toString();
- 
-            // Only sent a patch if it is smaller than sending the full data. E.g. when switching
-            // pages, the patch usually ends up being twice as large as the full data.
-            if (diff.length() < json.length()) {
-                cmd = "renderDataPatch";
-                data = diff;
-                renderType = RenderType.DIFFERENTIAL;
-            }
-            
-//            LOG.info("Diff:  " + diff);
-//            LOG.info("Full: {}   Patch: {}   Diff time: {}", json.length(), diff.length(), timer);
-        }
+        lastRenderedResponse = response;
         
-        // Storing the last rendered JSON as string because JsonNodes are not serializable.
-        lastRenderedJson = json;
+        aOut.append("Wicket.$('").append(vis.getMarkupId()).append("').dispatcher.post('")
+                .append(cmd).append("', [");
+        int begin = aOut.length();
+        appendJson(aOut, data);
+        int size = aOut.length() - begin;
+        aOut.append("]);");
         
         timer.stop();
 
-        metrics.renderComplete(renderType, timer.getTime(), json, diff);
-        
-        return "Wicket.$('" + vis.getMarkupId() + "').dispatcher.post('" + cmd + "', [" + data
-                + "]);";
+        metrics.renderComplete(renderType, timer.getTime(), size);
     }
     
     private void render(GetDocumentResponse response, JCas aJCas)
@@ -653,14 +642,14 @@ public class BratAnnotationEditor
         return script;
     }
     
-    private String bratLoadCollectionCommand()
+    private void bratLoadCollectionCommand(StringBuilder aOut)
     {
-        GetCollectionInformationResponse response = new GetCollectionInformationResponse();
-        response.setEntityTypes(BratRenderer
-                .buildEntityTypes(getModelObject().getAnnotationLayers(), annotationService));
-        String json = toJson(response);
-        return "Wicket.$('" + vis.getMarkupId() + "').dispatcher.post('collectionLoaded', [" + json
-                + "]);";
+        GetCollectionInformationResponse response = collectionInformationCache
+                .getCollectionInformation(getModelObject().getAnnotationLayers());
+        aOut.append("Wicket.$('").append(vis.getMarkupId())
+                .append("').dispatcher.post('collectionLoaded', [");
+        appendJson(aOut, response);
+        aOut.append("]);");
     }
     
 //    /**
@@ -700,11 +689,12 @@ public class BratAnnotationEditor
 //        aResponse.render(OnDomReadyHeaderItem.forScript(bratInitCommand()));
 //        aResponse.render(OnLoadHeaderItem.forScript(bratLoadCollectionLaterCommand()));
 //        aResponse.render(OnLoadHeaderItem.forScript(bratRenderLaterCommand()));
-        String script = "setTimeout(function() { " +
-                bratInitCommand() +
-                bratLoadCollectionCommand() +
-                bratRenderLaterCommand() +
-                "}, 0);";
+        StringBuilder script = new StringBuilder();
+        script.append("setTimeout(function() { ");
+        script.append(bratInitCommand());
+        bratLoadCollectionCommand(script);
+        script.append(bratRenderLaterCommand());
+        script.append("}, 0);");
         aResponse.render(OnDomReadyHeaderItem.forScript(script));
         
     }
@@ -713,8 +703,11 @@ public class BratAnnotationEditor
     protected void render(AjaxRequestTarget aTarget)
     {
         try {
-            aTarget.appendJavaScript("setTimeout(function() { "
-                    + bratRenderCommand(getJCasProvider().get()) + " }, 0);");
+            StringBuilder script = new StringBuilder();
+            script.append("setTimeout(function() { ");
+            bratRenderCommand(script, getJCasProvider().get());
+            script.append(" }, 0);");
+            aTarget.appendJavaScript(script);
         }
         catch (IOException e) {
             LOG.error("Unable to load data", e);
@@ -733,15 +726,19 @@ public class BratAnnotationEditor
         }
     }
 
-    private String toJson(Object result)
+    /**
+     * Streams the JSON of the given object into the buffer.
+     */
+    private void appendJson(StringBuilder aOut, Object aObject)
     {
-        String json = "[]";
+        int begin = aOut.length();
         try {
-            json = JSONUtil.toInterpretableJsonString(result);
+            JSONUtil.appendInterpretableJson(aOut, aObject);
         }
         catch (IOException e) {
+            aOut.setLength(begin);
+            aOut.append("[]");
             error("Unable to produce JSON response " + ":" + ExceptionUtils.getRootCauseMessage(e));
         }
-        return json;
     }    
 }
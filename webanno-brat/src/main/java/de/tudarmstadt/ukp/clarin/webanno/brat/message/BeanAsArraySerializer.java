@@ -41,6 +41,15 @@ import com.fasterxml.jackson.databind.ser.std.AsArraySerializerBase;
 public class BeanAsArraySerializer
     extends AsArraySerializerBase<Object>
 {
+    private static final ClassValue<Field[]> FIELDS = new ClassValue<Field[]>()
+    {
+        @Override
+        protected Field[] computeValue(Class<?> aType)
+        {
+            return getOrderedFields(aType);
+        }
+    };
+
     public BeanAsArraySerializer()
     {
         this(null, false, null, null, null);
@@ -93,23 +102,12 @@ public class BeanAsArraySerializer
     public void serializeContents(Object value, JsonGenerator jgen, SerializerProvider provider)
         throws IOException
     {
-        JsonPropertyOrder order = value.getClass().getAnnotation(JsonPropertyOrder.class);
-        String[] propOrder = (order == null) ? null : order.value();
-
-        if (propOrder == null) {
-            throw new IllegalStateException("Bean must declare JsonPropertyOrder!");
-        }
-
-        if (propOrder.length == 0) {
-            return;
-        }
+        Field[] fields = FIELDS.get(value.getClass());
 
         int i = 0;
         try {
-            do {
-                Field field = value.getClass().getDeclaredField(propOrder[i]);
-                ReflectionUtils.makeAccessible(field);
-                Object elem = field.get(value);
+            for (; i < fields.length; i++) {
+                Object elem = fields[i].get(value);
                 if (elem == null) {
                     provider.defaultSerializeNull(jgen);
                 }
@@ -118,13 +116,38 @@ public class BeanAsArraySerializer
                     JsonSerializer<Object> serializer = provider.findValueSerializer(cc, null);
                     serializer.serialize(elem, jgen, provider);
                 }
-                ++i;
             }
-            while (i < propOrder.length);
         }
         catch (Exception e) {
             // [JACKSON-55] Need to add reference information
             wrapAndThrow(provider, e, value, i);
         }
     }
+    
+    /**
+     * Looks up the fields of a bean in the order declared by its {@link JsonPropertyOrder} once
+     * per class instead of once per serialized bean.
+     */
+    private static Field[] getOrderedFields(Class<?> aClass)
+    {
+        JsonPropertyOrder order = aClass.getAnnotation(JsonPropertyOrder.class);
+        String[] propOrder = (order == null) ? null : order.value();
+
+        if (propOrder == null) {
+            throw new IllegalStateException("Bean must declare JsonPropertyOrder!");
+        }
+
+        Field[] fields = new Field[propOrder.length];
+        for (int i = 0; i < propOrder.length; i++) {
+            try {
+                fields[i] = aClass.getDeclaredField(propOrder[i]);
+            }
+            catch (NoSuchFieldException e) {
+                throw new IllegalStateException("Bean [" + aClass.getName()
+                        + "] has no field [" + propOrder[i] + "]", e);
+            }
+            ReflectionUtils.makeAccessible(fields[i]);
+        }
+        return fields;
+    }
 }
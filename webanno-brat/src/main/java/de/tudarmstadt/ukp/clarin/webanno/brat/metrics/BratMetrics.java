@@ -24,5 +24,14 @@ public interface BratMetrics
         DIFFERENTIAL;
     }
 
-    void renderComplete(RenderType aType, long aTime, String aFull, String aDiff);
+    /**
+     * @param aType
+     *            whether the full data or a patch was sent to the browser.
+     * @param aTime
+     *            the time it took to render (ms).
+     * @param aSentSize
+     *            the size (in characters) of the data sent to the browser, i.e. the full data or
+     *            the patch.
+     */
+    void renderComplete(RenderType aType, long aTime, long aSentSize);
 }
@@ -17,23 +17,26 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.brat.metrics;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jmx.export.annotation.ManagedMetric;
 import org.springframework.jmx.export.annotation.ManagedResource;
 import org.springframework.jmx.support.MetricType;
 import org.springframework.stereotype.Component;
 
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.PreRenderCache;
+
 @ManagedResource
 @Component
 public class BratMetricsImpl implements BratMetrics
 {
+    private @Autowired(required = false) PreRenderCache preRenderCache;
+    
     private long fullRenderCount = 0;
     private long fullRenderedSize = 0;
     
     private long diffRenderCount = 0;
     private long diffRenderedSize = 0;
     
-    private long savedRenderedSize = 0;
-   
     private long sentRenderedSize = 0;
     
     private long renderTime = 0;
@@ -63,12 +66,6 @@ public class BratMetricsImpl implements BratMetrics
         return diffRenderedSize;
     }
 
-    @ManagedMetric(metricType = MetricType.COUNTER, unit = "chars")
-    public long getSavedRenderedSize()
-    {
-        return savedRenderedSize;
-    }
-
     @ManagedMetric(metricType = MetricType.COUNTER, unit = "ms")
     public long getRenderTime()
     {
@@ -87,29 +84,43 @@ public class BratMetricsImpl implements BratMetrics
         return sentRenderedSize;
     }
     
+    @ManagedMetric(metricType = MetricType.COUNTER)
+    public long getRenderCacheHits()
+    {
+        return preRenderCache != null ? preRenderCache.getHits() : 0;
+    }
+
+    @ManagedMetric(metricType = MetricType.COUNTER)
+    public long getRenderCacheMisses()
+    {
+        return preRenderCache != null ? preRenderCache.getMisses() : 0;
+    }
+
+    @ManagedMetric(metricType = MetricType.GAUGE, unit = "%")
+    public double getRenderCacheHitRate()
+    {
+        long hits = getRenderCacheHits();
+        long total = hits + getRenderCacheMisses();
+        return total > 0 ? 100.0 * hits / total : 0;
+    }
+    
     @Override
-    public synchronized void renderComplete(RenderType aType, long aTime, String aFull,
-            String aDiff)
+    public synchronized void renderComplete(RenderType aType, long aTime, long aSentSize)
     {
         switch (aType) {
         case DIFFERENTIAL:
             diffRenderCount++;
-            sentRenderedSize += aDiff.length();
-            savedRenderedSize += aFull.length() - aDiff.length();
+            diffRenderedSize += aSentSize;
             break;
         case FULL:
             fullRenderCount++;
-            sentRenderedSize += aFull.length();
+            fullRenderedSize += aSentSize;
             break;
         }
         
-        renderTime += aTime;
-        maxRenderTime = Math.max(maxRenderTime, renderTime);
+        sentRenderedSize += aSentSize;
         
-        fullRenderedSize += aFull.length();
-
-        if (aDiff != null) {
-            diffRenderedSize += aDiff.length();
-        }
+        renderTime += aTime;
+        maxRenderTime = Math.max(maxRenderTime, aTime);
     }
 }
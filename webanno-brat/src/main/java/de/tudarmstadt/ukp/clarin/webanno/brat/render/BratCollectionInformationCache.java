@@ -0,0 +1,157 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.brat.render;
+
+import static java.util.Collections.unmodifiableSet;
+import static java.util.stream.Collectors.toList;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.LayerConfigurationChangedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.brat.message.GetCollectionInformationResponse;
+import de.tudarmstadt.ukp.clarin.webanno.brat.render.model.EntityType;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+
+/**
+ * Keeps the brat type configuration built by
+ * {@link BratRenderer#buildEntityTypes(List, AnnotationSchemaService)} so it does not need to be
+ * rebuilt from the schema whenever an editor is initialized. The configuration depends on the
+ * project, the configuration of its layers and the layers selected by the user in the
+ * preferences. The cached configurations of a project are dropped when its layer configuration
+ * changes.
+ * <p>
+ * The returned objects are shared and must not be modified.
+ */
+@Component
+public class BratCollectionInformationCache
+{
+    private static final int MAX_ENTRIES = 256;
+
+    private @Autowired AnnotationSchemaService annotationService;
+
+    private final Map<Long, Long> versions = new HashMap<>();
+    private final Map<Key, GetCollectionInformationResponse> cache = new LinkedHashMap<Key, 
+            GetCollectionInformationResponse>(16, 0.75f, true)
+    {
+        private static final long serialVersionUID = -2466519046553315870L;
+
+        @Override
+        protected boolean removeEldestEntry(Entry<Key, GetCollectionInformationResponse> aEldest)
+        {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    /**
+     * @param aLayers
+     *            the layers shown to the user.
+     * @return the brat type configuration of the given layers.
+     */
+    public Set<EntityType> getEntityTypes(List<AnnotationLayer> aLayers)
+    {
+        return getCollectionInformation(aLayers).getEntityTypes();
+    }
+
+    /**
+     * @param aLayers
+     *            the layers shown to the user.
+     * @return the collection information containing the brat type configuration of the given
+     *         layers.
+     */
+    public GetCollectionInformationResponse getCollectionInformation(List<AnnotationLayer> aLayers)
+    {
+        Long projectId = aLayers.isEmpty() || aLayers.get(0).getProject() == null ? null
+                : aLayers.get(0).getProject().getId();
+
+        Key key;
+        synchronized (cache) {
+            key = new Key(projectId, versions.getOrDefault(projectId, 0l),
+                    aLayers.stream().map(AnnotationLayer::getId).collect(toList()));
+            GetCollectionInformationResponse info = cache.get(key);
+            if (info != null) {
+                return info;
+            }
+        }
+
+        // Built outside the lock - if the configuration changes meanwhile, the result is stored
+        // under the previous version and never returned again
+        GetCollectionInformationResponse info = new GetCollectionInformationResponse();
+        info.setEntityTypes(
+                unmodifiableSet(BratRenderer.buildEntityTypes(aLayers, annotationService)));
+
+        synchronized (cache) {
+            cache.put(key, info);
+        }
+        return info;
+    }
+
+    @EventListener
+    public void onLayerConfigurationChanged(LayerConfigurationChangedEvent aEvent)
+    {
+        Long projectId = aEvent.getProject() != null ? aEvent.getProject().getId() : null;
+        synchronized (cache) {
+            versions.merge(projectId, 1l, Long::sum);
+            cache.keySet().removeIf(key -> Objects.equals(key.projectId, projectId));
+        }
+    }
+
+    private static final class Key
+    {
+        private final Long projectId;
+        private final long version;
+        private final List<Long> layerIds;
+
+        public Key(Long aProjectId, long aVersion, List<Long> aLayerIds)
+        {
+            projectId = aProjectId;
+            version = aVersion;
+            layerIds = aLayerIds;
+        }
+
+        @Override
+        public boolean equals(Object aOther)
+        {
+            if (this == aOther) {
+                return true;
+            }
+            if (!(aOther instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) aOther;
+            return version == other.version && Objects.equals(projectId, other.projectId)
+                    && Objects.equals(layerIds, other.layerIds);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(projectId, version, layerIds);
+        }
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.brat.render;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+
+import de.tudarmstadt.ukp.clarin.webanno.brat.message.GetDocumentResponse;
+import de.tudarmstadt.ukp.clarin.webanno.brat.render.model.Entity;
+import de.tudarmstadt.ukp.clarin.webanno.brat.render.model.Relation;
+import de.tudarmstadt.ukp.clarin.webanno.support.JSONUtil;
+
+/**
+ * JSON patch (RFC 6902) which turns a previously rendered {@link GetDocumentResponse} into the
+ * current one. The patch is computed from the response models: entities and relations are matched
+ * by their VID, so only the spans and arcs which were added, removed or changed end up in the
+ * patch. Only the values contained in the patch are serialized to JSON.
+ * <p>
+ * The patch serializes itself as the JSON array of its operations, so it can be streamed like any
+ * other message, e.g. using {@link JSONUtil#appendInterpretableJson(StringBuilder, Object)}.
+ */
+public class BratDocumentPatch
+    implements JsonSerializable
+{
+    private static final String ADD = "add";
+    private static final String REMOVE = "remove";
+    private static final String REPLACE = "replace";
+
+    private final List<Operation> operations = new ArrayList<>();
+
+    private BratDocumentPatch()
+    {
+        // Use create()
+    }
+
+    /**
+     * Computes the patch between the given responses.
+     *
+     * @return the patch or {@code null} if the responses differ so much that a full rendering
+     *         should be used instead, e.g. because another part of the document is shown.
+     */
+    public static BratDocumentPatch create(GetDocumentResponse aPrevious,
+            GetDocumentResponse aCurrent)
+    {
+        if (aPrevious == null || !Objects.equals(aPrevious.getText(), aCurrent.getText())
+                || !Objects.equals(aPrevious.getTokenOffsets(), aCurrent.getTokenOffsets())) {
+            return null;
+        }
+        
+        BratDocumentPatch patch = new BratDocumentPatch();
+        patch.diffValue("/action", aPrevious.getAction(), aCurrent.getAction());
+        patch.diffValue("/messages", aPrevious.getMessages(), aCurrent.getMessages());
+        patch.diffValue("/modifications", aPrevious.getModifications(),
+                aCurrent.getModifications());
+        patch.diffValue("/rtl_mode", aPrevious.isRtlMode(), aCurrent.isRtlMode());
+        patch.diffValue("/font_zoom", aPrevious.getFontZoom(), aCurrent.getFontZoom());
+        patch.diffValue("/sentence_number_offset", aPrevious.getSentenceNumberOffset(),
+                aCurrent.getSentenceNumberOffset());
+        patch.diffValue("/source_files", aPrevious.getSourceFiles(), aCurrent.getSourceFiles());
+        patch.diffValue("/ctime", aPrevious.getCtime(), aCurrent.getCtime());
+        patch.diffValue("/mtime", aPrevious.getMtime(), aCurrent.getMtime());
+        patch.diffValue("/info", aPrevious.getInfo(), aCurrent.getInfo());
+        patch.diffValue("/sentence_offsets", aPrevious.getSentenceOffsets(),
+                aCurrent.getSentenceOffsets());
+        patch.diffList("/relations", aPrevious.getRelations(), aCurrent.getRelations(),
+                Relation::getVid);
+        patch.diffList("/entities", aPrevious.getEntities(), aCurrent.getEntities(),
+                Entity::getVid);
+        patch.diffValue("/attributes", aPrevious.getAttributes(), aCurrent.getAttributes());
+        patch.diffValue("/equivs", aPrevious.getEquivs(), aCurrent.getEquivs());
+        // Comments do not have an identity of their own - there can be several comments on the
+        // same annotation - so a changed comment is removed and added again.
+        patch.diffList("/comments", aPrevious.getComments(), aCurrent.getComments(),
+                Function.identity());
+        patch.diffValue("/args", aPrevious.getArgs(), aCurrent.getArgs());
+        return patch;
+    }
+
+    public boolean isEmpty()
+    {
+        return operations.isEmpty();
+    }
+
+    public int size()
+    {
+        return operations.size();
+    }
+
+    public String toJson()
+        throws IOException
+    {
+        return JSONUtil.toInterpretableJsonString(this);
+    }
+
+    @Override
+    public void serialize(JsonGenerator aGenerator, SerializerProvider aProvider)
+        throws IOException
+    {
+        write(aGenerator);
+    }
+
+    @Override
+    public void serializeWithType(JsonGenerator aGenerator, SerializerProvider aProvider,
+            TypeSerializer aTypeSerializer)
+        throws IOException
+    {
+        write(aGenerator);
+    }
+
+    public void write(JsonGenerator aGenerator)
+        throws IOException
+    {
+        aGenerator.writeStartArray();
+        for (Operation op : operations) {
+            aGenerator.writeStartObject();
+            aGenerator.writeStringField("op", op.op);
+            aGenerator.writeStringField("path", op.path);
+            if (!REMOVE.equals(op.op)) {
+                aGenerator.writeFieldName("value");
+                aGenerator.writeObject(op.value);
+            }
+            aGenerator.writeEndObject();
+        }
+        aGenerator.writeEndArray();
+    }
+
+    private void diffValue(String aPath, Object aPrevious, Object aCurrent)
+    {
+        if (!Objects.equals(aPrevious, aCurrent)) {
+            operations.add(new Operation(REPLACE, aPath, aCurrent));
+        }
+    }
+
+    /**
+     * Generates the operations turning the previous list into the current list. Elements which are
+     * no longer present are removed (starting at the end so the indexes of the pending removals
+     * remain valid), then the current list is walked, replacing changed elements and inserting new
+     * ones. This requires the retained elements to be in the same relative order in both lists,
+     * which is the case as long as the renderers produce the elements in a stable order. If that is
+     * not the case or if the keys are not unique, the list is replaced as a whole.
+     */
+    private <T> void diffList(String aPath, List<T> aPrevious, List<T> aCurrent,
+            Function<T, Object> aKey)
+    {
+        if (Objects.equals(aPrevious, aCurrent)) {
+            return;
+        }
+        
+        if (aPrevious == null || aCurrent == null) {
+            operations.add(new Operation(REPLACE, aPath, aCurrent));
+            return;
+        }
+        
+        Map<Object, Integer> currentIndex = new HashMap<>();
+        for (int i = 0; i < aCurrent.size(); i++) {
+            if (currentIndex.put(aKey.apply(aCurrent.get(i)), i) != null) {
+                operations.add(new Operation(REPLACE, aPath, aCurrent));
+                return;
+            }
+        }
+        
+        List<Operation> removals = new ArrayList<>();
+        List<T> retained = new ArrayList<>();
+        Set<Object> seen = new HashSet<>();
+        int lastIndex = -1;
+        for (int i = 0; i < aPrevious.size(); i++) {
+            T element = aPrevious.get(i);
+            Object key = aKey.apply(element);
+            if (!seen.add(key)) {
+                operations.add(new Operation(REPLACE, aPath, aCurrent));
+                return;
+            }
+            
+            Integer index = currentIndex.get(key);
+            if (index == null) {
+                removals.add(new Operation(REMOVE, aPath + "/" + i, null));
+            }
+            else if (index < lastIndex) {
+                operations.add(new Operation(REPLACE, aPath, aCurrent));
+                return;
+            }
+            else {
+                lastIndex = index;
+                retained.add(element);
+            }
+        }
+        
+        Collections.reverse(removals);
+        operations.addAll(removals);
+        
+        int k = 0;
+        for (int i = 0; i < aCurrent.size(); i++) {
+            T element = aCurrent.get(i);
+            if (k < retained.size()
+                    && Objects.equals(aKey.apply(retained.get(k)), aKey.apply(element))) {
+                if (!retained.get(k).equals(element)) {
+                    operations.add(new Operation(REPLACE, aPath + "/" + i, element));
+                }
+                k++;
+            }
+            else {
+                operations.add(new Operation(ADD, aPath + "/" + i, element));
+            }
+        }
+    }
+
+    private static class Operation
+    {
+        private final String op;
+        private final String path;
+        private final Object value;
+
+        public Operation(String aOp, String aPath, Object aValue)
+        {
+            op = aOp;
+            path = aPath;
+            value = aValue;
+        }
+    }
+}
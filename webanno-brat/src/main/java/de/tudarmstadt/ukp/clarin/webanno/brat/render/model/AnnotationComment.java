@@ -17,6 +17,8 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.brat.render.model;
 
+import java.util.Objects;
+
 import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 
@@ -83,4 +85,25 @@ public class AnnotationComment
     {
         this.comment = comment;
     }
+
+    @Override
+    public boolean equals(Object aOther)
+    {
+        if (this == aOther) {
+            return true;
+        }
+        if (aOther == null || getClass() != aOther.getClass()) {
+            return false;
+        }
+        AnnotationComment other = (AnnotationComment) aOther;
+        return Objects.equals(vid, other.vid)
+                && Objects.equals(commentType, other.commentType)
+                && Objects.equals(comment, other.comment);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(vid, commentType, comment);
+    }
 }
@@ -17,6 +17,9 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.brat.render.model;
 
+import java.util.Arrays;
+import java.util.Objects;
+
 import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 
@@ -47,4 +50,26 @@ public class AnnotationMarker
     {
         return type;
     }
+
+    @Override
+    public boolean equals(Object aOther)
+    {
+        if (this == aOther) {
+            return true;
+        }
+        if (aOther == null || getClass() != aOther.getClass()) {
+            return false;
+        }
+        AnnotationMarker other = (AnnotationMarker) aOther;
+        return Arrays.equals(vid, other.vid)
+                && Objects.equals(type, other.type);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        int result = Objects.hash(type);
+        result = 31 * result + Arrays.hashCode(vid);
+        return result;
+    }
 }
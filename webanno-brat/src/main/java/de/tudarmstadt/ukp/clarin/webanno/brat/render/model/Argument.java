@@ -17,6 +17,8 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.brat.render.model;
 
+import java.util.Objects;
+
 import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 
@@ -66,4 +68,24 @@ public class Argument
     {
         return target;
     }
+
+    @Override
+    public boolean equals(Object aOther)
+    {
+        if (this == aOther) {
+            return true;
+        }
+        if (aOther == null || getClass() != aOther.getClass()) {
+            return false;
+        }
+        Argument other = (Argument) aOther;
+        return Objects.equals(label, other.label)
+                && Objects.equals(target, other.target);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(label, target);
+    }
 }
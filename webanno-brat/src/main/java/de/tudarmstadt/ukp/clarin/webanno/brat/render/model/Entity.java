@@ -21,6 +21,7 @@ import static java.util.Arrays.asList;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
@@ -152,4 +153,28 @@ public class Entity
     {
         return hovertext;
     }
+
+    @Override
+    public boolean equals(Object aOther)
+    {
+        if (this == aOther) {
+            return true;
+        }
+        if (aOther == null || getClass() != aOther.getClass()) {
+            return false;
+        }
+        Entity other = (Entity) aOther;
+        return Objects.equals(vid, other.vid)
+                && Objects.equals(type, other.type)
+                && Objects.equals(offsets, other.offsets)
+                && Objects.equals(labelText, other.labelText)
+                && Objects.equals(color, other.color)
+                && Objects.equals(hovertext, other.hovertext);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(vid, type, offsets, labelText, color, hovertext);
+    }
 }
@@ -18,6 +18,7 @@
 package de.tudarmstadt.ukp.clarin.webanno.brat.render.model;
 
 import java.io.IOException;
+import java.util.Objects;
 
 import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 import com.fasterxml.jackson.core.JsonParser;
@@ -72,6 +73,26 @@ public class Offsets
         end = aEnd;
     }
 
+    @Override
+    public boolean equals(Object aOther)
+    {
+        if (this == aOther) {
+            return true;
+        }
+        if (aOther == null || getClass() != aOther.getClass()) {
+            return false;
+        }
+        Offsets other = (Offsets) aOther;
+        return begin == other.begin
+                && end == other.end;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(begin, end);
+    }
+
     /**
      * Deserialize {@link Offsets} from JSON to Java.
      *
@@ -19,6 +19,7 @@ package de.tudarmstadt.ukp.clarin.webanno.brat.render.model;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
@@ -135,4 +136,27 @@ public class Relation
     {
         color = aColor;
     }
+
+    @Override
+    public boolean equals(Object aOther)
+    {
+        if (this == aOther) {
+            return true;
+        }
+        if (aOther == null || getClass() != aOther.getClass()) {
+            return false;
+        }
+        Relation other = (Relation) aOther;
+        return Objects.equals(vid, other.vid)
+                && Objects.equals(type, other.type)
+                && Objects.equals(arguments, other.arguments)
+                && Objects.equals(labelText, other.labelText)
+                && Objects.equals(color, other.color);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(vid, type, arguments, labelText, color);
+    }
 }
@@ -17,6 +17,9 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.brat.render.model;
 
+import java.util.Arrays;
+import java.util.Objects;
+
 import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 
@@ -72,4 +75,27 @@ public class SentenceComment
     {
         this.comment = comment;
     }
+
+    @Override
+    public boolean equals(Object aOther)
+    {
+        if (this == aOther) {
+            return true;
+        }
+        if (aOther == null || getClass() != aOther.getClass()) {
+            return false;
+        }
+        SentenceComment other = (SentenceComment) aOther;
+        return Arrays.deepEquals(anchor, other.anchor)
+                && Objects.equals(commentType, other.commentType)
+                && Objects.equals(comment, other.comment);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        int result = Objects.hash(commentType, comment);
+        result = 31 * result + Arrays.deepHashCode(anchor);
+        return result;
+    }
 }
@@ -17,6 +17,8 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.brat.render.model;
 
+import java.util.Objects;
+
 import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 
@@ -48,4 +50,24 @@ public class SentenceMarker
     {
         return type;
     }
+
+    @Override
+    public boolean equals(Object aOther)
+    {
+        if (this == aOther) {
+            return true;
+        }
+        if (aOther == null || getClass() != aOther.getClass()) {
+            return false;
+        }
+        SentenceMarker other = (SentenceMarker) aOther;
+        return Objects.equals(type, other.type)
+                && index == other.index;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(type, index);
+    }
 }
@@ -17,6 +17,8 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.brat.render.model;
 
+import java.util.Objects;
+
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
@@ -53,4 +55,25 @@ public class TextMarker
     {
         return type;
     }
+
+    @Override
+    public boolean equals(Object aOther)
+    {
+        if (this == aOther) {
+            return true;
+        }
+        if (aOther == null || getClass() != aOther.getClass()) {
+            return false;
+        }
+        TextMarker other = (TextMarker) aOther;
+        return Objects.equals(type, other.type)
+                && begin == other.begin
+                && end == other.end;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(type, begin, end);
+    }
 }
@@ -292,6 +292,12 @@ public class CasToBratJsonTest
                     throw new IllegalStateException("Unknown layer type: " + type.getName());
                 }
 
+                @Mock
+                List<AnnotationFeature> listAnnotationFeature(Project aProject)
+                {
+                    return asList(posFeature);
+                }
+
                 @Mock
                 TypeAdapter getAdapter(AnnotationLayer aLayer)
                 {
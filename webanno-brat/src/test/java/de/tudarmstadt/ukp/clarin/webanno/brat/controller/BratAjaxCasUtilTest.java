@@ -17,8 +17,18 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.brat.controller;
 
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getAddr;
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getFirstSentenceNumber;
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getLastSentenceInDisplayWindow;
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getSentence;
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getSentenceAddress;
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getSentenceCount;
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getSentenceNumber;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.isSameSentence;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import org.apache.uima.fit.factory.JCasBuilder;
@@ -26,6 +36,8 @@ import org.apache.uima.fit.factory.JCasFactory;
 import org.apache.uima.jcas.JCas;
 import org.junit.Test;
 
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
+
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
 
 public class BratAjaxCasUtilTest
@@ -56,4 +68,44 @@ public class BratAjaxCasUtilTest
 
         assertTrue(isSameSentence(jcas, 0, 0));
     }
+
+    @Test
+    public void testSentenceNavigation()
+        throws Exception
+    {
+        JCas jcas = JCasFactory.createJCas();
+        
+        JCasBuilder jb = new JCasBuilder(jcas);
+        Sentence s1 = jb.add("Sentence 1.", Sentence.class);
+        jb.add(" ");
+        Sentence s2 = jb.add("Sentence 2.", Sentence.class);
+        jb.add(" ");
+        Sentence s3 = jb.add("Sentence 3.", Sentence.class);
+        jb.close();
+        
+        assertEquals(3, getSentenceCount(jcas));
+        assertEquals(1, getSentenceNumber(jcas, s1.getBegin()));
+        assertEquals(2, getSentenceNumber(jcas, s2.getBegin() + 1));
+        assertEquals(1, getSentenceNumber(jcas, s1.getEnd()));
+        assertEquals(3, getSentenceNumber(jcas, s3.getEnd() + 10));
+        
+        assertEquals(getAddr(s2), getSentenceAddress(jcas, 2));
+        assertEquals(getAddr(s3), getSentenceAddress(jcas, 4));
+        assertEquals(0, getSentenceAddress(jcas, 5));
+        assertEquals(0, getSentenceAddress(jcas, 0));
+        
+        assertEquals(1, getFirstSentenceNumber(jcas, getAddr(s2)));
+        assertEquals(s2, getSentence(jcas, s2.getBegin()));
+        assertNull(getSentence(jcas, s1.getEnd()));
+        
+        assertEquals(s2, getLastSentenceInDisplayWindow(jcas, getAddr(s1), 2));
+        assertEquals(s3, getLastSentenceInDisplayWindow(jcas, getAddr(s2), 5));
+        assertEquals(asList(getAddr(s1), getAddr(s3)),
+                WebAnnoCasUtil.getDisplayWindowBeginningSentenceAddresses(jcas, 2));
+        
+        // Changing the segmentation must be picked up
+        s3.removeFromIndexes();
+        assertEquals(2, getSentenceCount(jcas));
+        assertEquals(0, getSentenceAddress(jcas, 4));
+    }
 }
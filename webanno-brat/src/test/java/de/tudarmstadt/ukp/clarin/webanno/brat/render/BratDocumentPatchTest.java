@@ -0,0 +1,164 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.brat.render;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.flipkart.zjsonpatch.JsonPatch;
+
+import de.tudarmstadt.ukp.clarin.webanno.brat.message.GetDocumentResponse;
+import de.tudarmstadt.ukp.clarin.webanno.brat.render.model.AnnotationComment;
+import de.tudarmstadt.ukp.clarin.webanno.brat.render.model.Argument;
+import de.tudarmstadt.ukp.clarin.webanno.brat.render.model.Entity;
+import de.tudarmstadt.ukp.clarin.webanno.brat.render.model.Offsets;
+import de.tudarmstadt.ukp.clarin.webanno.brat.render.model.Relation;
+
+public class BratDocumentPatchTest
+{
+    private ObjectMapper mapper;
+
+    @Before
+    public void setup()
+    {
+        mapper = new MappingJackson2HttpMessageConverter().getObjectMapper();
+    }
+
+    @Test
+    public void thatUnchangedDocumentProducesEmptyPatch() throws Exception
+    {
+        BratDocumentPatch patch = BratDocumentPatch.create(document(1, 2, 3), document(1, 2, 3));
+
+        assertTrue(patch.isEmpty());
+    }
+
+    @Test
+    public void thatAddedEntityIsInserted() throws Exception
+    {
+        GetDocumentResponse previous = document(1, 2, 4, 5);
+        GetDocumentResponse current = document(1, 2, 3, 4, 5);
+
+        BratDocumentPatch patch = assertPatch(previous, current);
+
+        assertEquals(1, patch.size());
+    }
+
+    @Test
+    public void thatRemovedEntitiesAreRemoved() throws Exception
+    {
+        GetDocumentResponse previous = document(1, 2, 3, 4, 5);
+        GetDocumentResponse current = document(1, 3, 5);
+
+        BratDocumentPatch patch = assertPatch(previous, current);
+
+        assertEquals(2, patch.size());
+    }
+
+    @Test
+    public void thatChangedEntityIsReplaced() throws Exception
+    {
+        GetDocumentResponse previous = document(1, 2, 3);
+        GetDocumentResponse current = document(1, 2, 3);
+        current.getEntities().get(1).setLabelText("changed");
+
+        BratDocumentPatch patch = assertPatch(previous, current);
+
+        assertEquals(1, patch.size());
+    }
+
+    @Test
+    public void thatMixedChangesAreApplied() throws Exception
+    {
+        GetDocumentResponse previous = document(1, 2, 3, 4, 5, 6);
+        GetDocumentResponse current = document(0, 2, 3, 5, 7);
+        current.getEntities().get(2).setColor("#ff0000");
+        current.addRelation(new Relation(10, "dep", asList(new Argument("Arg1", 2),
+                new Argument("Arg2", 3)), "label", "#000000"));
+        current.addComment(new AnnotationComment(3, "AnnotationError", "error"));
+
+        assertPatch(previous, current);
+    }
+
+    @Test
+    public void thatReorderedEntitiesAreReplacedAsWhole() throws Exception
+    {
+        GetDocumentResponse previous = document(1, 2, 3);
+        GetDocumentResponse current = document(3, 2, 1);
+
+        BratDocumentPatch patch = assertPatch(previous, current);
+
+        assertEquals(1, patch.size());
+    }
+
+    @Test
+    public void thatDifferentTextRequiresFullRendering() throws Exception
+    {
+        GetDocumentResponse previous = document(1, 2, 3);
+        GetDocumentResponse current = document(1, 2, 3);
+        current.setText("Another text");
+
+        assertNull(BratDocumentPatch.create(previous, current));
+        assertNull(BratDocumentPatch.create(null, current));
+    }
+
+    private BratDocumentPatch assertPatch(GetDocumentResponse aPrevious,
+            GetDocumentResponse aCurrent)
+        throws Exception
+    {
+        BratDocumentPatch patch = BratDocumentPatch.create(aPrevious, aCurrent);
+
+        StringWriter out = new StringWriter();
+        try (JsonGenerator jg = mapper.getFactory().createGenerator(out)) {
+            patch.write(jg);
+        }
+
+        JsonNode patched = JsonPatch.apply(mapper.readTree(out.toString()),
+                mapper.valueToTree(aPrevious));
+
+        assertEquals(mapper.valueToTree(aCurrent), patched);
+
+        return patch;
+    }
+
+    private GetDocumentResponse document(int... aEntityIds)
+    {
+        GetDocumentResponse response = new GetDocumentResponse();
+        response.setText("This is a test.");
+        response.addSentence(0, 15);
+        List<Entity> entities = new ArrayList<>();
+        for (int id : aEntityIds) {
+            entities.add(new Entity(id, "type", new Offsets(id, id + 1), "label " + id, "#ffffff",
+                    "hover " + id));
+        }
+        response.setEntities(entities);
+        return response;
+    }
+}
@@ -29,6 +29,7 @@ import static org.apache.uima.fit.util.CasUtil.selectCovered;
 
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -39,11 +40,17 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.Set;
-import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
 import org.apache.commons.lang3.ObjectUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.tuple.Pair;
 import org.apache.uima.cas.ArrayFS;
 import org.apache.uima.cas.CAS;
 import org.apache.uima.cas.Feature;
@@ -71,19 +78,40 @@ import de.tudarmstadt.ukp.dkpro.core.api.syntax.type.dependency.Dependency;
 
 public class CasDiff2
 {
+    // Marks types without a diff adapter in the sorted features cache
+    private static final String[] NO_ADAPTER = new String[0];
+    
+    // Value ranges of the features compared by equalsFS
+    private static final int RANGE_BOOLEAN = 0;
+    private static final int RANGE_BYTE = 1;
+    private static final int RANGE_DOUBLE = 2;
+    private static final int RANGE_FLOAT = 3;
+    private static final int RANGE_INTEGER = 4;
+    private static final int RANGE_LONG = 5;
+    private static final int RANGE_SHORT = 6;
+    private static final int RANGE_STRING = 7;
+    private static final int RANGE_FS = 8;
+    
     private final Logger log = LoggerFactory.getLogger(getClass());
     
     private Map<String, List<CAS>> cases = new LinkedHashMap<>();
     
-    private final Map<Position, ConfigurationSet> configSets = new TreeMap<>();
+    // CAS groups in the order in which they were added to the diff - configurations store their
+    // addresses at the ordinal of the CAS group
+    private final Map<String, Integer> casGroupOrdinals = new HashMap<>();
+    private final List<String> casGroupsByOrdinal = new ArrayList<>();
+    
+    private final Map<Position, ConfigurationSet> configSets = new HashMap<>();
 
-    private final Map<String, String[]> sortedFeaturesCache = new HashMap<>();
+    private final Map<String, String[]> sortedFeaturesCache = new ConcurrentHashMap<>();
+    
+    private final Map<Type, FeatureComparator> comparators = new ConcurrentHashMap<>();
 
     private int begin;
     
     private int end;
     
-    private final Map<String, DiffAdapter> typeAdapters = new HashMap<>();
+    private final Map<String, DiffAdapter> typeAdapters = new ConcurrentHashMap<>();
     
     private final LinkCompareBehavior linkCompareBehavior;
 
@@ -159,6 +187,28 @@ public class CasDiff2
     public static DiffResult doDiff(List<String> aEntryTypes,
             Collection<? extends DiffAdapter> aAdapters, LinkCompareBehavior aLinkCompareBehavior,
             Map<String, List<JCas>> aCasMap)
+    {
+        return doDiff(aEntryTypes, aAdapters, aLinkCompareBehavior, aCasMap, null);
+    }
+    
+    /**
+     * Calculate the differences between CASes using the given pool. The result is the same as
+     * when calculating the differences sequentially.
+     * 
+     * @param aEntryTypes
+     *            the type for which differences are to be calculated.
+     * @param aAdapters
+     *            a set of diff adapters how the diff algorithm should handle different features
+     * @param aCasMap
+     *            a set of CASes, each associated with an ID
+     * @param aPool
+     *            the pool used to calculate the differences or {@code null} to calculate them
+     *            sequentially.
+     * @return a diff result.
+     */
+    public static DiffResult doDiff(List<String> aEntryTypes,
+            Collection<? extends DiffAdapter> aAdapters, LinkCompareBehavior aLinkCompareBehavior,
+            Map<String, List<JCas>> aCasMap, ForkJoinPool aPool)
     {
         if (aCasMap.isEmpty()) {
             return new DiffResult(new CasDiff2(0,0, aAdapters, aLinkCompareBehavior));
@@ -169,7 +219,7 @@ public class CasDiff2
             return new DiffResult(new CasDiff2(0,0, aAdapters, aLinkCompareBehavior));
         }
         
-        return doDiff(aEntryTypes, aAdapters, aCasMap, -1, -1, aLinkCompareBehavior);
+        return doDiff(aEntryTypes, aAdapters, aCasMap, -1, -1, aLinkCompareBehavior, aPool);
     }
     
     /**
@@ -228,19 +278,57 @@ public class CasDiff2
     public static DiffResult doDiff(List<String> aEntryTypes,
             Collection<? extends DiffAdapter> aAdapters, Map<String, List<JCas>> aCasMap,
             int aBegin, int aEnd, LinkCompareBehavior aLinkCompareBehavior)
+    {
+        return doDiff(aEntryTypes, aAdapters, aCasMap, aBegin, aEnd, aLinkCompareBehavior, null);
+    }
+    
+    /**
+     * Calculate the differences between CASes. This method scopes the calculation of differences to
+     * a span instead of calculating them on the whole text.
+     * <p>
+     * If a pool is given, the positions are extracted for each type and CAS group concurrently.
+     * Since positions of different types or different CAS IDs never coincide, the configuration
+     * sets of each type and CAS ID are then built concurrently as well, adding the CAS groups in
+     * the same order as the sequential calculation does. Thus, the result does not depend on
+     * whether a pool is used or not.
+     * 
+     * @param aEntryTypes
+     *            the types for which differences are to be calculated.
+     * @param aAdapters
+     *            a set of diff adapters telling how the diff algorithm should handle different
+     *            features
+     * @param aCasMap
+     *            a set of CASes, each associated with an ID
+     * @param aBegin
+     *            begin of the span for which differences should be calculated.
+     * @param aEnd
+     *            end of the span for which differences should be calculated.
+     * @param aPool
+     *            the pool used to calculate the differences or {@code null} to calculate them
+     *            sequentially.
+     * @return a diff result.
+     */
+    public static DiffResult doDiff(List<String> aEntryTypes,
+            Collection<? extends DiffAdapter> aAdapters, Map<String, List<JCas>> aCasMap,
+            int aBegin, int aEnd, LinkCompareBehavior aLinkCompareBehavior, ForkJoinPool aPool)
     {
         sanityCheck(aCasMap);
         
         CasDiff2 diff = new CasDiff2(aBegin, aEnd, aAdapters, aLinkCompareBehavior);
         
-        for (Entry<String, List<JCas>> e : aCasMap.entrySet()) {
-            int casId = 0;
-            for (JCas jcas : e.getValue()) {
-                for (String type : aEntryTypes) {
-                    // null elements in the list can occur if a user has never worked on a CAS
-                    diff.addCas(e.getKey(), casId, jcas != null ? jcas.getCas() : null, type);
+        if (aPool != null) {
+            diff.addCases(aEntryTypes, aCasMap, aPool);
+        }
+        else {
+            for (Entry<String, List<JCas>> e : aCasMap.entrySet()) {
+                int casId = 0;
+                for (JCas jcas : e.getValue()) {
+                    for (String type : aEntryTypes) {
+                        // null elements in the list can occur if a user has never worked on a CAS
+                        diff.addCas(e.getKey(), casId, jcas != null ? jcas.getCas() : null, type);
+                    }
+                    casId++;
                 }
-                casId++;
             }
         }
         
@@ -281,13 +369,10 @@ public class CasDiff2
     
     private DiffAdapter getAdapter(String aType)
     {
-        DiffAdapter adapter = typeAdapters.get(aType);
-        if (adapter == null) {
-            log.warn("No diff adapter for type [" + aType + "] -- treating as without features");
-            adapter = new SpanDiffAdapter(aType, Collections.EMPTY_SET);
-            typeAdapters.put(aType, adapter);
-        }
-        return adapter;
+        return typeAdapters.computeIfAbsent(aType, type -> {
+            log.warn("No diff adapter for type [" + type + "] -- treating as without features");
+            return new SpanDiffAdapter(type, Collections.emptySet());
+        });
     }
     
     /**
@@ -305,11 +390,7 @@ public class CasDiff2
     private void addCas(String aCasGroupId, int aCasId, CAS aCas, String aType)
     {
         // Remember that we have already seen this CAS.
-        List<CAS> casList = cases.get(aCasGroupId);
-        if (casList == null) {
-            casList = new ArrayList<>();
-            cases.put(aCasGroupId, casList);
-        }
+        List<CAS> casList = getCasList(aCasGroupId);
         
         // Avoid adding same CAS twice in cases where we add multiple types from a CAS. If the
         // current CAS ID is greater than the size of the current CAS list, then we did not add
@@ -348,63 +429,184 @@ public class CasDiff2
             }
         }
         
-        Collection<AnnotationFS> annotations;
-        if (begin == -1 && end == -1) {
-            annotations = select(aCas, getType(aCas, aType));
-        }
-        else {
-            annotations = selectCovered(aCas, getType(aCas, aType), begin, end);
-        }
+        List<Pair<Position, AnnotationFS>> positions = extractPositions(aCasId, aCas, aType);
         
-        if (annotations.isEmpty()) {
+        if (positions.isEmpty()) {
             log.debug("CAS group [" + aCasGroupId + "] CAS [" + aCasId
                     + "] contains no annotations of type [" + aType + "]");
             return;
         }
         else {
             log.debug("CAS group [" + aCasGroupId + "] CAS [" + aCasId + "] contains ["
-                    + annotations.size() + "] annotations of type [" + aType + "]");
+                    + positions.size() + "] positions of type [" + aType + "]");
         }
 
         int posBefore = configSets.keySet().size();
         log.debug("Positions before: [" + posBefore + "]");
 
+        addPositions(configSets, aCasGroupId, positions);
+
+        log.debug("Positions after: [" + configSets.keySet().size() + "] (delta: "
+                + (configSets.keySet().size() - posBefore) + ")");
+    }
+    
+    /**
+     * Parallel counterpart of {@link #addCas}. Adds all CASes for all the given types using the
+     * given pool.
+     */
+    private void addCases(List<String> aEntryTypes, Map<String, List<JCas>> aCasMap,
+            ForkJoinPool aPool)
+    {
+        // The sequential diff only remembers CASes while adding them for a type
+        if (aEntryTypes.isEmpty()) {
+            return;
+        }
+        
+        // Remember all CASes up front - the configuration sets access them while being built
+        int casCount = 0;
+        for (Entry<String, List<JCas>> e : aCasMap.entrySet()) {
+            List<CAS> casList = getCasList(e.getKey());
+            for (JCas jcas : e.getValue()) {
+                // null elements in the list can occur if a user has never worked on a CAS
+                casList.add(jcas != null ? jcas.getCas() : null);
+            }
+            casCount = Math.max(casCount, casList.size());
+        }
+        
+        // Adding the same type twice does not change the result, so each type is processed once.
+        // Also make sure that the adapters are resolved before going parallel.
+        List<PartitionTask> partitions = new ArrayList<>();
+        for (String type : new LinkedHashSet<>(aEntryTypes)) {
+            getAdapter(type);
+            for (int casId = 0; casId < casCount; casId++) {
+                partitions.add(new PartitionTask(type, casId));
+            }
+        }
+        
+        aPool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(partitions)));
+        
+        // The partitions do not share any positions, so we can simply merge them
+        for (PartitionTask partition : partitions) {
+            configSets.putAll(partition.join());
+        }
+    }
+    
+    private List<CAS> getCasList(String aCasGroupId)
+    {
+        List<CAS> casList = cases.get(aCasGroupId);
+        if (casList == null) {
+            casList = new ArrayList<>();
+            cases.put(aCasGroupId, casList);
+            casGroupOrdinals.put(aCasGroupId, casGroupsByOrdinal.size());
+            casGroupsByOrdinal.add(aCasGroupId);
+        }
+        return casList;
+    }
+    
+    private List<Pair<Position, AnnotationFS>> extractPositions(int aCasId, CAS aCas,
+            String aType)
+    {
+        Collection<AnnotationFS> annotations;
+        if (begin == -1 && end == -1) {
+            annotations = select(aCas, getType(aCas, aType));
+        }
+        else {
+            annotations = selectCovered(aCas, getType(aCas, aType), begin, end);
+        }
+        
+        DiffAdapter adapter = getAdapter(aType);
+        List<Pair<Position, AnnotationFS>> positions = new ArrayList<>();
         for (AnnotationFS fs : annotations) {
-            List<Position> positions = new ArrayList<>();
-            
             // Get/create configuration set at the current position
-            positions.add(getAdapter(aType).getPosition(aCasId, fs));
+            positions.add(Pair.of(adapter.getPosition(aCasId, fs), fs));
             
             // Generate secondary positions for multi-link features
-            positions.addAll(
-                    getAdapter(aType).generateSubPositions(aCasId, fs, linkCompareBehavior));
-
-            for (Position pos : positions) {
-                ConfigurationSet configSet = configSets.get(pos);
-                if (configSet == null) {
-                    configSet = new ConfigurationSet(pos);
-                    configSets.put(pos, configSet);
-                }
-                
-    //          REC: appears to be left-over debug code that can be removed...  
-    //            if (pos.getClass() != configSet.position.getClass()) {
-    //                pos.compareTo(configSet.position);
-    //            }
-                
-                assert pos.getClass() == configSet.position.getClass() : "Position type mismatch ["
-                        + pos.getClass() + "] vs [" + configSet.position.getClass() + "]";
-    
-                // Merge FS into current set
-                configSet.addConfiguration(aCasGroupId, fs);
+            for (Position pos : adapter.generateSubPositions(aCasId, fs, linkCompareBehavior)) {
+                positions.add(Pair.of(pos, fs));
             }
         }
+        return positions;
+    }
+    
+    private void addPositions(Map<Position, ConfigurationSet> aConfigSets, String aCasGroupId,
+            List<Pair<Position, AnnotationFS>> aPositions)
+    {
+        for (Pair<Position, AnnotationFS> p : aPositions) {
+            Position pos = p.getKey();
+            ConfigurationSet configSet = aConfigSets.get(pos);
+            if (configSet == null) {
+                configSet = new ConfigurationSet(pos);
+                aConfigSets.put(pos, configSet);
+            }
+            
+            assert pos.getClass() == configSet.position.getClass() : "Position type mismatch ["
+                    + pos.getClass() + "] vs [" + configSet.position.getClass() + "]";
 
-        log.debug("Positions after: [" + configSets.keySet().size() + "] (delta: "
-                + (configSets.keySet().size() - posBefore) + ")");
-
-//        
-//        // Remember that we have processed the type
-//        entryTypes.add(aType);
+            // Merge FS into current set
+            configSet.addConfiguration(aCasGroupId, p.getValue());
+        }
+    }
+    
+    /**
+     * Builds the configuration sets of a single type and CAS ID. The positions are extracted from
+     * the CAS groups concurrently, but they are merged in the order of the CAS groups.
+     */
+    private class PartitionTask
+        extends RecursiveTask<Map<Position, ConfigurationSet>>
+    {
+        private static final long serialVersionUID = 1L;
+        
+        private final String type;
+        private final int casId;
+        
+        public PartitionTask(String aType, int aCasId)
+        {
+            type = aType;
+            casId = aCasId;
+        }
+        
+        @Override
+        protected Map<Position, ConfigurationSet> compute()
+        {
+            Map<String, ExtractionTask> extractions = new LinkedHashMap<>();
+            for (Entry<String, List<CAS>> e : cases.entrySet()) {
+                CAS cas = casId < e.getValue().size() ? e.getValue().get(casId) : null;
+                if (cas != null) {
+                    extractions.put(e.getKey(), new ExtractionTask(type, casId, cas));
+                }
+            }
+            
+            invokeAll(extractions.values());
+            
+            Map<Position, ConfigurationSet> partition = new HashMap<>();
+            for (Entry<String, ExtractionTask> e : extractions.entrySet()) {
+                addPositions(partition, e.getKey(), e.getValue().join());
+            }
+            return partition;
+        }
+    }
+    
+    private class ExtractionTask
+        extends RecursiveTask<List<Pair<Position, AnnotationFS>>>
+    {
+        private static final long serialVersionUID = 1L;
+        
+        private final String type;
+        private final int casId;
+        private final CAS cas;
+        
+        public ExtractionTask(String aType, int aCasId, CAS aCas)
+        {
+            type = aType;
+            casId = aCasId;
+            cas = aCas;
+        }
+        
+        @Override
+        protected List<Pair<Position, AnnotationFS>> compute()
+        {
+            return extractPositions(casId, cas, type);
+        }
     }
     
     public enum LinkCompareBehavior
@@ -428,6 +630,21 @@ public class CasDiff2
         }
     }
     
+    private static long pack(int aBegin, int aEnd)
+    {
+        return ((long) aBegin << 32) | (aEnd & 0xFFFFFFFFL);
+    }
+    
+    private static int unpackBegin(long aOffsets)
+    {
+        return (int) (aOffsets >> 32);
+    }
+    
+    private static int unpackEnd(long aOffsets)
+    {
+        return (int) aOffsets;
+    }
+    
     /**
      * Represents a logical position in the text. All annotations considered to be at the same
      * logical position in the document are collected under this. Within the position, there are
@@ -475,8 +692,7 @@ public class CasDiff2
 
         private final String role;
         
-        private final int linkTargetBegin;
-        private final int linkTargetEnd;
+        private final long linkTarget;
         private final String linkTargetText;
 
         private final LinkCompareBehavior linkCompareBehavior;
@@ -495,8 +711,7 @@ public class CasDiff2
             linkCompareBehavior = aBehavior;
 
             role = aRole;
-            linkTargetBegin = aLinkTargetBegin;
-            linkTargetEnd = aLinkTargetEnd;
+            linkTarget = pack(aLinkTargetBegin, aLinkTargetEnd);
             linkTargetText = aLinkTargetText;
 
             collectionId = aCollectionId;
@@ -530,13 +745,13 @@ public class CasDiff2
         @Override
         public int getLinkTargetBegin()
         {
-            return linkTargetBegin;
+            return unpackBegin(linkTarget);
         }
         
         @Override
         public int getLinkTargetEnd()
         {
-            return linkTargetEnd;
+            return unpackEnd(linkTarget);
         }
         
         public String getLinkTargetText()
@@ -598,11 +813,11 @@ public class CasDiff2
                     return ObjectUtils.compare(role, aOther.getRole());
                 case LINK_ROLE_AS_LABEL:
                     // Include target into position
-                    if (linkTargetBegin != aOther.getLinkTargetBegin()) {
-                        return linkTargetBegin - aOther.getLinkTargetBegin();
+                    if (getLinkTargetBegin() != aOther.getLinkTargetBegin()) {
+                        return getLinkTargetBegin() - aOther.getLinkTargetBegin();
                     }
                     
-                    return linkTargetEnd - aOther.getLinkTargetEnd();
+                    return getLinkTargetEnd() - aOther.getLinkTargetEnd();
                 default:
                     throw new IllegalStateException("Unknown link target comparison mode ["
                             + linkCompareBehavior + "]");
@@ -613,6 +828,62 @@ public class CasDiff2
             }
         }
         
+        /**
+         * @return the hash code of the part of the position handled by this class. Like
+         *         {@link #compareTo}, it only includes the role or the link target if the link
+         *         compare behavior makes them part of the position.
+         */
+        protected int baseHashCode()
+        {
+            // Strings cache their hash code and the names of the same type or feature are usually
+            // the same string instance, so neither hashing nor equality need to compare characters
+            int result = casId;
+            result = 31 * result + type.hashCode();
+            result = 31 * result + Objects.hashCode(feature);
+            if (linkCompareBehavior != null) {
+                result = 31 * result + linkCompareBehavior.ordinal();
+                switch (linkCompareBehavior) {
+                case LINK_TARGET_AS_LABEL:
+                    result = 31 * result + Objects.hashCode(role);
+                    break;
+                case LINK_ROLE_AS_LABEL:
+                    result = 31 * result + Long.hashCode(linkTarget);
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown link target comparison mode ["
+                            + linkCompareBehavior + "]");
+                }
+            }
+            return result;
+        }
+        
+        /**
+         * @return whether the part of the position handled by this class is equal to the one of
+         *         the other position, consistent with {@link #compareTo}.
+         */
+        protected boolean baseEquals(Position_ImplBase aOther)
+        {
+            if (casId != aOther.casId || !type.equals(aOther.type)
+                    || !Objects.equals(feature, aOther.feature)
+                    || linkCompareBehavior != aOther.linkCompareBehavior) {
+                return false;
+            }
+            
+            if (linkCompareBehavior == null) {
+                return true;
+            }
+            
+            switch (linkCompareBehavior) {
+            case LINK_TARGET_AS_LABEL:
+                return Objects.equals(role, aOther.role);
+            case LINK_ROLE_AS_LABEL:
+                return linkTarget == aOther.linkTarget;
+            default:
+                throw new IllegalStateException("Unknown link target comparison mode ["
+                        + linkCompareBehavior + "]");
+            }
+        }
+        
         protected void toStringFragment(StringBuilder builder)
         {
             builder.append("cas=");
@@ -658,9 +929,9 @@ public class CasDiff2
      */
     public static class SpanPosition extends Position_ImplBase
     {
-        private final int begin;
-        private final int end;
+        private final long span;
         private final String text;
+        private final int hash;
 
         public SpanPosition(String aCollectionId, String aDocumentId, int aCasId, String aType,
                 int aBegin, int aEnd, String aText, String aFeature, String aRole,
@@ -669,9 +940,9 @@ public class CasDiff2
         {
             super(aCollectionId, aDocumentId, aCasId, aType, aFeature, aRole, aLinkTargetBegin,
                     aLinkTargetEnd, aLinkTargetText, aLinkCompareBehavior);
-            begin = aBegin;
-            end = aEnd;
+            span = pack(aBegin, aEnd);
             text = aText;
+            hash = 31 * baseHashCode() + Long.hashCode(span);
         }
         
         /**
@@ -679,7 +950,7 @@ public class CasDiff2
          */
         public int getBegin()
         {
-            return begin;
+            return unpackBegin(span);
         }
 
         /**
@@ -687,7 +958,7 @@ public class CasDiff2
          */
         public int getEnd()
         {
-            return end;
+            return unpackEnd(span);
         }
 
         @Override
@@ -702,14 +973,33 @@ public class CasDiff2
             // end descending
             else {
                 SpanPosition otherSpan = (SpanPosition) aOther;
-                if (begin == otherSpan.begin) {
-                    return otherSpan.end - end;
+                if (getBegin() == otherSpan.getBegin()) {
+                    return otherSpan.getEnd() - getEnd();
                 }
                 else {
-                    return begin - otherSpan.begin;
+                    return getBegin() - otherSpan.getBegin();
                 }
             }
         }
+        
+        @Override
+        public boolean equals(Object aOther)
+        {
+            if (this == aOther) {
+                return true;
+            }
+            if (aOther == null || getClass() != aOther.getClass()) {
+                return false;
+            }
+            SpanPosition otherSpan = (SpanPosition) aOther;
+            return hash == otherSpan.hash && span == otherSpan.span && baseEquals(otherSpan);
+        }
+        
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
 
         @Override
         public String toString()
@@ -717,7 +1007,8 @@ public class CasDiff2
             StringBuilder builder = new StringBuilder();
             builder.append("Span [");
             toStringFragment(builder);
-            builder.append(", span=(").append(begin).append('-').append(end).append(')');
+            builder.append(", span=(").append(getBegin()).append('-').append(getEnd())
+                    .append(')');
             builder.append('[').append(text).append(']');
             builder.append(']');
             return builder.toString();
@@ -727,7 +1018,8 @@ public class CasDiff2
         public String toMinimalString()
         {
             StringBuilder builder = new StringBuilder();
-            builder.append(begin).append('-').append(end).append(" [").append(text).append(']');
+            builder.append(getBegin()).append('-').append(getEnd()).append(" [").append(text)
+                    .append(']');
             LinkCompareBehavior linkCompareBehavior = getLinkCompareBehavior();
             if (linkCompareBehavior != null) {
                 switch (linkCompareBehavior) {
@@ -753,12 +1045,11 @@ public class CasDiff2
      */
     public static class ArcPosition extends Position_ImplBase
     {
-        private final int sourceBegin;
-        private final int sourceEnd;
+        private final long source;
         private final String sourceText;
-        private final int targetBegin;
-        private final int targetEnd;
+        private final long target;
         private final String targetText;
+        private final int hash;
 
         public ArcPosition(String aCollectionId, String aDocumentId, int aCasId, String aType,
                 int aSourceBegin, int aSourceEnd, String aSourceText, int aTargetBegin,
@@ -768,12 +1059,11 @@ public class CasDiff2
         {
             super(aCollectionId, aDocumentId, aCasId, aType, aFeature, aRole, aLinkTargetBegin,
                     aLinkTargetEnd, aLinkTargetText, aLinkCompareBehavior);
-            sourceBegin = aSourceBegin;
-            sourceEnd = aSourceEnd;
+            source = pack(aSourceBegin, aSourceEnd);
             sourceText = aSourceText;
-            targetBegin = aTargetBegin;
-            targetEnd = aTargetEnd;
+            target = pack(aTargetBegin, aTargetEnd);
             targetText = aTargetText;
+            hash = 31 * (31 * baseHashCode() + Long.hashCode(source)) + Long.hashCode(target);
         }
         
         /**
@@ -781,7 +1071,7 @@ public class CasDiff2
          */
         public int getSourceBegin()
         {
-            return sourceBegin;
+            return unpackBegin(source);
         }
 
         /**
@@ -789,7 +1079,7 @@ public class CasDiff2
          */
         public int getSourceEnd()
         {
-            return sourceEnd;
+            return unpackEnd(source);
         }
 
         /**
@@ -797,7 +1087,7 @@ public class CasDiff2
          */
         public int getTargetBegin()
         {
-            return targetBegin;
+            return unpackBegin(target);
         }
 
         /**
@@ -805,7 +1095,7 @@ public class CasDiff2
          */
         public int getTargetEnd()
         {
-            return targetEnd;
+            return unpackEnd(target);
         }
 
         @Override
@@ -820,20 +1110,40 @@ public class CasDiff2
             // end descending
             else {
                 ArcPosition otherSpan = (ArcPosition) aOther;
-                if (sourceBegin != otherSpan.sourceBegin) {
-                    return sourceBegin - otherSpan.sourceBegin;
+                if (getSourceBegin() != otherSpan.getSourceBegin()) {
+                    return getSourceBegin() - otherSpan.getSourceBegin();
                 }
-                else if (sourceEnd != otherSpan.sourceEnd) {
-                    return otherSpan.sourceEnd - sourceEnd;
+                else if (getSourceEnd() != otherSpan.getSourceEnd()) {
+                    return otherSpan.getSourceEnd() - getSourceEnd();
                 }
-                else if (targetBegin != otherSpan.targetBegin) {
-                    return targetBegin - otherSpan.targetBegin;
+                else if (getTargetBegin() != otherSpan.getTargetBegin()) {
+                    return getTargetBegin() - otherSpan.getTargetBegin();
                 }
                 else {
-                    return otherSpan.targetEnd - targetEnd;
+                    return otherSpan.getTargetEnd() - getTargetEnd();
                 }
             }
         }
+        
+        @Override
+        public boolean equals(Object aOther)
+        {
+            if (this == aOther) {
+                return true;
+            }
+            if (aOther == null || getClass() != aOther.getClass()) {
+                return false;
+            }
+            ArcPosition otherArc = (ArcPosition) aOther;
+            return hash == otherArc.hash && source == otherArc.source
+                    && target == otherArc.target && baseEquals(otherArc);
+        }
+        
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
 
         @Override
         public String toString()
@@ -841,11 +1151,11 @@ public class CasDiff2
             StringBuilder builder = new StringBuilder();
             builder.append("Arc [");
             toStringFragment(builder);
-            builder.append(", source=(").append(sourceBegin).append('-').append(sourceEnd)
-                    .append(')');
+            builder.append(", source=(").append(getSourceBegin()).append('-')
+                    .append(getSourceEnd()).append(')');
             builder.append('[').append(sourceText).append(']');
-            builder.append(", target=(").append(targetBegin).append('-').append(targetEnd)
-                    .append(')');
+            builder.append(", target=(").append(getTargetBegin()).append('-')
+                    .append(getTargetEnd()).append(')');
             builder.append('[').append(targetText).append(']');
             builder.append("]");
             return builder.toString();
@@ -854,8 +1164,8 @@ public class CasDiff2
         @Override
         public String toMinimalString()
         {
-            return "(" + sourceBegin + '-' + sourceEnd + ')' + '[' + sourceText + ']' +
-                " -> (" + targetBegin + '-' + targetEnd + ')' + " [" + targetText + ']';
+            return "(" + getSourceBegin() + '-' + getSourceEnd() + ')' + '[' + sourceText + ']' +
+                " -> (" + getTargetBegin() + '-' + getTargetEnd() + ')' + " [" + targetText + ']';
         }
     }
 
@@ -880,11 +1190,16 @@ public class CasDiff2
             }
             
             if (position.getFeature() == null) {
+                FeatureComparator comparator = getComparator(aFS);
+                int hash = comparator.hash(aFS);
+                
                 // Check if this configuration is already present
                 Configuration configuration = null;
                 for (Configuration cfg : configurations) {
-                    // Handle main positions
-                    if (equalsFS(cfg.getRepresentative(), aFS)) {
+                    // Handle main positions - configurations with a different hash cannot be
+                    // equal
+                    if (cfg.hash == hash && equalsFS(cfg.getRepresentative(),
+                            cfg.getRepresentativeComparator(), aFS, comparator)) {
                         configuration = cfg;
                         break;
                     }
@@ -893,6 +1208,7 @@ public class CasDiff2
                 // Not found, add new one
                 if (configuration == null) {
                     configuration = new Configuration(position);
+                    configuration.hash = hash;
                     configurations.add(configuration);
                 }
                 
@@ -992,7 +1308,7 @@ public class CasDiff2
         {
             int i = 0;
             for (Configuration cfg : configurations) {
-                i += cfg.getAddressByCasId().size();
+                i += cfg.getCasGroupCount();
             }
             return i;
         }
@@ -1022,7 +1338,7 @@ public class CasDiff2
         {
             List<Configuration> configurationsForUser = new ArrayList<>();
             for (Configuration cfg : configurations) {
-                if (cfg.fsAddresses.keySet().contains(aCasGroupId)) {
+                if (cfg.contains(aCasGroupId)) {
                     configurationsForUser.add(cfg);
                 }
             }
@@ -1061,97 +1377,85 @@ public class CasDiff2
         if (aFS1 == null || aFS2 == null) {
             return false;
         }
-
+        
+        return equalsFS(aFS1, getComparator(aFS1), aFS2, getComparator(aFS2));
+    }
+    
+    private boolean equalsFS(FeatureStructure aFS1, FeatureComparator aComparator1,
+            FeatureStructure aFS2, FeatureComparator aComparator2)
+    {
         // Trivial case
-        if (aFS1.getCAS() == aFS2.getCAS() && getAddr(aFS1) == getAddr(aFS2)) {
+        if (aFS1 == aFS2) {
             return true;
         }
         
-        Type type1 = aFS1.getType();
-        Type type2 = aFS2.getType();
+        // Trivial case
+        if (aFS1.getCAS() == aFS2.getCAS() && getAddr(aFS1) == getAddr(aFS2)) {
+            return true;
+        }
         
         // Types must be the same
-        if (!type1.getName().equals(type2.getName())) {
+        if (!aComparator1.typeName.equals(aComparator2.typeName)) {
             return false;
         }
-
-        assert type1.getNumberOfFeatures() == type2.getNumberOfFeatures();
-
-        // Sort features by name to be independent over implementation details that may change the
-        // order of the features as returned from Type.getFeatures().
-        String[] cachedSortedFeatures = sortedFeaturesCache.get(type1.getName());
-        if (cachedSortedFeatures == null) {
-            cachedSortedFeatures = new String[type1.getNumberOfFeatures()];
-            int i = 0;
-            for (Feature f : aFS1.getType().getFeatures()) {
-                cachedSortedFeatures[i] = f.getShortName();
-                i++;
-            }
-            sortedFeaturesCache.put(type1.getName(), cachedSortedFeatures);
-        }
         
-        DiffAdapter adapter = typeAdapters.get(type1.getName());
-
-        if (adapter == null) {
-            log.warn("No diff adapter for type [" + type1.getName() + "] -- ignoring!");
+        if (aComparator1.features == null) {
+            // No diff adapter for the type, warned when the comparator was created
             return true;
         }
-
-        // Only consider label features. In particular these must not include position features
-        // such as begin, end, etc.
-        List<String> sortedFeatures = new ArrayList<>(asList(cachedSortedFeatures));
-        Set<String> labelFeatures = adapter.getLabelFeatures();
-        sortedFeatures.removeIf(f -> !labelFeatures.contains(f));
-
-        if (!recurseIntoLinkFeatures ) {
-            // #1795 Chili REC: We can/should change CasDiff2 such that it does not recurse into
-            // link features (or rather into any features that are covered by their own
-            // sub-positions). So when when comparing two spans that differ only in their slots
-            // (sub-positions) the main position could still exhibit agreement.
-            sortedFeatures.removeIf(f -> adapter.getLinkFeature(f) != null);
-        }
         
-        for (String feature : sortedFeatures) {
-            Feature f1 = type1.getFeatureByBaseName(feature);
-            Feature f2 = type2.getFeatureByBaseName(feature);
+        Feature[] features1 = aComparator1.features;
+        Feature[] features2 = aComparator2.features;
+        int[] ranges = aComparator1.ranges;
+        for (int i = 0; i < features1.length; i++) {
+            Feature f1 = features1[i];
+            Feature f2 = features2[i];
+            
+            if (f1 == null || f2 == null) {
+                // The feature is missing from one of the type systems
+                if (f1 != f2) {
+                    return false;
+                }
+                continue;
+            }
             
-            switch (f1.getRange().getName()) {
-            case CAS.TYPE_NAME_BOOLEAN:
+            switch (ranges[i]) {
+            case RANGE_BOOLEAN:
                 if (aFS1.getBooleanValue(f1) != aFS2.getBooleanValue(f2)) {
                     return false;
                 }
                 break;
-            case CAS.TYPE_NAME_BYTE:
+            case RANGE_BYTE:
                 if (aFS1.getByteValue(f1) != aFS2.getByteValue(f2)) {
                     return false;
                 }
                 break;
-            case CAS.TYPE_NAME_DOUBLE:
+            case RANGE_DOUBLE:
                 if (aFS1.getDoubleValue(f1) != aFS2.getDoubleValue(f2)) {
                     return false;
                 }
                 break;
-            case CAS.TYPE_NAME_FLOAT:
+            case RANGE_FLOAT:
                 if (aFS1.getFloatValue(f1) != aFS2.getFloatValue(f2)) {
                     return false;
                 }
                 break;
-            case CAS.TYPE_NAME_INTEGER:
+            case RANGE_INTEGER:
                 if (aFS1.getIntValue(f1) != aFS2.getIntValue(f2)) {
                     return false;
                 }
                 break;
-            case CAS.TYPE_NAME_LONG:
+            case RANGE_LONG:
                 if (aFS1.getLongValue(f1) != aFS2.getLongValue(f2)) {
                     return false;
                 }
                 break;
-            case CAS.TYPE_NAME_SHORT:
+            case RANGE_SHORT:
                 if (aFS1.getShortValue(f1) != aFS2.getShortValue(f2)) {
                     return false;
                 }
                 break;
-            case CAS.TYPE_NAME_STRING:
+            case RANGE_STRING:
                 if (!StringUtils.equals(aFS1.getStringValue(f1), aFS2.getStringValue(f2))) {
                     return false;
                 }
@@ -1176,8 +1480,7 @@ public class CasDiff2
                 // Q: Why do we not check recursively?
                 // A: Because e.g. for chains, this would mean we consider the whole chain as a 
                 //    single annotation, but we want to consider each link as an annotation
-                TypeSystem ts1 = aFS1.getCAS().getTypeSystem();
-                if (ts1.subsumes(ts1.getType(CAS.TYPE_NAME_ANNOTATION), type1)) {
+                if (aComparator1.annotation) {
                     if (!equalsAnnotationFS((AnnotationFS) aFS1, (AnnotationFS) aFS2)) {
                         return false;
                     }
@@ -1195,6 +1498,194 @@ public class CasDiff2
         return true;
     }
     
+    private FeatureComparator getComparator(FeatureStructure aFS)
+    {
+        Type type = aFS.getType();
+        FeatureComparator comparator = comparators.get(type);
+        // The feature handles are only valid for the type system they were obtained from
+        if (comparator == null || comparator.type != type) {
+            comparator = new FeatureComparator(type, aFS.getCAS().getTypeSystem());
+            comparators.put(type, comparator);
+        }
+        return comparator;
+    }
+    
+    /**
+     * @return the names of the features compared by {@link #equalsFS} for the given type or
+     *         {@code null} if there is no diff adapter for the type.
+     */
+    private String[] getComparedFeatures(Type aType)
+    {
+        String[] cachedSortedFeatures = sortedFeaturesCache.get(aType.getName());
+        if (cachedSortedFeatures != null) {
+            return cachedSortedFeatures != NO_ADAPTER ? cachedSortedFeatures : null;
+        }
+        
+        DiffAdapter adapter = typeAdapters.get(aType.getName());
+        if (adapter == null) {
+            log.warn("No diff adapter for type [" + aType.getName() + "] -- ignoring!");
+            sortedFeaturesCache.put(aType.getName(), NO_ADAPTER);
+            return null;
+        }
+        
+        // Only consider label features. In particular these must not include position features
+        // such as begin, end, etc.
+        List<String> sortedFeatures = new ArrayList<>();
+        Set<String> labelFeatures = adapter.getLabelFeatures();
+        for (Feature f : aType.getFeatures()) {
+            String name = f.getShortName();
+            if (!labelFeatures.contains(name)) {
+                continue;
+            }
+            
+            // #1795 Chili REC: We can/should change CasDiff2 such that it does not recurse into
+            // link features (or rather into any features that are covered by their own
+            // sub-positions). So when when comparing two spans that differ only in their slots
+            // (sub-positions) the main position could still exhibit agreement.
+            if (!recurseIntoLinkFeatures && adapter.getLinkFeature(name) != null) {
+                continue;
+            }
+            
+            sortedFeatures.add(name);
+        }
+        
+        // Sort features by name to be independent over implementation details that may change the
+        // order of the features as returned from Type.getFeatures().
+        Collections.sort(sortedFeatures);
+        
+        cachedSortedFeatures = sortedFeatures.toArray(new String[sortedFeatures.size()]);
+        sortedFeaturesCache.put(aType.getName(), cachedSortedFeatures);
+        return cachedSortedFeatures;
+    }
+    
+    /**
+     * The features compared by {@link CasDiff2#equalsFS} resolved for a particular type. Since the
+     * compared features of a type are always listed in the same order, the features of two
+     * comparators for the same type name can be compared index by index, even if the types come
+     * from different type systems.
+     */
+    private class FeatureComparator
+    {
+        private final Type type;
+        private final String typeName;
+        private final Feature[] features;
+        private final int[] ranges;
+        private final boolean annotation;
+        
+        public FeatureComparator(Type aType, TypeSystem aTypeSystem)
+        {
+            type = aType;
+            typeName = aType.getName();
+            annotation = aTypeSystem.subsumes(aTypeSystem.getType(CAS.TYPE_NAME_ANNOTATION),
+                    aType);
+            
+            String[] names = getComparedFeatures(aType);
+            if (names == null) {
+                features = null;
+                ranges = null;
+                return;
+            }
+            
+            features = new Feature[names.length];
+            ranges = new int[names.length];
+            for (int i = 0; i < names.length; i++) {
+                features[i] = aType.getFeatureByBaseName(names[i]);
+                if (features[i] == null) {
+                    continue;
+                }
+                
+                switch (features[i].getRange().getName()) {
+                case CAS.TYPE_NAME_BOOLEAN:
+                    ranges[i] = RANGE_BOOLEAN;
+                    break;
+                case CAS.TYPE_NAME_BYTE:
+                    ranges[i] = RANGE_BYTE;
+                    break;
+                case CAS.TYPE_NAME_DOUBLE:
+                    ranges[i] = RANGE_DOUBLE;
+                    break;
+                case CAS.TYPE_NAME_FLOAT:
+                    ranges[i] = RANGE_FLOAT;
+                    break;
+                case CAS.TYPE_NAME_INTEGER:
+                    ranges[i] = RANGE_INTEGER;
+                    break;
+                case CAS.TYPE_NAME_LONG:
+                    ranges[i] = RANGE_LONG;
+                    break;
+                case CAS.TYPE_NAME_SHORT:
+                    ranges[i] = RANGE_SHORT;
+                    break;
+                case CAS.TYPE_NAME_STRING:
+                    ranges[i] = RANGE_STRING;
+                    break;
+                default:
+                    ranges[i] = RANGE_FS;
+                    break;
+                }
+            }
+        }
+        
+        /**
+         * @return a hash of the primitive feature values of the given feature structure. Feature
+         *         structures considered equal by {@link CasDiff2#equalsFS} have the same hash.
+         */
+        public int hash(FeatureStructure aFS)
+        {
+            if (features == null) {
+                return 0;
+            }
+            
+            int result = 1;
+            for (int i = 0; i < features.length; i++) {
+                Feature f = features[i];
+                if (f == null) {
+                    continue;
+                }
+                
+                int h;
+                switch (ranges[i]) {
+                case RANGE_BOOLEAN:
+                    h = Boolean.hashCode(aFS.getBooleanValue(f));
+                    break;
+                case RANGE_BYTE:
+                    h = aFS.getByteValue(f);
+                    break;
+                case RANGE_DOUBLE: {
+                    // 0.0 and -0.0 are equal, but have different hashes
+                    double value = aFS.getDoubleValue(f);
+                    h = value == 0.0d ? 0 : Double.hashCode(value);
+                    break;
+                }
+                case RANGE_FLOAT: {
+                    float value = aFS.getFloatValue(f);
+                    h = value == 0.0f ? 0 : Float.hashCode(value);
+                    break;
+                }
+                case RANGE_INTEGER:
+                    h = aFS.getIntValue(f);
+                    break;
+                case RANGE_LONG:
+                    h = Long.hashCode(aFS.getLongValue(f));
+                    break;
+                case RANGE_SHORT:
+                    h = aFS.getShortValue(f);
+                    break;
+                case RANGE_STRING:
+                    h = Objects.hashCode(aFS.getStringValue(f));
+                    break;
+                default:
+                    // Feature structure values are compared by position or recursively - they do
+                    // not contribute to the hash
+                    h = 0;
+                    break;
+                }
+                result = 31 * result + h;
+            }
+            return result;
+        }
+    }
+    
     private boolean equalsAnnotationFS(AnnotationFS aFS1, AnnotationFS aFS2)
     {
         // Null check
@@ -1207,7 +1698,7 @@ public class CasDiff2
         Position pos1 = adapter.getPosition(0, aFS1);
         Position pos2 = adapter.getPosition(0, aFS2);
         
-        return pos1.compareTo(pos2) == 0;
+        return pos1.equals(pos2);
     }
     
     /**
@@ -1217,11 +1708,31 @@ public class CasDiff2
     public class Configuration
     {
         private final Position position;
-        private final Map<String, AID> fsAddresses = new TreeMap<>();
+        
+        // The FS addresses (and link slots) indexed by the ordinal of the CAS group. An address
+        // of 0 means that the configuration has not been seen in the CAS group.
+        private int[] addrs = new int[casGroupsByOrdinal.size()];
+        private int[] slots;
+        private int casGroupCount;
+        private int representative = -1;
+        private FeatureStructure representativeFS;
+        private FeatureComparator representativeComparator;
+        // Hash of the label features of the configuration, only used for main positions
+        private int hash;
 
+        /**
+         * @return the IDs of the CAS groups in which the configuration has been seen, sorted by
+         *         name.
+         */
         public Set<String> getCasGroupIds()
         {
-            return fsAddresses.keySet();
+            Set<String> ids = new TreeSet<>();
+            for (int i = 0; i < addrs.length; i++) {
+                if (addrs[i] != 0) {
+                    ids.add(casGroupsByOrdinal.get(i));
+                }
+            }
+            return Collections.unmodifiableSet(ids);
         } 
         
         public Configuration(Position aPosition)
@@ -1235,39 +1746,99 @@ public class CasDiff2
         }
 
         private void add(String aCasGroupId, FeatureStructure aFS) {
-            fsAddresses.put(aCasGroupId, new AID(getAddr(aFS)));            
+            add(aCasGroupId, aFS, -1);
         }
 
         private void add(String aCasGroupId, FeatureStructure aFS, String aFeature, int aSlot) {
-            fsAddresses.put(aCasGroupId, new AID(getAddr(aFS), aFeature, aSlot));            
+            assert aFeature.equals(position.getFeature());
+            add(aCasGroupId, aFS, aSlot);
+        }
+        
+        private void add(String aCasGroupId, FeatureStructure aFS, int aSlot)
+        {
+            int ordinal = casGroupOrdinals.get(aCasGroupId);
+            if (ordinal >= addrs.length) {
+                addrs = Arrays.copyOf(addrs, casGroupsByOrdinal.size());
+                if (slots != null) {
+                    slots = Arrays.copyOf(slots, addrs.length);
+                }
+            }
+            if (aSlot != -1 && slots == null) {
+                slots = new int[addrs.length];
+            }
+            
+            if (addrs[ordinal] == 0) {
+                casGroupCount++;
+                // The representative is the configuration seen in the alphabetically first group
+                if (representative == -1
+                        || aCasGroupId.compareTo(casGroupsByOrdinal.get(representative)) < 0) {
+                    representative = ordinal;
+                    representativeComparator = null;
+                }
+            }
+            
+            if (ordinal == representative) {
+                representativeFS = aFS;
+            }
+            
+            addrs[ordinal] = getAddr(aFS);
+            if (slots != null) {
+                slots[ordinal] = aSlot;
+            }
+        }
+        
+        private boolean contains(String aCasGroupId)
+        {
+            Integer ordinal = casGroupOrdinals.get(aCasGroupId);
+            return ordinal != null && ordinal < addrs.length && addrs[ordinal] != 0;
         }
 
         private FeatureStructure getRepresentative()
         {
-            Entry<String, AID> e = fsAddresses.entrySet().iterator().next();
-            return selectByAddr(cases.get(e.getKey()).get(position.getCasId()), e.getValue().addr);
+            return representativeFS;
+        }
+        
+        private FeatureComparator getRepresentativeComparator()
+        {
+            if (representativeComparator == null) {
+                representativeComparator = getComparator(representativeFS);
+            }
+            return representativeComparator;
         }
 
         private AID getRepresentativeAID()
         {
-            Entry<String, AID> e = fsAddresses.entrySet().iterator().next();
-            return e.getValue();
+            return getAID(representative);
         }
 
-        private Map<String, AID> getAddressByCasId()
+        private int getCasGroupCount()
         {
-            return fsAddresses;
+            return casGroupCount;
         }
 
         public AID getAID(String aCasGroupId)
         {
-            return fsAddresses.get(aCasGroupId);
+            if (!contains(aCasGroupId)) {
+                return null;
+            }
+            
+            return getAID(casGroupOrdinals.get(aCasGroupId));
+        }
+        
+        private AID getAID(int aOrdinal)
+        {
+            if (slots != null) {
+                return new AID(addrs[aOrdinal], position.getFeature(), slots[aOrdinal]);
+            }
+            else {
+                return new AID(addrs[aOrdinal]);
+            }
         }
 
         public <T extends FeatureStructure> T getFs(String aCasGroupId, int aCasId,
                 Class<T> aClass, Map<String, List<JCas>> aCasMap)
         {
-            AID aid = fsAddresses.get(aCasGroupId);
+            AID aid = getAID(aCasGroupId);
             if (aid == null) {
                 return null;
             }
@@ -1306,13 +1877,13 @@ public class CasDiff2
         {
             StringBuilder sb = new StringBuilder();
             sb.append('[');
-            for (Entry<String, AID> e : fsAddresses.entrySet()) {
+            for (String casGroupId : getCasGroupIds()) {
                 if (sb.length() > 1) {
                     sb.append(", ");
                 }
-                sb.append(e.getKey());
+                sb.append(casGroupId);
                 sb.append(':');
-                sb.append(e.getValue());
+                sb.append(getAID(casGroupId));
             }
             sb.append("] -> ");
             sb.append(getRepresentative());
@@ -1327,18 +1898,48 @@ public class CasDiff2
     {
         private final Map<Position, ConfigurationSet> data;
         private final Set<String> casGroupIds;
-        private final Map<ConfigurationSet, Boolean> completenessCache = new HashMap<>();
+        private final Map<ConfigurationSet, Boolean> completenessCache = new ConcurrentHashMap<>();
         private final boolean cachedHasDifferences;
         private final Map<String, DiffAdapter> typeDiffAdapters;
+        private final CasDiff2 diff;
+        private volatile List<Position> sortedPositions;
         
         private DiffResult(CasDiff2 aDiff)
         {
+            diff = aDiff;
             data = Collections.unmodifiableMap(aDiff.configSets);
             casGroupIds = new LinkedHashSet<>(aDiff.cases.keySet());
-            cachedHasDifferences = !getDifferingConfigurationSets().isEmpty();
+            cachedHasDifferences = data.values().stream().anyMatch(s -> !isAgreement(s));
             typeDiffAdapters = aDiff.typeAdapters;
         }
         
+        /**
+         * Drops the references to the CASes the differences were calculated on, e.g. before the
+         * result is cached. The feature structures can still be looked up using
+         * {@link Configuration#getFs} if the same CAS instances are passed in. The addresses in
+         * the configurations are not necessarily valid for the same data loaded again.
+         */
+        public void detach()
+        {
+            diff.detach();
+        }
+        
+        /**
+         * The positions are kept in a hash map while building the diff. They are only sorted
+         * when they are first accessed in order.
+         */
+        private List<Position> getSortedPositions()
+        {
+            List<Position> positions = sortedPositions;
+            if (positions == null) {
+                positions = new ArrayList<>(data.keySet());
+                positions.sort(null);
+                positions = Collections.unmodifiableList(positions);
+                sortedPositions = positions;
+            }
+            return positions;
+        }
+        
         public DiffAdapter getDiffAdapter(String aType)
         {
             return typeDiffAdapters.get(aType);
@@ -1350,12 +1951,16 @@ public class CasDiff2
         }
         
         public Collection<Position> getPositions() {
-            return data.keySet();
+            return getSortedPositions();
         }
         
         public Collection<ConfigurationSet> getConfigurationSets()
         {
-            return data.values();
+            List<ConfigurationSet> sets = new ArrayList<>(data.size());
+            for (Position p : getSortedPositions()) {
+                sets.add(data.get(p));
+            }
+            return sets;
         }
         
         /**
@@ -1379,13 +1984,7 @@ public class CasDiff2
          */
         public boolean isAgreement(ConfigurationSet aConfigurationSet)
         {
-            if (!data.containsValue(aConfigurationSet)) {
-                throw new IllegalArgumentException("Configuration set does not belong to this diff");
-            }
-
-            if (data.get(aConfigurationSet.position) != aConfigurationSet) {
-                throw new IllegalArgumentException("Configuration set position mismatch");
-            }
+            checkMembership(aConfigurationSet);
             
             // If there is only a single configuration in the set, we call it an agreement
             if (aConfigurationSet.configurations.size() == 1) {
@@ -1415,33 +2014,42 @@ public class CasDiff2
          */
         public boolean isComplete(ConfigurationSet aConfigurationSet)
         {
-            if (!data.containsValue(aConfigurationSet)) {
-                throw new IllegalArgumentException("Configuration set does not belong to this diff");
-            }
-
-            if (data.get(aConfigurationSet.position) != aConfigurationSet) {
-                throw new IllegalArgumentException("Configuration set position mismatch");
-            }
+            checkMembership(aConfigurationSet);
 
             Boolean complete = completenessCache.get(aConfigurationSet);
             if (complete == null) {
-                HashSet<String> unseenGroupCasIDs = new HashSet<>(casGroupIds);
+                // The CAS groups of the diff are numbered in the order of casGroupIds
+                boolean[] seen = new boolean[casGroupIds.size()];
+                int unseen = seen.length;
                 for (Configuration cfg : aConfigurationSet.configurations) {
-                    unseenGroupCasIDs.removeAll(cfg.fsAddresses.keySet());
+                    for (int i = 0; i < cfg.addrs.length; i++) {
+                        if (cfg.addrs[i] != 0 && !seen[i]) {
+                            seen[i] = true;
+                            unseen--;
+                        }
+                    }
                 }
-                complete = unseenGroupCasIDs.isEmpty();
+                complete = unseen == 0;
                 completenessCache.put(aConfigurationSet, complete);
             }
             
             return complete;
         }
         
+        private void checkMembership(ConfigurationSet aConfigurationSet)
+        {
+            if (data.get(aConfigurationSet.position) != aConfigurationSet) {
+                throw new IllegalArgumentException("Configuration set does not belong to this diff");
+            }
+        }
+        
         public Map<Position, ConfigurationSet> getDifferingConfigurationSets()
         {
             Map<Position, ConfigurationSet> diffs = new LinkedHashMap<>();
-            for (Entry<Position, ConfigurationSet> e : data.entrySet()) {
-                if (!isAgreement(e.getValue())) {
-                    diffs.put(e.getKey(), e.getValue());
+            for (Position p : getSortedPositions()) {
+                ConfigurationSet cfgSet = data.get(p);
+                if (!isAgreement(cfgSet)) {
+                    diffs.put(p, cfgSet);
                 }
             }
             
@@ -1451,9 +2059,10 @@ public class CasDiff2
         public Map<Position, ConfigurationSet> getIncompleteConfigurationSets()
         {
             Map<Position, ConfigurationSet> diffs = new LinkedHashMap<>();
-            for (Entry<Position, ConfigurationSet> e : data.entrySet()) {
-                if (!isComplete(e.getValue())) {
-                    diffs.put(e.getKey(), e.getValue());
+            for (Position p : getSortedPositions()) {
+                ConfigurationSet cfgSet = data.get(p);
+                if (!isComplete(cfgSet)) {
+                    diffs.put(p, cfgSet);
                 }
             }
             
@@ -1851,6 +2460,20 @@ public class CasDiff2
         return adapters;
     }
 
+    private void detach()
+    {
+        for (List<CAS> casList : cases.values()) {
+            Collections.fill(casList, null);
+        }
+        for (ConfigurationSet cfgSet : configSets.values()) {
+            for (Configuration cfg : cfgSet.configurations) {
+                cfg.representativeFS = null;
+                cfg.representativeComparator = null;
+            }
+        }
+        comparators.clear();
+    }
+
 //  private Set<String> entryTypes = new LinkedHashSet<>();
 
 //  /**
@@ -0,0 +1,487 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.casdiff;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.jcas.JCas;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasSummary;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.ChainLinkCreatedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.ChainLinkDeletedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.ChainSpanCreatedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.ChainSpanDeletedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.FeatureValueUpdatedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.RelationCreatedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.RelationDeletedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.SpanCreatedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.SpanDeletedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.LayerConfigurationChangedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.Configuration;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.ConfigurationSet;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.DiffAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.DiffResult;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.LinkCompareBehavior;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.Position;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.SpanPosition;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Keeps the results of {@link CasDiff2} so that the differences between CASes which did not
+ * change are not calculated again, e.g. for the segments of a document shown on the curation
+ * page, for merging or for the agreement. A result is identified by the project, the compared
+ * types, the range and the stamps of the compared CASes (see {@link CasSummary#getStamp()}), so it
+ * is not used anymore once any of the CASes changes, but it is used for any CAS instances loaded
+ * from the same data. The cached results of a project are dropped when its layer configuration
+ * changes. Cached results are {@link DiffResult#detach() detached} from the CASes, so the cache
+ * does not keep CASes in memory.
+ * <p>
+ * The stamp only covers the saved version of a CAS. Once a CAS is changed through the type
+ * adapters (which publish events for each change), {@link #getStamp} returns no stamp for it
+ * until the changed CAS is saved, so the differences are calculated without the cache meanwhile.
+ * The stamp of a CAS must be obtained before the CAS is loaded, so a CAS changed in between is
+ * never cached under the stamp of the previous version.
+ * <p>
+ * The configurations of a result refer to the feature structures by their addresses. The storage
+ * keeps the addresses when a CAS is written and read again, so they are the same in all CAS
+ * instances with the same stamp. Still, before a cached result is returned, it is checked that
+ * the feature structures at these addresses have the expected types and offsets. Otherwise, the
+ * differences are calculated again.
+ */
+@Component
+public class CasDiffCache
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private @Autowired AnnotationSchemaService annotationService;
+    private @Autowired CasStorageService casStorageService;
+
+    /**
+     * Maximum number of diff results kept in memory.
+     */
+    @Value(value = "${curation.diffCache.size:4096}")
+    private int cacheSize;
+
+    private final Map<Long, Long> versions = new HashMap<>();
+
+    /**
+     * The stamps of the CASes which have been changed in memory since they were last saved, each
+     * associated with the document ID and the user.
+     */
+    private final Map<String, String> changedCases = new LinkedHashMap<String, String>(16, 0.75f,
+            true)
+    {
+        private static final long serialVersionUID = -3316183735418620839L;
+
+        @Override
+        protected boolean removeEldestEntry(Entry<String, String> aEldest)
+        {
+            return size() > cacheSize;
+        }
+    };
+
+    private final Map<Key, DiffResult> cache = new LinkedHashMap<Key, DiffResult>(16, 0.75f,
+            true)
+    {
+        private static final long serialVersionUID = 7104869352264135187L;
+
+        @Override
+        protected boolean removeEldestEntry(Entry<Key, DiffResult> aEldest)
+        {
+            return size() > cacheSize;
+        }
+    };
+
+    public CasDiffCache()
+    {
+        // Nothing to do
+    }
+
+    CasDiffCache(AnnotationSchemaService aAnnotationService, CasStorageService aCasStorageService,
+            int aCacheSize)
+    {
+        annotationService = aAnnotationService;
+        casStorageService = aCasStorageService;
+        cacheSize = aCacheSize;
+    }
+
+    /**
+     * @param aDocument
+     *            a document.
+     * @param aUser
+     *            the user owning the CAS.
+     * @return the stamp of the latest version of the CAS or {@code null} if there is no CAS, the
+     *         stamp cannot be determined or the CAS has been changed since it was last saved.
+     */
+    public String getStamp(SourceDocument aDocument, String aUser)
+    {
+        String stamp = readStamp(aDocument, aUser);
+        if (stamp == null) {
+            return null;
+        }
+
+        String key = aDocument.getId() + "/" + aUser;
+        synchronized (changedCases) {
+            String changedStamp = changedCases.get(key);
+            if (stamp.equals(changedStamp)) {
+                return null;
+            }
+            if (changedStamp != null) {
+                // The changes have been saved
+                changedCases.remove(key);
+            }
+        }
+        return stamp;
+    }
+
+    private String readStamp(SourceDocument aDocument, String aUser)
+    {
+        try {
+            CasSummary summary = casStorageService.readCasSummary(aDocument, aUser);
+            return summary != null ? summary.getStamp() : null;
+        }
+        catch (IOException e) {
+            log.warn("Unable to determine stamp of CAS [{}] of document [{}]({})", aUser,
+                    aDocument.getName(), aDocument.getId(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Calculate the differences between CASes, see
+     * {@link CasDiff2#doDiffSingle}.
+     * 
+     * @param aStamps
+     *            the stamps of the CASes, each associated with the ID of the CAS.
+     * @return a diff result which may be shared and is detached from the CASes.
+     */
+    public DiffResult doDiffSingle(Project aProject, List<Type> aEntryTypes,
+            LinkCompareBehavior aLinkCompareBehavior, Map<String, JCas> aCasMap,
+            Map<String, String> aStamps, int aBegin, int aEnd)
+    {
+        List<String> entryTypes = new ArrayList<>();
+        for (Type t : aEntryTypes) {
+            entryTypes.add(t.getName());
+        }
+
+        Map<String, List<JCas>> casMap = new LinkedHashMap<>();
+        Map<String, List<String>> stamps = new HashMap<>();
+        for (Entry<String, JCas> e : aCasMap.entrySet()) {
+            casMap.put(e.getKey(), asList(e.getValue()));
+            stamps.put(e.getKey(), singletonList(aStamps.get(e.getKey())));
+        }
+
+        return doDiff(aProject, entryTypes, aLinkCompareBehavior, casMap, stamps, aBegin, aEnd,
+                null);
+    }
+
+    /**
+     * Calculate the differences between CASes on the whole text, see
+     * {@link CasDiff2#doDiff}.
+     * 
+     * @param aStamps
+     *            the stamps of the CASes, each list associated with the ID of the CAS group.
+     * @return a diff result which may be shared and is detached from the CASes.
+     */
+    public DiffResult doDiff(Project aProject, List<String> aEntryTypes,
+            LinkCompareBehavior aLinkCompareBehavior, Map<String, List<JCas>> aCasMap,
+            Map<String, List<String>> aStamps, ForkJoinPool aPool)
+    {
+        return doDiff(aProject, aEntryTypes, aLinkCompareBehavior, aCasMap, aStamps, -1, -1,
+                aPool);
+    }
+
+    private DiffResult doDiff(Project aProject, List<String> aEntryTypes,
+            LinkCompareBehavior aLinkCompareBehavior, Map<String, List<JCas>> aCasMap,
+            Map<String, List<String>> aStamps, int aBegin, int aEnd, ForkJoinPool aPool)
+    {
+        Map<String, List<String>> stamps = cacheSize > 0 ? getStamps(aCasMap, aStamps) : null;
+        if (stamps == null) {
+            return calculate(aProject, aEntryTypes, aLinkCompareBehavior, aCasMap, aBegin, aEnd,
+                    aPool);
+        }
+
+        Key key;
+        DiffResult cached;
+        synchronized (cache) {
+            key = new Key(aProject.getId(), versions.getOrDefault(aProject.getId(), 0l),
+                    aEntryTypes, aLinkCompareBehavior, aBegin, aEnd, stamps);
+            cached = cache.get(key);
+        }
+
+        if (cached != null) {
+            if (resolves(cached, aCasMap)) {
+                return cached;
+            }
+            log.debug("Cached differences do not match the addresses in the CASes - "
+                    + "calculating again");
+        }
+
+        // Calculated outside the lock - if the configuration changes meanwhile, the result is
+        // stored under the previous version and never returned again
+        DiffResult diff = calculate(aProject, aEntryTypes, aLinkCompareBehavior, aCasMap, aBegin,
+                aEnd, aPool);
+        diff.detach();
+
+        synchronized (cache) {
+            cache.put(key, diff);
+        }
+        return diff;
+    }
+
+    /**
+     * Checks that the feature structures of the configurations of a result are found at their
+     * addresses in the given CASes and have the type and (for spans) the offsets of their
+     * position.
+     */
+    private static boolean resolves(DiffResult aDiff, Map<String, List<JCas>> aCasMap)
+    {
+        for (ConfigurationSet set : aDiff.getConfigurationSets()) {
+            Position position = set.getPosition();
+            for (Configuration cfg : set.getConfigurations()) {
+                for (String casGroupId : cfg.getCasGroupIds()) {
+                    FeatureStructure fs;
+                    try {
+                        fs = cfg.getFs(casGroupId, position.getCasId(), aCasMap);
+                    }
+                    catch (RuntimeException e) {
+                        // No feature structure at the address
+                        return false;
+                    }
+
+                    if (fs == null || !fs.getType().getName().equals(position.getType())) {
+                        return false;
+                    }
+
+                    if (position instanceof SpanPosition) {
+                        SpanPosition spanPosition = (SpanPosition) position;
+                        if (!(fs instanceof AnnotationFS)
+                                || ((AnnotationFS) fs).getBegin() != spanPosition.getBegin()
+                                || ((AnnotationFS) fs).getEnd() != spanPosition.getEnd()) {
+                            return false;
+                        }
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private DiffResult calculate(Project aProject, List<String> aEntryTypes,
+            LinkCompareBehavior aLinkCompareBehavior, Map<String, List<JCas>> aCasMap,
+            int aBegin, int aEnd, ForkJoinPool aPool)
+    {
+        List<DiffAdapter> adapters = CasDiff2.getAdapters(annotationService, aProject);
+        if (aBegin == -1 && aEnd == -1) {
+            return CasDiff2.doDiff(aEntryTypes, adapters, aLinkCompareBehavior, aCasMap, aPool);
+        }
+        return CasDiff2.doDiff(aEntryTypes, adapters, aCasMap, aBegin, aEnd,
+                aLinkCompareBehavior, aPool);
+    }
+
+    /**
+     * @return the stamps of the given CASes ({@code null} for missing CASes) or {@code null} if
+     *         the stamp of any CAS is unknown.
+     */
+    private static Map<String, List<String>> getStamps(Map<String, List<JCas>> aCasMap,
+            Map<String, List<String>> aStamps)
+    {
+        if (aStamps == null) {
+            return null;
+        }
+
+        Map<String, List<String>> stamps = new HashMap<>();
+        for (Entry<String, List<JCas>> e : aCasMap.entrySet()) {
+            List<String> groupStamps = aStamps.get(e.getKey());
+            if (groupStamps == null || groupStamps.size() != e.getValue().size()) {
+                return null;
+            }
+
+            List<String> casStamps = new ArrayList<>(groupStamps.size());
+            for (int i = 0; i < groupStamps.size(); i++) {
+                if (e.getValue().get(i) == null) {
+                    casStamps.add(null);
+                }
+                else if (groupStamps.get(i) == null) {
+                    return null;
+                }
+                else {
+                    casStamps.add(groupStamps.get(i));
+                }
+            }
+            stamps.put(e.getKey(), casStamps);
+        }
+        return stamps;
+    }
+
+    @EventListener
+    public void onSpanCreated(SpanCreatedEvent aEvent)
+    {
+        casChanged(aEvent.getDocument(), aEvent.getUser());
+    }
+
+    @EventListener
+    public void onSpanDeleted(SpanDeletedEvent aEvent)
+    {
+        casChanged(aEvent.getDocument(), aEvent.getUser());
+    }
+
+    @EventListener
+    public void onFeatureValueUpdated(FeatureValueUpdatedEvent aEvent)
+    {
+        casChanged(aEvent.getDocument(), aEvent.getUser());
+    }
+
+    @EventListener
+    public void onRelationCreated(RelationCreatedEvent aEvent)
+    {
+        casChanged(aEvent.getDocument(), aEvent.getUser());
+    }
+
+    @EventListener
+    public void onRelationDeleted(RelationDeletedEvent aEvent)
+    {
+        casChanged(aEvent.getDocument(), aEvent.getUser());
+    }
+
+    @EventListener
+    public void onChainSpanCreated(ChainSpanCreatedEvent aEvent)
+    {
+        casChanged(aEvent.getDocument(), aEvent.getUser());
+    }
+
+    @EventListener
+    public void onChainSpanDeleted(ChainSpanDeletedEvent aEvent)
+    {
+        casChanged(aEvent.getDocument(), aEvent.getUser());
+    }
+
+    @EventListener
+    public void onChainLinkCreated(ChainLinkCreatedEvent aEvent)
+    {
+        casChanged(aEvent.getDocument(), aEvent.getUser());
+    }
+
+    @EventListener
+    public void onChainLinkDeleted(ChainLinkDeletedEvent aEvent)
+    {
+        casChanged(aEvent.getDocument(), aEvent.getUser());
+    }
+
+    /**
+     * Remembers that the CAS has been changed in memory, so that it does not have a stamp until
+     * it has been saved.
+     */
+    private void casChanged(SourceDocument aDocument, String aUser)
+    {
+        if (aDocument == null || casStorageService == null) {
+            return;
+        }
+
+        String stamp = readStamp(aDocument, aUser);
+        if (stamp != null) {
+            synchronized (changedCases) {
+                changedCases.put(aDocument.getId() + "/" + aUser, stamp);
+            }
+        }
+    }
+
+    @EventListener
+    public void onLayerConfigurationChanged(LayerConfigurationChangedEvent aEvent)
+    {
+        if (aEvent.getProject() == null) {
+            return;
+        }
+
+        Long projectId = aEvent.getProject().getId();
+        synchronized (cache) {
+            versions.merge(projectId, 1l, Long::sum);
+            cache.keySet().removeIf(key -> Objects.equals(key.projectId, projectId));
+        }
+    }
+
+    private static final class Key
+    {
+        private final Long projectId;
+        private final long version;
+        private final List<String> entryTypes;
+        private final LinkCompareBehavior linkCompareBehavior;
+        private final int begin;
+        private final int end;
+        private final Map<String, List<String>> stamps;
+
+        public Key(Long aProjectId, long aVersion, List<String> aEntryTypes,
+                LinkCompareBehavior aLinkCompareBehavior, int aBegin, int aEnd,
+                Map<String, List<String>> aStamps)
+        {
+            projectId = aProjectId;
+            version = aVersion;
+            entryTypes = new ArrayList<>(aEntryTypes);
+            linkCompareBehavior = aLinkCompareBehavior;
+            begin = aBegin;
+            end = aEnd;
+            stamps = aStamps;
+        }
+
+        @Override
+        public boolean equals(Object aOther)
+        {
+            if (this == aOther) {
+                return true;
+            }
+            if (!(aOther instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) aOther;
+            return version == other.version && begin == other.begin && end == other.end
+                    && linkCompareBehavior == other.linkCompareBehavior
+                    && Objects.equals(projectId, other.projectId)
+                    && entryTypes.equals(other.entryTypes) && stamps.equals(other.stamps);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(projectId, version, entryTypes, linkCompareBehavior, begin, end,
+                    stamps);
+        }
+    }
+}
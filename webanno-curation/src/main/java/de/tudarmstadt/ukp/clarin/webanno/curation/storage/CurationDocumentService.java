@@ -50,7 +50,10 @@ public interface CurationDocumentService
     void writeCurationCas(JCas jCas, SourceDocument document, boolean aUpdateTimestamp)
         throws IOException;
 
-    void upgradeCurationCas(CAS aCurCas, SourceDocument document)
+    /**
+     * @return whether the CAS was changed by the upgrade.
+     */
+    boolean upgradeCurationCas(CAS aCurCas, SourceDocument document)
             throws UIMAException, IOException;
     
     /**
@@ -19,7 +19,6 @@ package de.tudarmstadt.ukp.clarin.webanno.curation.storage;
 
 import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.CURATION_USER;
 
-import java.io.File;
 import java.io.IOException;
 import java.sql.Timestamp;
 import java.util.Date;
@@ -28,7 +27,6 @@ import java.util.List;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 
-import org.apache.commons.io.FileUtils;
 import org.apache.uima.UIMAException;
 import org.apache.uima.cas.CAS;
 import org.apache.uima.jcas.JCas;
@@ -69,10 +67,9 @@ public class CurationDocumentServiceImpl
     public void removeCurationDocumentContent(SourceDocument aSourceDocument, String aUsername)
         throws IOException
     {
-        if (new File(casStorageService.getAnnotationFolder(aSourceDocument),
-                WebAnnoConst.CURATION_USER + ".ser").exists()) {
-            FileUtils.forceDelete(new File(casStorageService.getAnnotationFolder(aSourceDocument),
-                    WebAnnoConst.CURATION_USER + ".ser"));
+        if (casStorageService.existsCas(aSourceDocument, WebAnnoConst.CURATION_USER)) {
+            // Delete through the storage service so the CAS is also dropped from the cache
+            casStorageService.deleteCas(aSourceDocument, WebAnnoConst.CURATION_USER);
 
             try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
                     String.valueOf(aSourceDocument.getProject().getId()))) {
@@ -112,10 +109,10 @@ public class CurationDocumentServiceImpl
     }
 
     @Override
-    public void upgradeCurationCas(CAS aCas, SourceDocument aDocument)
+    public boolean upgradeCurationCas(CAS aCas, SourceDocument aDocument)
         throws UIMAException, IOException
     {
-        annotationService.upgradeCas(aCas, aDocument, CURATION_USER);
+        return annotationService.upgradeCas(aCas, aDocument, CURATION_USER);
     }
 
     @Override
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.casdiff;
+
+import static java.util.Arrays.asList;
+import static org.apache.uima.fit.util.JCasUtil.select;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.uima.fit.factory.JCasBuilder;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.DiffAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.DiffResult;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.LinkCompareBehavior;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.Position;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.SpanDiffAdapter;
+import de.tudarmstadt.ukp.dkpro.core.api.ner.type.NamedEntity;
+
+/**
+ * Measures the time needed to diff two synthetic CASes with 100k named entities each. Every tenth
+ * entity has a different label in the two CASes.
+ * <p>
+ * The configuration sets used to be indexed in a {@link TreeMap} ordered by
+ * {@link Position#compareTo}, which compares the type names on every step. They are now indexed in
+ * a {@link HashMap}. Indexing the positions of the CASes is measured with both to compare them.
+ * This is not part of the normal test run, use {@code mvn test -Pbenchmark}.
+ */
+public class CasDiff2Benchmark
+{
+    private static final Logger LOG = LoggerFactory.getLogger(CasDiff2Benchmark.class);
+
+    private static final int SPANS = 100_000;
+    private static final int ROUNDS = 5;
+
+    private Map<String, List<JCas>> casByUser;
+    private List<String> entryTypes = asList(NamedEntity.class.getName());
+    private List<? extends DiffAdapter> diffAdapters = asList(SpanDiffAdapter.NER);
+
+    @Before
+    public void setup() throws Exception
+    {
+        casByUser = new LinkedHashMap<>();
+        casByUser.put("user1", asList(createCas(0)));
+        casByUser.put("user2", asList(createCas(1)));
+    }
+
+    @Test
+    public void indexPositionsInTreeMapAndHashMap()
+    {
+        // The CASes of both users are at index 0 of their CAS group, so the positions of the
+        // second user are found in the index like in the diff
+        List<Position> positions = new ArrayList<>();
+        for (List<JCas> casses : casByUser.values()) {
+            for (NamedEntity ne : select(casses.get(0), NamedEntity.class)) {
+                positions.add(SpanDiffAdapter.NER.getPosition(0, ne));
+            }
+        }
+        
+        // Warm up
+        Map<Position, Position> before = index(new TreeMap<>(), positions);
+        Map<Position, Position> after = index(new HashMap<>(), positions);
+        assertEquals(SPANS, before.size());
+        assertEquals(SPANS, after.size());
+        for (Position position : positions) {
+            assertSame(before.get(position), after.get(position));
+        }
+        
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < ROUNDS; i++) {
+            index(new TreeMap<>(), positions);
+        }
+        long beforeDuration = System.currentTimeMillis() - start;
+        
+        start = System.currentTimeMillis();
+        for (int i = 0; i < ROUNDS; i++) {
+            index(new HashMap<>(), positions);
+        }
+        long afterDuration = System.currentTimeMillis() - start;
+
+        LOG.info(String.format(
+                "%d positions, %d rounds: %.1f ms TreeMap, %.1f ms HashMap (%.1fx)",
+                positions.size(), ROUNDS, beforeDuration / (double) ROUNDS,
+                afterDuration / (double) ROUNDS,
+                beforeDuration / (double) Math.max(1, afterDuration)));
+    }
+    
+    /**
+     * Looks up each position and adds it if it is not in the index yet, like the diff does for
+     * the configuration sets.
+     */
+    private Map<Position, Position> index(Map<Position, Position> aIndex,
+            List<Position> aPositions)
+    {
+        for (Position position : aPositions) {
+            if (aIndex.get(position) == null) {
+                aIndex.put(position, position);
+            }
+        }
+        return aIndex;
+    }
+
+    @Test
+    public void diffSequential()
+    {
+        benchmark("sequential", null);
+    }
+
+    @Test
+    public void diffParallel()
+    {
+        benchmark("parallel", ForkJoinPool.commonPool());
+    }
+
+    private void benchmark(String aMode, ForkJoinPool aPool)
+    {
+        // Warm up
+        diff(aPool);
+
+        long start = System.currentTimeMillis();
+        DiffResult result = null;
+        for (int i = 0; i < ROUNDS; i++) {
+            result = diff(aPool);
+        }
+        long duration = System.currentTimeMillis() - start;
+
+        LOG.info(String.format("%s: %d positions, %d rounds: %.1f ms per diff", aMode,
+                result.size(), ROUNDS, duration / (double) ROUNDS));
+
+        assertEquals(SPANS, result.size());
+        assertEquals(SPANS / 10, result.getDifferingConfigurationSets().size());
+        assertEquals(0, result.getIncompleteConfigurationSets().size());
+    }
+
+    private DiffResult diff(ForkJoinPool aPool)
+    {
+        return CasDiff2.doDiff(entryTypes, diffAdapters, LinkCompareBehavior.LINK_TARGET_AS_LABEL,
+                casByUser, aPool);
+    }
+
+    private JCas createCas(int aVariant) throws Exception
+    {
+        JCas jcas = JCasFactory.createJCas();
+        JCasBuilder jb = new JCasBuilder(jcas);
+        for (int i = 0; i < SPANS; i++) {
+            NamedEntity ne = jb.add("w" + (i % 100), NamedEntity.class);
+            ne.setValue(i % 10 == 0 ? "LABEL" + aVariant : "LABEL");
+            jb.add(" ");
+        }
+        jb.close();
+        return jcas;
+    }
+}
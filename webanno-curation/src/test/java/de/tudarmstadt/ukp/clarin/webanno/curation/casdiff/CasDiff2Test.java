@@ -20,11 +20,13 @@ package de.tudarmstadt.ukp.clarin.webanno.curation.casdiff;
 import static java.util.Arrays.asList;
 import static org.apache.uima.fit.util.JCasUtil.select;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 import org.apache.uima.cas.CAS;
 import org.apache.uima.cas.Type;
@@ -44,10 +46,15 @@ import de.tudarmstadt.ukp.clarin.webanno.curation.agreement.AgreementUtils;
 import de.tudarmstadt.ukp.clarin.webanno.curation.agreement.AgreementUtils.AgreementResult;
 import de.tudarmstadt.ukp.clarin.webanno.curation.agreement.AgreementUtils.ConcreteAgreementMeasure;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.ArcDiffAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.ArcPosition;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.Configuration;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.ConfigurationSet;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.DiffAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.DiffResult;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.LinkCompareBehavior;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.Position;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.SpanDiffAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.SpanPosition;
 import de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS;
 import de.tudarmstadt.ukp.dkpro.core.api.ner.type.NamedEntity;
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Lemma;
@@ -916,6 +923,125 @@ public class CasDiff2Test
 //        
 //        assertEquals(0.0, agreement.getAgreement(), 0.00001d);
     }
+
+    @Test
+    public void parallelDiffTest()
+        throws Exception
+    {
+        Map<String, List<JCas>> casByUser = new LinkedHashMap<>();
+        casByUser.put("user1", asList(DiffUtils.read("casdiff/someDifferences/user1.conll"),
+                DiffUtils.read("casdiff/noDifferences/data.conll")));
+        casByUser.put("user2", asList(DiffUtils.read("casdiff/someDifferences/user2.conll"),
+                DiffUtils.read("casdiff/noDifferences/data.conll")));
+        casByUser.put("user3", asList(null, DiffUtils.read("casdiff/noDifferences/data.conll")));
+
+        List<String> entryTypes = asList(POS.class.getName(), Dependency.class.getName());
+
+        List<? extends DiffAdapter> diffAdapters = asList(SpanDiffAdapter.POS,
+                ArcDiffAdapter.DEPENDENCY);
+
+        DiffResult sequential = CasDiff2.doDiff(entryTypes, diffAdapters,
+                LinkCompareBehavior.LINK_TARGET_AS_LABEL, casByUser);
+        
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int i = 0; i < 10; i++) {
+                DiffResult parallel = CasDiff2.doDiff(entryTypes, diffAdapters,
+                        LinkCompareBehavior.LINK_TARGET_AS_LABEL, casByUser, pool);
+                
+                assertEquals(dump(sequential), dump(parallel));
+                assertEquals(sequential.getDifferingConfigurationSets().size(),
+                        parallel.getDifferingConfigurationSets().size());
+                assertEquals(sequential.getIncompleteConfigurationSets().size(),
+                        parallel.getIncompleteConfigurationSets().size());
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+    
+    @Test
+    public void detachedDiffTest()
+        throws Exception
+    {
+        Map<String, List<JCas>> casByUser = DiffUtils.load(
+                "casdiff/someDifferences/user1.conll",
+                "casdiff/someDifferences/user2.conll");
+
+        List<String> entryTypes = asList(POS.class.getName());
+
+        List<SpanDiffAdapter> diffAdapters = asList(SpanDiffAdapter.POS);
+
+        DiffResult result = CasDiff2.doDiff(entryTypes, diffAdapters,
+                LinkCompareBehavior.LINK_TARGET_AS_LABEL, casByUser);
+        result.detach();
+        
+        assertEquals(26, result.size());
+        assertEquals(4, result.getDifferingConfigurationSets().size());
+        assertEquals(0, result.getIncompleteConfigurationSets().size());
+        
+        // The detached result can be used with CASes loaded again from the same data
+        Map<String, List<JCas>> reloadedCasByUser = DiffUtils.load(
+                "casdiff/someDifferences/user1.conll",
+                "casdiff/someDifferences/user2.conll");
+        AgreementResult agreement = AgreementUtils.getCohenKappaAgreement(result, entryTypes.get(0),
+                "PosValue", reloadedCasByUser);
+        assertEquals(0.836477987d, agreement.getAgreement(), 0.000001d);
+    }
+    
+    @Test
+    public void positionEqualityTest()
+    {
+        // The link target is not part of the position if it is used as the label
+        Position p1 = new SpanPosition(null, null, 0, "Type", 0, 5, "text", "links", "role", 1,
+                2, null, LinkCompareBehavior.LINK_TARGET_AS_LABEL);
+        Position p2 = new SpanPosition("coll", "doc", 0, new String("Type"), 0, 5, "text",
+                "links", new String("role"), 3, 4, null, LinkCompareBehavior.LINK_TARGET_AS_LABEL);
+        assertEquals(0, p1.compareTo(p2));
+        assertEquals(p1, p2);
+        assertEquals(p1.hashCode(), p2.hashCode());
+        
+        // ... but the role is
+        Position p3 = new SpanPosition(null, null, 0, "Type", 0, 5, "text", "links", "other", 1,
+                2, null, LinkCompareBehavior.LINK_TARGET_AS_LABEL);
+        assertNotEquals(0, p1.compareTo(p3));
+        assertNotEquals(p1, p3);
+        
+        // The role is not part of the position if it is used as the label
+        Position p4 = new SpanPosition(null, null, 0, "Type", 0, 5, "text", "links", "role", 1,
+                2, null, LinkCompareBehavior.LINK_ROLE_AS_LABEL);
+        Position p5 = new SpanPosition(null, null, 0, "Type", 0, 5, "text", "links", "other", 1,
+                2, null, LinkCompareBehavior.LINK_ROLE_AS_LABEL);
+        assertEquals(0, p4.compareTo(p5));
+        assertEquals(p4, p5);
+        assertEquals(p4.hashCode(), p5.hashCode());
+        assertNotEquals(p1, p4);
+        
+        Position a1 = new ArcPosition(null, null, 1, "Arc", 0, 5, "text", 10, 15, "text", null,
+                null, -1, -1, null, null);
+        Position a2 = new ArcPosition(null, null, 1, "Arc", 0, 5, "text", 10, 15, "text", null,
+                null, -1, -1, null, null);
+        Position a3 = new ArcPosition(null, null, 1, "Arc", 0, 5, "text", 10, 16, "text", null,
+                null, -1, -1, null, null);
+        assertEquals(a1, a2);
+        assertEquals(a1.hashCode(), a2.hashCode());
+        assertNotEquals(a1, a3);
+        assertEquals(15, ((ArcPosition) a1).getTargetEnd());
+    }
+    
+    private static String dump(DiffResult aResult)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (ConfigurationSet cfgSet : aResult.getConfigurationSets()) {
+            sb.append(cfgSet.getPosition()).append(' ').append(cfgSet.getCasGroupIds())
+                    .append('\n');
+            for (Configuration cfg : cfgSet.getConfigurations()) {
+                sb.append("  ").append(cfg).append('\n');
+            }
+        }
+        return sb.toString();
+    }
     
     @Rule
     public DkproTestContext testContext = new DkproTestContext();
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.casdiff;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.SPAN_TYPE;
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.singletonList;
+import static org.apache.uima.fit.util.JCasUtil.select;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.impl.Serialization;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.util.CasCopier;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasSummary;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.SpanCreatedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.Configuration;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.ConfigurationSet;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.DiffResult;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.LinkCompareBehavior;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.SpanPosition;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.clarin.webanno.model.LinkMode;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.dkpro.core.api.ner.type.NamedEntity;
+
+public class CasDiffCacheTest
+{
+    private static final String TEXT = "John met Mary in Paris .";
+
+    private Project project;
+    private Map<String, String> storedStamps;
+    private List<Type> entryTypes;
+    private CasDiffCache sut;
+
+    @Before
+    public void setup()
+    {
+        project = new Project();
+        project.setId(1l);
+
+        AnnotationLayer layer = new AnnotationLayer();
+        layer.setId(1l);
+        layer.setName(NamedEntity.class.getName());
+        layer.setType(SPAN_TYPE);
+        layer.setProject(project);
+
+        AnnotationFeature feature = new AnnotationFeature();
+        feature.setName("value");
+        feature.setLinkMode(LinkMode.NONE);
+        feature.setLayer(layer);
+
+        AnnotationSchemaService annotationService = (AnnotationSchemaService) Proxy
+                .newProxyInstance(getClass().getClassLoader(),
+                        new Class<?>[] { AnnotationSchemaService.class }, (proxy, method, args) -> {
+                            switch (method.getName()) {
+                            case "listAnnotationLayer":
+                                return singletonList(layer);
+                            case "listAnnotationFeature":
+                                return singletonList(feature);
+                            default:
+                                throw new UnsupportedOperationException(method.getName());
+                            }
+                        });
+
+        storedStamps = new HashMap<>();
+        CasStorageService casStorageService = (CasStorageService) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[] { CasStorageService.class },
+                (proxy, method, args) -> {
+                    if ("readCasSummary".equals(method.getName())) {
+                        String stamp = storedStamps.get(args[1]);
+                        return stamp != null ? new CasSummary(stamp, 0, TEXT.length(),
+                                new int[0], new int[0], new int[0], new int[0], emptyMap())
+                                : null;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+
+        sut = new CasDiffCache(annotationService, casStorageService, 16);
+    }
+
+    @Test
+    public void thatSeparateReadsOfUnchangedCasesShareResult() throws Exception
+    {
+        JCas cas1 = createCas();
+        JCas cas2 = createCas();
+        entryTypes = singletonList(cas1.getTypeSystem().getType(NamedEntity.class.getName()));
+
+        DiffResult initial = diff(cas1, cas2, "1");
+        assertEquals(3, initial.getConfigurationSets().size());
+
+        // E.g. the agreement page reads the CASes without the CAS cache, so every time it gets
+        // new instances loaded from the same data
+        JCas reloaded1 = reload(cas1);
+        JCas reloaded2 = reload(cas2);
+        assertSame(initial, diff(reloaded1, reloaded2, "1"));
+        assertResolves(initial, reloaded1, reloaded2);
+
+        JCas reloadedAgain1 = reload(cas1);
+        JCas reloadedAgain2 = reload(cas2);
+        assertSame(initial, diff(reloadedAgain1, reloadedAgain2, "1"));
+    }
+
+    @Test
+    public void thatReloadedCasesAfterDeletionAreNotDiffedWithStaleAddresses() throws Exception
+    {
+        JCas cas1 = createCas();
+        JCas cas2 = createCas();
+        entryTypes = singletonList(cas1.getTypeSystem().getType(NamedEntity.class.getName()));
+
+        DiffResult initial = diff(cas1, cas2, "1");
+        assertSame(initial, diff(cas1, cas2, "1"));
+
+        // Delete an annotation - the CAS is saved under a new stamp
+        NamedEntity john = select(cas1, NamedEntity.class).iterator().next();
+        john.removeFromIndexes();
+        DiffResult afterDelete = diff(cas1, cas2, "2");
+        assertNotSame(initial, afterDelete);
+        assertResolves(afterDelete, cas1, cas2);
+
+        // The CASes are loaded again from the saved data, which keeps the deleted annotation in
+        // the heap, so the addresses are the same
+        JCas reloaded1 = reload(cas1);
+        JCas reloaded2 = reload(cas2);
+        assertSame(afterDelete, diff(reloaded1, reloaded2, "2"));
+        assertResolves(afterDelete, reloaded1, reloaded2);
+
+        // Copying the CAS drops the deleted annotation, so the addresses change and the cached
+        // result cannot be used
+        JCas copied1 = copy(cas1);
+        JCas copied2 = copy(cas2);
+        DiffResult afterCopy = diff(copied1, copied2, "2");
+        assertNotSame(afterDelete, afterCopy);
+        assertEquals(afterDelete.getConfigurationSets().size(),
+                afterCopy.getConfigurationSets().size());
+        assertResolves(afterCopy, copied1, copied2);
+    }
+
+    @Test
+    public void thatChangedCasHasNoStampUntilSaved() throws Exception
+    {
+        SourceDocument document = new SourceDocument();
+        document.setId(1l);
+        document.setName("doc");
+        document.setProject(project);
+
+        storedStamps.put("user1", "1");
+        assertEquals("1", sut.getStamp(document, "user1"));
+
+        // The CAS is changed in memory - the saved version is still the old one
+        JCas cas = createCas();
+        NamedEntity ne = new NamedEntity(cas, 0, 4);
+        sut.onSpanCreated(new SpanCreatedEvent(this, document, "user1", ne));
+        assertNull(sut.getStamp(document, "user1"));
+
+        // The changes are saved
+        storedStamps.put("user1", "2");
+        assertEquals("2", sut.getStamp(document, "user1"));
+    }
+
+    private DiffResult diff(JCas aCas1, JCas aCas2, String aStamp1)
+    {
+        Map<String, JCas> casMap = new LinkedHashMap<>();
+        casMap.put("user1", aCas1);
+        casMap.put("user2", aCas2);
+
+        Map<String, String> stamps = new LinkedHashMap<>();
+        stamps.put("user1", aStamp1);
+        stamps.put("user2", "1");
+
+        return sut.doDiffSingle(project, entryTypes, LinkCompareBehavior.LINK_TARGET_AS_LABEL,
+                casMap, stamps, 0, TEXT.length());
+    }
+
+    private void assertResolves(DiffResult aDiff, JCas aCas1, JCas aCas2)
+    {
+        Map<String, JCas> casMap = new LinkedHashMap<>();
+        casMap.put("user1", aCas1);
+        casMap.put("user2", aCas2);
+
+        for (ConfigurationSet set : aDiff.getConfigurationSets()) {
+            SpanPosition position = (SpanPosition) set.getPosition();
+            for (Configuration cfg : set.getConfigurations()) {
+                for (String user : cfg.getCasGroupIds()) {
+                    FeatureStructure fs = cfg.getFs(user, casMap);
+                    assertNotNull(fs);
+                    assertEquals(position.getBegin(), ((AnnotationFS) fs).getBegin());
+                }
+            }
+        }
+    }
+
+    private JCas createCas() throws Exception
+    {
+        JCas jcas = JCasFactory.createJCas();
+        jcas.setDocumentText(TEXT);
+        addNamedEntity(jcas, 0, 4, "PER");
+        addNamedEntity(jcas, 9, 13, "PER");
+        addNamedEntity(jcas, 17, 22, "LOC");
+        return jcas;
+    }
+
+    private void addNamedEntity(JCas aCas, int aBegin, int aEnd, String aValue)
+    {
+        NamedEntity ne = new NamedEntity(aCas, aBegin, aEnd);
+        ne.setValue(aValue);
+        ne.addToIndexes();
+    }
+
+    /**
+     * Writes and reads the CAS in UIMA's binary format, which the CAS storage uses as well. It
+     * keeps the complete heap including feature structures which are no longer indexed.
+     */
+    private JCas reload(JCas aCas) throws Exception
+    {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        Serialization.serializeCAS(aCas.getCas(), bos);
+        JCas jcas = JCasFactory.createJCas();
+        Serialization.deserializeCAS(jcas.getCas(), new ByteArrayInputStream(bos.toByteArray()));
+        return jcas;
+    }
+
+    private JCas copy(JCas aCas) throws Exception
+    {
+        JCas jcas = JCasFactory.createJCas();
+        CasCopier.copyCas(aCas.getCas(), jcas.getCas(), true);
+        return jcas;
+    }
+}
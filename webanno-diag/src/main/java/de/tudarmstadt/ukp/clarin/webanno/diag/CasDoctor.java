@@ -135,6 +135,19 @@ public class CasDoctor
     {
         return !repairClasses.isEmpty();
     }
+
+    /**
+     * Gets a signature of the active checks and repairs. If the signature changes, CASes which
+     * have been verified before need to be verified again.
+     */
+    public String getConfigurationSignature()
+    {
+        StringBuilder sb = new StringBuilder();
+        checkClasses.forEach(c -> sb.append(c.getSimpleName()).append(','));
+        sb.append('|');
+        repairClasses.forEach(c -> sb.append(c.getSimpleName()).append(','));
+        return sb.toString();
+    }
     
     public void repair(Project aProject, CAS aCas, List<LogMessage> aMessages)
     {
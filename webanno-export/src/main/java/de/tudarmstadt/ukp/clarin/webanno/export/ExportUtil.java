@@ -387,10 +387,7 @@ public class ExportUtil
                     + sourceDocument.getName());
             FileUtils.forceMkdir(targetDir);
             
-            File initialCasFile = documentService.getCasFile(sourceDocument,
-                    INITIAL_CAS_PSEUDO_USER);
-            
-            FileUtils.copyFileToDirectory(initialCasFile, targetDir);
+            documentService.exportCas(sourceDocument, INITIAL_CAS_PSEUDO_USER, targetDir);
             
             LOG.info("Exported annotation document content for user [" + INITIAL_CAS_PSEUDO_USER
                     + "] for source document [" + sourceDocument.getId() + "] in project ["
@@ -439,18 +436,18 @@ public class ExportUtil
                     FileUtils.forceMkdir(annotationDocumentAsSerialisedCasDir);
                     FileUtils.forceMkdir(annotationDocumentDir);
 
-                    File annotationFileAsSerialisedCas = documentService.getCasFile(
-                            sourceDocument, annotationDocument.getUser());
+                    boolean annotationCasExists = documentService.existsCas(sourceDocument,
+                            annotationDocument.getUser());
 
                     File annotationFile = null;
-                    if (annotationFileAsSerialisedCas.exists() && writer != null) {
+                    if (annotationCasExists && writer != null) {
                         annotationFile = importExportService.exportAnnotationDocument(
                                 sourceDocument, annotationDocument.getUser(), writer,
                                 annotationDocument.getUser(), Mode.ANNOTATION, false);
                     }
                     
-                    if (annotationFileAsSerialisedCas.exists()) {
-                        FileUtils.copyFileToDirectory(annotationFileAsSerialisedCas,
+                    if (annotationCasExists) {
+                        documentService.exportCas(sourceDocument, annotationDocument.getUser(),
                                 annotationDocumentAsSerialisedCasDir);
                         if (writer != null) {
                             FileUtils.copyFileToDirectory(annotationFile, annotationDocumentDir);
@@ -471,14 +468,12 @@ public class ExportUtil
             // folder as CURATION_FOLDER
             if (WebAnnoConst.PROJECT_TYPE_AUTOMATION.equals(project.getMode())
                     || WebAnnoConst.PROJECT_TYPE_CORRECTION.equals(project.getMode())) {
-                File correctionCasFile = documentService.getCasFile(sourceDocument,
-                        CORRECTION_USER);
-                if (correctionCasFile.exists()) {
+                if (documentService.existsCas(sourceDocument, CORRECTION_USER)) {
                     // Copy CAS - this is used when importing the project again
                     File curationCasDir = new File(aCopyDir + CURATION_AS_SERIALISED_CAS
                             + sourceDocument.getName());
                     FileUtils.forceMkdir(curationCasDir);
-                    FileUtils.copyFileToDirectory(correctionCasFile, curationCasDir);
+                    documentService.exportCas(sourceDocument, CORRECTION_USER, curationCasDir);
                     
                     // Copy secondary export format for convenience - not used during import
                     File curationDir = new File(
@@ -615,11 +610,10 @@ public class ExportUtil
                     SourceDocumentState.CURATION_IN_PROGRESS.equals(sourceDocument.getState())) ||
                 SourceDocumentState.CURATION_FINISHED.equals(sourceDocument.getState())
             ) {
-                File curationCasFile = documentService.getCasFile(sourceDocument,
-                        WebAnnoConst.CURATION_USER);
-                if (curationCasFile.exists()) {
+                if (documentService.existsCas(sourceDocument, WebAnnoConst.CURATION_USER)) {
                     // Copy CAS - this is used when importing the project again
-                    FileUtils.copyFileToDirectory(curationCasFile, curationCasDir);
+                    documentService.exportCas(sourceDocument, WebAnnoConst.CURATION_USER,
+                            curationCasDir);
 
                     // Copy secondary export format for convenience - not used during import
                     try {
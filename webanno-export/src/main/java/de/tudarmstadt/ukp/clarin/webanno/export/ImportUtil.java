@@ -19,6 +19,7 @@ package de.tudarmstadt.ukp.clarin.webanno.export;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
@@ -669,9 +670,9 @@ public class ImportUtil
                 fileName = fileName.replace(FilenameUtils.getName(fileName), "").replace("/", "");
                 de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument sourceDocument = aRepository
                         .getSourceDocument(aProject, fileName);
-                File annotationFilePath = aRepository.getCasFile(sourceDocument, username);
-
-                FileUtils.copyInputStreamToFile(zip.getInputStream(entry), annotationFilePath);
+                try (InputStream is = zip.getInputStream(entry)) {
+                    aRepository.importCas(sourceDocument, username, is);
+                }
                 
                 LOG.info("Imported annotation document content for user [" + username
                         + "] for source document [" + sourceDocument.getId() + "] in project ["
@@ -711,9 +712,9 @@ public class ImportUtil
                 }
                 de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument sourceDocument = aRepository
                         .getSourceDocument(aProject, fileName);
-                File annotationFilePath = aRepository.getCasFile(sourceDocument, username);
-
-                FileUtils.copyInputStreamToFile(zip.getInputStream(entry), annotationFilePath);
+                try (InputStream is = zip.getInputStream(entry)) {
+                    aRepository.importCas(sourceDocument, username, is);
+                }
                 
                 LOG.info("Imported curation document content for user [" + username
                         + "] for source document [" + sourceDocument.getId() + "] in project ["
@@ -20,8 +20,10 @@ package de.tudarmstadt.ukp.clarin.webanno.support;
 import java.io.File;
 import java.io.IOException;
 import java.io.StringWriter;
+import java.io.Writer;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.StringBuilderWriter;
 import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 
 import com.fasterxml.jackson.core.JsonGenerator;
@@ -109,13 +111,38 @@ public class JSONUtil
         throws IOException
     {
         StringWriter out = new StringWriter();
-        JsonGenerator jsonGenerator = JSONUtil.getJsonConverter().getObjectMapper().getFactory()
-                .createGenerator(out);
-        jsonGenerator.setCharacterEscapes(JavaScriptCharacterEscapes.get());
+        JsonGenerator jsonGenerator = createInterpretableJsonGenerator(out);
         jsonGenerator.writeObject(aObject);
         return out.toString();
     }
     
+    /**
+     * Appends the object as JSON that can be safely interpreted as JavaScript to the given buffer.
+     * The JSON is streamed into the buffer, so unlike {@link #toInterpretableJsonString(Object)}
+     * no intermediate copy of it is created.
+     */
+    public static void appendInterpretableJson(StringBuilder aOut, Object aObject)
+        throws IOException
+    {
+        try (JsonGenerator jsonGenerator = createInterpretableJsonGenerator(
+                new StringBuilderWriter(aOut))) {
+            jsonGenerator.writeObject(aObject);
+        }
+    }
+    
+    /**
+     * Creates a generator which produces JSON that can also be safely interpreted as JavaScript,
+     * e.g. when embedding it into a script sent to the browser.
+     */
+    public static JsonGenerator createInterpretableJsonGenerator(Writer aOut)
+        throws IOException
+    {
+        JsonGenerator jsonGenerator = JSONUtil.getJsonConverter().getObjectMapper().getFactory()
+                .createGenerator(aOut);
+        jsonGenerator.setCharacterEscapes(JavaScriptCharacterEscapes.get());
+        return jsonGenerator;
+    }
+    
     private static class JavaScriptCharacterEscapes extends CharacterEscapes {
         private static final long serialVersionUID = -2189758484099286957L;
         private final int[] asciiEscapes = standardAsciiEscapesForJSON();
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2018
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.support.concurrent;
+
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A fixed set of read/write locks from which a lock is picked based on the hash code of a key.
+ * Equal keys always map to the same lock, while different keys usually map to different locks.
+ * This allows fine-grained locking on an unbounded set of keys with a bounded amount of memory.
+ */
+public class StripedReadWriteLock
+{
+    private final ReadWriteLock[] stripes;
+
+    /**
+     * @param aStripes
+     *            the number of locks. Rounded up to the next power of two.
+     */
+    public StripedReadWriteLock(int aStripes)
+    {
+        if (aStripes < 1) {
+            throw new IllegalArgumentException("Number of stripes must be positive");
+        }
+        
+        int size = Integer.highestOneBit(aStripes);
+        if (size < aStripes) {
+            size <<= 1;
+        }
+        
+        stripes = new ReadWriteLock[size];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new ReentrantReadWriteLock();
+        }
+    }
+    
+    public ReadWriteLock get(Object aKey)
+    {
+        // Spread the hash bits in the same way as HashMap does to compensate for poor hash codes
+        int h = aKey.hashCode();
+        h ^= (h >>> 16);
+        return stripes[h & (stripes.length - 1)];
+    }
+    
+    public int size()
+    {
+        return stripes.length;
+    }
+}
@@ -547,12 +547,12 @@ public class AnnotationPage
             // Read the CAS
             JCas editorCas = documentService.readAnnotationCas(annotationDocument);
 
-            // Update the annotation document CAS
-            annotationService.upgradeCas(editorCas.getCas(), annotationDocument);
-
-            // After creating an new CAS or upgrading the CAS, we need to save it
-            documentService.writeAnnotationCas(editorCas.getCas().getJCas(), annotationDocument,
-                    false);
+            // Update the annotation document CAS. A new CAS has already been saved when it was
+            // created, so we only need to save the CAS if it was actually upgraded.
+            if (annotationService.upgradeCas(editorCas.getCas(), annotationDocument)) {
+                documentService.writeAnnotationCas(editorCas.getCas().getJCas(),
+                        annotationDocument, false);
+            }
 
             // (Re)initialize brat model after potential creating / upgrading CAS
             state.reset();
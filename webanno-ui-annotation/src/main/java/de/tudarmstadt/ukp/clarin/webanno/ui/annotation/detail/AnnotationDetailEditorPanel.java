@@ -200,8 +200,8 @@ public class AnnotationDetailEditorPanel
         AnnotationFS targetFs = selectByAddr(aJCas, selection.getTarget());
 
         // Creating a relation
-        AnnotationFS arc = aAdapter.add(originFs, targetFs, aJCas, state.getWindowBeginOffset(),
-            state.getWindowEndOffset());
+        AnnotationFS arc = aAdapter.add(state, originFs, targetFs, aJCas,
+            state.getWindowBeginOffset(), state.getWindowEndOffset());
         selection.selectArc(new VID(arc), originFs, targetFs);
     }
 
@@ -274,7 +274,7 @@ public class AnnotationDetailEditorPanel
         }
         
         selection.setAnnotation(new VID(
-            aAdapter.addSpan(aJCas, selection.getBegin(), selection.getEnd())));
+            aAdapter.addSpan(state, aJCas, selection.getBegin(), selection.getEnd())));
         selection.setText(
             aJCas.getDocumentText().substring(selection.getBegin(), selection.getEnd()));
     }
@@ -290,7 +290,7 @@ public class AnnotationDetailEditorPanel
         AnnotationFS targetFs = selectByAddr(aJCas, selection.getTarget());
 
         // Creating a new chain link
-        int addr = aAdapter.addArc(aJCas, originFs, targetFs);
+        int addr = aAdapter.addArc(state, aJCas, originFs, targetFs);
         selection.selectArc(new VID(addr), originFs, targetFs);
     }
 
@@ -862,7 +862,7 @@ public class AnnotationDetailEditorPanel
         TypeAdapter adapter = annotationService.getAdapter(state.getSelectedAnnotationLayer());
         if (adapter instanceof ArcAdapter) {
             // If no features, still create arc #256
-            AnnotationFS arc = ((ArcAdapter) adapter).add(targetFs, originFs, jCas,
+            AnnotationFS arc = ((ArcAdapter) adapter).add(state, targetFs, originFs, jCas,
                     state.getWindowBeginOffset(), state.getWindowEndOffset());
             state.getSelection().setAnnotation(new VID(getAddr(arc)));
             
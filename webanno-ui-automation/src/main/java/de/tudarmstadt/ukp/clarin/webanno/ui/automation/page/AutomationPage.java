@@ -70,6 +70,7 @@ import de.tudarmstadt.ukp.clarin.webanno.automation.service.AutomationService;
 import de.tudarmstadt.ukp.clarin.webanno.brat.annotation.BratAnnotationEditor;
 import de.tudarmstadt.ukp.clarin.webanno.brat.config.BratProperties;
 import de.tudarmstadt.ukp.clarin.webanno.constraints.ConstraintsService;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiffCache;
 import de.tudarmstadt.ukp.clarin.webanno.curation.storage.CurationDocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
@@ -133,6 +134,7 @@ public class AutomationPage
     private @SpringBean CurationDocumentService curationDocumentService;
     private @SpringBean CorrectionDocumentService correctionDocumentService;
     private @SpringBean AutomationService automationService;
+    private @SpringBean CasDiffCache diffCache;
 
     private NumberTextField<Integer> gotoPageTextField;
     private DocumentNamePanel documentNamePanel;
@@ -402,7 +404,7 @@ public class AutomationPage
                 try {
                     SuggestionBuilder builder = new SuggestionBuilder(casStorageService,
                             documentService, correctionDocumentService, curationDocumentService,
-                            annotationService, userRepository);
+                            annotationService, userRepository, diffCache);
                     curationContainer = builder.buildCurationContainer(state);
                     setCurationSegmentBeginEnd(getEditorCas());
                     curationContainer.setBratAnnotatorModel(state);
@@ -609,7 +611,7 @@ public class AutomationPage
         
         SuggestionBuilder builder = new SuggestionBuilder(casStorageService, documentService,
                 correctionDocumentService, curationDocumentService, annotationService,
-                userRepository);
+                userRepository, diffCache);
         curationContainer = builder.buildCurationContainer(state);
         setCurationSegmentBeginEnd(editorCas);
         curationContainer.setBratAnnotatorModel(state);
@@ -645,7 +647,7 @@ public class AutomationPage
             
             SuggestionBuilder builder = new SuggestionBuilder(casStorageService, documentService,
                     correctionDocumentService, curationDocumentService, annotationService,
-                    userRepository);
+                    userRepository, diffCache);
             curationContainer = builder.buildCurationContainer(state);
             setCurationSegmentBeginEnd(editorCas);
             curationContainer.setBratAnnotatorModel(state);
@@ -700,7 +702,9 @@ public class AutomationPage
 
             // Read the correction CAS - if it does not exist yet, from the initial CAS
             JCas correctionCas;
-            if (correctionDocumentService.existsCorrectionCas(state.getDocument())) {
+            boolean correctionCasExists = correctionDocumentService
+                    .existsCorrectionCas(state.getDocument());
+            if (correctionCasExists) {
                 correctionCas = correctionDocumentService.readCorrectionCas(state.getDocument());
             }
             else {
@@ -710,7 +714,9 @@ public class AutomationPage
             // Read the annotation CAS or create an annotation CAS from the initial CAS by stripping
             // annotations
             JCas editorCas;
-            if (documentService.existsCas(state.getDocument(), state.getUser().getUsername())) {
+            boolean editorCasExists = documentService.existsCas(state.getDocument(),
+                    state.getUser().getUsername());
+            if (editorCasExists) {
                 editorCas = documentService.readAnnotationCas(annotationDocument);
             }
             else {
@@ -721,14 +727,19 @@ public class AutomationPage
             }
 
             // Update the CASes
-            annotationService.upgradeCas(editorCas.getCas(), annotationDocument);
-            correctionDocumentService.upgradeCorrectionCas(correctionCas.getCas(),
-                    state.getDocument());
+            boolean editorCasUpgraded = annotationService.upgradeCas(editorCas.getCas(),
+                    annotationDocument);
+            boolean correctionCasUpgraded = correctionDocumentService
+                    .upgradeCorrectionCas(correctionCas.getCas(), state.getDocument());
 
             // After creating an new CAS or upgrading the CAS, we need to save it
-            documentService.writeAnnotationCas(editorCas.getCas().getJCas(),
-                    annotationDocument.getDocument(), state.getUser(), false);
-            correctionDocumentService.writeCorrectionCas(correctionCas, state.getDocument());
+            if (!editorCasExists || editorCasUpgraded) {
+                documentService.writeAnnotationCas(editorCas.getCas().getJCas(),
+                        annotationDocument.getDocument(), state.getUser(), false);
+            }
+            if (!correctionCasExists || correctionCasUpgraded) {
+                correctionDocumentService.writeCorrectionCas(correctionCas, state.getDocument());
+            }
 
             // (Re)initialize brat model after potential creating / upgrading CAS
             state.reset();
@@ -792,7 +803,7 @@ public class AutomationPage
             AnnotatorState state = getModelObject();
             SuggestionBuilder builder = new SuggestionBuilder(casStorageService, documentService,
                     correctionDocumentService, curationDocumentService, annotationService,
-                    userRepository);
+                    userRepository, diffCache);
             curationContainer = builder.buildCurationContainer(state);
             setCurationSegmentBeginEnd(getEditorCas());
             curationContainer.setBratAnnotatorModel(state);
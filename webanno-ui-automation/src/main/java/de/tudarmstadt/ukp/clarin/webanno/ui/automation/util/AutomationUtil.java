@@ -197,7 +197,7 @@ public class AutomationUtil
         for (AnnotationFS fs : aSpanAnnos) {
             if (dCoveredText.equals(fs.getCoveredText())) {
                 if (g != null && isSamAnno(attachSpanType, fs, aDepFS)) {
-                    AnnotationFS arc = adapter.add(g, fs, jCas, aStart, aEnd);
+                    AnnotationFS arc = adapter.add(aState, g, fs, jCas, aStart, aEnd);
                     adapter.setFeatureValue(aState, jCas, getAddr(arc), aFeature, aValue);
                     g = null;
                     d = null;
@@ -211,7 +211,7 @@ public class AutomationUtil
             // we don't use else, in case gov and dep are the same
             if (gCoveredText.equals(fs.getCoveredText())  ) {
                 if (d != null && isSamAnno(attachSpanType, fs, aGovFS)) {
-                    AnnotationFS arc = adapter.add(fs, d, jCas, aStart, aEnd);
+                    AnnotationFS arc = adapter.add(aState, fs, d, jCas, aStart, aEnd);
                     adapter.setFeatureValue(aState, jCas, getAddr(arc), aFeature, aValue);
                     g = null;
                     d = null;
@@ -68,6 +68,7 @@ import de.tudarmstadt.ukp.clarin.webanno.brat.annotation.BratAnnotationEditor;
 import de.tudarmstadt.ukp.clarin.webanno.brat.config.BratProperties;
 import de.tudarmstadt.ukp.clarin.webanno.brat.util.BratAnnotatorUtility;
 import de.tudarmstadt.ukp.clarin.webanno.constraints.ConstraintsService;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiffCache;
 import de.tudarmstadt.ukp.clarin.webanno.curation.storage.CurationDocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.Mode;
@@ -124,6 +125,7 @@ public class CorrectionPage
     private @SpringBean BratProperties defaultPreferences;
     private @SpringBean AnnotationSchemaService annotationService;
     private @SpringBean UserDao userRepository;
+    private @SpringBean CasDiffCache diffCache;
 
     private NumberTextField<Integer> gotoPageTextField;
     private DocumentNamePanel documentNamePanel;
@@ -384,7 +386,7 @@ public class CorrectionPage
                     // info(bratAnnotatorModel.getMessage());
                     SuggestionBuilder builder = new SuggestionBuilder(casStorageService,
                             documentService, correctionDocumentService, curationDocumentService,
-                            annotationService, userRepository);
+                            annotationService, userRepository, diffCache);
                     curationContainer = builder.buildCurationContainer(state);
                     setCurationSegmentBeginEnd(editorCas);
                     curationContainer.setBratAnnotatorModel(state);
@@ -494,7 +496,7 @@ public class CorrectionPage
         
         SuggestionBuilder builder = new SuggestionBuilder(casStorageService, documentService,
                 correctionDocumentService, curationDocumentService, annotationService,
-                userRepository);
+                userRepository, diffCache);
         curationContainer = builder.buildCurationContainer(state);
         setCurationSegmentBeginEnd(editorCas);
         curationContainer.setBratAnnotatorModel(state);
@@ -530,7 +532,7 @@ public class CorrectionPage
 
             SuggestionBuilder builder = new SuggestionBuilder(casStorageService, documentService,
                     correctionDocumentService, curationDocumentService, annotationService,
-                    userRepository);
+                    userRepository, diffCache);
             curationContainer = builder.buildCurationContainer(state);
             setCurationSegmentBeginEnd(editorCas);
             curationContainer.setBratAnnotatorModel(state);
@@ -605,7 +607,9 @@ public class CorrectionPage
 
             // Read the correction CAS - if it does not exist yet, from the initial CAS
             JCas correctionCas;
-            if (correctionDocumentService.existsCorrectionCas(state.getDocument())) {
+            boolean correctionCasExists = correctionDocumentService
+                    .existsCorrectionCas(state.getDocument());
+            if (correctionCasExists) {
                 correctionCas = correctionDocumentService.readCorrectionCas(state.getDocument());
             }
             else {
@@ -615,7 +619,9 @@ public class CorrectionPage
             // Read the annotation CAS or create an annotation CAS from the initial CAS by stripping
             // annotations
             JCas editorCas;
-            if (documentService.existsCas(state.getDocument(), user.getUsername())) {
+            boolean editorCasExists = documentService.existsCas(state.getDocument(),
+                    user.getUsername());
+            if (editorCasExists) {
                 editorCas = documentService.readAnnotationCas(annotationDocument);
             }
             else {
@@ -625,14 +631,19 @@ public class CorrectionPage
             }
 
             // Update the CASes
-            annotationService.upgradeCas(editorCas.getCas(), annotationDocument);
-            correctionDocumentService.upgradeCorrectionCas(correctionCas.getCas(),
-                    state.getDocument());
+            boolean editorCasUpgraded = annotationService.upgradeCas(editorCas.getCas(),
+                    annotationDocument);
+            boolean correctionCasUpgraded = correctionDocumentService
+                    .upgradeCorrectionCas(correctionCas.getCas(), state.getDocument());
 
             // After creating an new CAS or upgrading the CAS, we need to save it
-            documentService.writeAnnotationCas(editorCas.getCas().getJCas(),
-                    annotationDocument.getDocument(), user, false);
-            correctionDocumentService.writeCorrectionCas(correctionCas, state.getDocument());
+            if (!editorCasExists || editorCasUpgraded) {
+                documentService.writeAnnotationCas(editorCas.getCas().getJCas(),
+                        annotationDocument.getDocument(), user, false);
+            }
+            if (!correctionCasExists || correctionCasUpgraded) {
+                correctionDocumentService.writeCorrectionCas(correctionCas, state.getDocument());
+            }
 
             // (Re)initialize brat model after potential creating / upgrading CAS
             state.reset();
@@ -694,7 +705,7 @@ public class CorrectionPage
             AnnotatorState state = getModelObject();
             SuggestionBuilder builder = new SuggestionBuilder(casStorageService, documentService,
                     correctionDocumentService, curationDocumentService, annotationService,
-                    userRepository);
+                    userRepository, diffCache);
             curationContainer = builder.buildCurationContainer(state);
             setCurationSegmentBeginEnd(getEditorCas());
             curationContainer.setBratAnnotatorModel(state);
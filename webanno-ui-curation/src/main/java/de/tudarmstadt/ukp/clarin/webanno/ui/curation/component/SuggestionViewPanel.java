@@ -65,13 +65,14 @@ import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.TypeUtil;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
 import de.tudarmstadt.ukp.clarin.webanno.brat.message.GetCollectionInformationResponse;
 import de.tudarmstadt.ukp.clarin.webanno.brat.message.GetDocumentResponse;
+import de.tudarmstadt.ukp.clarin.webanno.brat.render.BratCollectionInformationCache;
 import de.tudarmstadt.ukp.clarin.webanno.brat.render.BratRenderer;
 import de.tudarmstadt.ukp.clarin.webanno.brat.util.BratAnnotatorUtility;
-import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.Configuration;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.ConfigurationSet;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.DiffResult;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.LinkCompareBehavior;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiffCache;
 import de.tudarmstadt.ukp.clarin.webanno.curation.storage.CurationDocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
@@ -123,6 +124,8 @@ public class SuggestionViewPanel
     private @SpringBean CorrectionDocumentService correctionDocumentService;
     private @SpringBean AnnotationSchemaService annotationService;
     private @SpringBean UserDao userRepository;
+    private @SpringBean BratCollectionInformationCache collectionInformationCache;
+    private @SpringBean CasDiffCache diffCache;
 
     public SuggestionViewPanel(String id,
             IModel<List<UserAnnotationSegment>> aModel)
@@ -383,13 +386,12 @@ public class SuggestionViewPanel
         return JSONUtil.toInterpretableJsonString(response);
     }
 
-    private String getCollectionInformation(AnnotationSchemaService aAnnotationService,
-            CurationContainer aCurationContainer)
+    private String getCollectionInformation(CurationContainer aCurationContainer)
         throws IOException
     {
-        GetCollectionInformationResponse info = new GetCollectionInformationResponse();
-        info.setEntityTypes(BratRenderer.buildEntityTypes(aCurationContainer
-                .getAnnotatorState().getAnnotationLayers(), aAnnotationService));
+        GetCollectionInformationResponse info = collectionInformationCache
+                .getCollectionInformation(
+                        aCurationContainer.getAnnotatorState().getAnnotationLayers());
 
         return JSONUtil.toInterpretableJsonString(info);
     }
@@ -406,16 +408,17 @@ public class SuggestionViewPanel
         SourceDocument sourceDocument = state.getDocument();
         
         Map<String, JCas> jCases = new HashMap<>();
+        Map<String, String> stamps = new HashMap<>();
         // This is the CAS that the user can actively edit
         JCas annotatorCas = getAnnotatorCas(state, aAnnotationSelectionByUsernameAndAddress,
-                sourceDocument, jCases);
+                sourceDocument, jCases, stamps);
 
         // We store the CAS that the user will edit as the "CURATION USER"
         jCases.put(CURATION_USER, annotatorCas);
         
         // get differing feature structures
         Map<String, Map<VID, AnnotationState>> annoStates = calcColors(state, aCurationSegment,
-                annotatorCas, jCases);
+                annotatorCas, jCases, stamps);
         
         List<String> usernamesSorted = new ArrayList<>(jCases.keySet());
         Collections.sort(usernamesSorted);
@@ -442,7 +445,7 @@ public class SuggestionViewPanel
                 seg.setUsername(username);
                 seg.setAnnotatorState(state);
                 seg.setCollectionData(
-                        getCollectionInformation(annotationService, aCurationContainer));
+                        getCollectionInformation(aCurationContainer));
                 seg.setDocumentResponse(
                         render(jCas, state, curationColoringStrategy));
                 seg.setSelectionByUsernameAndAddress(aAnnotationSelectionByUsernameAndAddress);
@@ -484,17 +487,18 @@ public class SuggestionViewPanel
         AnnotatorState state = aCurationContainer.getAnnotatorState();
         SourceDocument sourceDocument = state.getDocument();
         Map<String, JCas> jCases = new HashMap<>();
+        Map<String, String> stamps = new HashMap<>();
 
         // This is the CAS that the user can actively edit
         JCas annotatorCas = getAnnotatorCas(state, aAnnotationSelectionByUsernameAndAddress,
-                sourceDocument, jCases);
+                sourceDocument, jCases, stamps);
 
         // We store the CAS that the user will edit as the "CURATION USER"
         jCases.put(CURATION_USER, annotatorCas);
 
         // get differing feature structures
         Map<String, Map<VID, AnnotationState>> annoStates = calcColors(state, aCurationSegment,
-                annotatorCas, jCases);
+                annotatorCas, jCases, stamps);
 
         sentenceListView.visitChildren(BratSuggestionVisualizer.class, (v, visit) -> {
             BratSuggestionVisualizer vis = (BratSuggestionVisualizer) v;
@@ -509,7 +513,7 @@ public class SuggestionViewPanel
             // Create curation view for the current user
             try {
                 seg.setCollectionData(
-                        getCollectionInformation(annotationService, aCurationContainer));
+                        getCollectionInformation(aCurationContainer));
                 seg.setDocumentResponse(
                         render(jCas, state, curationColoringStrategy));
                 seg.setAnnotatorState(state);
@@ -526,7 +530,8 @@ public class SuggestionViewPanel
     }
     
     private Map<String, Map<VID, AnnotationState>> calcColors(AnnotatorState state,
-            SourceListView aCurationSegment, JCas annotatorCas, Map<String, JCas> jCases)
+            SourceListView aCurationSegment, JCas annotatorCas, Map<String, JCas> jCases,
+            Map<String, String> aStamps)
     {
         // get differing feature structures
         List<Type> entryTypes = SuggestionBuilder.getEntryTypes(annotatorCas,
@@ -536,14 +541,14 @@ public class SuggestionViewPanel
 
         DiffResult diff;
         if (state.getMode().equals(Mode.CURATION)) {
-            diff = CasDiff2.doDiffSingle(annotationService, state.getProject(), entryTypes,
-                    LinkCompareBehavior.LINK_ROLE_AS_LABEL, jCases,
+            diff = diffCache.doDiffSingle(state.getProject(), entryTypes,
+                    LinkCompareBehavior.LINK_ROLE_AS_LABEL, jCases, aStamps,
                     aCurationSegment.getCurationBegin(), aCurationSegment.getCurationEnd());
         }
         else {
-            diff = CasDiff2.doDiffSingle(annotationService, state.getProject(), entryTypes,
-                    LinkCompareBehavior.LINK_ROLE_AS_LABEL, jCases, aCurationSegment.getBegin(),
-                    aCurationSegment.getEnd());
+            diff = diffCache.doDiffSingle(state.getProject(), entryTypes,
+                    LinkCompareBehavior.LINK_ROLE_AS_LABEL, jCases, aStamps,
+                    aCurationSegment.getBegin(), aCurationSegment.getEnd());
         }
 
         Collection<ConfigurationSet> d = diff.getDifferingConfigurationSets().values();
@@ -677,9 +682,12 @@ public class SuggestionViewPanel
             AnnotatorState aBModel,
             Map<String, Map<Integer, AnnotationSelection>> aAnnotationSelectionByUsernameAndAddress,
             SourceDocument sourceDocument,
-            Map<String, JCas> jCases)
+            Map<String, JCas> jCases,
+            Map<String, String> aStamps)
         throws UIMAException, IOException, ClassNotFoundException
     {
+        // The stamps are always obtained before the CASes, so a diff is never cached for a CAS
+        // which changed in between under the stamp of the previous version
         JCas annotatorCas;
         if (aBModel.getMode().equals(Mode.AUTOMATION)
                 || aBModel.getMode().equals(Mode.CORRECTION)) {
@@ -689,11 +697,15 @@ public class SuggestionViewPanel
             // is the only document we compare with.
 
             // The CAS the user can edit is the one from the virtual CORRECTION USER
+            aStamps.put(CURATION_USER,
+                    diffCache.getStamp(sourceDocument, WebAnnoConst.CORRECTION_USER));
             annotatorCas = correctionDocumentService.readCorrectionCas(sourceDocument);
 
             User user = userRepository.getCurrentUser();
             AnnotationDocument annotationDocument = documentService.getAnnotationDocument(
                     sourceDocument, user);
+            aStamps.put(user.getUsername(),
+                    diffCache.getStamp(sourceDocument, user.getUsername()));
             jCases.put(user.getUsername(), documentService.readAnnotationCas(annotationDocument));
             aAnnotationSelectionByUsernameAndAddress.put(CURATION_USER, new HashMap<>());
         }
@@ -702,23 +714,32 @@ public class SuggestionViewPanel
             // active users.
 
             // The CAS the user can edit is the one from the virtual CURATION USER
+            aStamps.put(CURATION_USER,
+                    diffCache.getStamp(sourceDocument, WebAnnoConst.CURATION_USER));
             annotatorCas = curationDocumentService.readCurationCas(sourceDocument);
 
             // Now we get all the other CASes from the repository
             List<AnnotationDocument> annotationDocuments = documentService
                     .listAnnotationDocuments(sourceDocument);
+            List<AnnotationDocument> curatedDocuments = new ArrayList<>();
             for (AnnotationDocument annotationDocument : annotationDocuments) {
                 String username = annotationDocument.getUser();
                 if (annotationDocument.getState().equals(AnnotationDocumentState.FINISHED)
                         || username.equals(CURATION_USER)) {
-                    JCas jCas = documentService.readAnnotationCas(annotationDocument);
-                    jCases.put(username, jCas);
+                    aStamps.put(username, diffCache.getStamp(sourceDocument, username));
+                    curatedDocuments.add(annotationDocument);
 
                     // cleanup annotationSelections
                     aAnnotationSelectionByUsernameAndAddress.put(username,
                         new HashMap<>());
                 }
             }
+            
+            // Load the CASes of all annotators at once
+            List<JCas> cases = documentService.readAnnotationCases(curatedDocuments);
+            for (int i = 0; i < curatedDocuments.size(); i++) {
+                jCases.put(curatedDocuments.get(i).getUser(), cases.get(i));
+            }
         }
         return annotatorCas;
     }
@@ -47,11 +47,11 @@ import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.exception.AnnotationException;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.AnnotatorState;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
-import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.Configuration;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.ConfigurationSet;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.DiffResult;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.LinkCompareBehavior;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiffCache;
 import de.tudarmstadt.ukp.clarin.webanno.curation.storage.CurationDocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
@@ -84,6 +84,10 @@ public class SuggestionBuilder
     private final CurationDocumentService curationDocumentService;
     private final UserDao userRepository;
     private final CasStorageService casStorageService;
+    private final CasDiffCache diffCache;
+
+    // Stamps of the CASes read by this builder, identifying the cached diff results
+    private final Map<String, String> casStamps = new HashMap<>();
 
     int diffRangeBegin, diffRangeEnd;
     boolean firstload = true;
@@ -95,7 +99,8 @@ public class SuggestionBuilder
             DocumentService aDocumentService,
             CorrectionDocumentService aCorrectionDocumentService,
             CurationDocumentService aCurationDocumentService,
-            AnnotationSchemaService aAnnotationService, UserDao aUserDao)
+            AnnotationSchemaService aAnnotationService, UserDao aUserDao,
+            CasDiffCache aDiffCache)
     {
         documentService = aDocumentService;
         correctionDocumentService = aCorrectionDocumentService;
@@ -103,6 +108,7 @@ public class SuggestionBuilder
         annotationService = aAnnotationService;
         userRepository = aUserDao;
         casStorageService = aCasStorageService;
+        diffCache = aDiffCache;
     }
 
     public CurationContainer buildCurationContainer(AnnotatorState aBModel)
@@ -189,8 +195,9 @@ public class SuggestionBuilder
                         segmentBeginEnd.size());
             }
 
-            DiffResult diff = CasDiff2.doDiffSingle(annotationService, aBModel.getProject(),
-                    entryTypes, LinkCompareBehavior.LINK_ROLE_AS_LABEL, jCases, begin, end);
+            // Only segments of CASes which changed since the last time are diffed again
+            DiffResult diff = diffCache.doDiffSingle(aBModel.getProject(), entryTypes,
+                    LinkCompareBehavior.LINK_ROLE_AS_LABEL, jCases, casStamps, begin, end);
 
             SourceListView curationSegment = new SourceListView();
             curationSegment.setBegin(begin);
@@ -326,6 +333,7 @@ public class SuggestionBuilder
         throws UIMAException, ClassNotFoundException, IOException
     {
         Map<String, JCas> jCases = new HashMap<>();
+        casStamps.clear();
         User user = userRepository
                 .get(SecurityContextHolder.getContext().getAuthentication().getName());
         randomAnnotationDocument = documentService.getAnnotationDocument(aDocument, user);
@@ -334,6 +342,7 @@ public class SuggestionBuilder
         // of the open dialog - it must not happen during editing because the CAS addresses
         // are used as IDs in the UI
         // repository.upgradeCasAndSave(aDocument, aMode, user.getUsername());
+        casStamps.put(user.getUsername(), diffCache.getStamp(aDocument, user.getUsername()));
         JCas jCas = documentService.readAnnotationCas(randomAnnotationDocument);
         jCases.put(user.getUsername(), jCas);
         return jCases;
@@ -344,6 +353,8 @@ public class SuggestionBuilder
         throws UIMAException, ClassNotFoundException, IOException
     {
         Map<String, JCas> jCases = new HashMap<>();
+        List<AnnotationDocument> finishedDocuments = new ArrayList<>();
+        casStamps.clear();
         for (AnnotationDocument annotationDocument : annotationDocuments) {
             String username = annotationDocument.getUser();
 
@@ -359,8 +370,17 @@ public class SuggestionBuilder
             // of the open dialog - it must not happen during editing because the CAS addresses
             // are used as IDs in the UI
             // repository.upgradeCasAndSave(annotationDocument.getDocument(), aMode, username);
-            JCas jCas = documentService.readAnnotationCas(annotationDocument);
-            jCases.put(username, jCas);
+            // The stamp is obtained before the CAS, so a diff is never cached for a CAS which
+            // changed in between under the stamp of the previous version
+            casStamps.put(username,
+                    diffCache.getStamp(annotationDocument.getDocument(), username));
+            finishedDocuments.add(annotationDocument);
+        }
+
+        // Load the CASes of all annotators at once
+        List<JCas> cases = documentService.readAnnotationCases(finishedDocuments);
+        for (int i = 0; i < finishedDocuments.size(); i++) {
+            jCases.put(finishedDocuments.get(i).getUser(), cases.get(i));
         }
         return jCases;
     }
@@ -402,8 +422,8 @@ public class SuggestionBuilder
                 // repository.upgradeCasAndSave(aDocument, aBratAnnotatorModel.getMode(),
                 // aBratAnnotatorModel.getUser().getUsername());
                 mergeJCas = correctionDocumentService.readCorrectionCas(aDocument);
-                if (aUpgrade) {
-                    correctionDocumentService.upgradeCorrectionCas(mergeJCas.getCas(), aDocument);
+                if (aUpgrade && correctionDocumentService
+                        .upgradeCorrectionCas(mergeJCas.getCas(), aDocument)) {
                     correctionDocumentService.writeCorrectionCas(mergeJCas, aDocument);
                 }
             }
@@ -415,8 +435,8 @@ public class SuggestionBuilder
                 // repository.upgradeCasAndSave(aDocument, aBratAnnotatorModel.getMode(),
                 // aBratAnnotatorModel.getUser().getUsername());
                 mergeJCas = curationDocumentService.readCurationCas(aDocument);
-                if (aUpgrade) {
-                    curationDocumentService.upgradeCurationCas(mergeJCas.getCas(), aDocument);
+                if (aUpgrade && curationDocumentService
+                        .upgradeCurationCas(mergeJCas.getCas(), aDocument)) {
                     curationDocumentService.writeCurationCas(mergeJCas, aDocument, true);
                 }
             }
@@ -505,6 +525,9 @@ public class SuggestionBuilder
     {
         JCas mergeJCas;
         boolean cacheEnabled = false;
+        // The merge CAS starts as a copy of the CAS of the random annotator
+        casStamps.put(WebAnnoConst.CURATION_USER, diffCache.getStamp(
+                randomAnnotationDocument.getDocument(), randomAnnotationDocument.getUser()));
         try {
             cacheEnabled = casStorageService.isCacheEnabled();
             casStorageService.disableCache();
@@ -519,11 +542,13 @@ public class SuggestionBuilder
 
         List<Type> entryTypes = getEntryTypes(mergeJCas, aAnnotationLayers, annotationService);
 
-        DiffResult diff = CasDiff2.doDiffSingle(annotationService, aProject, entryTypes,
-                LinkCompareBehavior.LINK_ROLE_AS_LABEL, jCases, 0,
+        DiffResult diff = diffCache.doDiffSingle(aProject, entryTypes,
+                LinkCompareBehavior.LINK_ROLE_AS_LABEL, jCases, casStamps, 0,
                 mergeJCas.getDocumentText().length());
 
         mergeJCas = MergeCas.reMergeCas(diff, jCases);
+        // The merge CAS has been changed, so the stamp of the copied CAS does not apply anymore
+        casStamps.remove(WebAnnoConst.CURATION_USER);
 
         curationDocumentService.writeCurationCas(mergeJCas, randomAnnotationDocument.getDocument(),
                 false);
@@ -536,8 +561,20 @@ public class SuggestionBuilder
     {
         User userLoggedIn = userRepository
                 .get(SecurityContextHolder.getContext().getAuthentication().getName());
-        mergeJCas = documentService.readAnnotationCas(aBratAnnotatorModel.getDocument(),
-                userLoggedIn);
+        // The correction CAS starts as a copy of the CAS of the user - it must not be the same
+        // instance as the one cached for the user
+        boolean cacheEnabled = false;
+        try {
+            cacheEnabled = casStorageService.isCacheEnabled();
+            casStorageService.disableCache();
+            mergeJCas = documentService.readAnnotationCas(aBratAnnotatorModel.getDocument(),
+                    userLoggedIn);
+        }
+        finally {
+            if (cacheEnabled) {
+                casStorageService.enableCache();
+            }
+        }
         correctionDocumentService.writeCorrectionCas(mergeJCas,
                 randomAnnotationDocument.getDocument());
         return mergeJCas;
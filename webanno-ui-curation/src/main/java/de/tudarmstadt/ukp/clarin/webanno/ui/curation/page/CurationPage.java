@@ -63,6 +63,7 @@ import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.AnnotatorStateImpl
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
 import de.tudarmstadt.ukp.clarin.webanno.brat.config.BratProperties;
 import de.tudarmstadt.ukp.clarin.webanno.constraints.ConstraintsService;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiffCache;
 import de.tudarmstadt.ukp.clarin.webanno.curation.storage.CurationDocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
@@ -115,6 +116,7 @@ public class CurationPage
     private @SpringBean BratProperties defaultPreferences;
     private @SpringBean AnnotationSchemaService annotationService;
     private @SpringBean UserDao userRepository;
+    private @SpringBean CasDiffCache diffCache;
 
     private NumberTextField<Integer> gotoPageTextField;
     private DocumentNamePanel documentNamePanel;
@@ -554,8 +556,9 @@ public class CurationPage
                     user);
             try {
                 CAS cas = documentService.readAnnotationCas(annotationDocument).getCas();
-                annotationService.upgradeCas(cas, annotationDocument);
-                documentService.writeAnnotationCas(cas.getJCas(), annotationDocument, false);
+                if (annotationService.upgradeCas(cas, annotationDocument)) {
+                    documentService.writeAnnotationCas(cas.getJCas(), annotationDocument, false);
+                }
             }
             catch (Exception e) {
                 // no need to catch, it is acceptable that no curation document
@@ -606,7 +609,7 @@ public class CurationPage
     
             SuggestionBuilder cb = new SuggestionBuilder(casStorageService, documentService,
                     correctionDocumentService, curationDocumentService, annotationService,
-                    userRepository);
+                    userRepository, diffCache);
             AnnotationDocument randomAnnotationDocument = null;
             if (finishedAnnotationDocuments.size() > 0) {
                 randomAnnotationDocument = finishedAnnotationDocuments.get(0);
@@ -639,7 +642,7 @@ public class CurationPage
     
             SuggestionBuilder builder = new SuggestionBuilder(casStorageService, documentService,
                     correctionDocumentService, curationDocumentService, annotationService,
-                    userRepository);
+                    userRepository, diffCache);
             curationContainer = builder.buildCurationContainer(state);
             curationContainer.setBratAnnotatorModel(state);
             curationPanel.editor.reset(aTarget);
@@ -18,11 +18,13 @@
 package de.tudarmstadt.ukp.clarin.webanno.ui.monitoring.page;
 
 import static java.util.Arrays.asList;
+import static java.util.concurrent.ForkJoinPool.commonPool;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -60,6 +62,7 @@ import de.agilecoders.wicket.core.markup.html.bootstrap.components.PopoverBehavi
 import de.agilecoders.wicket.core.markup.html.bootstrap.components.PopoverConfig;
 import de.agilecoders.wicket.core.markup.html.bootstrap.components.TooltipConfig.Placement;
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
 import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.api.ProjectService;
 import de.tudarmstadt.ukp.clarin.webanno.api.SecurityUtil;
@@ -69,10 +72,9 @@ import de.tudarmstadt.ukp.clarin.webanno.curation.agreement.AgreementUtils.Agree
 import de.tudarmstadt.ukp.clarin.webanno.curation.agreement.AgreementUtils.AgreementResult;
 import de.tudarmstadt.ukp.clarin.webanno.curation.agreement.AgreementUtils.ConcreteAgreementMeasure;
 import de.tudarmstadt.ukp.clarin.webanno.curation.agreement.PairwiseAnnotationResult;
-import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2;
-import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.DiffAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.DiffResult;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff2.LinkCompareBehavior;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiffCache;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
@@ -99,9 +101,11 @@ public class AgreementPage
     private static final Logger LOG = LoggerFactory.getLogger(AgreementPage.class);
 
     private @SpringBean DocumentService documentService;
+    private @SpringBean CasStorageService casStorageService;
     private @SpringBean ProjectService projectService;
     private @SpringBean AnnotationSchemaService annotationService;
     private @SpringBean UserDao userRepository;
+    private @SpringBean CasDiffCache diffCache;
 
     private final ProjectSelectionForm projectSelectionForm;
     private final AgreementForm agreementForm;
@@ -137,6 +141,8 @@ public class AgreementPage
     // necessary, e.g. if the transient field is empty after a session is restored from a
     // persisted state.
     private transient Map<String, List<JCas>> cachedCASes;
+    // The stamps of the cached CASes, identifying the cached diff results
+    private transient Map<String, List<String>> cachedStamps;
 
     /**
      * Get the finished CASes used to compute agreement.
@@ -156,25 +162,66 @@ public class AgreementPage
         List<SourceDocument> sourceDocuments = documentService.listSourceDocuments(project);
 
         cachedCASes = new LinkedHashMap<>();
+        cachedStamps = new LinkedHashMap<>();
         for (User user : users) {
-            List<JCas> cases = new ArrayList<>();
+            // The lists get null values if a user didn't work on a source document yet.
+            List<AnnotationDocument> finishedDocuments = new ArrayList<>();
+            List<String> stamps = new ArrayList<>();
+            List<AnnotationDocument> documentsToLoad = new ArrayList<>();
 
             for (SourceDocument document : sourceDocuments) {
-                JCas jCas = null;
+                AnnotationDocument finishedDocument = null;
+                String stamp = null;
 
                 // Load the CAS if there is a finished one.
                 if (documentService.existsAnnotationDocument(document, user)) {
                     AnnotationDocument annotationDocument = documentService
                             .getAnnotationDocument(document, user);
                     if (annotationDocument.getState().equals(AnnotationDocumentState.FINISHED)) {
+                        finishedDocument = annotationDocument;
+                        // Obtained before the CAS, so a diff is never cached for a CAS which
+                        // changed in between under the stamp of the previous version
+                        stamp = diffCache.getStamp(document, user.getUsername());
+                        documentsToLoad.add(annotationDocument);
+                    }
+                }
+
+                finishedDocuments.add(finishedDocument);
+                stamps.add(stamp);
+            }
+
+            // Load the finished CASes of the user at once. The CASes are upgraded and changed
+            // below, so they must not be the instances cached for the annotators. Also, loading
+            // all CASes of the project would push the CASes in use out of the cache.
+            List<JCas> cases = new ArrayList<>();
+            boolean cacheEnabled = casStorageService.isCacheEnabled();
+            casStorageService.disableCache();
+            try {
+                Iterator<JCas> loadedCases = null;
+                try {
+                    loadedCases = documentService.readAnnotationCases(documentsToLoad).iterator();
+                }
+                catch (Exception e) {
+                    // Read the CASes one by one below, so that a CAS which cannot be read only
+                    // leaves out its own document
+                    LOG.warn("Unable to load the CASes of user [{}] at once: {}",
+                            user.getUsername(), ExceptionUtils.getRootCauseMessage(e));
+                }
+
+                for (AnnotationDocument annotationDocument : finishedDocuments) {
+                    JCas jCas = null;
+
+                    if (annotationDocument != null) {
                         try {
-                            jCas = documentService.readAnnotationCas(annotationDocument);
+                            jCas = loadedCases != null ? loadedCases.next()
+                                    : documentService.readAnnotationCas(annotationDocument);
                             annotationService.upgradeCas(jCas.getCas(), annotationDocument);
-                            // REC: I think there is no need to write the CASes here. We would not
-                            // want to interfere with currently active annotator users
+                            // REC: I think there is no need to write the CASes here. We would
+                            // not want to interfere with currently active annotator users
 
                             // Set the CAS name in the DocumentMetaData so that we can pick it
-                            // up in the Diff position for the purpose of debugging / transparency.
+                            // up in the Diff position for the purpose of debugging /
+                            // transparency.
                             DocumentMetaData documentMetadata = DocumentMetaData.get(jCas);
                             documentMetadata
                                     .setDocumentId(annotationDocument.getDocument().getName());
@@ -183,17 +230,25 @@ public class AgreementPage
                         }
                         catch (Exception e) {
                             LOG.error("Unable to load data", e);
-                            error("Unable to load data: " + ExceptionUtils.getRootCauseMessage(e));
+                            error("Unable to load data: "
+                                    + ExceptionUtils.getRootCauseMessage(e));
+                            jCas = null;
                         }
                     }
-                }
 
-                // The next line can enter null values into the list if a user didn't work on this
-                // source document yet.
-                cases.add(jCas);
+                    // The next line can enter null values into the list if a user didn't work
+                    // on this source document yet.
+                    cases.add(jCas);
+                }
+            }
+            finally {
+                if (cacheEnabled) {
+                    casStorageService.enableCache();
+                }
             }
 
             cachedCASes.put(user.getUsername(), cases);
+            cachedStamps.put(user.getUsername(), stamps);
         }
 
         return cachedCASes;
@@ -355,13 +410,12 @@ public class AgreementPage
                             Map<String, List<JCas>> casMap = getJCases();
 
                             Project project = projectSelectionForm.getModelObject().project;
-                            List<DiffAdapter> adapters = CasDiff2.getAdapters(annotationService,
-                                    project);
 
                             AgreementFormModel pref = AgreementForm.this.getModelObject();
 
-                            DiffResult diff = CasDiff2.doDiff(asList(feature.getLayer().getName()),
-                                    adapters, pref.linkCompareBehavior, casMap);
+                            DiffResult diff = diffCache.doDiff(project,
+                                    asList(feature.getLayer().getName()),
+                                    pref.linkCompareBehavior, casMap, cachedStamps, commonPool());
                             return AgreementUtils.getPairwiseAgreement(
                                     AgreementForm.this.getModelObject().measure,
                                     pref.excludeIncomplete, diff, feature.getLayer().getName(),
@@ -401,14 +455,13 @@ public class AgreementPage
                                     Map<String, List<JCas>> casMap = getJCases();
 
                                     Project project = projectSelectionForm.getModelObject().project;
-                                    List<DiffAdapter> adapters = CasDiff2
-                                            .getAdapters(annotationService, project);
 
                                     AgreementFormModel pref = AgreementForm.this.getModelObject();
 
-                                    DiffResult diff = CasDiff2.doDiff(
-                                            asList(feature.getLayer().getName()), adapters,
-                                            pref.linkCompareBehavior, casMap);
+                                    DiffResult diff = diffCache.doDiff(project,
+                                            asList(feature.getLayer().getName()),
+                                            pref.linkCompareBehavior, casMap, cachedStamps,
+                                            commonPool());
 
                                     AgreementResult agreementResult = AgreementUtils.makeStudy(diff,
                                             feature.getLayer().getName(), feature.getName(),
@@ -89,15 +89,18 @@ import org.springframework.security.core.context.SecurityContextHolder;
 import org.wicketstuff.annotation.mount.MountPath;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasSummary;
 import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.api.ProjectService;
 import de.tudarmstadt.ukp.clarin.webanno.api.SecurityUtil;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.ChainAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.automation.model.MiraTemplate;
 import de.tudarmstadt.ukp.clarin.webanno.automation.service.AutomationService;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentStateTransition;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
 import de.tudarmstadt.ukp.clarin.webanno.model.PermissionLevel;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
@@ -881,33 +884,12 @@ public class MonitoringPage
                 SourceDocument document = documentService.getSourceDocument(project,
                         value.substring(value.indexOf(":") + 1));
                 SourceDocumentState state = document.getState();
-                // #770 - Disable per-document progress on account of slowing down monitoring page
-//                if (iconNameForState.equals(AnnotationDocumentState.IN_PROGRESS.toString())
-//                        && document.getSentenceAccessed() != 0) {
-//                    JCas jCas = null;
-//                    try {
-//                        jCas = projectRepositoryService.readJCas(document, document.getProject(),
-//                                user);                
-//                    }
-//                    catch (UIMAException e) {
-//                        LOG.info(ExceptionUtils.getRootCauseMessage(e));
-//                    }
-//                    catch (ClassNotFoundException e) {
-//                        LOG.info(e.getMessage());
-//                    }
-//                    catch (IOException e) {
-//                        LOG.info(e.getMessage());
-//                    }
-//                   int totalSN = BratAjaxCasUtil.getNumberOfPages(jCas);
-//                   aCellItem.add(new Label(componentId, document.getSentenceAccessed() + "/"
-//                            + totalSN));
-//                }
-//                else {
-                
                 EmbeddableImage icon = new EmbeddableImage(componentId, ICONS.get(state));
                 icon.add(new AttributeAppender("style", "cursor: pointer", ";"));
+                if (CURATION_IN_PROGRESS.equals(state)) {
+                    addProgress(icon, document, WebAnnoConst.CURATION_USER);
+                }
                 aCellItem.add(icon);
-//                }
                 aCellItem.add(AttributeModifier.append("class", "centering"));
                 aCellItem.add(new AjaxEventBehavior("click")
                 {
@@ -965,33 +947,13 @@ public class MonitoringPage
                     documentService.createAnnotationDocument(annotationDocument);
                 }
 
-                // if state is in progress, add the last sentence number accessed
-                // #770 - Disable per-document progress on account of slowing down monitoring page
-//                if (annoDoc != null && (annoDoc.getSentenceAccessed() != 0)
-//                        && annoDoc.getState().equals(AnnotationDocumentState.IN_PROGRESS)) {
-//                    JCas jCas = null;
-//                    try {
-//                        jCas = projectRepositoryService.readJCas(document, document.getProject(),
-//                                annotator);
-//                    }
-//                    catch (UIMAException e) {
-//                        LOG.info(ExceptionUtils.getRootCauseMessage(e));
-//                    }
-//                    catch (ClassNotFoundException e) {
-//                        LOG.info(e.getMessage());
-//                    }
-//                    catch (IOException e) {
-//                        LOG.info(e.getMessage());
-//                    }
-//                   int totalSN = BratAjaxCasUtil.getNumberOfPages(jCas);
-//                   aCellItem.add(new Label(componentId, annoDoc.getSentenceAccessed() + 
-//                           "/" + totalSN));
-//                }
-//                else {
+                // if state is in progress, add the progress information
                 EmbeddableImage icon = new EmbeddableImage(componentId, ICONS.get(state));
                 icon.add(new AttributeAppender("style", "cursor: pointer", ";"));
+                if (AnnotationDocumentState.IN_PROGRESS.equals(state)) {
+                    addProgress(icon, document, annotator.getUsername());
+                }
                 aCellItem.add(icon);
-//                }
                 aCellItem.add(AttributeModifier.append("class", "centering"));
                 aCellItem.add(new AjaxEventBehavior("click")
                 {
@@ -1089,6 +1051,46 @@ public class MonitoringPage
             }
         }
 
+        /**
+         * Shows the number of sentences and annotations of a document as a tooltip. The counts
+         * are taken from the CAS summary because loading the full CAS for every cell slows down
+         * the monitoring page too much (#770).
+         */
+        private void addProgress(EmbeddableImage aIcon, SourceDocument aDocument, String aUser)
+        {
+            CasSummary summary;
+            try {
+                summary = documentService.readCasSummary(aDocument, aUser);
+            }
+            catch (IOException e) {
+                LOG.info(e.getMessage());
+                return;
+            }
+
+            // No CAS has been saved yet
+            if (summary == null) {
+                return;
+            }
+
+            int annotations = 0;
+            for (AnnotationLayer layer : annotationService.listAnnotationLayer(project)) {
+                if (!layer.isEnabled() || CasSummary.TOKEN_TYPE.equals(layer.getName())
+                        || CasSummary.SENTENCE_TYPE.equals(layer.getName())) {
+                    continue;
+                }
+
+                if (WebAnnoConst.CHAIN_TYPE.equals(layer.getType())) {
+                    annotations += summary.getAnnotationCount(layer.getName() + ChainAdapter.LINK);
+                }
+                else {
+                    annotations += summary.getAnnotationCount(layer.getName());
+                }
+            }
+
+            aIcon.add(AttributeModifier.replace("title", summary.getSentenceCount()
+                    + " sentences, " + annotations + " annotations"));
+        }
+
         /**
          * change the state of an annotation document. used to re-open closed documents
          */
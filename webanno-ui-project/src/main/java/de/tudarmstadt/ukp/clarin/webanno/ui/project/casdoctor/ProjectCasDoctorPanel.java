@@ -43,7 +43,6 @@ import org.slf4j.LoggerFactory;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
 import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
-import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasPersistenceUtils;
 import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctor;
 import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctor.LogLevel;
 import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctor.LogMessage;
@@ -163,8 +162,7 @@ public class ProjectCasDoctorPanel
                     initialCas = documentService.createInitialCas(sd, false);
                 }
                 casDoctor.repair(project, initialCas.getCas(), messageSet.messages);
-                CasPersistenceUtils.writeSerializedCas(initialCas,
-                        documentService.getCasFile(sd, INITIAL_CAS_PSEUDO_USER));
+                casStorageService.writeCasUncached(sd, initialCas, INITIAL_CAS_PSEUDO_USER);
                 noticeIfThereAreNoMessages(messageSet);
                 formModel.messageSets.add(messageSet);
             }
@@ -175,8 +173,9 @@ public class ProjectCasDoctorPanel
                             sd.getName() + " [" + ad.getUser() + "]");
                     JCas userCas = documentService.readAnnotationCas(ad, false);
                     casDoctor.repair(project, userCas.getCas(), messageSet.messages);
-                    CasPersistenceUtils.writeSerializedCas(userCas,
-                            documentService.getCasFile(ad.getDocument(), ad.getUser()));
+                    // Write through the storage service so that no stale version of the CAS
+                    // remains in the CAS cache
+                    casStorageService.writeCas(ad.getDocument(), userCas, ad.getUser());
                     noticeIfThereAreNoMessages(messageSet);
                     formModel.messageSets.add(messageSet);
                 }
@@ -27,6 +27,7 @@ import javax.servlet.ServletException;
 import org.springframework.boot.web.servlet.ServletContextInitializer;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.orm.jpa.support.OpenEntityManagerInViewFilter;
+import org.springframework.security.web.session.HttpSessionEventPublisher;
 
 import de.tudarmstadt.ukp.clarin.webanno.support.logging.LoggingFilter;
 
@@ -48,5 +49,9 @@ public class WebAnnoWebInitializer
                 OpenEntityManagerInViewFilter.class);
         openSessionInViewFilter.addMappingForUrlPatterns(EnumSet.of(DispatcherType.REQUEST), false,
                 "/*");
+        
+        // 6) Publish session lifecycle events to the application context, e.g. such that pending
+        // changes to annotation documents can be written when a session ends.
+        aServletContext.addListener(HttpSessionEventPublisher.class);
     }
 }